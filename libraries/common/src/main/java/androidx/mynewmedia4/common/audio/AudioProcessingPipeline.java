@@ -33,6 +33,11 @@ import java.util.List;
  * <p>Two instances of {@link AudioProcessingPipeline} are considered {@linkplain #equals(Object)
  * equal} if they have the same underlying {@link AudioProcessor} references, in the same order.
  *
+ * <p>If fusion is enabled, consecutive active {@link FusibleAudioProcessor} instances are applied
+ * in a single pass over each input buffer, rather than each processor copying the whole buffer to
+ * an intermediate output buffer. Processors that aren't fusible, such as {@link
+ * SonicAudioProcessor}, separate the fused runs.
+ *
  * <p>To make use of this class, the caller must:
  *
  * <ul>
@@ -76,6 +81,24 @@ public final class AudioProcessingPipeline {
    * configuration.
    */
   private final List<AudioProcessor> activeAudioProcessors;
+  /** Whether consecutive active {@link FusibleAudioProcessor} instances are fused. */
+  private final boolean fuseAudioProcessors;
+  /**
+   * The {@link FusedAudioProcessor} instances in the {@link #activeAudioProcessors}. They are
+   * reused by the next {@link #flush()} if their processors keep the same formats.
+   */
+  private final List<FusedAudioProcessor> fusedAudioProcessors;
+  /**
+   * The input formats of the {@link #audioProcessors} in the pending configuration. This has the
+   * same number of elements as {@link #audioProcessors}.
+   */
+  private final AudioFormat[] pendingInputAudioFormats;
+  /**
+   * The output formats of the {@link #audioProcessors} in the pending configuration, or {@link
+   * AudioFormat#NOT_SET} for inactive processors. This has the same number of elements as {@link
+   * #audioProcessors}.
+   */
+  private final AudioFormat[] pendingOutputAudioFormats;
 
   /**
    * The buffers output by the {@link #activeAudioProcessors}. This has the same number of elements
@@ -95,8 +118,24 @@ public final class AudioProcessingPipeline {
    * @param audioProcessors The {@link AudioProcessor} instances to be used for processing buffers.
    */
   public AudioProcessingPipeline(ImmutableList<AudioProcessor> audioProcessors) {
+    this(audioProcessors, /* fuseAudioProcessors= */ false);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param audioProcessors The {@link AudioProcessor} instances to be used for processing buffers.
+   * @param fuseAudioProcessors Whether to apply consecutive active {@link FusibleAudioProcessor}
+   *     instances in a single pass over each input buffer.
+   */
+  public AudioProcessingPipeline(
+      ImmutableList<AudioProcessor> audioProcessors, boolean fuseAudioProcessors) {
     this.audioProcessors = audioProcessors;
+    this.fuseAudioProcessors = fuseAudioProcessors;
     activeAudioProcessors = new ArrayList<>();
+    fusedAudioProcessors = new ArrayList<>();
+    pendingInputAudioFormats = new AudioFormat[audioProcessors.size()];
+    pendingOutputAudioFormats = new AudioFormat[audioProcessors.size()];
     outputBuffers = new ByteBuffer[0];
     outputAudioFormat = AudioFormat.NOT_SET;
     pendingOutputAudioFormat = AudioFormat.NOT_SET;
@@ -130,9 +169,12 @@ public final class AudioProcessingPipeline {
     for (int i = 0; i < audioProcessors.size(); i++) {
       AudioProcessor audioProcessor = audioProcessors.get(i);
       AudioFormat nextFormat = audioProcessor.configure(intermediateAudioFormat);
+      pendingInputAudioFormats[i] = intermediateAudioFormat;
+      pendingOutputAudioFormats[i] = AudioFormat.NOT_SET;
       if (audioProcessor.isActive()) {
         checkState(!nextFormat.equals(AudioFormat.NOT_SET));
         intermediateAudioFormat = nextFormat;
+        pendingOutputAudioFormats[i] = nextFormat;
       }
     }
 
@@ -152,12 +194,39 @@ public final class AudioProcessingPipeline {
     outputAudioFormat = pendingOutputAudioFormat;
     inputEnded = false;
 
+    List<FusedAudioProcessor> reusableFusedAudioProcessors = new ArrayList<>(fusedAudioProcessors);
+    fusedAudioProcessors.clear();
+    AudioFormat fusibleRunInputAudioFormat = AudioFormat.NOT_SET;
+    List<FusibleAudioProcessor> fusibleRun = new ArrayList<>();
+    List<AudioFormat> fusibleRunOutputAudioFormats = new ArrayList<>();
     for (int i = 0; i < audioProcessors.size(); i++) {
       AudioProcessor audioProcessor = audioProcessors.get(i);
       audioProcessor.flush();
-      if (audioProcessor.isActive()) {
-        activeAudioProcessors.add(audioProcessor);
+      if (!audioProcessor.isActive()) {
+        continue;
       }
+      if (fuseAudioProcessors && audioProcessor instanceof FusibleAudioProcessor) {
+        if (fusibleRun.isEmpty()) {
+          fusibleRunInputAudioFormat = pendingInputAudioFormats[i];
+        }
+        fusibleRun.add((FusibleAudioProcessor) audioProcessor);
+        fusibleRunOutputAudioFormats.add(pendingOutputAudioFormats[i]);
+        continue;
+      }
+      addFusibleRun(
+          fusibleRun,
+          fusibleRunInputAudioFormat,
+          fusibleRunOutputAudioFormats,
+          reusableFusedAudioProcessors);
+      activeAudioProcessors.add(audioProcessor);
+    }
+    addFusibleRun(
+        fusibleRun,
+        fusibleRunInputAudioFormat,
+        fusibleRunOutputAudioFormats,
+        reusableFusedAudioProcessors);
+    for (int i = 0; i < reusableFusedAudioProcessors.size(); i++) {
+      reusableFusedAudioProcessors.get(i).reset();
     }
 
     outputBuffers = new ByteBuffer[activeAudioProcessors.size()];
@@ -261,6 +330,10 @@ public final class AudioProcessingPipeline {
       audioProcessor.flush();
       audioProcessor.reset();
     }
+    for (int i = 0; i < fusedAudioProcessors.size(); i++) {
+      fusedAudioProcessors.get(i).reset();
+    }
+    fusedAudioProcessors.clear();
     outputBuffers = new ByteBuffer[0];
     outputAudioFormat = AudioFormat.NOT_SET;
     pendingOutputAudioFormat = AudioFormat.NOT_SET;
@@ -331,6 +404,49 @@ public final class AudioProcessingPipeline {
     }
   }
 
+  /**
+   * Adds the processors in {@code fusibleRun} to the {@link #activeAudioProcessors}, fusing them if
+   * there is more than one, and clears the run.
+   *
+   * <p>A {@link FusedAudioProcessor} that fuses the same processors with the same formats is
+   * reused from, and removed from, {@code reusableFusedAudioProcessors}, so that its buffers are
+   * only allocated when the configuration changes.
+   */
+  private void addFusibleRun(
+      List<FusibleAudioProcessor> fusibleRun,
+      AudioFormat inputAudioFormat,
+      List<AudioFormat> outputAudioFormats,
+      List<FusedAudioProcessor> reusableFusedAudioProcessors) {
+    if (fusibleRun.size() == 1) {
+      activeAudioProcessors.add(fusibleRun.get(0));
+    } else if (fusibleRun.size() > 1) {
+      @Nullable FusedAudioProcessor fusedAudioProcessor = null;
+      for (int i = 0; i < reusableFusedAudioProcessors.size(); i++) {
+        if (reusableFusedAudioProcessors
+            .get(i)
+            .fuses(fusibleRun, inputAudioFormat, outputAudioFormats)) {
+          fusedAudioProcessor = reusableFusedAudioProcessors.remove(i);
+          break;
+        }
+      }
+      if (fusedAudioProcessor == null) {
+        fusedAudioProcessor =
+            new FusedAudioProcessor(fusibleRun, inputAudioFormat, outputAudioFormats);
+        try {
+          fusedAudioProcessor.configure(inputAudioFormat);
+        } catch (AudioProcessor.UnhandledAudioFormatException e) {
+          // Never happens.
+          throw new IllegalStateException(e);
+        }
+      }
+      fusedAudioProcessor.flush();
+      fusedAudioProcessors.add(fusedAudioProcessor);
+      activeAudioProcessors.add(fusedAudioProcessor);
+    }
+    fusibleRun.clear();
+    outputAudioFormats.clear();
+  }
+
   private int getFinalOutputBufferIndex() {
     return outputBuffers.length - 1;
   }
@@ -21,7 +21,6 @@ import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.util.UnstableApi;
-import androidx.mynewmedia4.common.util.Util;
 import java.nio.ByteBuffer;
 
 /**
@@ -30,7 +29,8 @@ import java.nio.ByteBuffer;
  * possible input channel count before using the audio processor. Input and output are 16-bit PCM.
  */
 @UnstableApi
-public final class ChannelMixingAudioProcessor extends BaseAudioProcessor {
+public final class ChannelMixingAudioProcessor extends BaseAudioProcessor
+    implements FusibleAudioProcessor {
 
   private final SparseArray<ChannelMixingMatrix> matrixByInputChannelCount;
 
@@ -73,38 +73,17 @@ public final class ChannelMixingAudioProcessor extends BaseAudioProcessor {
 
   @Override
   public void queueInput(ByteBuffer inputBuffer) {
-    ChannelMixingMatrix channelMixingMatrix =
-        checkStateNotNull(matrixByInputChannelCount.get(inputAudioFormat.channelCount));
-
     int inputFramesToMix = inputBuffer.remaining() / inputAudioFormat.bytesPerFrame;
     ByteBuffer outputBuffer =
         replaceOutputBuffer(inputFramesToMix * outputAudioFormat.bytesPerFrame);
-    int inputChannelCount = channelMixingMatrix.getInputChannelCount();
-    int outputChannelCount = channelMixingMatrix.getOutputChannelCount();
-    float[] outputFrame = new float[outputChannelCount];
-    while (inputBuffer.hasRemaining()) {
-      for (int inputChannelIndex = 0; inputChannelIndex < inputChannelCount; inputChannelIndex++) {
-        short inputValue = inputBuffer.getShort();
-        for (int outputChannelIndex = 0;
-            outputChannelIndex < outputChannelCount;
-            outputChannelIndex++) {
-          outputFrame[outputChannelIndex] +=
-              channelMixingMatrix.getMixingCoefficient(inputChannelIndex, outputChannelIndex)
-                  * inputValue;
-        }
-      }
-      for (int outputChannelIndex = 0;
-          outputChannelIndex < outputChannelCount;
-          outputChannelIndex++) {
-        short shortValue =
-            (short)
-                Util.constrainValue(
-                    outputFrame[outputChannelIndex], Short.MIN_VALUE, Short.MAX_VALUE);
-        outputBuffer.put((byte) (shortValue & 0xFF));
-        outputBuffer.put((byte) ((shortValue >> 8) & 0xFF));
-        outputFrame[outputChannelIndex] = 0;
-      }
-    }
+    processFrames(inputBuffer, outputBuffer);
     outputBuffer.flip();
   }
+
+  @Override
+  public void processFrames(ByteBuffer inputBuffer, ByteBuffer outputBuffer) {
+    checkStateNotNull(matrixByInputChannelCount.get(inputAudioFormat.channelCount))
+        .getKernel()
+        .mixInt16(inputBuffer, outputBuffer);
+  }
 }
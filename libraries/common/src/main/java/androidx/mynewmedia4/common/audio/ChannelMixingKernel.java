@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.common.audio;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+
+import androidx.mynewmedia4.common.util.UnstableApi;
+import androidx.mynewmedia4.common.util.Util;
+import java.nio.ByteBuffer;
+
+/**
+ * Applies a {@link ChannelMixingMatrix} to interleaved PCM audio frames.
+ *
+ * <p>The kernel is compiled once from the matrix. Each output channel only multiplies and
+ * accumulates the input channels that have a non-zero coefficient for it, so sparse matrices such
+ * as surround downmixes and diagonal (scaling) matrices avoid a multiply-accumulate for every pair
+ * of input and output channels. Zero matrices don't read the input samples.
+ *
+ * <p>Instances are immutable and can be used from multiple threads. Get an instance from {@link
+ * ChannelMixingMatrix#getKernel()}.
+ */
+@UnstableApi
+public final class ChannelMixingKernel {
+
+  // Short.MIN_VALUE != -Short.MAX_VALUE so use different scaling factors for positive and
+  // negative samples.
+  private static final float SCALE_S16_FOR_NEGATIVE_INPUT = -1f / Short.MIN_VALUE;
+  private static final float SCALE_S16_FOR_POSITIVE_INPUT = 1f / Short.MAX_VALUE;
+
+  private final int inputChannelCount;
+  private final int outputChannelCount;
+  private final boolean isZero;
+
+  /**
+   * The index in {@link #termInputChannels} and {@link #termCoefficients} of the first non-zero
+   * term of each output channel, followed by the total number of terms.
+   */
+  private final int[] termStartIndices;
+
+  private final int[] termInputChannels;
+  private final float[] termCoefficients;
+
+  /* package */ ChannelMixingKernel(ChannelMixingMatrix matrix) {
+    inputChannelCount = matrix.getInputChannelCount();
+    outputChannelCount = matrix.getOutputChannelCount();
+    isZero = matrix.isZero();
+
+    int termCount = 0;
+    for (int inputChannel = 0; inputChannel < inputChannelCount; inputChannel++) {
+      for (int outputChannel = 0; outputChannel < outputChannelCount; outputChannel++) {
+        if (matrix.getMixingCoefficient(inputChannel, outputChannel) != 0f) {
+          termCount++;
+        }
+      }
+    }
+    termStartIndices = new int[outputChannelCount + 1];
+    termInputChannels = new int[termCount];
+    termCoefficients = new float[termCount];
+    int termIndex = 0;
+    for (int outputChannel = 0; outputChannel < outputChannelCount; outputChannel++) {
+      termStartIndices[outputChannel] = termIndex;
+      // Keep the input channel order so that the sums are the same as for a dense multiplication.
+      for (int inputChannel = 0; inputChannel < inputChannelCount; inputChannel++) {
+        float coefficient = matrix.getMixingCoefficient(inputChannel, outputChannel);
+        if (coefficient != 0f) {
+          termInputChannels[termIndex] = inputChannel;
+          termCoefficients[termIndex] = coefficient;
+          termIndex++;
+        }
+      }
+    }
+    termStartIndices[outputChannelCount] = termIndex;
+  }
+
+  /**
+   * Mixes 16-bit PCM frames into 16-bit PCM frames, clamping the mixed samples to the 16-bit range.
+   *
+   * <p>Reads all the frames between the position and limit of {@code inputBuffer} and writes the
+   * mixed frames to {@code outputBuffer}, advancing the positions of both. A trailing partial frame
+   * is skipped, so {@code inputBuffer} is always fully consumed.
+   *
+   * @param inputBuffer The input frames, with the input channel count of the matrix.
+   * @param outputBuffer The buffer to write the mixed frames to. It must have enough space
+   *     remaining for the mixed frames.
+   */
+  public void mixInt16(ByteBuffer inputBuffer, ByteBuffer outputBuffer) {
+    int inputBytesPerFrame = 2 * inputChannelCount;
+    int frameCount = inputBuffer.remaining() / inputBytesPerFrame;
+    checkArgument(outputBuffer.remaining() >= frameCount * 2 * outputChannelCount);
+    if (isZero) {
+      for (int i = 0; i < frameCount * outputChannelCount; i++) {
+        outputBuffer.putShort((short) 0);
+      }
+    } else {
+      // Read the input samples in place, as this is called for every block of a fused pipeline.
+      int framePosition = inputBuffer.position();
+      for (int i = 0; i < frameCount; i++) {
+        for (int outputChannel = 0; outputChannel < outputChannelCount; outputChannel++) {
+          outputBuffer.putShort(
+              constrainToInt16(mixInt16Frame(inputBuffer, framePosition, outputChannel)));
+        }
+        framePosition += inputBytesPerFrame;
+      }
+    }
+    inputBuffer.position(inputBuffer.limit());
+  }
+
+  /**
+   * Mixes float PCM frames into float PCM frames, adding the mixed samples to the existing samples
+   * in {@code mixingBuffer}.
+   *
+   * @param sourceBuffer The source frames, with the input channel count of the matrix. Its position
+   *     is advanced by {@code frameCount} frames.
+   * @param frameCount The number of frames to mix.
+   * @param mixingBuffer The frames to add the mixed frames to, with the output channel count of the
+   *     matrix. Its position is advanced by {@code frameCount} frames.
+   */
+  public void accumulateFloat(ByteBuffer sourceBuffer, int frameCount, ByteBuffer mixingBuffer) {
+    int sourceBytesPerFrame = 4 * inputChannelCount;
+    if (isZero) {
+      skipFrames(sourceBuffer, sourceBytesPerFrame, frameCount, mixingBuffer);
+    } else {
+      float[] sourceFrame = new float[inputChannelCount];
+      for (int i = 0; i < frameCount; i++) {
+        for (int channel = 0; channel < inputChannelCount; channel++) {
+          sourceFrame[channel] = sourceBuffer.getFloat();
+        }
+        accumulateFrame(sourceFrame, mixingBuffer);
+      }
+    }
+  }
+
+  /**
+   * Mixes 16-bit PCM frames into float PCM frames, adding the mixed samples to the existing samples
+   * in {@code mixingBuffer}.
+   *
+   * <p>Source samples are converted to float so that {@link Short#MIN_VALUE} and {@link
+   * Short#MAX_VALUE} map to -1 and 1 respectively.
+   *
+   * @param sourceBuffer The source frames, with the input channel count of the matrix. Its position
+   *     is advanced by {@code frameCount} frames.
+   * @param frameCount The number of frames to mix.
+   * @param mixingBuffer The frames to add the mixed frames to, with the output channel count of the
+   *     matrix. Its position is advanced by {@code frameCount} frames.
+   */
+  public void accumulateInt16AsFloat(
+      ByteBuffer sourceBuffer, int frameCount, ByteBuffer mixingBuffer) {
+    int sourceBytesPerFrame = 2 * inputChannelCount;
+    if (isZero) {
+      skipFrames(sourceBuffer, sourceBytesPerFrame, frameCount, mixingBuffer);
+    } else {
+      float[] sourceFrame = new float[inputChannelCount];
+      for (int i = 0; i < frameCount; i++) {
+        for (int channel = 0; channel < inputChannelCount; channel++) {
+          sourceFrame[channel] = int16ToFloat(sourceBuffer.getShort());
+        }
+        accumulateFrame(sourceFrame, mixingBuffer);
+      }
+    }
+  }
+
+  private void accumulateFrame(float[] sourceFrame, ByteBuffer mixingBuffer) {
+    for (int outputChannel = 0; outputChannel < outputChannelCount; outputChannel++) {
+      float mixedSample = mixingBuffer.getFloat(mixingBuffer.position());
+      mixingBuffer.putFloat(mixFrame(sourceFrame, outputChannel, mixedSample));
+    }
+  }
+
+  /** Returns {@code initialSample} plus the mix of {@code inputFrame} for {@code outputChannel}. */
+  private float mixFrame(float[] inputFrame, int outputChannel, float initialSample) {
+    float mixedSample = initialSample;
+    int termLimit = termStartIndices[outputChannel + 1];
+    for (int term = termStartIndices[outputChannel]; term < termLimit; term++) {
+      mixedSample += termCoefficients[term] * inputFrame[termInputChannels[term]];
+    }
+    return mixedSample;
+  }
+
+  /**
+   * Returns the mix for {@code outputChannel} of the 16-bit PCM frame at {@code framePosition} in
+   * {@code inputBuffer}.
+   */
+  private float mixInt16Frame(ByteBuffer inputBuffer, int framePosition, int outputChannel) {
+    float mixedSample = 0f;
+    int termLimit = termStartIndices[outputChannel + 1];
+    for (int term = termStartIndices[outputChannel]; term < termLimit; term++) {
+      short inputSample = inputBuffer.getShort(framePosition + 2 * termInputChannels[term]);
+      mixedSample += termCoefficients[term] * inputSample;
+    }
+    return mixedSample;
+  }
+
+  private void skipFrames(
+      ByteBuffer sourceBuffer, int sourceBytesPerFrame, int frameCount, ByteBuffer mixingBuffer) {
+    sourceBuffer.position(sourceBuffer.position() + frameCount * sourceBytesPerFrame);
+    mixingBuffer.position(mixingBuffer.position() + frameCount * 4 * outputChannelCount);
+  }
+
+  private static short constrainToInt16(float sample) {
+    return (short) Util.constrainValue(sample, Short.MIN_VALUE, Short.MAX_VALUE);
+  }
+
+  private static float int16ToFloat(short sample) {
+    return sample * (sample < 0 ? SCALE_S16_FOR_NEGATIVE_INPUT : SCALE_S16_FOR_POSITIVE_INPUT);
+  }
+}
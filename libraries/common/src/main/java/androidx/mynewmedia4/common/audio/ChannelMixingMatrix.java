@@ -17,6 +17,7 @@ package androidx.mynewmedia4.common.audio;
 
 import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
 
+import androidx.annotation.Nullable;
 import androidx.mynewmedia4.common.util.UnstableApi;
 
 /**
@@ -50,6 +51,8 @@ public final class ChannelMixingMatrix {
   private final boolean isDiagonal;
   private final boolean isIdentity;
 
+  @Nullable private ChannelMixingKernel kernel;
+
   /**
    * Creates a standard channel mixing matrix that converts from {@code inputChannelCount} channels
    * to {@code outputChannelCount} channels.
@@ -146,6 +149,21 @@ public final class ChannelMixingMatrix {
     return isIdentity;
   }
 
+  /**
+   * Returns the {@link ChannelMixingKernel} that applies this matrix to audio frames.
+   *
+   * <p>The kernel is compiled on the first call and reused by later calls.
+   */
+  public ChannelMixingKernel getKernel() {
+    @Nullable ChannelMixingKernel kernel = this.kernel;
+    if (kernel == null) {
+      // The kernel is immutable, so it's safe for concurrent calls to compile separate instances.
+      kernel = new ChannelMixingKernel(this);
+      this.kernel = kernel;
+    }
+    return kernel;
+  }
+
   /** Returns a new matrix with the given scaling factor applied to all coefficients. */
   public ChannelMixingMatrix scaleBy(float scale) {
     float[] scaledCoefficients = new float[coefficients.length];
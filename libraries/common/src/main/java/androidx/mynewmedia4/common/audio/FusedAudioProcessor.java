@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.common.audio;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static java.lang.Math.min;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * An {@link AudioProcessor} that applies a sequence of {@link FusibleAudioProcessor} instances in a
+ * single pass over its input. The input is split into blocks of frames that are small enough for
+ * the intermediate buffers to stay in the CPU cache, and each block passes through all the
+ * processors before the next block is processed.
+ *
+ * <p>The fused processors must be active, configured with consecutive formats and flushed. They
+ * are not configured, flushed or reset by this processor, so an instance can be flushed and reused
+ * for as long as the fused processors keep the same formats.
+ */
+/* package */ final class FusedAudioProcessor extends BaseAudioProcessor {
+
+  /** The maximum number of frames passed through the fused processors at once. */
+  private static final int BLOCK_FRAME_COUNT = 256;
+
+  private final FusibleAudioProcessor[] audioProcessors;
+  private final AudioFormat fusedInputAudioFormat;
+  private final ImmutableList<AudioFormat> outputAudioFormats;
+  private final ByteBuffer[] blockBuffers;
+
+  /**
+   * Creates an instance.
+   *
+   * @param audioProcessors The processors to fuse, in processing order. Must contain at least two
+   *     processors.
+   * @param inputAudioFormat The input format of the first processor.
+   * @param outputAudioFormats The output format of each processor, in the same order.
+   */
+  public FusedAudioProcessor(
+      List<FusibleAudioProcessor> audioProcessors,
+      AudioFormat inputAudioFormat,
+      List<AudioFormat> outputAudioFormats) {
+    checkArgument(audioProcessors.size() >= 2);
+    checkArgument(audioProcessors.size() == outputAudioFormats.size());
+    this.audioProcessors = audioProcessors.toArray(new FusibleAudioProcessor[0]);
+    fusedInputAudioFormat = inputAudioFormat;
+    this.outputAudioFormats = ImmutableList.copyOf(outputAudioFormats);
+    blockBuffers = new ByteBuffer[audioProcessors.size() - 1];
+    for (int i = 0; i < blockBuffers.length; i++) {
+      blockBuffers[i] =
+          ByteBuffer.allocateDirect(BLOCK_FRAME_COUNT * outputAudioFormats.get(i).bytesPerFrame)
+              .order(ByteOrder.nativeOrder());
+    }
+  }
+
+  /**
+   * Returns whether this instance fuses the given processors, configured with the given formats.
+   */
+  public boolean fuses(
+      List<FusibleAudioProcessor> audioProcessors,
+      AudioFormat inputAudioFormat,
+      List<AudioFormat> outputAudioFormats) {
+    if (audioProcessors.size() != this.audioProcessors.length
+        || !inputAudioFormat.equals(fusedInputAudioFormat)
+        || !outputAudioFormats.equals(this.outputAudioFormats)) {
+      return false;
+    }
+    for (int i = 0; i < this.audioProcessors.length; i++) {
+      if (audioProcessors.get(i) != this.audioProcessors[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  protected AudioFormat onConfigure(AudioFormat inputAudioFormat)
+      throws UnhandledAudioFormatException {
+    if (!inputAudioFormat.equals(fusedInputAudioFormat)) {
+      throw new UnhandledAudioFormatException(inputAudioFormat);
+    }
+    return outputAudioFormats.get(outputAudioFormats.size() - 1);
+  }
+
+  @Override
+  public void queueInput(ByteBuffer inputBuffer) {
+    int inputBytesPerFrame = inputAudioFormat.bytesPerFrame;
+    int frameCount = inputBuffer.remaining() / inputBytesPerFrame;
+    ByteBuffer outputBuffer = replaceOutputBuffer(frameCount * outputAudioFormat.bytesPerFrame);
+    int originalLimit = inputBuffer.limit();
+    int limit = inputBuffer.position() + frameCount * inputBytesPerFrame;
+    int blockSize = BLOCK_FRAME_COUNT * inputBytesPerFrame;
+    int lastIndex = audioProcessors.length - 1;
+    while (inputBuffer.position() < limit) {
+      inputBuffer.limit(min(limit, inputBuffer.position() + blockSize));
+      ByteBuffer blockInputBuffer = inputBuffer;
+      for (int i = 0; i < lastIndex; i++) {
+        ByteBuffer blockOutputBuffer = blockBuffers[i];
+        blockOutputBuffer.clear();
+        audioProcessors[i].processFrames(blockInputBuffer, blockOutputBuffer);
+        blockOutputBuffer.flip();
+        blockInputBuffer = blockOutputBuffer;
+      }
+      audioProcessors[lastIndex].processFrames(blockInputBuffer, outputBuffer);
+    }
+    inputBuffer.limit(originalLimit);
+    inputBuffer.position(originalLimit);
+    outputBuffer.flip();
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.common.audio;
+
+import androidx.mynewmedia4.common.util.UnstableApi;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link AudioProcessor} that processes each audio frame independently, without buffering or
+ * dropping frames. Each output frame depends only on the corresponding input frame.
+ *
+ * <p>Consecutive active instances can be fused by an {@link AudioProcessingPipeline}, which passes
+ * small blocks of frames through all of them in turn, instead of each instance writing its output
+ * for the whole input buffer to an intermediate buffer.
+ */
+@UnstableApi
+public interface FusibleAudioProcessor extends AudioProcessor {
+
+  /**
+   * Processes frames in the current configuration, writing the output to a buffer provided by the
+   * caller.
+   *
+   * <p>Reads all the frames between the position and limit of {@code inputBuffer}, in the current
+   * input format, and writes the corresponding frames in the current output format to {@code
+   * outputBuffer}, starting at its position. The position of {@code inputBuffer} is set to its
+   * limit, and the position of {@code outputBuffer} is advanced by the number of bytes written.
+   *
+   * <p>The output must be identical to what {@link #queueInput(ByteBuffer)} would output for the
+   * same input. The processor must be {@linkplain #isActive() active} and {@linkplain #flush()
+   * flushed}.
+   *
+   * @param inputBuffer The buffer containing the input frames.
+   * @param outputBuffer The buffer to write the output frames to. It must have enough space
+   *     remaining for the output frames.
+   */
+  void processFrames(ByteBuffer inputBuffer, ByteBuffer outputBuffer);
+}
@@ -16,92 +16,154 @@
  */
 package androidx.mynewmedia4.common.audio;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
+import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.util.Assertions;
-import java.nio.ShortBuffer;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
  * Sonic audio stream processor for time/pitch stretching.
  *
  * <p>Based on https://github.com/waywardgeek/sonic.
+ *
+ * <p>The algorithm is implemented once, on arrays of type {@code T}. Subclasses implement the
+ * operations that depend on the sample type, for 16-bit integer and 32-bit float samples.
+ *
+ * @param <T> The type of the sample arrays.
  */
-/* package */ final class Sonic {
+/* package */ abstract class Sonic<T> {
 
   private static final int MINIMUM_PITCH = 65;
   private static final int MAXIMUM_PITCH = 400;
   private static final int AMDF_FREQUENCY = 4000;
-  private static final int BYTES_PER_SAMPLE = 2;
 
+  /**
+   * Creates a new Sonic audio stream processor.
+   *
+   * @param encoding The {@link C.PcmEncoding} of the input and output audio. Must be {@link
+   *     C#ENCODING_PCM_16BIT} or {@link C#ENCODING_PCM_FLOAT}.
+   * @param inputSampleRateHz The sample rate of input audio, in hertz.
+   * @param channelCount The number of channels in the input audio.
+   * @param speed The speedup factor for output audio.
+   * @param pitch The pitch factor for output audio.
+   * @param outputSampleRateHz The sample rate for output audio, in hertz.
+   * @param multiResolutionPitchSearch Whether to refine the pitch period found on down sampled
+   *     input by repeatedly halving the down sampling factor and searching only around the previous
+   *     estimate, instead of searching a wide range of periods at full resolution.
+   */
+  public static Sonic<?> create(
+      @C.PcmEncoding int encoding,
+      int inputSampleRateHz,
+      int channelCount,
+      float speed,
+      float pitch,
+      int outputSampleRateHz,
+      boolean multiResolutionPitchSearch) {
+    switch (encoding) {
+      case C.ENCODING_PCM_16BIT:
+        return new Int16Sonic(
+            inputSampleRateHz,
+            channelCount,
+            speed,
+            pitch,
+            outputSampleRateHz,
+            multiResolutionPitchSearch);
+      case C.ENCODING_PCM_FLOAT:
+        return new FloatSonic(
+            inputSampleRateHz,
+            channelCount,
+            speed,
+            pitch,
+            outputSampleRateHz,
+            multiResolutionPitchSearch);
+      default:
+        throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+    }
+  }
+
+  /** The number of channels in the audio. */
+  protected final int channelCount;
+
+  /**
+   * The mean difference per sample for the best period found by the last call to {@link
+   * #findPitchPeriodInRange}.
+   */
+  protected float minDiff;
+
+  /**
+   * The mean difference per sample for the worst period found by the last call to {@link
+   * #findPitchPeriodInRange}.
+   */
+  protected float maxDiff;
+
+  private final int bytesPerSample;
   private final int inputSampleRateHz;
-  private final int channelCount;
   private final float speed;
   private final float pitch;
   private final float rate;
   private final int minPeriod;
   private final int maxPeriod;
   private final int maxRequiredFrameCount;
-  private final short[] downSampleBuffer;
+  private final boolean multiResolutionPitchSearch;
+  private final T downSampleBuffer;
 
-  private short[] inputBuffer;
+  private T inputBuffer;
   private int inputFrameCount;
-  private short[] outputBuffer;
+  private T outputBuffer;
   private int outputFrameCount;
-  private short[] pitchBuffer;
+  private T pitchBuffer;
   private int pitchFrameCount;
   private int oldRatePosition;
   private int newRatePosition;
   private int remainingInputToCopyFrameCount;
   private int prevPeriod;
-  private int prevMinDiff;
-  private int minDiff;
-  private int maxDiff;
+  private float prevMinDiff;
 
-  /**
-   * Creates a new Sonic audio stream processor.
-   *
-   * @param inputSampleRateHz The sample rate of input audio, in hertz.
-   * @param channelCount The number of channels in the input audio.
-   * @param speed The speedup factor for output audio.
-   * @param pitch The pitch factor for output audio.
-   * @param outputSampleRateHz The sample rate for output audio, in hertz.
-   */
-  public Sonic(
-      int inputSampleRateHz, int channelCount, float speed, float pitch, int outputSampleRateHz) {
+  private Sonic(
+      int bytesPerSample,
+      int inputSampleRateHz,
+      int channelCount,
+      float speed,
+      float pitch,
+      int outputSampleRateHz,
+      boolean multiResolutionPitchSearch) {
+    this.bytesPerSample = bytesPerSample;
     this.inputSampleRateHz = inputSampleRateHz;
     this.channelCount = channelCount;
     this.speed = speed;
     this.pitch = pitch;
+    this.multiResolutionPitchSearch = multiResolutionPitchSearch;
     rate = (float) inputSampleRateHz / outputSampleRateHz;
     minPeriod = inputSampleRateHz / MAXIMUM_PITCH;
     maxPeriod = inputSampleRateHz / MINIMUM_PITCH;
     maxRequiredFrameCount = 2 * maxPeriod;
-    downSampleBuffer = new short[maxRequiredFrameCount];
-    inputBuffer = new short[maxRequiredFrameCount * channelCount];
-    outputBuffer = new short[maxRequiredFrameCount * channelCount];
-    pitchBuffer = new short[maxRequiredFrameCount * channelCount];
+    downSampleBuffer = newArray(maxRequiredFrameCount);
+    inputBuffer = newArray(maxRequiredFrameCount * channelCount);
+    outputBuffer = newArray(maxRequiredFrameCount * channelCount);
+    pitchBuffer = newArray(maxRequiredFrameCount * channelCount);
   }
 
   /**
    * Returns the number of bytes that have been input, but will not be processed until more input
    * data is provided.
    */
-  public int getPendingInputBytes() {
-    return inputFrameCount * channelCount * BYTES_PER_SAMPLE;
+  public final int getPendingInputBytes() {
+    return inputFrameCount * channelCount * bytesPerSample;
   }
 
   /**
-   * Queues remaining data from {@code buffer}, and advances its position by the number of bytes
-   * consumed.
+   * Queues the whole frames remaining in {@code buffer}. The buffer's position is not modified.
    *
-   * @param buffer A {@link ShortBuffer} containing input data between its position and limit.
+   * @param buffer A {@link ByteBuffer} containing input data between its position and limit, in
+   *     native byte order.
    */
-  public void queueInput(ShortBuffer buffer) {
-    int framesToWrite = buffer.remaining() / channelCount;
-    int bytesToWrite = framesToWrite * channelCount * 2;
+  public final void queueInput(ByteBuffer buffer) {
+    int framesToWrite = buffer.remaining() / (channelCount * bytesPerSample);
     inputBuffer = ensureSpaceForAdditionalFrames(inputBuffer, inputFrameCount, framesToWrite);
-    buffer.get(inputBuffer, inputFrameCount * channelCount, bytesToWrite / 2);
+    readSamples(buffer, inputBuffer, inputFrameCount * channelCount, framesToWrite * channelCount);
     inputFrameCount += framesToWrite;
     processStreamInput();
   }
@@ -110,11 +172,12 @@ import java.util.Arrays;
    * Gets available output, outputting to the start of {@code buffer}. The buffer's position will be
    * advanced by the number of bytes written.
    *
-   * @param buffer A {@link ShortBuffer} into which output will be written.
+   * @param buffer A {@link ByteBuffer} into which output will be written, in native byte order.
    */
-  public void getOutput(ShortBuffer buffer) {
-    int framesToRead = min(buffer.remaining() / channelCount, outputFrameCount);
-    buffer.put(outputBuffer, 0, framesToRead * channelCount);
+  public final void getOutput(ByteBuffer buffer) {
+    int framesToRead = min(buffer.remaining() / (channelCount * bytesPerSample), outputFrameCount);
+    writeSamples(outputBuffer, framesToRead * channelCount, buffer);
+    buffer.position(buffer.position() + framesToRead * channelCount * bytesPerSample);
     outputFrameCount -= framesToRead;
     System.arraycopy(
         outputBuffer,
@@ -128,7 +191,7 @@ import java.util.Arrays;
    * Forces generating output using whatever data has been queued already. No extra delay will be
    * added to the output, but flushing in the middle of words could introduce distortion.
    */
-  public void queueEndOfStream() {
+  public final void queueEndOfStream() {
     int remainingFrameCount = inputFrameCount;
     float s = speed / pitch;
     float r = rate * pitch;
@@ -139,9 +202,10 @@ import java.util.Arrays;
     inputBuffer =
         ensureSpaceForAdditionalFrames(
             inputBuffer, inputFrameCount, remainingFrameCount + 2 * maxRequiredFrameCount);
-    for (int xSample = 0; xSample < 2 * maxRequiredFrameCount * channelCount; xSample++) {
-      inputBuffer[remainingFrameCount * channelCount + xSample] = 0;
-    }
+    fillWithSilence(
+        inputBuffer,
+        remainingFrameCount * channelCount,
+        (remainingFrameCount + 2 * maxRequiredFrameCount) * channelCount);
     inputFrameCount += 2 * maxRequiredFrameCount;
     processStreamInput();
     // Throw away any extra frames we generated due to the silence we added.
@@ -155,7 +219,7 @@ import java.util.Arrays;
   }
 
   /** Clears state in preparation for receiving a new stream of input buffers. */
-  public void flush() {
+  public final void flush() {
     inputFrameCount = 0;
     outputFrameCount = 0;
     pitchFrameCount = 0;
@@ -168,11 +232,72 @@ import java.util.Arrays;
     maxDiff = 0;
   }
 
-  /** Returns the size of output that can be read with {@link #getOutput(ShortBuffer)}, in bytes. */
-  public int getOutputSize() {
-    return outputFrameCount * channelCount * BYTES_PER_SAMPLE;
+  /** Returns the size of output that can be read with {@link #getOutput(ByteBuffer)}, in bytes. */
+  public final int getOutputSize() {
+    return outputFrameCount * channelCount * bytesPerSample;
   }
 
+  // Sample type specific operations.
+
+  /** Returns a new array holding {@code length} samples. */
+  protected abstract T newArray(int length);
+
+  /** Returns the number of samples that {@code array} can hold. */
+  protected abstract int getLength(T array);
+
+  /** Returns a copy of {@code array} that can hold {@code length} samples. */
+  protected abstract T copyOf(T array, int length);
+
+  /** Sets the samples of {@code array} from {@code fromIndex} to {@code toIndex} to silence. */
+  protected abstract void fillWithSilence(T array, int fromIndex, int toIndex);
+
+  /**
+   * Reads {@code sampleCount} samples from {@code buffer} into {@code array} at {@code offset},
+   * without modifying the buffer's position.
+   */
+  protected abstract void readSamples(ByteBuffer buffer, T array, int offset, int sampleCount);
+
+  /**
+   * Writes the first {@code sampleCount} samples of {@code array} to {@code buffer} at its
+   * position, without modifying the buffer's position.
+   */
+  protected abstract void writeSamples(T array, int sampleCount, ByteBuffer buffer);
+
+  /**
+   * Writes the mean of each run of {@code samplesPerValue} samples from {@code samples}, starting
+   * at {@code offset}, to consecutive positions of {@code output}.
+   */
+  protected abstract void downSample(
+      T samples, int offset, int samplesPerValue, T output, int valueCount);
+
+  /**
+   * Returns the period in the given range for which the average magnitude difference of the first
+   * channel of {@code samples} is smallest, and sets {@link #minDiff} and {@link #maxDiff}.
+   */
+  protected abstract int findPitchPeriodInRange(
+      T samples, int position, int minPeriod, int maxPeriod);
+
+  /**
+   * Writes a frame interpolated between the frame at {@code inPosition} in {@code in} and the frame
+   * after it to {@code out} at {@code outPosition}. Positions are sample indices. The weight of the
+   * first frame is {@code ratio / width}.
+   */
+  protected abstract void interpolateFrame(
+      T in, int inPosition, T out, int outPosition, int ratio, int width);
+
+  /**
+   * Writes {@code frameCount} frames to {@code out} that fade out {@code rampDown} while fading in
+   * {@code rampUp}. Positions are frame indices.
+   */
+  protected abstract void overlapAdd(
+      int frameCount,
+      T out,
+      int outPosition,
+      T rampDown,
+      int rampDownPosition,
+      T rampUp,
+      int rampUpPosition);
+
   // Internal methods.
 
   /**
@@ -185,14 +310,13 @@ import java.util.Arrays;
    *     buffer.
    * @return A buffer with enough space for the additional frames.
    */
-  private short[] ensureSpaceForAdditionalFrames(
-      short[] buffer, int frameCount, int additionalFrameCount) {
-    int currentCapacityFrames = buffer.length / channelCount;
+  private T ensureSpaceForAdditionalFrames(T buffer, int frameCount, int additionalFrameCount) {
+    int currentCapacityFrames = getLength(buffer) / channelCount;
     if (frameCount + additionalFrameCount <= currentCapacityFrames) {
       return buffer;
     } else {
       int newCapacityFrames = 3 * currentCapacityFrames / 2 + additionalFrameCount;
-      return Arrays.copyOf(buffer, newCapacityFrames * channelCount);
+      return copyOf(buffer, newCapacityFrames * channelCount);
     }
   }
 
@@ -203,7 +327,7 @@ import java.util.Arrays;
     inputFrameCount = remainingFrames;
   }
 
-  private void copyToOutput(short[] samples, int positionFrames, int frameCount) {
+  private void copyToOutput(T samples, int positionFrames, int frameCount) {
     outputBuffer = ensureSpaceForAdditionalFrames(outputBuffer, outputFrameCount, frameCount);
     System.arraycopy(
         samples,
@@ -221,59 +345,22 @@ import java.util.Arrays;
     return frameCount;
   }
 
-  private void downSampleInput(short[] samples, int position, int skip) {
+  private void downSampleInput(T samples, int position, int skip) {
     // If skip is greater than one, average skip samples together and write them to the down-sample
     // buffer. If channelCount is greater than one, mix the channels together as we down sample.
-    int frameCount = maxRequiredFrameCount / skip;
-    int samplesPerValue = channelCount * skip;
-    position *= channelCount;
-    for (int i = 0; i < frameCount; i++) {
-      int value = 0;
-      for (int j = 0; j < samplesPerValue; j++) {
-        value += samples[position + i * samplesPerValue + j];
-      }
-      value /= samplesPerValue;
-      downSampleBuffer[i] = (short) value;
-    }
-  }
-
-  private int findPitchPeriodInRange(short[] samples, int position, int minPeriod, int maxPeriod) {
-    // Find the best frequency match in the range, and given a sample skip multiple. For now, just
-    // find the pitch of the first channel.
-    int bestPeriod = 0;
-    int worstPeriod = 255;
-    int minDiff = 1;
-    int maxDiff = 0;
-    position *= channelCount;
-    for (int period = minPeriod; period <= maxPeriod; period++) {
-      int diff = 0;
-      for (int i = 0; i < period; i++) {
-        short sVal = samples[position + i];
-        short pVal = samples[position + period + i];
-        diff += Math.abs(sVal - pVal);
-      }
-      // Note that the highest number of samples we add into diff will be less than 256, since we
-      // skip samples. Thus, diff is a 24 bit number, and we can safely multiply by numSamples
-      // without overflow.
-      if (diff * bestPeriod < minDiff * period) {
-        minDiff = diff;
-        bestPeriod = period;
-      }
-      if (diff * worstPeriod > maxDiff * period) {
-        maxDiff = diff;
-        worstPeriod = period;
-      }
-    }
-    this.minDiff = minDiff / bestPeriod;
-    this.maxDiff = maxDiff / worstPeriod;
-    return bestPeriod;
+    downSample(
+        samples,
+        position * channelCount,
+        /* samplesPerValue= */ channelCount * skip,
+        downSampleBuffer,
+        /* valueCount= */ maxRequiredFrameCount / skip);
   }
 
   /**
    * Returns whether the previous pitch period estimate is a better approximation, which can occur
    * at the abrupt end of voiced words.
    */
-  private boolean previousPeriodBetter(int minDiff, int maxDiff) {
+  private boolean previousPeriodBetter(float minDiff, float maxDiff) {
     if (minDiff == 0 || prevPeriod == 0) {
       return false;
     }
@@ -288,7 +375,7 @@ import java.util.Arrays;
     return true;
   }
 
-  private int findPitchPeriod(short[] samples, int position) {
+  private int findPitchPeriod(T samples, int position) {
     // Find the pitch period. This is a critical step, and we may have to try multiple ways to get a
     // good answer. This version uses AMDF. To improve speed, we down sample by an integer factor
     // get in the 11 kHz range, and then do it again with a narrower frequency range without down
@@ -301,7 +388,9 @@ import java.util.Arrays;
     } else {
       downSampleInput(samples, position, skip);
       period = findPitchPeriodInRange(downSampleBuffer, 0, minPeriod / skip, maxPeriod / skip);
-      if (skip != 1) {
+      if (skip != 1 && multiResolutionPitchSearch) {
+        period = refinePitchPeriod(samples, position, period * skip, skip);
+      } else if (skip != 1) {
         period *= skip;
         int minP = period - (skip * 4);
         int maxP = period + (skip * 4);
@@ -329,6 +418,28 @@ import java.util.Arrays;
     return retPeriod;
   }
 
+  /**
+   * Refines a pitch period found by searching input down sampled by {@code skip}. The down sampling
+   * factor is halved until it reaches one, and each step only searches periods close to the
+   * estimate from the previous step. This avoids searching a wide range of periods at full
+   * resolution, which dominates the cost of {@link #findPitchPeriod} otherwise.
+   */
+  private int refinePitchPeriod(T samples, int position, int period, int skip) {
+    while (skip > 1) {
+      int previousSkip = skip;
+      skip /= 2;
+      int minP = max(minPeriod, period - 2 * previousSkip);
+      int maxP = min(maxPeriod, period + 2 * previousSkip);
+      if (channelCount == 1 && skip == 1) {
+        period = findPitchPeriodInRange(samples, position, minP, maxP);
+      } else {
+        downSampleInput(samples, position, skip);
+        period = findPitchPeriodInRange(downSampleBuffer, 0, minP / skip, maxP / skip) * skip;
+      }
+    }
+    return period;
+  }
+
   private void moveNewSamplesToPitchBuffer(int originalOutputFrameCount) {
     int frameCount = outputFrameCount - originalOutputFrameCount;
     pitchBuffer = ensureSpaceForAdditionalFrames(pitchBuffer, pitchFrameCount, frameCount);
@@ -355,17 +466,6 @@ import java.util.Arrays;
     pitchFrameCount -= frameCount;
   }
 
-  private short interpolate(short[] in, int inPos, int oldSampleRate, int newSampleRate) {
-    short left = in[inPos];
-    short right = in[inPos + channelCount];
-    int position = newRatePosition * oldSampleRate;
-    int leftPosition = oldRatePosition * newSampleRate;
-    int rightPosition = (oldRatePosition + 1) * newSampleRate;
-    int ratio = rightPosition - position;
-    int width = rightPosition - leftPosition;
-    return (short) ((ratio * left + (width - ratio) * right) / width);
-  }
-
   private void adjustRate(float rate, int originalOutputFrameCount) {
     if (outputFrameCount == originalOutputFrameCount) {
       return;
@@ -378,16 +478,25 @@ import java.util.Arrays;
       oldSampleRate /= 2;
     }
     moveNewSamplesToPitchBuffer(originalOutputFrameCount);
+    // Reserve space for all the frames generated below up front, rather than once per frame. Each
+    // input frame generates at most newSampleRate / oldSampleRate output frames, plus one frame due
+    // to the rate position carried over from the previous call.
+    int maxOutputFrameCount =
+        (int) ((long) (pitchFrameCount - 1) * newSampleRate / oldSampleRate) + 2;
+    outputBuffer =
+        ensureSpaceForAdditionalFrames(outputBuffer, outputFrameCount, maxOutputFrameCount);
     // Leave at least one pitch sample in the buffer.
     for (int position = 0; position < pitchFrameCount - 1; position++) {
       while ((oldRatePosition + 1) * newSampleRate > newRatePosition * oldSampleRate) {
-        outputBuffer =
-            ensureSpaceForAdditionalFrames(
-                outputBuffer, outputFrameCount, /* additionalFrameCount= */ 1);
-        for (int i = 0; i < channelCount; i++) {
-          outputBuffer[outputFrameCount * channelCount + i] =
-              interpolate(pitchBuffer, position * channelCount + i, oldSampleRate, newSampleRate);
-        }
+        int leftPosition = oldRatePosition * newSampleRate;
+        int rightPosition = (oldRatePosition + 1) * newSampleRate;
+        interpolateFrame(
+            pitchBuffer,
+            position * channelCount,
+            outputBuffer,
+            outputFrameCount * channelCount,
+            /* ratio= */ rightPosition - newRatePosition * oldSampleRate,
+            /* width= */ rightPosition - leftPosition);
         newRatePosition++;
         outputFrameCount++;
       }
@@ -401,7 +510,7 @@ import java.util.Arrays;
     removePitchFrames(pitchFrameCount - 1);
   }
 
-  private int skipPitchPeriod(short[] samples, int position, float speed, int period) {
+  private int skipPitchPeriod(T samples, int position, float speed, int period) {
     // Skip over a pitch period, and copy period/speed samples to the output.
     int newFrameCount;
     if (speed >= 2.0f) {
@@ -413,7 +522,6 @@ import java.util.Arrays;
     outputBuffer = ensureSpaceForAdditionalFrames(outputBuffer, outputFrameCount, newFrameCount);
     overlapAdd(
         newFrameCount,
-        channelCount,
         outputBuffer,
         outputFrameCount,
         samples,
@@ -424,7 +532,7 @@ import java.util.Arrays;
     return newFrameCount;
   }
 
-  private int insertPitchPeriod(short[] samples, int position, float speed, int period) {
+  private int insertPitchPeriod(T samples, int position, float speed, int period) {
     // Insert a pitch period, and determine how much input to copy directly.
     int newFrameCount;
     if (speed < 0.5f) {
@@ -443,7 +551,6 @@ import java.util.Arrays;
         period * channelCount);
     overlapAdd(
         newFrameCount,
-        channelCount,
         outputBuffer,
         outputFrameCount + period,
         samples,
@@ -491,24 +598,259 @@ import java.util.Arrays;
     }
   }
 
-  private static void overlapAdd(
-      int frameCount,
-      int channelCount,
-      short[] out,
-      int outPosition,
-      short[] rampDown,
-      int rampDownPosition,
-      short[] rampUp,
-      int rampUpPosition) {
-    for (int i = 0; i < channelCount; i++) {
-      int o = outPosition * channelCount + i;
-      int u = rampUpPosition * channelCount + i;
-      int d = rampDownPosition * channelCount + i;
-      for (int t = 0; t < frameCount; t++) {
-        out[o] = (short) ((rampDown[d] * (frameCount - t) + rampUp[u] * t) / frameCount);
-        o += channelCount;
-        d += channelCount;
-        u += channelCount;
+  /** Sonic for 16-bit integer samples. */
+  private static final class Int16Sonic extends Sonic<short[]> {
+
+    public Int16Sonic(
+        int inputSampleRateHz,
+        int channelCount,
+        float speed,
+        float pitch,
+        int outputSampleRateHz,
+        boolean multiResolutionPitchSearch) {
+      super(
+          /* bytesPerSample= */ 2,
+          inputSampleRateHz,
+          channelCount,
+          speed,
+          pitch,
+          outputSampleRateHz,
+          multiResolutionPitchSearch);
+    }
+
+    @Override
+    protected short[] newArray(int length) {
+      return new short[length];
+    }
+
+    @Override
+    protected int getLength(short[] array) {
+      return array.length;
+    }
+
+    @Override
+    protected short[] copyOf(short[] array, int length) {
+      return Arrays.copyOf(array, length);
+    }
+
+    @Override
+    protected void fillWithSilence(short[] array, int fromIndex, int toIndex) {
+      Arrays.fill(array, fromIndex, toIndex, (short) 0);
+    }
+
+    @Override
+    protected void readSamples(ByteBuffer buffer, short[] array, int offset, int sampleCount) {
+      buffer.asShortBuffer().get(array, offset, sampleCount);
+    }
+
+    @Override
+    protected void writeSamples(short[] array, int sampleCount, ByteBuffer buffer) {
+      buffer.asShortBuffer().put(array, 0, sampleCount);
+    }
+
+    @Override
+    protected void downSample(
+        short[] samples, int offset, int samplesPerValue, short[] output, int valueCount) {
+      for (int i = 0; i < valueCount; i++) {
+        int value = 0;
+        for (int j = 0; j < samplesPerValue; j++) {
+          value += samples[offset + i * samplesPerValue + j];
+        }
+        value /= samplesPerValue;
+        output[i] = (short) value;
+      }
+    }
+
+    @Override
+    protected int findPitchPeriodInRange(
+        short[] samples, int position, int minPeriod, int maxPeriod) {
+      // Find the best frequency match in the range, and given a sample skip multiple. For now, just
+      // find the pitch of the first channel.
+      int bestPeriod = 0;
+      int worstPeriod = 255;
+      int minDiff = 1;
+      int maxDiff = 0;
+      position *= channelCount;
+      for (int period = minPeriod; period <= maxPeriod; period++) {
+        int diff = 0;
+        for (int i = 0; i < period; i++) {
+          short sVal = samples[position + i];
+          short pVal = samples[position + period + i];
+          diff += Math.abs(sVal - pVal);
+        }
+        // Note that the highest number of samples we add into diff will be less than 256, since we
+        // skip samples. Thus, diff is a 24 bit number, and we can safely multiply by numSamples
+        // without overflow.
+        if (diff * bestPeriod < minDiff * period) {
+          minDiff = diff;
+          bestPeriod = period;
+        }
+        if (diff * worstPeriod > maxDiff * period) {
+          maxDiff = diff;
+          worstPeriod = period;
+        }
+      }
+      this.minDiff = minDiff / bestPeriod;
+      this.maxDiff = maxDiff / worstPeriod;
+      return bestPeriod;
+    }
+
+    @Override
+    protected void interpolateFrame(
+        short[] in, int inPosition, short[] out, int outPosition, int ratio, int width) {
+      for (int i = 0; i < channelCount; i++) {
+        short left = in[inPosition + i];
+        short right = in[inPosition + i + channelCount];
+        out[outPosition + i] = (short) ((ratio * left + (width - ratio) * right) / width);
+      }
+    }
+
+    @Override
+    protected void overlapAdd(
+        int frameCount,
+        short[] out,
+        int outPosition,
+        short[] rampDown,
+        int rampDownPosition,
+        short[] rampUp,
+        int rampUpPosition) {
+      for (int i = 0; i < channelCount; i++) {
+        int o = outPosition * channelCount + i;
+        int u = rampUpPosition * channelCount + i;
+        int d = rampDownPosition * channelCount + i;
+        for (int t = 0; t < frameCount; t++) {
+          out[o] = (short) ((rampDown[d] * (frameCount - t) + rampUp[u] * t) / frameCount);
+          o += channelCount;
+          d += channelCount;
+          u += channelCount;
+        }
+      }
+    }
+  }
+
+  /**
+   * Sonic for 32-bit float samples, which processes float and high resolution audio without
+   * converting it to 16-bit integer samples.
+   */
+  private static final class FloatSonic extends Sonic<float[]> {
+
+    public FloatSonic(
+        int inputSampleRateHz,
+        int channelCount,
+        float speed,
+        float pitch,
+        int outputSampleRateHz,
+        boolean multiResolutionPitchSearch) {
+      super(
+          /* bytesPerSample= */ 4,
+          inputSampleRateHz,
+          channelCount,
+          speed,
+          pitch,
+          outputSampleRateHz,
+          multiResolutionPitchSearch);
+    }
+
+    @Override
+    protected float[] newArray(int length) {
+      return new float[length];
+    }
+
+    @Override
+    protected int getLength(float[] array) {
+      return array.length;
+    }
+
+    @Override
+    protected float[] copyOf(float[] array, int length) {
+      return Arrays.copyOf(array, length);
+    }
+
+    @Override
+    protected void fillWithSilence(float[] array, int fromIndex, int toIndex) {
+      Arrays.fill(array, fromIndex, toIndex, 0f);
+    }
+
+    @Override
+    protected void readSamples(ByteBuffer buffer, float[] array, int offset, int sampleCount) {
+      buffer.asFloatBuffer().get(array, offset, sampleCount);
+    }
+
+    @Override
+    protected void writeSamples(float[] array, int sampleCount, ByteBuffer buffer) {
+      buffer.asFloatBuffer().put(array, 0, sampleCount);
+    }
+
+    @Override
+    protected void downSample(
+        float[] samples, int offset, int samplesPerValue, float[] output, int valueCount) {
+      for (int i = 0; i < valueCount; i++) {
+        float value = 0;
+        for (int j = 0; j < samplesPerValue; j++) {
+          value += samples[offset + i * samplesPerValue + j];
+        }
+        output[i] = value / samplesPerValue;
+      }
+    }
+
+    @Override
+    protected int findPitchPeriodInRange(
+        float[] samples, int position, int minPeriod, int maxPeriod) {
+      // Find the best frequency match in the range, and given a sample skip multiple. For now, just
+      // find the pitch of the first channel.
+      int bestPeriod = 0;
+      int worstPeriod = 255;
+      float minDiff = 1;
+      float maxDiff = 0;
+      position *= channelCount;
+      for (int period = minPeriod; period <= maxPeriod; period++) {
+        float diff = 0;
+        for (int i = 0; i < period; i++) {
+          diff += Math.abs(samples[position + i] - samples[position + period + i]);
+        }
+        if (diff * bestPeriod < minDiff * period) {
+          minDiff = diff;
+          bestPeriod = period;
+        }
+        if (diff * worstPeriod > maxDiff * period) {
+          maxDiff = diff;
+          worstPeriod = period;
+        }
+      }
+      this.minDiff = minDiff / bestPeriod;
+      this.maxDiff = maxDiff / worstPeriod;
+      return bestPeriod;
+    }
+
+    @Override
+    protected void interpolateFrame(
+        float[] in, int inPosition, float[] out, int outPosition, int ratio, int width) {
+      for (int i = 0; i < channelCount; i++) {
+        float left = in[inPosition + i];
+        float right = in[inPosition + i + channelCount];
+        out[outPosition + i] = (ratio * left + (width - ratio) * right) / width;
+      }
+    }
+
+    @Override
+    protected void overlapAdd(
+        int frameCount,
+        float[] out,
+        int outPosition,
+        float[] rampDown,
+        int rampDownPosition,
+        float[] rampUp,
+        int rampUpPosition) {
+      for (int i = 0; i < channelCount; i++) {
+        int o = outPosition * channelCount + i;
+        int u = rampUpPosition * channelCount + i;
+        int d = rampDownPosition * channelCount + i;
+        for (int t = 0; t < frameCount; t++) {
+          out[o] = (rampDown[d] * (frameCount - t) + rampUp[u] * t) / frameCount;
+          o += channelCount;
+          d += channelCount;
+          u += channelCount;
+        }
       }
     }
   }
@@ -25,10 +25,14 @@ import androidx.mynewmedia4.common.util.Util;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.ShortBuffer;
 
 /**
  * An {@link AudioProcessor} that uses the Sonic library to modify audio speed/pitch/sample rate.
+ *
+ * <p>Supports {@link C#ENCODING_PCM_16BIT} and {@link C#ENCODING_PCM_FLOAT} input, and outputs
+ * audio in the same encoding as its input. Float input is processed without conversion to 16-bit
+ * samples, so high resolution audio should be converted to float rather than to 16-bit before being
+ * passed to this processor.
  */
 @UnstableApi
 public class SonicAudioProcessor implements AudioProcessor {
@@ -48,6 +52,7 @@ public class SonicAudioProcessor implements AudioProcessor {
   private int pendingOutputSampleRate;
   private float speed;
   private float pitch;
+  private boolean multiResolutionPitchSearch;
 
   private AudioFormat pendingInputAudioFormat;
   private AudioFormat pendingOutputAudioFormat;
@@ -55,9 +60,8 @@ public class SonicAudioProcessor implements AudioProcessor {
   private AudioFormat outputAudioFormat;
 
   private boolean pendingSonicRecreation;
-  @Nullable private Sonic sonic;
+  @Nullable private Sonic<?> sonic;
   private ByteBuffer buffer;
-  private ShortBuffer shortBuffer;
   private ByteBuffer outputBuffer;
   private long inputBytes;
   private long outputBytes;
@@ -72,7 +76,6 @@ public class SonicAudioProcessor implements AudioProcessor {
     inputAudioFormat = AudioFormat.NOT_SET;
     outputAudioFormat = AudioFormat.NOT_SET;
     buffer = EMPTY_BUFFER;
-    shortBuffer = buffer.asShortBuffer();
     outputBuffer = EMPTY_BUFFER;
     pendingOutputSampleRate = SAMPLE_RATE_NO_CHANGE;
   }
@@ -105,6 +108,32 @@ public class SonicAudioProcessor implements AudioProcessor {
     }
   }
 
+  /**
+   * Sets whether to use a multi-resolution pitch period search. The default value is {@code
+   * false}.
+   *
+   * <p>Sonic estimates the pitch period of the input by searching a coarse range of periods on
+   * down sampled input, and then a finer range at full resolution. When this is enabled, the
+   * estimate is instead refined by repeatedly halving the down sampling factor and searching only a
+   * few periods around the previous estimate. This substantially reduces the CPU usage when the
+   * speed or pitch is changed, at the cost of occasionally selecting a slightly different pitch
+   * period.
+   *
+   * <p>This method may only be called after draining data through the processor. The processor
+   * must be {@link #flush() flushed} before queueing more data.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   *
+   * @param multiResolutionPitchSearch Whether to use a multi-resolution pitch period search.
+   */
+  public final void experimentalSetMultiResolutionPitchSearchEnabled(
+      boolean multiResolutionPitchSearch) {
+    if (this.multiResolutionPitchSearch != multiResolutionPitchSearch) {
+      this.multiResolutionPitchSearch = multiResolutionPitchSearch;
+      pendingSonicRecreation = true;
+    }
+  }
+
   /**
    * Sets the sample rate for output audio, in Hertz. Pass {@link #SAMPLE_RATE_NO_CHANGE} to output
    * audio at the same sample rate as the input. After calling this method, call {@link
@@ -146,7 +175,8 @@ public class SonicAudioProcessor implements AudioProcessor {
   @CanIgnoreReturnValue
   public final AudioFormat configure(AudioFormat inputAudioFormat)
       throws UnhandledAudioFormatException {
-    if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT) {
+    if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT
+        && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
       throw new UnhandledAudioFormatException(inputAudioFormat);
     }
     int outputSampleRateHz =
@@ -155,7 +185,8 @@ public class SonicAudioProcessor implements AudioProcessor {
             : pendingOutputSampleRate;
     pendingInputAudioFormat = inputAudioFormat;
     pendingOutputAudioFormat =
-        new AudioFormat(outputSampleRateHz, inputAudioFormat.channelCount, C.ENCODING_PCM_16BIT);
+        new AudioFormat(
+            outputSampleRateHz, inputAudioFormat.channelCount, inputAudioFormat.encoding);
     pendingSonicRecreation = true;
     return pendingOutputAudioFormat;
   }
@@ -173,11 +204,9 @@ public class SonicAudioProcessor implements AudioProcessor {
     if (!inputBuffer.hasRemaining()) {
       return;
     }
-    Sonic sonic = checkNotNull(this.sonic);
-    ShortBuffer shortBuffer = inputBuffer.asShortBuffer();
     int inputSize = inputBuffer.remaining();
     inputBytes += inputSize;
-    sonic.queueInput(shortBuffer);
+    checkNotNull(sonic).queueInput(inputBuffer);
     inputBuffer.position(inputBuffer.position() + inputSize);
   }
 
@@ -192,20 +221,18 @@ public class SonicAudioProcessor implements AudioProcessor {
 
   @Override
   public final ByteBuffer getOutput() {
-    @Nullable Sonic sonic = this.sonic;
+    @Nullable Sonic<?> sonic = this.sonic;
     if (sonic != null) {
       int outputSize = sonic.getOutputSize();
       if (outputSize > 0) {
         if (buffer.capacity() < outputSize) {
           buffer = ByteBuffer.allocateDirect(outputSize).order(ByteOrder.nativeOrder());
-          shortBuffer = buffer.asShortBuffer();
         } else {
           buffer.clear();
-          shortBuffer.clear();
         }
-        sonic.getOutput(shortBuffer);
+        sonic.getOutput(buffer);
         outputBytes += outputSize;
-        buffer.limit(outputSize);
+        buffer.flip();
         outputBuffer = buffer;
       }
     }
@@ -226,12 +253,14 @@ public class SonicAudioProcessor implements AudioProcessor {
       outputAudioFormat = pendingOutputAudioFormat;
       if (pendingSonicRecreation) {
         sonic =
-            new Sonic(
+            Sonic.create(
+                inputAudioFormat.encoding,
                 inputAudioFormat.sampleRate,
                 inputAudioFormat.channelCount,
                 speed,
                 pitch,
-                outputAudioFormat.sampleRate);
+                outputAudioFormat.sampleRate,
+                multiResolutionPitchSearch);
       } else if (sonic != null) {
         sonic.flush();
       }
@@ -246,12 +275,12 @@ public class SonicAudioProcessor implements AudioProcessor {
   public final void reset() {
     speed = 1f;
     pitch = 1f;
+    multiResolutionPitchSearch = false;
     pendingInputAudioFormat = AudioFormat.NOT_SET;
     pendingOutputAudioFormat = AudioFormat.NOT_SET;
     inputAudioFormat = AudioFormat.NOT_SET;
     outputAudioFormat = AudioFormat.NOT_SET;
     buffer = EMPTY_BUFFER;
-    shortBuffer = buffer.asShortBuffer();
     outputBuffer = EMPTY_BUFFER;
     pendingOutputSampleRate = SAMPLE_RATE_NO_CHANGE;
     pendingSonicRecreation = false;
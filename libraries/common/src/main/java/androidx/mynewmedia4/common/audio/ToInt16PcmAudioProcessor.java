@@ -36,7 +36,8 @@ import java.nio.ByteBuffer;
  * </ul>
  */
 @UnstableApi
-public final class ToInt16PcmAudioProcessor extends BaseAudioProcessor {
+public final class ToInt16PcmAudioProcessor extends BaseAudioProcessor
+    implements FusibleAudioProcessor {
 
   @Override
   @CanIgnoreReturnValue
@@ -87,6 +88,14 @@ public final class ToInt16PcmAudioProcessor extends BaseAudioProcessor {
 
     // Resample the little endian input and update the input/output buffers.
     ByteBuffer buffer = replaceOutputBuffer(resampledSize);
+    processFrames(inputBuffer, buffer);
+    buffer.flip();
+  }
+
+  @Override
+  public void processFrames(ByteBuffer inputBuffer, ByteBuffer buffer) {
+    int position = inputBuffer.position();
+    int limit = inputBuffer.limit();
     switch (inputAudioFormat.encoding) {
       case C.ENCODING_PCM_8BIT:
         // 8 -> 16 bit resampling. Shift each byte from [0, 256) to [-128, 128) and scale up.
@@ -137,6 +146,5 @@ public final class ToInt16PcmAudioProcessor extends BaseAudioProcessor {
         throw new IllegalStateException();
     }
     inputBuffer.position(inputBuffer.limit());
-    buffer.flip();
   }
 }
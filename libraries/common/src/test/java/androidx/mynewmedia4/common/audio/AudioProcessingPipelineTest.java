@@ -23,6 +23,7 @@ import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.audio.AudioProcessor.AudioFormat;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.common.collect.ImmutableList;
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
@@ -257,6 +258,95 @@ public final class AudioProcessingPipelineTest {
     assertThat(bytesOutput.get(12)).isEqualTo((byte) 0);
   }
 
+  @Test
+  public void fusionEnabled_withConsecutiveFusibleProcessors_outputsSameAsWithoutFusion()
+      throws Exception {
+    AudioFormat floatAudioFormat =
+        new AudioFormat(/* sampleRate= */ 44100, /* channelCount= */ 2, C.ENCODING_PCM_FLOAT);
+
+    byte[] fusedOutput =
+        processAll(
+            createToMonoInt16Pipeline(/* fuseAudioProcessors= */ true),
+            floatAudioFormat,
+            createFloatRampBuffer(/* sampleCount= */ 2000));
+    byte[] unfusedOutput =
+        processAll(
+            createToMonoInt16Pipeline(/* fuseAudioProcessors= */ false),
+            floatAudioFormat,
+            createFloatRampBuffer(/* sampleCount= */ 2000));
+
+    assertThat(fusedOutput).hasLength(1000 * 2);
+    assertThat(fusedOutput).isEqualTo(unfusedOutput);
+  }
+
+  @Test
+  public void fusionEnabled_withNonFusibleProcessorInChain_outputsSameAsWithoutFusion()
+      throws Exception {
+    AudioFormat floatAudioFormat =
+        new AudioFormat(/* sampleRate= */ 44100, /* channelCount= */ 2, C.ENCODING_PCM_FLOAT);
+
+    byte[] fusedOutput =
+        processAll(
+            createToMonoInt16PipelineWithNonFusibleProcessor(/* fuseAudioProcessors= */ true),
+            floatAudioFormat,
+            createFloatRampBuffer(/* sampleCount= */ 2000));
+    byte[] unfusedOutput =
+        processAll(
+            createToMonoInt16PipelineWithNonFusibleProcessor(/* fuseAudioProcessors= */ false),
+            floatAudioFormat,
+            createFloatRampBuffer(/* sampleCount= */ 2000));
+
+    assertThat(fusedOutput).hasLength(1000 * 2);
+    assertThat(fusedOutput).isEqualTo(unfusedOutput);
+  }
+
+  @Test
+  public void fusionEnabled_flushWithSameConfiguration_reusesFusedProcessor() throws Exception {
+    AudioFormat floatAudioFormat =
+        new AudioFormat(/* sampleRate= */ 44100, /* channelCount= */ 2, C.ENCODING_PCM_FLOAT);
+    AudioProcessingPipeline audioProcessingPipeline =
+        createToMonoInt16Pipeline(/* fuseAudioProcessors= */ true);
+    audioProcessingPipeline.configure(floatAudioFormat);
+    audioProcessingPipeline.flush();
+    audioProcessingPipeline.queueInput(createFloatRampBuffer(/* sampleCount= */ 2000));
+    ByteBuffer outputBuffer = audioProcessingPipeline.getOutput();
+    byte[] output = new byte[outputBuffer.remaining()];
+    outputBuffer.get(output);
+
+    audioProcessingPipeline.flush();
+    audioProcessingPipeline.queueInput(createFloatRampBuffer(/* sampleCount= */ 2000));
+    ByteBuffer outputBufferAfterFlush = audioProcessingPipeline.getOutput();
+    byte[] outputAfterFlush = new byte[outputBufferAfterFlush.remaining()];
+    outputBufferAfterFlush.get(outputAfterFlush);
+
+    // The fused processor writes to the same output buffer, as it's reused by the flush.
+    assertThat(outputBufferAfterFlush).isSameInstanceAs(outputBuffer);
+    assertThat(outputAfterFlush).isEqualTo(output);
+  }
+
+  @Test
+  public void fusionEnabled_flushWithNewConfiguration_createsNewFusedProcessor()
+      throws Exception {
+    AudioProcessingPipeline audioProcessingPipeline =
+        createToMonoInt16Pipeline(/* fuseAudioProcessors= */ true);
+    audioProcessingPipeline.configure(
+        new AudioFormat(/* sampleRate= */ 44100, /* channelCount= */ 2, C.ENCODING_PCM_FLOAT));
+    audioProcessingPipeline.flush();
+    audioProcessingPipeline.queueInput(createFloatRampBuffer(/* sampleCount= */ 2000));
+    ByteBuffer outputBuffer = audioProcessingPipeline.getOutput();
+    outputBuffer.position(outputBuffer.limit());
+
+    audioProcessingPipeline.configure(
+        new AudioFormat(/* sampleRate= */ 48000, /* channelCount= */ 2, C.ENCODING_PCM_FLOAT));
+    audioProcessingPipeline.flush();
+    audioProcessingPipeline.queueInput(createFloatRampBuffer(/* sampleCount= */ 2000));
+    ByteBuffer outputBufferAfterFlush = audioProcessingPipeline.getOutput();
+
+    assertThat(audioProcessingPipeline.getOutputAudioFormat().sampleRate).isEqualTo(48000);
+    assertThat(outputBufferAfterFlush).isNotSameInstanceAs(outputBuffer);
+    assertThat(outputBufferAfterFlush.remaining()).isEqualTo(1000 * 2);
+  }
+
   // TODO(b/198772621): Consider implementing BaseAudioProcessor once that is in common.
   private static class FakeAudioProcessor implements AudioProcessor {
     protected ByteBuffer internalBuffer;
@@ -365,4 +455,74 @@ public final class AudioProcessingPipelineTest {
         /* size= */ audioFormat.sampleRate * audioFormat.channelCount * audioFormat.bytesPerFrame,
         /* buffer= */ null);
   }
+
+  private static AudioProcessingPipeline createToMonoInt16Pipeline(boolean fuseAudioProcessors) {
+    return new AudioProcessingPipeline(
+        ImmutableList.of(
+            new ToInt16PcmAudioProcessor(),
+            createChannelMixingAudioProcessor(
+                ChannelMixingMatrix.create(
+                        /* inputChannelCount= */ 2, /* outputChannelCount= */ 2)
+                    .scaleBy(0.5f)),
+            createChannelMixingAudioProcessor(
+                ChannelMixingMatrix.create(
+                    /* inputChannelCount= */ 2, /* outputChannelCount= */ 1))),
+        fuseAudioProcessors);
+  }
+
+  private static AudioProcessingPipeline createToMonoInt16PipelineWithNonFusibleProcessor(
+      boolean fuseAudioProcessors) {
+    return new AudioProcessingPipeline(
+        ImmutableList.of(
+            new ToInt16PcmAudioProcessor(),
+            createChannelMixingAudioProcessor(
+                ChannelMixingMatrix.create(
+                        /* inputChannelCount= */ 2, /* outputChannelCount= */ 2)
+                    .scaleBy(0.5f)),
+            new FakeAudioProcessor(/* active= */ true),
+            createChannelMixingAudioProcessor(
+                ChannelMixingMatrix.create(
+                    /* inputChannelCount= */ 2, /* outputChannelCount= */ 1))),
+        fuseAudioProcessors);
+  }
+
+  private static ChannelMixingAudioProcessor createChannelMixingAudioProcessor(
+      ChannelMixingMatrix channelMixingMatrix) {
+    ChannelMixingAudioProcessor channelMixingAudioProcessor = new ChannelMixingAudioProcessor();
+    channelMixingAudioProcessor.putChannelMixingMatrix(channelMixingMatrix);
+    return channelMixingAudioProcessor;
+  }
+
+  /** Creates a buffer of float samples ramping from -1.5 to 1.5, to include clipped samples. */
+  private static ByteBuffer createFloatRampBuffer(int sampleCount) {
+    ByteBuffer buffer = createOrReplaceBuffer(/* size= */ sampleCount * 4, /* buffer= */ null);
+    for (int i = 0; i < sampleCount; i++) {
+      buffer.putFloat(-1.5f + 3f * i / sampleCount);
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /** Processes all of {@code inputBuffer} through the pipeline and returns the output. */
+  private static byte[] processAll(
+      AudioProcessingPipeline audioProcessingPipeline,
+      AudioFormat inputAudioFormat,
+      ByteBuffer inputBuffer)
+      throws Exception {
+    audioProcessingPipeline.configure(inputAudioFormat);
+    audioProcessingPipeline.flush();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    while (!audioProcessingPipeline.isEnded()) {
+      ByteBuffer outputBuffer;
+      while ((outputBuffer = audioProcessingPipeline.getOutput()).hasRemaining()) {
+        output.write(outputBuffer.get());
+      }
+      if (!inputBuffer.hasRemaining()) {
+        audioProcessingPipeline.queueEndOfStream();
+      } else {
+        audioProcessingPipeline.queueInput(inputBuffer);
+      }
+    }
+    return output.toByteArray();
+  }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.common.audio;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ChannelMixingKernel}. */
+@RunWith(AndroidJUnit4.class)
+public final class ChannelMixingKernelTest {
+
+  private static final ChannelMixingMatrix FIVE_POINT_ONE_TO_STEREO =
+      new ChannelMixingMatrix(
+          /* inputChannelCount= */ 6,
+          /* outputChannelCount= */ 2,
+          new float[] {
+            /* FL */ 0.4f, 0f,
+            /* FR */ 0f, 0.4f,
+            /* FC */ 0.3f, 0.3f,
+            /* LFE */ 0f, 0f,
+            /* BL */ 0.3f, 0f,
+            /* BR */ 0f, 0.3f
+          });
+
+  @Test
+  public void mixInt16_withSparseMatrix_outputsSameAsDenseMultiplication() {
+    ByteBuffer inputBuffer =
+        createInt16Buffer(1000, -2000, 3000, 32767, -32768, 5, 32767, 32767, 32767, 0, 32767, 0);
+    ByteBuffer outputBuffer = createInt16Buffer(new int[4]);
+
+    FIVE_POINT_ONE_TO_STEREO.getKernel().mixInt16(inputBuffer, outputBuffer);
+
+    assertThat(inputBuffer.hasRemaining()).isFalse();
+    assertThat(outputBuffer.hasRemaining()).isFalse();
+    assertThat(createShortArray(outputBuffer))
+        .isEqualTo(mixInt16Dense(FIVE_POINT_ONE_TO_STEREO, createShortArray(inputBuffer)));
+  }
+
+  @Test
+  public void mixInt16_withDiagonalMatrix_scalesAndClampsSamples() {
+    ChannelMixingMatrix matrix =
+        new ChannelMixingMatrix(
+            /* inputChannelCount= */ 2, /* outputChannelCount= */ 2, new float[] {0.5f, 0, 0, 2f});
+    ByteBuffer inputBuffer = createInt16Buffer(1000, 1000, -32768, -32768);
+    ByteBuffer outputBuffer = createInt16Buffer(new int[4]);
+
+    matrix.getKernel().mixInt16(inputBuffer, outputBuffer);
+
+    assertThat(createShortArray(outputBuffer)).isEqualTo(new short[] {500, 2000, -16384, -32768});
+  }
+
+  @Test
+  public void mixInt16_withZeroMatrix_outputsSilence() {
+    ChannelMixingMatrix matrix =
+        ChannelMixingMatrix.create(/* inputChannelCount= */ 2, /* outputChannelCount= */ 1)
+            .scaleBy(0f);
+    ByteBuffer inputBuffer = createInt16Buffer(1000, 2000, 3000, 4000);
+    ByteBuffer outputBuffer = createInt16Buffer(-1, -1);
+
+    matrix.getKernel().mixInt16(inputBuffer, outputBuffer);
+
+    assertThat(inputBuffer.hasRemaining()).isFalse();
+    assertThat(createShortArray(outputBuffer)).isEqualTo(new short[] {0, 0});
+  }
+
+  @Test
+  public void mixInt16_withPartialFinalFrame_skipsPartialFrame() {
+    ChannelMixingMatrix matrix =
+        ChannelMixingMatrix.create(/* inputChannelCount= */ 2, /* outputChannelCount= */ 1);
+    ByteBuffer inputBuffer = createInt16Buffer(1000, 2000, 3000, 4000, 5000);
+    ByteBuffer outputBuffer = createInt16Buffer(-1, -1, -1);
+
+    matrix.getKernel().mixInt16(inputBuffer, outputBuffer);
+
+    assertThat(inputBuffer.hasRemaining()).isFalse();
+    assertThat(outputBuffer.position()).isEqualTo(4);
+    assertThat(createShortArray(outputBuffer)).isEqualTo(new short[] {1500, 3500, -1});
+  }
+
+  @Test
+  public void mixInt16_withZeroMatrixAndPartialFinalFrame_skipsPartialFrame() {
+    ChannelMixingMatrix matrix =
+        ChannelMixingMatrix.create(/* inputChannelCount= */ 2, /* outputChannelCount= */ 1)
+            .scaleBy(0f);
+    ByteBuffer inputBuffer = createInt16Buffer(1000, 2000, 3000);
+    ByteBuffer outputBuffer = createInt16Buffer(-1, -1);
+
+    matrix.getKernel().mixInt16(inputBuffer, outputBuffer);
+
+    assertThat(inputBuffer.hasRemaining()).isFalse();
+    assertThat(createShortArray(outputBuffer)).isEqualTo(new short[] {0, -1});
+  }
+
+  @Test
+  public void accumulateFloat_withSparseMatrix_addsToMixingBuffer() {
+    ByteBuffer sourceBuffer = createFloatBuffer(0.5f, -0.5f, 1f, 0.25f, 0.5f, -1f);
+    ByteBuffer mixingBuffer = createFloatBuffer(0.1f, 0.2f);
+
+    FIVE_POINT_ONE_TO_STEREO
+        .getKernel()
+        .accumulateFloat(sourceBuffer, /* frameCount= */ 1, mixingBuffer);
+
+    assertThat(sourceBuffer.hasRemaining()).isFalse();
+    assertThat(mixingBuffer.hasRemaining()).isFalse();
+    mixingBuffer.rewind();
+    assertThat(mixingBuffer.getFloat()).isWithin(1e-6f).of(0.1f + 0.2f + 0.3f + 0.15f);
+    assertThat(mixingBuffer.getFloat()).isWithin(1e-6f).of(0.2f - 0.2f + 0.3f - 0.3f);
+  }
+
+  @Test
+  public void accumulateInt16AsFloat_withStereoToMonoMatrix_addsNormalizedSamples() {
+    ChannelMixingMatrix matrix =
+        ChannelMixingMatrix.create(/* inputChannelCount= */ 2, /* outputChannelCount= */ 1);
+    ByteBuffer sourceBuffer = createInt16Buffer(32767, 32767, -32768, 0);
+    ByteBuffer mixingBuffer = createFloatBuffer(0f, 0.25f);
+
+    matrix.getKernel().accumulateInt16AsFloat(sourceBuffer, /* frameCount= */ 2, mixingBuffer);
+
+    mixingBuffer.rewind();
+    assertThat(mixingBuffer.getFloat()).isWithin(1e-6f).of(1f);
+    assertThat(mixingBuffer.getFloat()).isEqualTo(-0.25f);
+  }
+
+  private static short[] mixInt16Dense(ChannelMixingMatrix matrix, short[] input) {
+    int inputChannelCount = matrix.getInputChannelCount();
+    int outputChannelCount = matrix.getOutputChannelCount();
+    int frameCount = input.length / inputChannelCount;
+    short[] output = new short[frameCount * outputChannelCount];
+    for (int frame = 0; frame < frameCount; frame++) {
+      for (int outputChannel = 0; outputChannel < outputChannelCount; outputChannel++) {
+        float sample = 0;
+        for (int inputChannel = 0; inputChannel < inputChannelCount; inputChannel++) {
+          sample +=
+              matrix.getMixingCoefficient(inputChannel, outputChannel)
+                  * input[frame * inputChannelCount + inputChannel];
+        }
+        output[frame * outputChannelCount + outputChannel] =
+            (short) Math.max(Short.MIN_VALUE, Math.min(sample, Short.MAX_VALUE));
+      }
+    }
+    return output;
+  }
+
+  private static ByteBuffer createInt16Buffer(int... values) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(values.length * 2).order(ByteOrder.nativeOrder());
+    for (int value : values) {
+      buffer.putShort((short) value);
+    }
+    buffer.rewind();
+    return buffer;
+  }
+
+  private static ByteBuffer createFloatBuffer(float... values) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(values.length * 4).order(ByteOrder.nativeOrder());
+    for (float value : values) {
+      buffer.putFloat(value);
+    }
+    buffer.rewind();
+    return buffer;
+  }
+
+  /** Returns the samples of {@code buffer} from index zero to its capacity. */
+  private static short[] createShortArray(ByteBuffer buffer) {
+    short[] samples = new short[buffer.capacity() / 2];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = buffer.getShort(2 * i);
+    }
+    return samples;
+  }
+}
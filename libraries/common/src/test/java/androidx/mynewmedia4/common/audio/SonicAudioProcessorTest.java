@@ -22,6 +22,8 @@ import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.audio.AudioProcessor.AudioFormat;
 import androidx.mynewmedia4.common.audio.AudioProcessor.UnhandledAudioFormatException;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -92,7 +94,7 @@ public final class SonicAudioProcessorTest {
   }
 
   @Test
-  public void doesNotSupportNon16BitInput() throws Exception {
+  public void doesNotSupportNon16BitIntegerInput() throws Exception {
     try {
       sonicAudioProcessor.configure(
           new AudioFormat(
@@ -122,4 +124,172 @@ public final class SonicAudioProcessorTest {
       // Expected.
     }
   }
+
+  @Test
+  public void configure_withFloatInput_outputsFloat() throws Exception {
+    sonicAudioProcessor.setOutputSampleRateHz(48000);
+    AudioFormat outputAudioFormat =
+        sonicAudioProcessor.configure(
+            new AudioFormat(
+                /* sampleRate= */ 44100,
+                /* channelCount= */ 2,
+                /* encoding= */ C.ENCODING_PCM_FLOAT));
+
+    assertThat(sonicAudioProcessor.isActive()).isTrue();
+    assertThat(outputAudioFormat.encoding).isEqualTo(C.ENCODING_PCM_FLOAT);
+    assertThat(outputAudioFormat.sampleRate).isEqualTo(48000);
+  }
+
+  @Test
+  public void queueInput_withFloatInputAndSpeedChange_outputsScaledFrameCount()
+      throws Exception {
+    AudioFormat floatAudioFormat =
+        new AudioFormat(
+            /* sampleRate= */ 44100, /* channelCount= */ 2, /* encoding= */ C.ENCODING_PCM_FLOAT);
+
+    for (float speed : new float[] {0.5f, 1.5f, 3f}) {
+      long outputFrameCount = processSineWave(floatAudioFormat, speed) / (2 * 4);
+
+      assertThat((double) outputFrameCount).isWithin(200).of(44100 / speed);
+    }
+  }
+
+  @Test
+  public void queueInput_withFloatInput_outputsSamplesWithinInputRange() throws Exception {
+    AudioFormat floatAudioFormat =
+        new AudioFormat(
+            /* sampleRate= */ 44100, /* channelCount= */ 2, /* encoding= */ C.ENCODING_PCM_FLOAT);
+    sonicAudioProcessor.setSpeed(0.75f);
+    sonicAudioProcessor.setOutputSampleRateHz(48000);
+    sonicAudioProcessor.configure(floatAudioFormat);
+    sonicAudioProcessor.flush();
+
+    sonicAudioProcessor.queueInput(createSineWave(floatAudioFormat, /* frameCount= */ 44100));
+    sonicAudioProcessor.queueEndOfStream();
+    ByteBuffer output = sonicAudioProcessor.getOutput();
+
+    assertThat(output.hasRemaining()).isTrue();
+    while (output.hasRemaining()) {
+      assertThat((double) output.getFloat()).isWithin(0.5).of(0);
+    }
+  }
+
+  @Test
+  public void queueInput_withFloatInput_outputsSameAudioAs16BitInput() throws Exception {
+    AudioFormat floatAudioFormat =
+        new AudioFormat(
+            /* sampleRate= */ 44100, /* channelCount= */ 2, /* encoding= */ C.ENCODING_PCM_FLOAT);
+
+    for (float speed : new float[] {0.5f, 1.5f, 3f}) {
+      SonicAudioProcessor int16SonicAudioProcessor = new SonicAudioProcessor();
+      int16SonicAudioProcessor.setSpeed(speed);
+      int16SonicAudioProcessor.setOutputSampleRateHz(48000);
+      SonicAudioProcessor floatSonicAudioProcessor = new SonicAudioProcessor();
+      floatSonicAudioProcessor.setSpeed(speed);
+      floatSonicAudioProcessor.setOutputSampleRateHz(48000);
+
+      ByteBuffer int16Output =
+          processSineWaveToOutput(int16SonicAudioProcessor, AUDIO_FORMAT_44100_HZ);
+      ByteBuffer floatOutput = processSineWaveToOutput(floatSonicAudioProcessor, floatAudioFormat);
+
+      assertThat(floatOutput.remaining() / 4).isEqualTo(int16Output.remaining() / 2);
+      while (floatOutput.hasRemaining()) {
+        assertThat((double) floatOutput.getFloat())
+            .isWithin(1e-3)
+            .of((double) int16Output.getShort() / Short.MAX_VALUE);
+      }
+    }
+  }
+
+  @Test
+  public void queueInput_withMultiResolutionPitchSearch_outputsScaledFrameCount()
+      throws Exception {
+    sonicAudioProcessor.experimentalSetMultiResolutionPitchSearchEnabled(true);
+    sonicAudioProcessor.setSpeed(2f);
+    sonicAudioProcessor.configure(AUDIO_FORMAT_48000_HZ);
+    sonicAudioProcessor.flush();
+
+    sonicAudioProcessor.queueInput(createSineWave(AUDIO_FORMAT_48000_HZ, /* frameCount= */ 48000));
+    sonicAudioProcessor.queueEndOfStream();
+    long outputFrameCount = sonicAudioProcessor.getOutput().remaining() / (2 * 2);
+
+    assertThat((double) outputFrameCount).isWithin(200).of(24000);
+  }
+
+  @Test
+  public void queueInput_withMultiResolutionPitchSearch_outputsSameAudioAsDefaultSearch()
+      throws Exception {
+    for (float speed : new float[] {0.5f, 1.5f, 2f}) {
+      SonicAudioProcessor defaultSonicAudioProcessor = new SonicAudioProcessor();
+      defaultSonicAudioProcessor.setSpeed(speed);
+      SonicAudioProcessor multiResolutionSonicAudioProcessor = new SonicAudioProcessor();
+      multiResolutionSonicAudioProcessor.setSpeed(speed);
+      multiResolutionSonicAudioProcessor.experimentalSetMultiResolutionPitchSearchEnabled(true);
+
+      ByteBuffer defaultOutput =
+          processSineWaveToOutput(defaultSonicAudioProcessor, AUDIO_FORMAT_48000_HZ);
+      ByteBuffer multiResolutionOutput =
+          processSineWaveToOutput(multiResolutionSonicAudioProcessor, AUDIO_FORMAT_48000_HZ);
+
+      // Both searches find the same pitch period for a sine wave, so the output is identical.
+      assertThat(multiResolutionOutput.remaining()).isEqualTo(defaultOutput.remaining());
+      assertThat(multiResolutionOutput).isEqualTo(defaultOutput);
+    }
+  }
+
+  /** Processes one second of a sine wave at the given speed and returns the output size. */
+  private long processSineWave(AudioFormat inputAudioFormat, float speed) throws Exception {
+    SonicAudioProcessor sonicAudioProcessor = new SonicAudioProcessor();
+    sonicAudioProcessor.setSpeed(speed);
+    sonicAudioProcessor.configure(inputAudioFormat);
+    sonicAudioProcessor.flush();
+    sonicAudioProcessor.queueInput(
+        createSineWave(inputAudioFormat, /* frameCount= */ inputAudioFormat.sampleRate));
+    sonicAudioProcessor.queueEndOfStream();
+    long outputSize = 0;
+    while (!sonicAudioProcessor.isEnded()) {
+      outputSize += sonicAudioProcessor.getOutput().remaining();
+    }
+    return outputSize;
+  }
+
+  /**
+   * Processes one second of a sine wave with the given processor, and returns a copy of all output.
+   */
+  private static ByteBuffer processSineWaveToOutput(
+      SonicAudioProcessor sonicAudioProcessor, AudioFormat inputAudioFormat) throws Exception {
+    sonicAudioProcessor.configure(inputAudioFormat);
+    sonicAudioProcessor.flush();
+    sonicAudioProcessor.queueInput(
+        createSineWave(inputAudioFormat, /* frameCount= */ inputAudioFormat.sampleRate));
+    sonicAudioProcessor.queueEndOfStream();
+    ByteBuffer output =
+        ByteBuffer.allocateDirect(4 * inputAudioFormat.sampleRate * inputAudioFormat.bytesPerFrame)
+            .order(ByteOrder.nativeOrder());
+    while (!sonicAudioProcessor.isEnded()) {
+      output.put(sonicAudioProcessor.getOutput());
+    }
+    output.flip();
+    return output;
+  }
+
+  /** Returns a buffer containing a 440 Hz sine wave with an amplitude of 0.5 in all channels. */
+  private static ByteBuffer createSineWave(AudioFormat audioFormat, int frameCount) {
+    boolean isFloat = audioFormat.encoding == C.ENCODING_PCM_FLOAT;
+    ByteBuffer buffer =
+        ByteBuffer.allocateDirect(frameCount * audioFormat.bytesPerFrame)
+            .order(ByteOrder.nativeOrder());
+    for (int i = 0; i < frameCount; i++) {
+      float sample = (float) (0.5 * Math.sin(2 * Math.PI * 440 * i / audioFormat.sampleRate));
+      for (int j = 0; j < audioFormat.channelCount; j++) {
+        if (isFloat) {
+          buffer.putFloat(sample);
+        } else {
+          buffer.putShort((short) (sample * Short.MAX_VALUE));
+        }
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
 }
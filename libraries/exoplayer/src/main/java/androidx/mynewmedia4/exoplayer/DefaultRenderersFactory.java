@@ -26,12 +26,15 @@ import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 import androidx.mynewmedia4.common.util.Log;
 import androidx.mynewmedia4.common.util.UnstableApi;
+import androidx.mynewmedia4.exoplayer.analytics.AnalyticsListener;
 import androidx.mynewmedia4.exoplayer.audio.AudioRendererEventListener;
 import androidx.mynewmedia4.exoplayer.audio.AudioSink;
 import androidx.mynewmedia4.exoplayer.audio.DefaultAudioSink;
 import androidx.mynewmedia4.exoplayer.audio.MediaCodecAudioRenderer;
 import androidx.mynewmedia4.exoplayer.mediacodec.DefaultMediaCodecAdapterFactory;
 import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecAdapter;
+import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecPool;
+import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecRenderer;
 import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecSelector;
 import androidx.mynewmedia4.exoplayer.metadata.MetadataOutput;
 import androidx.mynewmedia4.exoplayer.metadata.MetadataRenderer;
@@ -39,6 +42,7 @@ import androidx.mynewmedia4.exoplayer.text.TextOutput;
 import androidx.mynewmedia4.exoplayer.text.TextRenderer;
 import androidx.mynewmedia4.exoplayer.trackselection.TrackSelector;
 import androidx.mynewmedia4.exoplayer.video.MediaCodecVideoRenderer;
+import androidx.mynewmedia4.exoplayer.video.VideoFrameReleaseTrace;
 import androidx.mynewmedia4.exoplayer.video.VideoRendererEventListener;
 import androidx.mynewmedia4.exoplayer.video.spherical.CameraMotionRenderer;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
@@ -102,6 +106,9 @@ public class DefaultRenderersFactory implements RenderersFactory {
   private boolean enableFloatOutput;
   private boolean enableAudioTrackPlaybackParams;
   private boolean enableOffload;
+  @Nullable private MediaCodecPool mediaCodecPool;
+  private boolean enableInterleavedInputFeeding;
+  private int videoFrameReleaseTraceSize;
 
   /**
    * @param context A {@link Context}.
@@ -175,6 +182,61 @@ public class DefaultRenderersFactory implements RenderersFactory {
     return this;
   }
 
+  /**
+   * Sets a {@link MediaCodecPool} from which {@link
+   * androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecRenderer} instances obtain their codecs,
+   * and to which they return them when the codecs are released.
+   *
+   * <p>Sharing a pool, for example the {@linkplain MediaCodecPool#getDefault() default pool},
+   * between players avoids the cost of creating and configuring codecs on playlist transitions
+   * and when players are recreated.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   *
+   * @param mediaCodecPool The {@link MediaCodecPool}, or {@code null} to disable pooling.
+   * @return This factory, for convenience.
+   */
+  @CanIgnoreReturnValue
+  public DefaultRenderersFactory experimentalSetMediaCodecPool(
+      @Nullable MediaCodecPool mediaCodecPool) {
+    this.mediaCodecPool = mediaCodecPool;
+    return this;
+  }
+
+  /**
+   * Sets whether {@link MediaCodecRenderer} instances drain pending output buffers after each input
+   * buffer they queue, so that feeding input doesn't delay output release. See {@link
+   * MediaCodecRenderer#experimentalSetInterleavedInputFeedingEnabled(boolean)}.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   *
+   * @param enabled Whether to interleave input feeding with output draining.
+   * @return This factory, for convenience.
+   */
+  @CanIgnoreReturnValue
+  public DefaultRenderersFactory experimentalSetInterleavedInputFeedingEnabled(boolean enabled) {
+    this.enableInterleavedInputFeeding = enabled;
+    return this;
+  }
+
+  /**
+   * Sets the number of frames whose release decisions {@link MediaCodecVideoRenderer} instances
+   * trace and report together through {@link
+   * AnalyticsListener#onVideoFrameReleaseTrace(AnalyticsListener.EventTime,
+   * VideoFrameReleaseTrace)}. See {@link
+   * MediaCodecVideoRenderer#experimentalSetFrameReleaseTraceSize(int)}.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   *
+   * @param frameCount The maximum number of frames in each reported trace, or 0 to disable tracing.
+   * @return This factory, for convenience.
+   */
+  @CanIgnoreReturnValue
+  public DefaultRenderersFactory experimentalSetVideoFrameReleaseTraceSize(int frameCount) {
+    this.videoFrameReleaseTraceSize = frameCount;
+    return this;
+  }
+
   /**
    * Sets whether to enable fallback to lower-priority decoders if decoder initialization fails.
    * This may result in using a decoder that is less efficient or slower than the primary decoder.
@@ -366,6 +428,8 @@ public class DefaultRenderersFactory implements RenderersFactory {
             eventHandler,
             eventListener,
             MAX_DROPPED_VIDEO_FRAME_COUNT_TO_NOTIFY);
+    videoRenderer.experimentalSetInterleavedInputFeedingEnabled(enableInterleavedInputFeeding);
+    videoRenderer.experimentalSetFrameReleaseTraceSize(videoFrameReleaseTraceSize);
     out.add(videoRenderer);
 
     if (extensionRendererMode == EXTENSION_RENDERER_MODE_OFF) {
@@ -459,6 +523,7 @@ public class DefaultRenderersFactory implements RenderersFactory {
             eventHandler,
             eventListener,
             audioSink);
+    audioRenderer.experimentalSetInterleavedInputFeedingEnabled(enableInterleavedInputFeeding);
     out.add(audioRenderer);
 
     if (extensionRendererMode == EXTENSION_RENDERER_MODE_OFF) {
@@ -638,6 +703,8 @@ public class DefaultRenderersFactory implements RenderersFactory {
    * androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecRenderer} instances.
    */
   protected MediaCodecAdapter.Factory getCodecAdapterFactory() {
-    return codecAdapterFactory;
+    return mediaCodecPool != null
+        ? mediaCodecPool.createAdapterFactory(codecAdapterFactory)
+        : codecAdapterFactory;
   }
 }
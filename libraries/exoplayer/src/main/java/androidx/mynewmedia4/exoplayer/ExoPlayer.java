@@ -466,6 +466,8 @@ public interface ExoPlayer extends Player {
 
     /* package */ Clock clock;
     /* package */ long foregroundModeTimeoutMs;
+    /* package */ boolean dynamicSchedulingEnabled;
+    @Nullable /* package */ PlaybackLoopProfiler playbackLoopProfiler;
     /* package */ Supplier<RenderersFactory> renderersFactorySupplier;
     /* package */ Supplier<MediaSource.Factory> mediaSourceFactorySupplier;
     /* package */ Supplier<TrackSelector> trackSelectorSupplier;
@@ -533,6 +535,8 @@ public interface ExoPlayer extends Player {
      *   <li>{@code detachSurfaceTimeoutMs}: {@link #DEFAULT_DETACH_SURFACE_TIMEOUT_MS}
      *   <li>{@code pauseAtEndOfMediaItems}: {@code false}
      *   <li>{@code usePlatformDiagnostics}: {@code true}
+     *   <li>{@code dynamicSchedulingEnabled}: {@code false}
+     *   <li>{@link PlaybackLoopProfiler}: {@code null} (no profiling)
      *   <li>{@link Clock}: {@link Clock#DEFAULT}
      *   <li>{@code playbackLooper}: {@code null} (create new thread)
      * </ul>
@@ -712,6 +716,50 @@ public interface ExoPlayer extends Player {
       return this;
     }
 
+    /**
+     * Sets whether dynamic scheduling of the playback loop is enabled.
+     *
+     * <p>If enabled, the player sleeps between iterations of its playback loop while playing until
+     * the earliest time at which one of its renderers can make progress, as reported by {@link
+     * Renderer#getDurationToProgressUs(long, long)}, instead of running the loop at a fixed short
+     * interval. This reduces CPU wakeups, in particular for audio-only and background playback.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     *
+     * @param dynamicSchedulingEnabled Whether to enable dynamic scheduling.
+     * @return This builder.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    @CanIgnoreReturnValue
+    @UnstableApi
+    public Builder experimentalSetDynamicSchedulingEnabled(boolean dynamicSchedulingEnabled) {
+      checkState(!buildCalled);
+      this.dynamicSchedulingEnabled = dynamicSchedulingEnabled;
+      return this;
+    }
+
+    /**
+     * Sets a {@link PlaybackLoopProfiler} that profiles the iterations of the playback loop of the
+     * player.
+     *
+     * <p>The profiler must not be used by any other player.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     *
+     * @param playbackLoopProfiler The {@link PlaybackLoopProfiler}, or {@code null} to disable
+     *     profiling.
+     * @return This builder.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    @CanIgnoreReturnValue
+    @UnstableApi
+    public Builder experimentalSetPlaybackLoopProfiler(
+        @Nullable PlaybackLoopProfiler playbackLoopProfiler) {
+      checkState(!buildCalled);
+      this.playbackLoopProfiler = playbackLoopProfiler;
+      return this;
+    }
+
     /**
      * Sets the {@link RenderersFactory} that will be used by the player.
      *
@@ -108,6 +108,7 @@ import androidx.mynewmedia4.exoplayer.trackselection.TrackSelectorResult;
 import androidx.mynewmedia4.exoplayer.upstream.BandwidthMeter;
 import androidx.mynewmedia4.exoplayer.video.VideoDecoderOutputBufferRenderer;
 import androidx.mynewmedia4.exoplayer.video.VideoFrameMetadataListener;
+import androidx.mynewmedia4.exoplayer.video.VideoFrameReleaseTrace;
 import androidx.mynewmedia4.exoplayer.video.VideoRendererEventListener;
 import androidx.mynewmedia4.exoplayer.video.spherical.CameraMotionListener;
 import androidx.mynewmedia4.exoplayer.video.spherical.SphericalGLSurfaceView;
@@ -350,6 +351,8 @@ import java.util.concurrent.TimeoutException;
               builder.livePlaybackSpeedControl,
               builder.releaseTimeoutMs,
               pauseAtEndOfMediaItems,
+              builder.dynamicSchedulingEnabled,
+              builder.playbackLoopProfiler,
               applicationLooper,
               clock,
               playbackInfoUpdateListener,
@@ -2963,6 +2966,11 @@ import java.util.concurrent.TimeoutException;
       analyticsCollector.onVideoFrameProcessingOffset(totalProcessingOffsetUs, frameCount);
     }
 
+    @Override
+    public void onVideoFrameReleaseTrace(VideoFrameReleaseTrace trace) {
+      analyticsCollector.onVideoFrameReleaseTrace(trace);
+    }
+
     @Override
     public void onVideoCodecError(Exception videoCodecError) {
       analyticsCollector.onVideoCodecError(videoCodecError);
@@ -204,6 +204,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
   private final MediaSourceList mediaSourceList;
   private final LivePlaybackSpeedControl livePlaybackSpeedControl;
   private final long releaseTimeoutMs;
+  private final boolean dynamicSchedulingEnabled;
+  @Nullable private final PlaybackLoopProfiler playbackLoopProfiler;
 
   @SuppressWarnings("unused")
   private SeekParameters seekParameters;
@@ -242,6 +244,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
       LivePlaybackSpeedControl livePlaybackSpeedControl,
       long releaseTimeoutMs,
       boolean pauseAtEndOfWindow,
+      boolean dynamicSchedulingEnabled,
+      @Nullable PlaybackLoopProfiler playbackLoopProfiler,
       Looper applicationLooper,
       Clock clock,
       PlaybackInfoUpdateListener playbackInfoUpdateListener,
@@ -260,6 +264,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
     this.releaseTimeoutMs = releaseTimeoutMs;
     this.setForegroundModeTimeoutMs = releaseTimeoutMs;
     this.pauseAtEndOfWindow = pauseAtEndOfWindow;
+    this.dynamicSchedulingEnabled = dynamicSchedulingEnabled;
+    this.playbackLoopProfiler = playbackLoopProfiler;
     this.clock = clock;
 
     playbackMaybeBecameStuckAtMs = C.TIME_UNSET;
@@ -1008,6 +1014,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
   private void doSomeWork() throws ExoPlaybackException, IOException {
     long operationStartTimeMs = clock.uptimeMillis();
+    if (playbackLoopProfiler == null) {
+      doSomeWork(operationStartTimeMs);
+      return;
+    }
+    playbackLoopProfiler.beginIteration(operationStartTimeMs);
+    try {
+      doSomeWork(operationStartTimeMs);
+    } finally {
+      playbackLoopProfiler.endIteration();
+    }
+  }
+
+  private void doSomeWork(long operationStartTimeMs) throws ExoPlaybackException, IOException {
     // Remove other pending DO_SOME_WORK requests that are handled by this invocation.
     handler.removeMessages(MSG_DO_SOME_WORK);
 
@@ -1028,12 +1047,18 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
     TraceUtil.beginSection("doSomeWork");
 
-    updatePlaybackPositions();
+    beginProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_PLAYBACK_POSITIONS);
+    try {
+      updatePlaybackPositions();
+    } finally {
+      endProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_PLAYBACK_POSITIONS);
+    }
 
     boolean renderersEnded = true;
     boolean renderersAllowPlayback = true;
+    long rendererPositionElapsedRealtimeUs = C.TIME_UNSET;
     if (playingPeriodHolder.prepared) {
-      long rendererPositionElapsedRealtimeUs = SystemClock.elapsedRealtime() * 1000;
+      rendererPositionElapsedRealtimeUs = SystemClock.elapsedRealtime() * 1000;
       playingPeriodHolder.mediaPeriod.discardBuffer(
           playbackInfo.positionUs - backBufferDurationUs, retainBackBufferFromKeyframe);
       for (int i = 0; i < renderers.length; i++) {
@@ -1041,10 +1066,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
         if (!isRendererEnabled(renderer)) {
           continue;
         }
-        // TODO: Each renderer should return the maximum delay before which it wishes to be called
-        // again. The minimum of these values should then be used as the delay before the next
-        // invocation of this method.
-        renderer.render(rendererPositionUs, rendererPositionElapsedRealtimeUs);
+        @PlaybackLoopProfiler.Section int renderSection = getRenderSection(renderer);
+        beginProfiledSection(renderSection);
+        try {
+          renderer.render(rendererPositionUs, rendererPositionElapsedRealtimeUs);
+        } finally {
+          endProfiledSection(renderSection);
+        }
         renderersEnded = renderersEnded && renderer.isEnded();
         // Determine whether the renderer allows playback to continue. Playback can continue if the
         // renderer is ready or ended. Also continue playback if the renderer is reading ahead into
@@ -1137,6 +1165,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
     if (sleepingForOffload || playbackInfo.playbackState == Player.STATE_ENDED) {
       // No need to schedule next work.
+    } else if (isPlaying && dynamicSchedulingEnabled && playingPeriodHolder.prepared) {
+      // We are actively playing. Schedule next work for when the renderers can make progress.
+      scheduleNextWork(
+          operationStartTimeMs, getDurationToProgressMs(rendererPositionElapsedRealtimeUs));
     } else if (isPlaying || playbackInfo.playbackState == Player.STATE_BUFFERING) {
       // We are actively playing or waiting for data to be ready. Schedule next work quickly.
       scheduleNextWork(operationStartTimeMs, ACTIVE_INTERVAL_MS);
@@ -1173,8 +1205,59 @@ import java.util.concurrent.atomic.AtomicBoolean;
     return window.isLive() && window.isDynamic && window.windowStartTimeMs != C.TIME_UNSET;
   }
 
+  /**
+   * Returns the minimum duration after which any of the enabled renderers can make progress, capped
+   * to {@link #IDLE_INTERVAL_MS}.
+   */
+  private long getDurationToProgressMs(long rendererPositionElapsedRealtimeUs) {
+    if (!pendingMessages.isEmpty()) {
+      // Messages need to be delivered close to their position, so keep polling.
+      return ACTIVE_INTERVAL_MS;
+    }
+    long durationToProgressUs = Util.msToUs(IDLE_INTERVAL_MS);
+    for (Renderer renderer : renderers) {
+      if (isRendererEnabled(renderer)) {
+        durationToProgressUs =
+            min(
+                durationToProgressUs,
+                renderer.getDurationToProgressUs(
+                    rendererPositionUs, rendererPositionElapsedRealtimeUs));
+      }
+    }
+    return max(ACTIVE_INTERVAL_MS, Util.usToMs(durationToProgressUs));
+  }
+
   private void scheduleNextWork(long thisOperationStartTimeMs, long intervalMs) {
-    handler.sendEmptyMessageAtTime(MSG_DO_SOME_WORK, thisOperationStartTimeMs + intervalMs);
+    long nextOperationStartTimeMs = thisOperationStartTimeMs + intervalMs;
+    if (playbackLoopProfiler != null) {
+      playbackLoopProfiler.onIterationScheduled(nextOperationStartTimeMs);
+    }
+    handler.sendEmptyMessageAtTime(MSG_DO_SOME_WORK, nextOperationStartTimeMs);
+  }
+
+  private void beginProfiledSection(@PlaybackLoopProfiler.Section int section) {
+    if (playbackLoopProfiler != null) {
+      TraceUtil.beginSection(PlaybackLoopProfiler.getSectionName(section));
+      playbackLoopProfiler.beginSection(section);
+    }
+  }
+
+  private void endProfiledSection(@PlaybackLoopProfiler.Section int section) {
+    if (playbackLoopProfiler != null) {
+      playbackLoopProfiler.endSection(section);
+      TraceUtil.endSection();
+    }
+  }
+
+  private static @PlaybackLoopProfiler.Section int getRenderSection(Renderer renderer) {
+    switch (renderer.getTrackType()) {
+      case C.TRACK_TYPE_AUDIO:
+        return PlaybackLoopProfiler.SECTION_RENDER_AUDIO;
+      case C.TRACK_TYPE_VIDEO:
+        return PlaybackLoopProfiler.SECTION_RENDER_VIDEO;
+      default:
+        return PlaybackLoopProfiler.SECTION_RENDER_OTHER;
+    }
   }
 
   private void seekToInternal(SeekPosition seekPosition) throws ExoPlaybackException {
@@ -2041,10 +2124,25 @@ import java.util.concurrent.atomic.AtomicBoolean;
       // No periods available.
       return;
     }
-    maybeUpdateLoadingPeriod();
-    maybeUpdateReadingPeriod();
-    maybeUpdateReadingRenderers();
-    maybeUpdatePlayingPeriod();
+    beginProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_LOADING_PERIOD);
+    try {
+      maybeUpdateLoadingPeriod();
+    } finally {
+      endProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_LOADING_PERIOD);
+    }
+    beginProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_READING_PERIOD);
+    try {
+      maybeUpdateReadingPeriod();
+      maybeUpdateReadingRenderers();
+    } finally {
+      endProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_READING_PERIOD);
+    }
+    beginProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_PLAYING_PERIOD);
+    try {
+      maybeUpdatePlayingPeriod();
+    } finally {
+      endProfiledSection(PlaybackLoopProfiler.SECTION_UPDATE_PLAYING_PERIOD);
+    }
   }
 
   private void maybeUpdateLoadingPeriod() throws ExoPlaybackException {
@@ -2396,23 +2494,28 @@ import java.util.concurrent.atomic.AtomicBoolean;
             ? loadingPeriodHolder.toPeriodTime(rendererPositionUs)
             : loadingPeriodHolder.toPeriodTime(rendererPositionUs)
                 - loadingPeriodHolder.info.startPositionUs;
-    boolean shouldContinueLoading =
-        loadControl.shouldContinueLoading(
-            playbackPositionUs, bufferedDurationUs, mediaClock.getPlaybackParameters().speed);
-    if (!shouldContinueLoading
-        && bufferedDurationUs < PLAYBACK_BUFFER_EMPTY_THRESHOLD_US
-        && (backBufferDurationUs > 0 || retainBackBufferFromKeyframe)) {
-      // LoadControl doesn't want to continue loading despite no buffered data. Clear back buffer
-      // and try again in case it's blocked on memory usage of the back buffer.
-      queue
-          .getPlayingPeriod()
-          .mediaPeriod
-          .discardBuffer(playbackInfo.positionUs, /* toKeyframe= */ false);
-      shouldContinueLoading =
+    beginProfiledSection(PlaybackLoopProfiler.SECTION_LOAD_CONTROL);
+    try {
+      boolean shouldContinueLoading =
           loadControl.shouldContinueLoading(
               playbackPositionUs, bufferedDurationUs, mediaClock.getPlaybackParameters().speed);
+      if (!shouldContinueLoading
+          && bufferedDurationUs < PLAYBACK_BUFFER_EMPTY_THRESHOLD_US
+          && (backBufferDurationUs > 0 || retainBackBufferFromKeyframe)) {
+        // LoadControl doesn't want to continue loading despite no buffered data. Clear back buffer
+        // and try again in case it's blocked on memory usage of the back buffer.
+        queue
+            .getPlayingPeriod()
+            .mediaPeriod
+            .discardBuffer(playbackInfo.positionUs, /* toKeyframe= */ false);
+        shouldContinueLoading =
+            loadControl.shouldContinueLoading(
+                playbackPositionUs, bufferedDurationUs, mediaClock.getPlaybackParameters().speed);
+      }
+      return shouldContinueLoading;
+    } finally {
+      endProfiledSection(PlaybackLoopProfiler.SECTION_LOAD_CONTROL);
     }
-    return shouldContinueLoading;
   }
 
   private boolean isLoadingPossible() {
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+import static androidx.mynewmedia4.common.util.Assertions.checkState;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.Player;
+import androidx.mynewmedia4.common.Timeline;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.exoplayer.source.MediaSource.MediaPeriodId;
+import androidx.mynewmedia4.exoplayer.source.ProgressiveMediaSource;
+import androidx.mynewmedia4.exoplayer.source.TrackGroupArray;
+import androidx.mynewmedia4.exoplayer.trackselection.ExoTrackSelection;
+import androidx.mynewmedia4.exoplayer.upstream.Allocator;
+import androidx.mynewmedia4.exoplayer.upstream.DefaultAllocator;
+import androidx.mynewmedia4.exoplayer.util.ReleasableExecutor;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+
+/**
+ * A pool of {@link ExoPlayer} instances that share their playback thread, their loader threads and
+ * their media buffer memory.
+ *
+ * <p>This is useful to keep several players alive at the same time, for example a foreground
+ * player and a number of muted previews in a feed. All players of the pool run their playback loop
+ * on a single playback thread, and allocate media buffers from a single {@link DefaultAllocator}
+ * with a shared budget. At most one player is the {@linkplain #setForegroundPlayer foreground
+ * player}; all other players are previews:
+ *
+ * <ul>
+ *   <li>The foreground player may buffer until the total buffer budget of the pool is used.
+ *       Previews stop buffering once the pool uses the preview buffer budget, which leaves the
+ *       remaining budget to the foreground player.
+ *   <li>At most a {@linkplain Builder#setMaxLoadingPreviewCount maximum number} of previews load
+ *       at the same time. A preview that wants to continue loading waits until another preview
+ *       stops loading. The foreground player can always load. Whether a player is a preview is
+ *       evaluated each time it asks to continue loading, so promoting or demoting a player takes
+ *       effect for its next load, including loads of media periods that were already created.
+ *   <li>Progressive media of previews is loaded on a fixed number of shared loader threads, one
+ *       for each preview that may load at the same time. Loads wait for a thread in the order in
+ *       which they're started. A paused load of media with a known length gives its thread back
+ *       shortly after it's paused, and waits for a thread again once loading continues.
+ *   <li>The foreground player loads progressive media on its own loader thread, so it never waits
+ *       for previews. Loads of a promoted player that are still waiting for a shared thread move
+ *       to the foreground loader thread.
+ * </ul>
+ *
+ * <p>Players are built with {@link #buildPlayer(ExoPlayer.Builder)}. To load progressive media on
+ * the shared loader threads, create the media sources with a {@link ProgressiveMediaSource.Factory}
+ * configured with {@link ProgressiveMediaSource.Factory#setDownloadExecutor} and {@link
+ * #getDownloadExecutorSupplier(ExoPlayer)}.
+ *
+ * <p>The methods of this class must be called on the application thread of the players.
+ *
+ * <p>This class is experimental, and might be renamed, moved or removed in a future release.
+ */
+@UnstableApi
+public final class ExoPlayerPool {
+
+  /** The default maximum number of previews that load at the same time. */
+  public static final int DEFAULT_MAX_LOADING_PREVIEW_COUNT = 2;
+
+  /** The default total buffer budget of a pool, in bytes. */
+  public static final int DEFAULT_TOTAL_BUFFER_BYTES =
+      DefaultLoadControl.DEFAULT_VIDEO_BUFFER_SIZE + DefaultLoadControl.DEFAULT_AUDIO_BUFFER_SIZE;
+
+  /** The default buffer budget of all previews of a pool together, in bytes. */
+  public static final int DEFAULT_PREVIEW_BUFFER_BYTES =
+      DefaultLoadControl.DEFAULT_VIDEO_BUFFER_SIZE / 4;
+
+  /** Builder for {@link ExoPlayerPool} instances. */
+  public static final class Builder {
+
+    private int maxLoadingPreviewCount;
+    private int totalBufferBytes;
+    private int previewBufferBytes;
+    private boolean buildCalled;
+
+    /** Creates a builder. */
+    public Builder() {
+      maxLoadingPreviewCount = DEFAULT_MAX_LOADING_PREVIEW_COUNT;
+      totalBufferBytes = DEFAULT_TOTAL_BUFFER_BYTES;
+      previewBufferBytes = DEFAULT_PREVIEW_BUFFER_BYTES;
+    }
+
+    /**
+     * Sets the maximum number of previews that load at the same time. The default value is {@link
+     * #DEFAULT_MAX_LOADING_PREVIEW_COUNT}.
+     *
+     * <p>A preview counts as loading from the time its load control allows it to continue loading
+     * until it stops loading, for example because enough media is buffered. Previews that are
+     * paused don't count towards this limit.
+     *
+     * @param maxLoadingPreviewCount The maximum number of previews that load at the same time.
+     * @return This builder, for convenience.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    @CanIgnoreReturnValue
+    public Builder setMaxLoadingPreviewCount(int maxLoadingPreviewCount) {
+      checkState(!buildCalled);
+      checkArgument(maxLoadingPreviewCount > 0);
+      this.maxLoadingPreviewCount = maxLoadingPreviewCount;
+      return this;
+    }
+
+    /**
+     * Sets the total buffer budget of the pool, in bytes. The default value is {@link
+     * #DEFAULT_TOTAL_BUFFER_BYTES}.
+     *
+     * @param totalBufferBytes The total buffer budget, in bytes.
+     * @return This builder, for convenience.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    @CanIgnoreReturnValue
+    public Builder setTotalBufferBytes(int totalBufferBytes) {
+      checkState(!buildCalled);
+      checkArgument(totalBufferBytes > 0);
+      this.totalBufferBytes = totalBufferBytes;
+      return this;
+    }
+
+    /**
+     * Sets the buffer budget of all previews together, in bytes. Must not be larger than the
+     * {@linkplain #setTotalBufferBytes total buffer budget}. The default value is {@link
+     * #DEFAULT_PREVIEW_BUFFER_BYTES}.
+     *
+     * @param previewBufferBytes The buffer budget of the previews, in bytes.
+     * @return This builder, for convenience.
+     * @throws IllegalStateException If {@link #build()} has already been called.
+     */
+    @CanIgnoreReturnValue
+    public Builder setPreviewBufferBytes(int previewBufferBytes) {
+      checkState(!buildCalled);
+      checkArgument(previewBufferBytes >= 0);
+      this.previewBufferBytes = previewBufferBytes;
+      return this;
+    }
+
+    /**
+     * Builds the pool.
+     *
+     * @throws IllegalStateException If this method has already been called.
+     */
+    public ExoPlayerPool build() {
+      checkState(!buildCalled);
+      checkArgument(previewBufferBytes <= totalBufferBytes);
+      buildCalled = true;
+      return new ExoPlayerPool(this);
+    }
+  }
+
+  private static final String LOADER_THREAD_NAME = "ExoPlayer:PoolLoader";
+  private static final String FOREGROUND_LOADER_THREAD_NAME = "ExoPlayer:PoolForegroundLoader";
+  private static final long LOADER_THREAD_KEEP_ALIVE_MS = 10_000;
+
+  private final int maxLoadingPreviewCount;
+  private final int totalBufferBytes;
+  private final int previewBufferBytes;
+  private final HandlerThread playbackThread;
+  private final ThreadPoolExecutor previewLoaderExecutor;
+  private final ExecutorService foregroundLoaderExecutorService;
+  private final DefaultAllocator allocator;
+  private final Map<ExoPlayer, PlayerState> players;
+
+  /** The previews that are currently loading. Accessed on the playback and application threads. */
+  @GuardedBy("loadingPreviews")
+  private final Set<PlayerState> loadingPreviews;
+
+  @Nullable private ExoPlayer foregroundPlayer;
+  private volatile boolean released;
+
+  private ExoPlayerPool(Builder builder) {
+    maxLoadingPreviewCount = builder.maxLoadingPreviewCount;
+    totalBufferBytes = builder.totalBufferBytes;
+    previewBufferBytes = builder.previewBufferBytes;
+    playbackThread = new HandlerThread("ExoPlayer:PoolPlayback", Process.THREAD_PRIORITY_AUDIO);
+    playbackThread.start();
+    previewLoaderExecutor =
+        new ThreadPoolExecutor(
+            /* corePoolSize= */ maxLoadingPreviewCount,
+            /* maximumPoolSize= */ maxLoadingPreviewCount,
+            LOADER_THREAD_KEEP_ALIVE_MS,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            new LoaderThreadFactory());
+    previewLoaderExecutor.allowCoreThreadTimeOut(true);
+    foregroundLoaderExecutorService = Util.newSingleThreadExecutor(FOREGROUND_LOADER_THREAD_NAME);
+    allocator = new DefaultAllocator(/* trimOnReset= */ false, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    allocator.setTargetBufferSize(totalBufferBytes);
+    players = new HashMap<>();
+    loadingPreviews = new HashSet<>();
+  }
+
+  /** Returns the {@link Looper} of the playback thread shared by the players of the pool. */
+  public Looper getPlaybackLooper() {
+    return playbackThread.getLooper();
+  }
+
+  /** Returns the {@link Allocator} shared by the players of the pool. */
+  public Allocator getAllocator() {
+    return allocator;
+  }
+
+  /**
+   * Builds a player that's part of this pool. The player is a preview until it's set as the
+   * {@linkplain #setForegroundPlayer foreground player}.
+   *
+   * <p>The {@linkplain ExoPlayer.Builder#setPlaybackLooper playback looper} and the {@linkplain
+   * ExoPlayer.Builder#setLoadControl load control} of the builder are overridden.
+   *
+   * <p>The player must be released with {@link #releasePlayer(ExoPlayer)}.
+   *
+   * @param builder The {@link ExoPlayer.Builder} to build the player with.
+   * @return The player.
+   * @throws IllegalStateException If the pool has been released.
+   */
+  public ExoPlayer buildPlayer(ExoPlayer.Builder builder) {
+    checkState(!released);
+    PlayerState playerState = new PlayerState();
+    DefaultLoadControl loadControl =
+        new DefaultLoadControl.Builder()
+            .setAllocator(allocator)
+            .setTargetBufferBytes(totalBufferBytes)
+            .setPrioritizeTimeOverSizeThresholds(false)
+            .build();
+    playerState.loadControl = new PooledLoadControl(loadControl, playerState);
+    ExoPlayer player =
+        builder
+            .setPlaybackLooper(getPlaybackLooper())
+            .setLoadControl(playerState.loadControl)
+            .build();
+    player.addListener(
+        new Player.Listener() {
+          @Override
+          public void onIsLoadingChanged(boolean isLoading) {
+            // Covers loads that end without asking the load control, for example at the end of
+            // the media.
+            if (!isLoading) {
+              releaseLoadingSlot(playerState);
+            }
+          }
+        });
+    players.put(player, playerState);
+    return player;
+  }
+
+  /**
+   * Returns a supplier of {@link ReleasableExecutor executors} for loading media of the given
+   * player, for use with {@link ProgressiveMediaSource.Factory#setDownloadExecutor}.
+   *
+   * <p>The supplied executors run each load on the foreground loader thread if the player is the
+   * foreground player when the load starts, and on one of the shared loader threads otherwise.
+   *
+   * @param player A player built with {@link #buildPlayer(ExoPlayer.Builder)}.
+   * @return The supplier. Its {@link Supplier#get()} method throws an {@link
+   *     IllegalStateException} once the pool has been released.
+   */
+  public Supplier<ReleasableExecutor> getDownloadExecutorSupplier(ExoPlayer player) {
+    checkArgument(players.containsKey(player));
+    Executor playerLoaderExecutor = new PlayerLoaderExecutor(checkNotNull(players.get(player)));
+    return () -> {
+      checkState(!released);
+      // Releasing the sequential executor must not shut down the shared threads.
+      return ReleasableExecutor.from(
+          MoreExecutors.newSequentialExecutor(playerLoaderExecutor), executor -> {});
+    };
+  }
+
+  /**
+   * Sets the foreground player of the pool. All other players of the pool become previews.
+   *
+   * <p>The change applies the next time each player asks to continue loading or starts a load. A
+   * promoted player stops counting towards the {@linkplain Builder#setMaxLoadingPreviewCount
+   * maximum number of loading previews} straight away, and its loads that wait for a shared loader
+   * thread move to the foreground loader thread.
+   *
+   * @param player A player built with {@link #buildPlayer(ExoPlayer.Builder)}, or {@code null} to
+   *     make all players previews.
+   */
+  public void setForegroundPlayer(@Nullable ExoPlayer player) {
+    checkArgument(player == null || players.containsKey(player));
+    foregroundPlayer = player;
+    for (Map.Entry<ExoPlayer, PlayerState> entry : players.entrySet()) {
+      PlayerState playerState = entry.getValue();
+      playerState.isForeground = entry.getKey() == player;
+      if (playerState.isForeground) {
+        releaseLoadingSlot(playerState);
+        moveWaitingLoadsToForegroundThread(playerState);
+      }
+    }
+  }
+
+  /** Returns the foreground player of the pool, or {@code null} if all players are previews. */
+  @Nullable
+  public ExoPlayer getForegroundPlayer() {
+    return foregroundPlayer;
+  }
+
+  /**
+   * Releases a player of the pool.
+   *
+   * @param player A player built with {@link #buildPlayer(ExoPlayer.Builder)}.
+   */
+  public void releasePlayer(ExoPlayer player) {
+    PlayerState playerState = checkNotNull(players.remove(player));
+    releaseLoadingSlot(playerState);
+    if (player == foregroundPlayer) {
+      foregroundPlayer = null;
+    }
+    player.release();
+  }
+
+  /**
+   * Releases the pool. All players of the pool must have been {@linkplain #releasePlayer released}
+   * before.
+   */
+  public void release() {
+    if (released) {
+      return;
+    }
+    checkState(players.isEmpty());
+    released = true;
+    previewLoaderExecutor.shutdown();
+    foregroundLoaderExecutorService.shutdown();
+    playbackThread.quit();
+    allocator.setTargetBufferSize(0);
+  }
+
+  /** Returns the {@link LoadControl} of a player of the pool. */
+  @VisibleForTesting
+  /* package */ LoadControl getLoadControl(ExoPlayer player) {
+    return checkNotNull(players.get(player)).loadControl;
+  }
+
+  /**
+   * Returns whether the preview can load, taking one of the loading slots if it doesn't hold one
+   * already.
+   */
+  private boolean acquireLoadingSlot(PlayerState playerState) {
+    synchronized (loadingPreviews) {
+      if (loadingPreviews.contains(playerState)) {
+        return true;
+      }
+      if (loadingPreviews.size() >= maxLoadingPreviewCount) {
+        return false;
+      }
+      loadingPreviews.add(playerState);
+      return true;
+    }
+  }
+
+  private void releaseLoadingSlot(PlayerState playerState) {
+    synchronized (loadingPreviews) {
+      loadingPreviews.remove(playerState);
+    }
+  }
+
+  private void moveWaitingLoadsToForegroundThread(PlayerState playerState) {
+    BlockingQueue<Runnable> waitingLoads = previewLoaderExecutor.getQueue();
+    List<PreviewLoad> playerLoads = new ArrayList<>();
+    for (Runnable load : waitingLoads) {
+      if (((PreviewLoad) load).playerState == playerState) {
+        playerLoads.add((PreviewLoad) load);
+      }
+    }
+    for (PreviewLoad load : playerLoads) {
+      // A load that a shared thread took in the meantime runs there instead.
+      if (waitingLoads.remove(load)) {
+        foregroundLoaderExecutorService.execute(load.command);
+      }
+    }
+  }
+
+  private static final class PlayerState {
+
+    public volatile boolean isForeground;
+    public @MonotonicNonNull LoadControl loadControl;
+  }
+
+  /** A load of a preview, waiting for one of the shared loader threads. */
+  private static final class PreviewLoad implements Runnable {
+
+    public final PlayerState playerState;
+    public final Runnable command;
+
+    public PreviewLoad(PlayerState playerState, Runnable command) {
+      this.playerState = playerState;
+      this.command = command;
+    }
+
+    @Override
+    public void run() {
+      command.run();
+    }
+  }
+
+  private static final class LoaderThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger threadCount;
+
+    public LoaderThreadFactory() {
+      threadCount = new AtomicInteger();
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, LOADER_THREAD_NAME + threadCount.incrementAndGet());
+    }
+  }
+
+  /**
+   * An {@link Executor} that runs the loads of a player on the foreground loader thread while the
+   * player is the foreground player, and on the shared loader threads otherwise.
+   */
+  private final class PlayerLoaderExecutor implements Executor {
+
+    private final PlayerState playerState;
+
+    public PlayerLoaderExecutor(PlayerState playerState) {
+      this.playerState = playerState;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      if (playerState.isForeground) {
+        foregroundLoaderExecutorService.execute(command);
+      } else {
+        previewLoaderExecutor.execute(new PreviewLoad(playerState, command));
+      }
+    }
+  }
+
+  /**
+   * A {@link LoadControl} that stops loading of previews once the pool uses the preview buffer
+   * budget or the maximum number of previews are loading, and otherwise delegates to a {@link
+   * DefaultLoadControl} using the shared allocator.
+   */
+  private final class PooledLoadControl implements LoadControl {
+
+    private final DefaultLoadControl loadControl;
+    private final PlayerState playerState;
+
+    public PooledLoadControl(DefaultLoadControl loadControl, PlayerState playerState) {
+      this.loadControl = loadControl;
+      this.playerState = playerState;
+    }
+
+    @Override
+    public void onPrepared() {
+      loadControl.onPrepared();
+    }
+
+    @Override
+    public void onTracksSelected(
+        Timeline timeline,
+        MediaPeriodId mediaPeriodId,
+        Renderer[] renderers,
+        TrackGroupArray trackGroups,
+        ExoTrackSelection[] trackSelections) {
+      loadControl.onTracksSelected(
+          timeline, mediaPeriodId, renderers, trackGroups, trackSelections);
+    }
+
+    @Override
+    public void onStopped() {
+      releaseLoadingSlot(playerState);
+      loadControl.onStopped();
+    }
+
+    @Override
+    public void onReleased() {
+      releaseLoadingSlot(playerState);
+      loadControl.onReleased();
+    }
+
+    @Override
+    public Allocator getAllocator() {
+      return allocator;
+    }
+
+    @Override
+    public long getBackBufferDurationUs() {
+      return loadControl.getBackBufferDurationUs();
+    }
+
+    @Override
+    public boolean retainBackBufferFromKeyframe() {
+      return loadControl.retainBackBufferFromKeyframe();
+    }
+
+    @Override
+    public boolean shouldContinueLoading(
+        long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
+      if (playerState.isForeground) {
+        releaseLoadingSlot(playerState);
+        return loadControl.shouldContinueLoading(
+            playbackPositionUs, bufferedDurationUs, playbackSpeed);
+      }
+      if (allocator.getTotalBytesAllocated() >= previewBufferBytes
+          || !loadControl.shouldContinueLoading(
+              playbackPositionUs, bufferedDurationUs, playbackSpeed)) {
+        releaseLoadingSlot(playerState);
+        return false;
+      }
+      return acquireLoadingSlot(playerState);
+    }
+
+    @Override
+    public boolean shouldStartPlayback(
+        Timeline timeline,
+        MediaPeriodId mediaPeriodId,
+        long bufferedDurationUs,
+        float playbackSpeed,
+        boolean rebuffering,
+        long targetLiveOffsetUs) {
+      return loadControl.shouldStartPlayback(
+          timeline,
+          mediaPeriodId,
+          bufferedDurationUs,
+          playbackSpeed,
+          rebuffering,
+          targetLiveOffsetUs);
+    }
+  }
+}
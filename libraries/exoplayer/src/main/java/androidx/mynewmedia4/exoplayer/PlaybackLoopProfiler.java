@@ -0,0 +1,470 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static java.lang.annotation.ElementType.TYPE_USE;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.util.TraceUtil;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Profiles the iterations of the playback loop of an {@link ExoPlayer}.
+ *
+ * <p>The profiler measures the duration of each iteration of the playback loop and of the {@link
+ * Section sections} of work within it, and keeps them in a ring buffer holding the most recent
+ * iterations. It also counts iterations that started late, and maintains histograms of the section
+ * durations over all profiled iterations. The data can be obtained at any time with {@link
+ * #getSnapshot()}, and is reported to {@link Listener listeners} each time the ring buffer has been
+ * filled with new iterations. {@link Snapshot#toCsv()} exports it for offline analysis.
+ *
+ * <p>Section durations are inclusive: the duration of {@link #SECTION_LOAD_CONTROL} is also counted
+ * in the section it's called from. The same sections are written as {@link TraceUtil} sections.
+ *
+ * <p>The profiler is set with {@link ExoPlayer.Builder#experimentalSetPlaybackLoopProfiler}. An
+ * instance must only be used by a single player.
+ *
+ * <p>This class is experimental, and might be renamed, moved or removed in a future release.
+ */
+@UnstableApi
+public final class PlaybackLoopProfiler {
+
+  /** A listener for profiling data. */
+  public interface Listener {
+
+    /**
+     * Called each time the ring buffer of the profiler has been filled with new iterations.
+     *
+     * <p>Called on the playback thread. Implementations should return quickly.
+     *
+     * @param snapshot A {@link Snapshot} of the profiling data.
+     */
+    void onIterationsProfiled(Snapshot snapshot);
+  }
+
+  /**
+   * A section of work within an iteration of the playback loop. One of {@link #SECTION_ITERATION},
+   * {@link #SECTION_UPDATE_LOADING_PERIOD}, {@link #SECTION_UPDATE_READING_PERIOD}, {@link
+   * #SECTION_UPDATE_PLAYING_PERIOD}, {@link #SECTION_LOAD_CONTROL}, {@link
+   * #SECTION_UPDATE_PLAYBACK_POSITIONS}, {@link #SECTION_RENDER_AUDIO}, {@link
+   * #SECTION_RENDER_VIDEO} or {@link #SECTION_RENDER_OTHER}.
+   */
+  @Documented
+  @Retention(RetentionPolicy.SOURCE)
+  @Target(TYPE_USE)
+  @IntDef({
+    SECTION_ITERATION,
+    SECTION_UPDATE_LOADING_PERIOD,
+    SECTION_UPDATE_READING_PERIOD,
+    SECTION_UPDATE_PLAYING_PERIOD,
+    SECTION_LOAD_CONTROL,
+    SECTION_UPDATE_PLAYBACK_POSITIONS,
+    SECTION_RENDER_AUDIO,
+    SECTION_RENDER_VIDEO,
+    SECTION_RENDER_OTHER
+  })
+  public @interface Section {}
+  /** The whole iteration. */
+  public static final int SECTION_ITERATION = 0;
+  /** Updating the loading period of the {@link MediaPeriodQueue}. */
+  public static final int SECTION_UPDATE_LOADING_PERIOD = 1;
+  /** Updating the reading period of the {@link MediaPeriodQueue} and the reading renderers. */
+  public static final int SECTION_UPDATE_READING_PERIOD = 2;
+  /** Updating the playing period of the {@link MediaPeriodQueue}. */
+  public static final int SECTION_UPDATE_PLAYING_PERIOD = 3;
+  /** Calls to the {@link LoadControl} to decide whether to continue loading. */
+  public static final int SECTION_LOAD_CONTROL = 4;
+  /** Updating the playback position. */
+  public static final int SECTION_UPDATE_PLAYBACK_POSITIONS = 5;
+  /** Rendering by audio renderers. */
+  public static final int SECTION_RENDER_AUDIO = 6;
+  /** Rendering by video renderers. */
+  public static final int SECTION_RENDER_VIDEO = 7;
+  /** Rendering by other renderers. */
+  public static final int SECTION_RENDER_OTHER = 8;
+
+  /** The number of {@link Section sections}. */
+  public static final int SECTION_COUNT = 9;
+
+  /**
+   * The number of histogram buckets. Bucket {@code 0} counts durations below 1 µs, and bucket
+   * {@code i > 0} counts durations in {@code [2^(i-1), 2^i)} µs. The last bucket also counts all
+   * longer durations.
+   */
+  public static final int HISTOGRAM_BUCKET_COUNT = 22;
+
+  /** The default number of iterations kept in the ring buffer. */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * The delay after its scheduled start time from which an iteration is counted as late, in
+   * milliseconds.
+   */
+  public static final long LATE_ITERATION_THRESHOLD_MS = 10;
+
+  private static final String[] SECTION_NAMES =
+      new String[] {
+        "doSomeWork",
+        "updateLoadingPeriod",
+        "updateReadingPeriod",
+        "updatePlayingPeriod",
+        "loadControl",
+        "updatePlaybackPositions",
+        "renderAudio",
+        "renderVideo",
+        "renderOther"
+      };
+
+  /** Returns the name of a section, as used for {@link TraceUtil} sections and CSV exports. */
+  public static String getSectionName(@Section int section) {
+    return SECTION_NAMES[section];
+  }
+
+  private final int capacity;
+  private final CopyOnWriteArrayList<Listener> listeners;
+  private final long[] sectionStartTimesNs;
+  private final long[] currentDurationsNs;
+  private final boolean[] sectionRan;
+  private final long[] durationsNs;
+  private final long[] startDelaysMs;
+  private final long[][] histograms;
+
+  private boolean iterationStarted;
+  private long scheduledStartTimeMs;
+  private long currentStartDelayMs;
+  private long iterationCount;
+  private long lateIterationCount;
+  private int iterationsSinceLastReport;
+
+  /** Creates an instance with {@link #DEFAULT_CAPACITY}. */
+  public PlaybackLoopProfiler() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param capacity The number of most recent iterations to keep in the ring buffer.
+   */
+  public PlaybackLoopProfiler(int capacity) {
+    checkArgument(capacity > 0);
+    this.capacity = capacity;
+    listeners = new CopyOnWriteArrayList<>();
+    sectionStartTimesNs = new long[SECTION_COUNT];
+    currentDurationsNs = new long[SECTION_COUNT];
+    sectionRan = new boolean[SECTION_COUNT];
+    durationsNs = new long[capacity * SECTION_COUNT];
+    startDelaysMs = new long[capacity];
+    histograms = new long[SECTION_COUNT][HISTOGRAM_BUCKET_COUNT];
+    scheduledStartTimeMs = C.TIME_UNSET;
+  }
+
+  /**
+   * Adds a {@link Listener}.
+   *
+   * @param listener The listener to add.
+   */
+  public void addListener(Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  /**
+   * Removes a {@link Listener}.
+   *
+   * @param listener The listener to remove.
+   */
+  public void removeListener(Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Returns a {@link Snapshot} of the current profiling data. Can be called from any thread. */
+  public synchronized Snapshot getSnapshot() {
+    int count = (int) min(iterationCount, capacity);
+    int firstIndex = (int) ((iterationCount - count) % capacity);
+    long[] orderedDurationsNs = new long[count * SECTION_COUNT];
+    long[] orderedStartDelaysMs = new long[count];
+    for (int i = 0; i < count; i++) {
+      int index = (firstIndex + i) % capacity;
+      System.arraycopy(
+          durationsNs, index * SECTION_COUNT, orderedDurationsNs, i * SECTION_COUNT, SECTION_COUNT);
+      orderedStartDelaysMs[i] = startDelaysMs[index];
+    }
+    long[][] histogramsCopy = new long[SECTION_COUNT][];
+    for (int i = 0; i < SECTION_COUNT; i++) {
+      histogramsCopy[i] = Arrays.copyOf(histograms[i], HISTOGRAM_BUCKET_COUNT);
+    }
+    return new Snapshot(
+        iterationCount,
+        lateIterationCount,
+        orderedDurationsNs,
+        orderedStartDelaysMs,
+        histogramsCopy);
+  }
+
+  /** Clears all profiling data. Can be called from any thread. */
+  public synchronized void reset() {
+    iterationCount = 0;
+    lateIterationCount = 0;
+    iterationsSinceLastReport = 0;
+    for (long[] histogram : histograms) {
+      Arrays.fill(histogram, 0);
+    }
+  }
+
+  // Methods called by ExoPlayerImplInternal on the playback thread.
+
+  /**
+   * Called when the next iteration is scheduled.
+   *
+   * @param scheduledStartTimeMs The {@link androidx.mynewmedia4.common.util.Clock#uptimeMillis()}
+   *     at which the next iteration is scheduled to start.
+   */
+  /* package */ void onIterationScheduled(long scheduledStartTimeMs) {
+    this.scheduledStartTimeMs = scheduledStartTimeMs;
+  }
+
+  /**
+   * Called at the start of an iteration.
+   *
+   * @param startTimeMs The {@link androidx.mynewmedia4.common.util.Clock#uptimeMillis()} at which
+   *     the iteration started.
+   */
+  /* package */ void beginIteration(long startTimeMs) {
+    iterationStarted = true;
+    Arrays.fill(currentDurationsNs, 0);
+    Arrays.fill(sectionRan, false);
+    sectionRan[SECTION_ITERATION] = true;
+    currentStartDelayMs =
+        scheduledStartTimeMs == C.TIME_UNSET ? 0 : max(0, startTimeMs - scheduledStartTimeMs);
+    scheduledStartTimeMs = C.TIME_UNSET;
+    sectionStartTimesNs[SECTION_ITERATION] = System.nanoTime();
+  }
+
+  /** Called at the start of a section of an iteration. */
+  /* package */ void beginSection(@Section int section) {
+    if (iterationStarted) {
+      sectionRan[section] = true;
+      sectionStartTimesNs[section] = System.nanoTime();
+    }
+  }
+
+  /** Called at the end of a section of an iteration. */
+  /* package */ void endSection(@Section int section) {
+    if (iterationStarted && sectionRan[section]) {
+      currentDurationsNs[section] += System.nanoTime() - sectionStartTimesNs[section];
+    }
+  }
+
+  /** Called at the end of an iteration. */
+  /* package */ void endIteration() {
+    if (!iterationStarted) {
+      return;
+    }
+    iterationStarted = false;
+    long startDelayMs = currentStartDelayMs;
+    currentDurationsNs[SECTION_ITERATION] =
+        System.nanoTime() - sectionStartTimesNs[SECTION_ITERATION];
+    boolean report;
+    synchronized (this) {
+      int index = (int) (iterationCount % capacity);
+      System.arraycopy(currentDurationsNs, 0, durationsNs, index * SECTION_COUNT, SECTION_COUNT);
+      startDelaysMs[index] = startDelayMs;
+      for (int i = 0; i < SECTION_COUNT; i++) {
+        // Sections that didn't run in this iteration would otherwise skew the histogram towards 0.
+        if (sectionRan[i]) {
+          histograms[i][getHistogramBucket(currentDurationsNs[i] / 1000)]++;
+        }
+      }
+      iterationCount++;
+      if (startDelayMs >= LATE_ITERATION_THRESHOLD_MS) {
+        lateIterationCount++;
+      }
+      iterationsSinceLastReport++;
+      report = iterationsSinceLastReport == capacity;
+      if (report) {
+        iterationsSinceLastReport = 0;
+      }
+    }
+    if (report && !listeners.isEmpty()) {
+      Snapshot snapshot = getSnapshot();
+      for (Listener listener : listeners) {
+        listener.onIterationsProfiled(snapshot);
+      }
+    }
+  }
+
+  private static int getHistogramBucket(long durationUs) {
+    int bucket = durationUs <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(durationUs);
+    return min(bucket, HISTOGRAM_BUCKET_COUNT - 1);
+  }
+
+  /** An immutable snapshot of the profiling data of a {@link PlaybackLoopProfiler}. */
+  public static final class Snapshot {
+
+    /** The total number of profiled iterations. */
+    public final long iterationCount;
+
+    /**
+     * The number of profiled iterations that started at least {@link #LATE_ITERATION_THRESHOLD_MS}
+     * after their scheduled start time.
+     */
+    public final long lateIterationCount;
+
+    private final long[] durationsNs;
+    private final long[] startDelaysMs;
+    private final long[][] histograms;
+
+    private Snapshot(
+        long iterationCount,
+        long lateIterationCount,
+        long[] durationsNs,
+        long[] startDelaysMs,
+        long[][] histograms) {
+      this.iterationCount = iterationCount;
+      this.lateIterationCount = lateIterationCount;
+      this.durationsNs = durationsNs;
+      this.startDelaysMs = startDelaysMs;
+      this.histograms = histograms;
+    }
+
+    /** Returns the number of recent iterations in the snapshot, oldest first. */
+    public int getRecentIterationCount() {
+      return startDelaysMs.length;
+    }
+
+    /**
+     * Returns the duration of a section in a recent iteration, in microseconds.
+     *
+     * @param iterationIndex The index of the iteration, between 0 (oldest) and {@link
+     *     #getRecentIterationCount()} - 1.
+     * @param section The {@link Section}.
+     * @return The duration of the section in the iteration, in microseconds, or 0 if the section
+     *     didn't run in the iteration.
+     */
+    public long getDurationUs(int iterationIndex, @Section int section) {
+      return durationsNs[iterationIndex * SECTION_COUNT + section] / 1000;
+    }
+
+    /**
+     * Returns the delay of the start of a recent iteration after its scheduled start time, in
+     * milliseconds, or 0 if the iteration wasn't scheduled ahead of time.
+     *
+     * @param iterationIndex The index of the iteration, between 0 (oldest) and {@link
+     *     #getRecentIterationCount()} - 1.
+     */
+    public long getStartDelayMs(int iterationIndex) {
+      return startDelaysMs[iterationIndex];
+    }
+
+    /**
+     * Returns the histogram of the durations of a section over all profiled iterations in which the
+     * section ran.
+     *
+     * @param section The {@link Section}.
+     * @return The iteration counts per bucket, as described in {@link #HISTOGRAM_BUCKET_COUNT}.
+     */
+    public long[] getHistogram(@Section int section) {
+      return Arrays.copyOf(histograms[section], HISTOGRAM_BUCKET_COUNT);
+    }
+
+    /**
+     * Returns the approximate duration of a section below which the given percentage of profiled
+     * iterations in which the section ran fall, in microseconds, or {@link C#TIME_UNSET} if the
+     * section didn't run in any profiled iteration.
+     *
+     * <p>The value is the upper bound of the histogram bucket containing the percentile.
+     *
+     * @param section The {@link Section}.
+     * @param percentile The percentile, between 0 and 100.
+     */
+    public long getDurationPercentileUs(@Section int section, float percentile) {
+      long[] histogram = histograms[section];
+      long total = 0;
+      for (long count : histogram) {
+        total += count;
+      }
+      if (total == 0) {
+        return C.TIME_UNSET;
+      }
+      long targetCount = (long) Math.ceil(total * percentile / 100);
+      long cumulativeCount = 0;
+      for (int i = 0; i < histogram.length; i++) {
+        cumulativeCount += histogram[i];
+        if (cumulativeCount >= targetCount) {
+          return 1L << i;
+        }
+      }
+      return 1L << (histogram.length - 1);
+    }
+
+    /**
+     * Returns the recent iterations as CSV, with a header line followed by one line per iteration
+     * holding its start delay in milliseconds and the duration of each section in microseconds.
+     */
+    public String toCsv() {
+      StringBuilder csv = new StringBuilder("startDelayMs");
+      for (String sectionName : SECTION_NAMES) {
+        csv.append(',').append(sectionName).append("Us");
+      }
+      csv.append('\n');
+      for (int i = 0; i < getRecentIterationCount(); i++) {
+        csv.append(startDelaysMs[i]);
+        for (int section = 0; section < SECTION_COUNT; section++) {
+          csv.append(',').append(getDurationUs(i, section));
+        }
+        csv.append('\n');
+      }
+      return csv.toString();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Snapshot other = (Snapshot) o;
+      return iterationCount == other.iterationCount
+          && lateIterationCount == other.lateIterationCount
+          && Arrays.equals(durationsNs, other.durationsNs)
+          && Arrays.equals(startDelaysMs, other.startDelaysMs)
+          && Arrays.deepEquals(histograms, other.histograms);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int) iterationCount;
+      result = 31 * result + (int) lateIterationCount;
+      result = 31 * result + Arrays.hashCode(durationsNs);
+      result = 31 * result + Arrays.hashCode(startDelaysMs);
+      result = 31 * result + Arrays.deepHashCode(histograms);
+      return result;
+    }
+  }
+}
@@ -231,6 +231,11 @@ public interface Renderer extends PlayerMessage.Target {
    */
   int MSG_CUSTOM_BASE = 10000;
 
+  /**
+   * The default value returned by {@link #getDurationToProgressUs(long, long)}, in microseconds.
+   */
+  long DEFAULT_DURATION_TO_PROGRESS_US = 10_000L;
+
   /**
    * The renderer states. One of {@link #STATE_DISABLED}, {@link #STATE_ENABLED} or {@link
    * #STATE_STARTED}.
@@ -470,6 +475,31 @@ public interface Renderer extends PlayerMessage.Target {
    */
   void render(long positionUs, long elapsedRealtimeUs) throws ExoPlaybackException;
 
+  /**
+   * Returns the minimum amount of playback clock time that must pass before a call to {@link
+   * #render(long, long)} can make progress, in microseconds.
+   *
+   * <p>The player may use this to sleep between calls to {@link #render(long, long)} while playing,
+   * instead of polling at a fixed interval. Renderers that can't estimate this duration should
+   * return {@link #DEFAULT_DURATION_TO_PROGRESS_US}, which is also the default implementation.
+   *
+   * <p>Renderers that return a longer duration but are then able to make progress earlier, for
+   * example because new input has become available, can call {@link WakeupListener#onWakeup()} to
+   * request an earlier call to {@link #render(long, long)}.
+   *
+   * <p>This method may be called when the renderer is in the following states: {@link
+   * #STATE_ENABLED}, {@link #STATE_STARTED}.
+   *
+   * @param positionUs The current media time in microseconds, as passed to the last call to {@link
+   *     #render(long, long)}.
+   * @param elapsedRealtimeUs {@link android.os.SystemClock#elapsedRealtime()} in microseconds, as
+   *     passed to the last call to {@link #render(long, long)}.
+   * @return The duration until {@link #render(long, long)} can make progress, in microseconds.
+   */
+  default long getDurationToProgressUs(long positionUs, long elapsedRealtimeUs) {
+    return DEFAULT_DURATION_TO_PROGRESS_US;
+  }
+
   /**
    * Whether the renderer is able to immediately render media from the current position.
    *
@@ -35,6 +35,7 @@ import androidx.mynewmedia4.exoplayer.source.MediaSource.MediaPeriodId;
 import androidx.mynewmedia4.exoplayer.source.MediaSourceEventListener;
 import androidx.mynewmedia4.exoplayer.upstream.BandwidthMeter;
 import androidx.mynewmedia4.exoplayer.video.VideoDecoderOutputBufferRenderer;
+import androidx.mynewmedia4.exoplayer.video.VideoFrameReleaseTrace;
 import java.util.List;
 
 /**
@@ -267,6 +268,13 @@ public interface AnalyticsCollector
    */
   void onVideoFrameProcessingOffset(long totalProcessingOffsetUs, int frameCount);
 
+  /**
+   * Called with a trace of the release decisions made for recently processed video frames.
+   *
+   * @param trace The {@link VideoFrameReleaseTrace}.
+   */
+  void onVideoFrameReleaseTrace(VideoFrameReleaseTrace trace);
+
   /**
    * Called when a video decoder encounters an error.
    *
@@ -61,7 +61,9 @@ import androidx.mynewmedia4.exoplayer.source.LoadEventInfo;
 import androidx.mynewmedia4.exoplayer.source.MediaLoadData;
 import androidx.mynewmedia4.exoplayer.source.MediaSource.MediaPeriodId;
 import androidx.mynewmedia4.exoplayer.trackselection.TrackSelection;
+import androidx.mynewmedia4.exoplayer.video.MediaCodecVideoRenderer;
 import androidx.mynewmedia4.exoplayer.video.VideoDecoderOutputBufferRenderer;
+import androidx.mynewmedia4.exoplayer.video.VideoFrameReleaseTrace;
 import com.google.common.base.Objects;
 import java.io.IOException;
 import java.lang.annotation.Documented;
@@ -232,6 +234,7 @@ public interface AnalyticsListener {
     EVENT_PLAYER_RELEASED,
     EVENT_AUDIO_CODEC_ERROR,
     EVENT_VIDEO_CODEC_ERROR,
+    EVENT_VIDEO_FRAME_RELEASE_TRACE,
   })
   @interface EventFlags {}
   /** {@link Player#getCurrentTimeline()} changed. */
@@ -372,6 +375,8 @@ public interface AnalyticsListener {
   @UnstableApi int EVENT_AUDIO_CODEC_ERROR = 1029;
   /** The video codec encountered an error. */
   @UnstableApi int EVENT_VIDEO_CODEC_ERROR = 1030;
+  /** A video renderer reported a trace of its frame release decisions. */
+  @UnstableApi int EVENT_VIDEO_FRAME_RELEASE_TRACE = 1031;
 
   /** Time information of an event. */
   @UnstableApi
@@ -1184,6 +1189,19 @@ public interface AnalyticsListener {
   default void onVideoFrameProcessingOffset(
       EventTime eventTime, long totalProcessingOffsetUs, int frameCount) {}
 
+  /**
+   * Called when a video renderer reports a trace of the release decisions it made for recently
+   * processed frames.
+   *
+   * <p>Traces are only reported if enabled on the renderer, for example using {@link
+   * MediaCodecVideoRenderer#experimentalSetFrameReleaseTraceSize(int)}.
+   *
+   * @param eventTime The event time.
+   * @param trace The {@link VideoFrameReleaseTrace}, which may be retained.
+   */
+  @UnstableApi
+  default void onVideoFrameReleaseTrace(EventTime eventTime, VideoFrameReleaseTrace trace) {}
+
   /**
    * Called when a video decoder encounters an error.
    *
@@ -56,6 +56,7 @@ import androidx.mynewmedia4.exoplayer.drm.DrmSession;
 import androidx.mynewmedia4.exoplayer.source.LoadEventInfo;
 import androidx.mynewmedia4.exoplayer.source.MediaLoadData;
 import androidx.mynewmedia4.exoplayer.source.MediaSource.MediaPeriodId;
+import androidx.mynewmedia4.exoplayer.video.VideoFrameReleaseTrace;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -362,6 +363,15 @@ public class DefaultAnalyticsCollector implements AnalyticsCollector {
             listener.onVideoFrameProcessingOffset(eventTime, totalProcessingOffsetUs, frameCount));
   }
 
+  @Override
+  public final void onVideoFrameReleaseTrace(VideoFrameReleaseTrace trace) {
+    EventTime eventTime = generatePlayingMediaPeriodEventTime();
+    sendEvent(
+        eventTime,
+        AnalyticsListener.EVENT_VIDEO_FRAME_RELEASE_TRACE,
+        listener -> listener.onVideoFrameReleaseTrace(eventTime, trace));
+  }
+
   @Override
   public final void onVideoCodecError(Exception videoCodecError) {
     EventTime eventTime = generateReadingMediaPeriodEventTime();
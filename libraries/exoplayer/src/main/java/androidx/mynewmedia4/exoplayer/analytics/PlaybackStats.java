@@ -15,6 +15,7 @@
  */
 package androidx.mynewmedia4.exoplayer.analytics;
 
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.annotation.ElementType.TYPE_USE;
@@ -226,6 +227,12 @@ public final class PlaybackStats {
   /** Total number of playback states. */
   /* package */ static final int PLAYBACK_STATE_COUNT = 16;
 
+  /**
+   * The video frame lateness, in milliseconds, from which frames are counted in the last bucket of
+   * the video frame lateness histogram.
+   */
+  public static final int MAX_VIDEO_FRAME_LATENESS_MS = 100;
+
   /** Empty playback stats. */
   public static final PlaybackStats EMPTY = merge(/* nothing */ );
 
@@ -270,6 +277,7 @@ public final class PlaybackStats {
     long totalBandwidthBytes = 0;
     long totalDroppedFrames = 0;
     long totalAudioUnderruns = 0;
+    long[] videoFrameLatenessHistogram = new long[MAX_VIDEO_FRAME_LATENESS_MS + 1];
     int fatalErrorPlaybackCount = 0;
     int fatalErrorCount = 0;
     int nonFatalErrorCount = 0;
@@ -331,6 +339,9 @@ public final class PlaybackStats {
       totalBandwidthBytes += stats.totalBandwidthBytes;
       totalDroppedFrames += stats.totalDroppedFrames;
       totalAudioUnderruns += stats.totalAudioUnderruns;
+      for (int i = 0; i <= MAX_VIDEO_FRAME_LATENESS_MS; i++) {
+        videoFrameLatenessHistogram[i] += stats.videoFrameLatenessHistogram[i];
+      }
       fatalErrorPlaybackCount += stats.fatalErrorPlaybackCount;
       fatalErrorCount += stats.fatalErrorCount;
       nonFatalErrorCount += stats.nonFatalErrorCount;
@@ -371,6 +382,7 @@ public final class PlaybackStats {
         totalBandwidthBytes,
         totalDroppedFrames,
         totalAudioUnderruns,
+        videoFrameLatenessHistogram,
         fatalErrorPlaybackCount,
         fatalErrorCount,
         nonFatalErrorCount,
@@ -538,6 +550,7 @@ public final class PlaybackStats {
   public final List<EventTimeAndException> nonFatalErrorHistory;
 
   private final long[] playbackStateDurationsMs;
+  private final long[] videoFrameLatenessHistogram;
 
   /* package */ PlaybackStats(
       int playbackCount,
@@ -575,6 +588,7 @@ public final class PlaybackStats {
       long totalBandwidthBytes,
       long totalDroppedFrames,
       long totalAudioUnderruns,
+      long[] videoFrameLatenessHistogram,
       int fatalErrorPlaybackCount,
       int fatalErrorCount,
       int nonFatalErrorCount,
@@ -615,6 +629,7 @@ public final class PlaybackStats {
     this.totalBandwidthBytes = totalBandwidthBytes;
     this.totalDroppedFrames = totalDroppedFrames;
     this.totalAudioUnderruns = totalAudioUnderruns;
+    this.videoFrameLatenessHistogram = videoFrameLatenessHistogram;
     this.fatalErrorPlaybackCount = fatalErrorPlaybackCount;
     this.fatalErrorCount = fatalErrorCount;
     this.nonFatalErrorCount = nonFatalErrorCount;
@@ -1041,6 +1056,50 @@ public final class PlaybackStats {
     return playTimeMs == 0 ? 0f : 1000f * totalDroppedFrames / playTimeMs;
   }
 
+  /**
+   * Returns the number of video frames for which a release lateness was recorded. Lateness is
+   * recorded for frames that were rendered or dropped, as reported through {@link
+   * AnalyticsListener#onVideoFrameReleaseTrace}.
+   */
+  public long getVideoFrameLatenessSampleCount() {
+    long sampleCount = 0;
+    for (long count : videoFrameLatenessHistogram) {
+      sampleCount += count;
+    }
+    return sampleCount;
+  }
+
+  /**
+   * Returns a percentile of the release lateness of video frames, in milliseconds, or {@link
+   * C#TIME_UNSET} if no lateness was recorded.
+   *
+   * <p>The lateness of a frame is how far the playback position was past the frame's release time
+   * when the renderer decided to release or drop it, rounded down to whole milliseconds. It doesn't
+   * include any delay between scheduling a frame and the frame being displayed. Frames that were
+   * on time have a lateness of zero. Lateness is capped at
+   * {@link #MAX_VIDEO_FRAME_LATENESS_MS}. For example, a 95th percentile of 16 means that 95% of
+   * frames were less than 17 milliseconds late.
+   *
+   * @param percentile The percentile, in the range (0, 100].
+   * @return The lateness at the given percentile, in milliseconds, or {@link C#TIME_UNSET}.
+   */
+  public long getVideoFrameLatenessPercentileMs(float percentile) {
+    checkArgument(percentile > 0 && percentile <= 100);
+    long sampleCount = getVideoFrameLatenessSampleCount();
+    if (sampleCount == 0) {
+      return C.TIME_UNSET;
+    }
+    double threshold = sampleCount * (double) percentile / 100;
+    long cumulativeCount = 0;
+    for (int i = 0; i < MAX_VIDEO_FRAME_LATENESS_MS; i++) {
+      cumulativeCount += videoFrameLatenessHistogram[i];
+      if (cumulativeCount >= threshold) {
+        return i;
+      }
+    }
+    return MAX_VIDEO_FRAME_LATENESS_MS;
+  }
+
   /**
    * Returns the mean rate at which audio underruns occurred, in underruns per play time second, or
    * {@code 0.0} if no time was spent playing.
@@ -17,6 +17,7 @@ package androidx.mynewmedia4.exoplayer.analytics;
 
 import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 
 import android.os.SystemClock;
 import android.util.Pair;
@@ -39,6 +40,7 @@ import androidx.mynewmedia4.exoplayer.analytics.PlaybackStats.PlaybackState;
 import androidx.mynewmedia4.exoplayer.source.LoadEventInfo;
 import androidx.mynewmedia4.exoplayer.source.MediaLoadData;
 import androidx.mynewmedia4.exoplayer.source.MediaSource.MediaPeriodId;
+import androidx.mynewmedia4.exoplayer.video.VideoFrameReleaseTrace;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -86,6 +88,7 @@ public final class PlaybackStatsListener
   private long discontinuityFromPositionMs;
   private @Player.DiscontinuityReason int discontinuityReason;
   private int droppedFrames;
+  @Nullable private VideoFrameReleaseTrace videoFrameReleaseTrace;
   @Nullable private Exception nonFatalException;
   private long bandwidthTimeMs;
   private long bandwidthBytes;
@@ -202,6 +205,11 @@ public final class PlaybackStatsListener
     this.droppedFrames = droppedFrames;
   }
 
+  @Override
+  public void onVideoFrameReleaseTrace(EventTime eventTime, VideoFrameReleaseTrace trace) {
+    this.videoFrameReleaseTrace = trace;
+  }
+
   @Override
   public void onLoadError(
       EventTime eventTime,
@@ -250,6 +258,8 @@ public final class PlaybackStatsListener
       PlaybackStatsTracker tracker = playbackStatsTrackers.get(session);
       boolean hasDiscontinuityToPlayback = hasEvent(events, session, EVENT_POSITION_DISCONTINUITY);
       boolean hasDroppedFrames = hasEvent(events, session, EVENT_DROPPED_VIDEO_FRAMES);
+      boolean hasVideoFrameReleaseTrace =
+          hasEvent(events, session, EVENT_VIDEO_FRAME_RELEASE_TRACE);
       boolean hasAudioUnderrun = hasEvent(events, session, EVENT_AUDIO_UNDERRUN);
       boolean startedLoading = hasEvent(events, session, EVENT_LOAD_STARTED);
       boolean hasFatalError = hasEvent(events, session, EVENT_PLAYER_ERROR);
@@ -266,6 +276,7 @@ public final class PlaybackStatsListener
           session.equals(discontinuityFromSession) ? discontinuityFromPositionMs : C.TIME_UNSET,
           hasDiscontinuityToPlayback,
           hasDroppedFrames ? droppedFrames : 0,
+          hasVideoFrameReleaseTrace ? videoFrameReleaseTrace : null,
           hasAudioUnderrun,
           startedLoading,
           hasFatalError ? player.getPlayerError() : null,
@@ -278,6 +289,7 @@ public final class PlaybackStatsListener
     }
     videoFormat = null;
     audioFormat = null;
+    videoFrameReleaseTrace = null;
     discontinuityFromSession = null;
     if (events.contains(AnalyticsListener.EVENT_PLAYER_RELEASED)) {
       sessionManager.finishAllSessions(events.getEventTime(EVENT_PLAYER_RELEASED));
@@ -387,6 +399,7 @@ public final class PlaybackStatsListener
     private long bandwidthBytes;
     private long droppedFrames;
     private long audioUnderruns;
+    private final long[] videoFrameLatenessHistogram;
     private int fatalErrorCount;
     private int nonFatalErrorCount;
 
@@ -414,6 +427,7 @@ public final class PlaybackStatsListener
     public PlaybackStatsTracker(boolean keepHistory, EventTime startTime) {
       this.keepHistory = keepHistory;
       playbackStateDurationsMs = new long[PlaybackStats.PLAYBACK_STATE_COUNT];
+      videoFrameLatenessHistogram = new long[PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS + 1];
       playbackStateHistory = keepHistory ? new ArrayList<>() : Collections.emptyList();
       mediaTimeHistory = keepHistory ? new ArrayList<>() : Collections.emptyList();
       videoFormatHistory = keepHistory ? new ArrayList<>() : Collections.emptyList();
@@ -475,6 +489,8 @@ public final class PlaybackStatsListener
      *     or {@link C#TIME_UNSET} if no discontinuity started from this playback.
      * @param hasDiscontinuity Whether a discontinuity to this playback occurred.
      * @param droppedFrameCount The number of newly dropped frames for this playback.
+     * @param videoFrameReleaseTrace A reported video frame release trace for this playback, or
+     *     null.
      * @param hasAudioUnderun Whether a new audio underrun occurred for this playback.
      * @param startedLoading Whether this playback started loading.
      * @param fatalError A fatal error for this playback, or null.
@@ -492,6 +508,7 @@ public final class PlaybackStatsListener
         long discontinuityFromPositionMs,
         boolean hasDiscontinuity,
         int droppedFrameCount,
+        @Nullable VideoFrameReleaseTrace videoFrameReleaseTrace,
         boolean hasAudioUnderun,
         boolean startedLoading,
         @Nullable PlaybackException fatalError,
@@ -556,6 +573,9 @@ public final class PlaybackStatsListener
         audioUnderruns++;
       }
       this.droppedFrames += droppedFrameCount;
+      if (videoFrameReleaseTrace != null) {
+        maybeRecordVideoFrameLateness(videoFrameReleaseTrace);
+      }
       this.bandwidthTimeMs += bandwidthTimeMs;
       this.bandwidthBytes += bandwidthBytes;
       if (nonFatalException != null) {
@@ -649,6 +669,9 @@ public final class PlaybackStatsListener
           bandwidthBytes,
           droppedFrames,
           audioUnderruns,
+          isFinal
+              ? videoFrameLatenessHistogram
+              : Arrays.copyOf(videoFrameLatenessHistogram, videoFrameLatenessHistogram.length),
           /* fatalErrorPlaybackCount= */ fatalErrorCount > 0 ? 1 : 0,
           fatalErrorCount,
           nonFatalErrorCount,
@@ -656,6 +679,20 @@ public final class PlaybackStatsListener
           nonFatalErrorHistory);
     }
 
+    private void maybeRecordVideoFrameLateness(VideoFrameReleaseTrace trace) {
+      for (int i = 0; i < trace.size(); i++) {
+        @VideoFrameReleaseTrace.ReleaseAction int releaseAction = trace.getReleaseAction(i);
+        if (releaseAction == VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED
+            || releaseAction == VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED_SAME_VSYNC) {
+          // Skipped frames weren't meant to be displayed, so their lateness isn't meaningful.
+          continue;
+        }
+        long latenessMs = max(0, -trace.getEarlyUs(i)) / 1000;
+        int bucket = (int) min(latenessMs, PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS);
+        videoFrameLatenessHistogram[bucket]++;
+      }
+    }
+
     private void updatePlaybackState(@PlaybackState int newPlaybackState, EventTime eventTime) {
       Assertions.checkArgument(eventTime.realtimeMs >= currentPlaybackStateStartTimeMs);
       long stateDurationMs = eventTime.realtimeMs - currentPlaybackStateStartTimeMs;
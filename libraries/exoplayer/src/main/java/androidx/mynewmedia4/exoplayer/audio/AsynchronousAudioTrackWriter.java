@@ -0,0 +1,218 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.audio;
+
+import android.media.AudioTrack;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import androidx.annotation.RequiresApi;
+import androidx.mynewmedia4.common.util.ConditionVariable;
+import androidx.mynewmedia4.common.util.Util;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes PCM audio to an {@link AudioTrack} on a background thread.
+ *
+ * <p>Audio passed to {@link #write(ByteBuffer)} is copied to an {@link AudioRingBuffer} that's
+ * allocated once, and a writer thread writes it from there to the {@link AudioTrack}. The calling
+ * thread never waits for the {@link AudioTrack} to accept data, and the ring buffer adds its
+ * capacity to the amount of audio that can be buffered ahead of the {@link AudioTrack}.
+ *
+ * <p>If the {@link AudioTrack} doesn't accept all the data, the writer thread only tries again
+ * later while the instance is playing and no write failed. Otherwise writing restarts with the next
+ * call to {@link #play()}, {@link #write(ByteBuffer)} or {@link #maybeWritePendingData()}.
+ *
+ * <p>The implementation of this class assumes that its public methods will be called from the same
+ * thread.
+ */
+@RequiresApi(21)
+/* package */ final class AsynchronousAudioTrackWriter {
+
+  private static final int MSG_WRITE = 0;
+  private static final int MSG_OPEN_CV = 1;
+
+  /**
+   * The delay before writing again after a playing {@link AudioTrack} didn't accept all the data,
+   * in milliseconds.
+   */
+  private static final long WRITE_RETRY_DELAY_MS = 10;
+
+  private final AudioTrack audioTrack;
+  private final AudioRingBuffer ringBuffer;
+  private final Handler handler;
+  private final ConditionVariable conditionVariable;
+  private final AtomicBoolean writeScheduled;
+  private final AtomicInteger pendingErrorCode;
+  private volatile boolean playing;
+
+  /**
+   * Creates an instance.
+   *
+   * @param audioTrack The {@link AudioTrack} to write to. Its encoding must be a PCM encoding.
+   * @param capacity The capacity of the ring buffer, in bytes. Must be a multiple of the PCM frame
+   *     size.
+   * @param writerLooper The {@link Looper} of the writer thread. It can be shared by several
+   *     instances, but must not be the looper of the thread calling {@link #flush()}.
+   */
+  public AsynchronousAudioTrackWriter(AudioTrack audioTrack, int capacity, Looper writerLooper) {
+    this.audioTrack = audioTrack;
+    ringBuffer = new AudioRingBuffer(capacity);
+    conditionVariable = new ConditionVariable();
+    writeScheduled = new AtomicBoolean();
+    pendingErrorCode = new AtomicInteger();
+    handler = Util.createHandler(writerLooper, this::handleMessage);
+  }
+
+  /**
+   * Notifies the instance that the {@link AudioTrack} started playing, and restarts writing any
+   * pending data.
+   */
+  public void play() {
+    playing = true;
+    maybeWritePendingData();
+  }
+
+  /**
+   * Notifies the instance that the {@link AudioTrack} was paused. The writer thread stops trying
+   * to write data that the {@link AudioTrack} doesn't accept until it's playing again.
+   */
+  public void pause() {
+    playing = false;
+  }
+
+  /**
+   * Copies as much of {@code buffer} as fits in the ring buffer, advancing its position, and
+   * schedules writing the pending data to the {@link AudioTrack}.
+   *
+   * @param buffer The buffer to write.
+   * @return The number of bytes copied.
+   */
+  public int write(ByteBuffer buffer) {
+    int bytesCopied = ringBuffer.write(buffer);
+    maybeWritePendingData();
+    return bytesCopied;
+  }
+
+  /** Schedules writing the pending data to the {@link AudioTrack}, if there is any. */
+  public void maybeWritePendingData() {
+    if (ringBuffer.getReadableBytes() > 0 && writeScheduled.compareAndSet(false, true)) {
+      handler.sendEmptyMessage(MSG_WRITE);
+    }
+  }
+
+  /**
+   * Returns the negative {@link AudioTrack} error code returned by the last failed write, or zero
+   * if no write failed since the last call. The writer thread stops writing after a failed write,
+   * until writing is restarted.
+   */
+  public int getAndClearWriteError() {
+    return pendingErrorCode.getAndSet(0);
+  }
+
+  /**
+   * Returns the number of bytes written to the {@link AudioTrack} since the instance was started or
+   * last flushed.
+   */
+  public long getBytesWrittenToAudioTrack() {
+    return ringBuffer.getTotalBytesRead();
+  }
+
+  /** Returns whether there is data that hasn't been written to the {@link AudioTrack} yet. */
+  public boolean hasPendingData() {
+    return ringBuffer.getReadableBytes() > 0;
+  }
+
+  /**
+   * Discards all the data that hasn't been written to the {@link AudioTrack} yet. Blocks until the
+   * writer thread is idle, so the {@link AudioTrack} is not accessed after this method returns
+   * until more data is written.
+   */
+  public void flush() {
+    handler.removeCallbacksAndMessages(null);
+    blockUntilWriterThreadIsIdle();
+    // A retry may have been scheduled while the writer thread was busy.
+    handler.removeCallbacksAndMessages(null);
+    ringBuffer.clear();
+    writeScheduled.set(false);
+    pendingErrorCode.set(0);
+  }
+
+  private void blockUntilWriterThreadIsIdle() {
+    conditionVariable.close();
+    handler.sendEmptyMessage(MSG_OPEN_CV);
+    try {
+      conditionVariable.block();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      // The playback thread should not be interrupted. Raising this as an IllegalStateException.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // Called on the writer thread.
+
+  private boolean handleMessage(Message message) {
+    switch (message.what) {
+      case MSG_WRITE:
+        doWrite();
+        return true;
+      case MSG_OPEN_CV:
+        conditionVariable.open();
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void doWrite() {
+    while (true) {
+      ByteBuffer buffer = ringBuffer.beginRead();
+      int bytesToWrite = buffer.remaining();
+      if (bytesToWrite == 0) {
+        writeScheduled.set(false);
+        // Data written after the ring buffer was found empty but before the flag was cleared
+        // doesn't schedule another write, so check again.
+        if (ringBuffer.getReadableBytes() == 0 || !writeScheduled.compareAndSet(false, true)) {
+          return;
+        }
+        continue;
+      }
+      int bytesWrittenOrError =
+          audioTrack.write(buffer, bytesToWrite, AudioTrack.WRITE_NON_BLOCKING);
+      ringBuffer.endRead();
+      if (bytesWrittenOrError < 0) {
+        // Stop writing until the error has been reported and writing is restarted. Clear the flag
+        // first, so that writing can be restarted as soon as the error is seen.
+        writeScheduled.set(false);
+        pendingErrorCode.set(bytesWrittenOrError);
+        return;
+      }
+      if (bytesWrittenOrError < bytesToWrite) {
+        // The AudioTrack is full. It only makes space for more data while it's playing, so retry
+        // later in that case and wait for writing to be restarted otherwise.
+        writeScheduled.set(false);
+        // The instance may have started playing after the check, without scheduling a write.
+        if (playing && writeScheduled.compareAndSet(false, true)) {
+          handler.sendEmptyMessageDelayed(MSG_WRITE, WRITE_RETRY_DELAY_MS);
+        }
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.audio;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static java.lang.Math.min;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A fixed capacity ring buffer of bytes, written by one producer thread and read by one consumer
+ * thread without locking.
+ *
+ * <p>The storage is allocated once, when the instance is created. The producer calls {@link
+ * #write(ByteBuffer)} and {@link #getWritableBytes()}. The consumer calls {@link #beginRead()} and
+ * {@link #endRead()}. The total byte counts ({@link #getTotalBytesWritten()} and {@link
+ * #getTotalBytesRead()}) can be read from any thread.
+ */
+/* package */ final class AudioRingBuffer {
+
+  private final int capacity;
+  private final ByteBuffer producerBuffer;
+  private final ByteBuffer consumerBuffer;
+
+  // Each count is only modified by one thread. Publishing it with a volatile write makes the bytes
+  // copied before the write visible to the other thread.
+  private volatile long totalBytesWritten;
+  private volatile long totalBytesRead;
+
+  private int consumerReadStartPosition;
+
+  /**
+   * Creates an instance.
+   *
+   * @param capacity The capacity of the buffer, in bytes.
+   */
+  public AudioRingBuffer(int capacity) {
+    checkArgument(capacity > 0);
+    this.capacity = capacity;
+    ByteBuffer storage = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    producerBuffer = storage.duplicate().order(ByteOrder.nativeOrder());
+    consumerBuffer = storage.duplicate().order(ByteOrder.nativeOrder());
+  }
+
+  /** Returns the capacity of the buffer, in bytes. */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** Returns the total number of bytes written since creation or the last {@link #clear()}. */
+  public long getTotalBytesWritten() {
+    return totalBytesWritten;
+  }
+
+  /** Returns the total number of bytes read since creation or the last {@link #clear()}. */
+  public long getTotalBytesRead() {
+    return totalBytesRead;
+  }
+
+  /** Returns the number of bytes that have been written and not read yet. */
+  public int getReadableBytes() {
+    return (int) (totalBytesWritten - totalBytesRead);
+  }
+
+  // Producer methods.
+
+  /** Returns the number of bytes that can be written without overwriting unread bytes. */
+  public int getWritableBytes() {
+    return capacity - getReadableBytes();
+  }
+
+  /**
+   * Copies as many bytes as possible from {@code buffer}, advancing its position.
+   *
+   * <p>Must only be called by the producer.
+   *
+   * @param buffer The buffer to copy from.
+   * @return The number of bytes copied.
+   */
+  public int write(ByteBuffer buffer) {
+    long totalBytesWritten = this.totalBytesWritten;
+    int bytesToWrite = min(buffer.remaining(), getWritableBytes());
+    int writePosition = (int) (totalBytesWritten % capacity);
+    int bytesWritten = 0;
+    while (bytesWritten < bytesToWrite) {
+      int chunkSize = min(bytesToWrite - bytesWritten, capacity - writePosition);
+      int originalLimit = buffer.limit();
+      buffer.limit(buffer.position() + chunkSize);
+      producerBuffer.clear();
+      producerBuffer.position(writePosition);
+      producerBuffer.put(buffer);
+      buffer.limit(originalLimit);
+      bytesWritten += chunkSize;
+      writePosition = 0;
+    }
+    this.totalBytesWritten = totalBytesWritten + bytesWritten;
+    return bytesWritten;
+  }
+
+  // Consumer methods.
+
+  /**
+   * Returns a buffer whose remaining bytes are the longest contiguous run of readable bytes, which
+   * may be empty. The consumer may advance the position of the buffer, and must then call {@link
+   * #endRead()} to release the bytes it read.
+   *
+   * <p>Must only be called by the consumer.
+   */
+  public ByteBuffer beginRead() {
+    long totalBytesRead = this.totalBytesRead;
+    int readPosition = (int) (totalBytesRead % capacity);
+    int contiguousBytes = min(getReadableBytes(), capacity - readPosition);
+    consumerBuffer.clear();
+    consumerBuffer.position(readPosition);
+    consumerBuffer.limit(readPosition + contiguousBytes);
+    consumerReadStartPosition = readPosition;
+    return consumerBuffer;
+  }
+
+  /**
+   * Releases the bytes read from the buffer returned by {@link #beginRead()}, making their space
+   * writable again.
+   *
+   * <p>Must only be called by the consumer.
+   */
+  public void endRead() {
+    long totalBytesRead =
+        this.totalBytesRead + consumerBuffer.position() - consumerReadStartPosition;
+    consumerReadStartPosition = consumerBuffer.position();
+    this.totalBytesRead = totalBytesRead;
+  }
+
+  /**
+   * Discards all readable bytes and resets the total byte counts.
+   *
+   * <p>Must only be called while neither the producer nor the consumer are accessing the buffer.
+   */
+  public void clear() {
+    totalBytesWritten = 0;
+    totalBytesRead = 0;
+    consumerReadStartPosition = 0;
+  }
+}
@@ -20,6 +20,7 @@ import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.Format;
 import androidx.mynewmedia4.common.audio.AudioProcessor;
 import androidx.mynewmedia4.common.audio.BaseAudioProcessor;
+import androidx.mynewmedia4.common.audio.FusibleAudioProcessor;
 import androidx.mynewmedia4.common.util.Assertions;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.nio.ByteBuffer;
@@ -28,7 +29,8 @@ import java.nio.ByteBuffer;
  * An {@link AudioProcessor} that applies a mapping from input channels onto specified output
  * channels. This can be used to reorder, duplicate or discard channels.
  */
-/* package */ final class ChannelMappingAudioProcessor extends BaseAudioProcessor {
+/* package */ final class ChannelMappingAudioProcessor extends BaseAudioProcessor
+    implements FusibleAudioProcessor {
 
   @Nullable private int[] pendingOutputChannels;
   @Nullable private int[] outputChannels;
@@ -74,12 +76,18 @@ import java.nio.ByteBuffer;
 
   @Override
   public void queueInput(ByteBuffer inputBuffer) {
+    int frameCount = inputBuffer.remaining() / inputAudioFormat.bytesPerFrame;
+    int outputSize = frameCount * outputAudioFormat.bytesPerFrame;
+    ByteBuffer buffer = replaceOutputBuffer(outputSize);
+    processFrames(inputBuffer, buffer);
+    buffer.flip();
+  }
+
+  @Override
+  public void processFrames(ByteBuffer inputBuffer, ByteBuffer buffer) {
     int[] outputChannels = Assertions.checkNotNull(this.outputChannels);
     int position = inputBuffer.position();
     int limit = inputBuffer.limit();
-    int frameCount = (limit - position) / inputAudioFormat.bytesPerFrame;
-    int outputSize = frameCount * outputAudioFormat.bytesPerFrame;
-    ByteBuffer buffer = replaceOutputBuffer(outputSize);
     while (position < limit) {
       for (int channelIndex : outputChannels) {
         buffer.putShort(inputBuffer.getShort(position + 2 * channelIndex));
@@ -87,7 +95,6 @@ import java.nio.ByteBuffer;
       position += inputAudioFormat.bytesPerFrame;
     }
     inputBuffer.position(limit);
-    buffer.flip();
   }
 
   @Override
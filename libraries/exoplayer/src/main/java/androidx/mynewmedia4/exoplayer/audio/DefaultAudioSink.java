@@ -34,7 +34,9 @@ import android.media.AudioTrack;
 import android.media.PlaybackParams;
 import android.media.metrics.LogSessionId;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Pair;
 import androidx.annotation.DoNotInline;
@@ -51,6 +53,9 @@ import androidx.mynewmedia4.common.PlaybackParameters;
 import androidx.mynewmedia4.common.audio.AudioProcessingPipeline;
 import androidx.mynewmedia4.common.audio.AudioProcessor;
 import androidx.mynewmedia4.common.audio.AudioProcessor.UnhandledAudioFormatException;
+import androidx.mynewmedia4.common.audio.ChannelMixingAudioProcessor;
+import androidx.mynewmedia4.common.audio.ChannelMixingMatrix;
+import androidx.mynewmedia4.common.audio.FusibleAudioProcessor;
 import androidx.mynewmedia4.common.audio.SonicAudioProcessor;
 import androidx.mynewmedia4.common.audio.ToInt16PcmAudioProcessor;
 import androidx.mynewmedia4.common.util.Assertions;
@@ -235,6 +240,9 @@ public final class DefaultAudioSink implements AudioSink {
     @Nullable private androidx.mynewmedia4.common.audio.AudioProcessorChain audioProcessorChain;
     private boolean enableFloatOutput;
     private boolean enableAudioTrackPlaybackParams;
+    private boolean enableAudioProcessorFusion;
+    private boolean enableAudioTrackWriterThread;
+    private boolean enableSeamlessFormatTransitions;
     private int offloadMode;
     AudioTrackBufferSizeProvider audioTrackBufferSizeProvider;
     @Nullable AudioOffloadListener audioOffloadListener;
@@ -318,6 +326,83 @@ public final class DefaultAudioSink implements AudioSink {
       return this;
     }
 
+    /**
+     * Sets whether consecutive audio processors that process each frame independently, such as the
+     * processors converting the PCM encoding and mapping channels, are applied in a single pass
+     * over each buffer, rather than each writing the whole buffer to an intermediate buffer.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     *
+     * @see FusibleAudioProcessor
+     */
+    @CanIgnoreReturnValue
+    public Builder experimentalSetAudioProcessorFusionEnabled(boolean enableAudioProcessorFusion) {
+      this.enableAudioProcessorFusion = enableAudioProcessorFusion;
+      return this;
+    }
+
+    /**
+     * Sets whether PCM audio is written to the {@link AudioTrack} on a dedicated thread.
+     *
+     * <p>If enabled, output PCM audio is copied to a ring buffer with the same capacity as the
+     * {@link AudioTrack} buffer, and a dedicated thread writes it from there to the {@link
+     * AudioTrack}. The playback thread doesn't need to retry writes the {@link AudioTrack} only
+     * partially accepted, and the amount of audio buffered ahead of the {@link AudioTrack} is
+     * doubled without allocating memory during playback. This only applies from API level 21, and
+     * not to passthrough, offloaded or tunneled playback.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     */
+    @CanIgnoreReturnValue
+    public Builder experimentalSetAudioTrackWriterThreadEnabled(
+        boolean enableAudioTrackWriterThread) {
+      this.enableAudioTrackWriterThread = enableAudioTrackWriterThread;
+      return this;
+    }
+
+    /**
+     * Sets whether PCM audio whose format differs from the audio that's currently playing is
+     * converted to the format of the current {@link AudioTrack}, so that the {@link AudioTrack} can
+     * be reused without a gap.
+     *
+     * <p>If enabled and the sink is configured for a new PCM format while an {@link AudioTrack}
+     * is playing PCM audio, the new audio is resampled to the sample rate of the {@link
+     * AudioTrack}, mono and stereo audio is mixed to the channel count of the {@link AudioTrack},
+     * and the audio is converted to its encoding. The new audio is then written to the existing
+     * {@link AudioTrack} directly after the previous audio, instead of waiting for the previous
+     * audio to play out and creating a new {@link AudioTrack}. If the conversion isn't possible,
+     * the {@link AudioTrack} is recreated as usual. The {@link AudioTrack} format is kept until the
+     * {@link AudioTrack} is released, for example when seeking.
+     *
+     * <p>The conversion may reduce the quality of the new audio:
+     *
+     * <ul>
+     *   <li>If the sample rate changes, the audio is resampled by a {@link SonicAudioProcessor},
+     *       which interpolates linearly between samples and doesn't filter out aliasing.
+     *   <li>If the {@link AudioTrack} uses 16-bit PCM, high resolution PCM audio is converted to
+     *       16-bit PCM, even if float output is enabled.
+     *   <li>If the channel count changes, stereo audio is mixed down to mono, or mono audio is
+     *       copied to both stereo channels.
+     * </ul>
+     *
+     * <p>Leave this option disabled if the quality of the audio matters more than avoiding a gap
+     * between items with different formats.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     */
+    @CanIgnoreReturnValue
+    public Builder experimentalSetSeamlessFormatTransitionsEnabled(
+        boolean enableSeamlessFormatTransitions) {
+      this.enableSeamlessFormatTransitions = enableSeamlessFormatTransitions;
+      return this;
+    }
+
     /**
      * Sets whether to control the playback speed using the platform implementation (see {@link
      * AudioTrack#setPlaybackParams(PlaybackParams)}), if supported. If set to {@code false}, speed
@@ -490,10 +575,15 @@ public final class DefaultAudioSink implements AudioSink {
   @Nullable private final Context context;
   private final androidx.mynewmedia4.common.audio.AudioProcessorChain audioProcessorChain;
   private final boolean enableFloatOutput;
+  private final boolean enableAudioProcessorFusion;
+  private final boolean enableAudioTrackWriterThread;
+  private final boolean enableSeamlessFormatTransitions;
   private final ChannelMappingAudioProcessor channelMappingAudioProcessor;
   private final TrimmingAudioProcessor trimmingAudioProcessor;
   private final ImmutableList<AudioProcessor> toIntPcmAvailableAudioProcessors;
   private final ImmutableList<AudioProcessor> toFloatPcmAvailableAudioProcessors;
+  private final ChannelMixingAudioProcessor transitionChannelMixingAudioProcessor;
+  private final SonicAudioProcessor transitionResamplingAudioProcessor;
   private final ConditionVariable releasingConditionVariable;
   private final AudioTrackPositionTracker audioTrackPositionTracker;
   private final ArrayDeque<MediaPositionParameters> mediaPositionParametersCheckpoints;
@@ -512,6 +602,8 @@ public final class DefaultAudioSink implements AudioSink {
   private @MonotonicNonNull Configuration configuration;
   private @MonotonicNonNull AudioProcessingPipeline audioProcessingPipeline;
   @Nullable private AudioTrack audioTrack;
+  @Nullable private AsynchronousAudioTrackWriter audioTrackWriter;
+  @Nullable private HandlerThread audioTrackWriterThread;
   private AudioCapabilities audioCapabilities;
   private @MonotonicNonNull AudioCapabilitiesReceiver audioCapabilitiesReceiver;
 
@@ -560,6 +652,9 @@ public final class DefaultAudioSink implements AudioSink {
     audioCapabilities = context != null ? getCapabilities(context) : builder.audioCapabilities;
     audioProcessorChain = builder.audioProcessorChain;
     enableFloatOutput = Util.SDK_INT >= 21 && builder.enableFloatOutput;
+    enableAudioProcessorFusion = builder.enableAudioProcessorFusion;
+    enableAudioTrackWriterThread = Util.SDK_INT >= 21 && builder.enableAudioTrackWriterThread;
+    enableSeamlessFormatTransitions = builder.enableSeamlessFormatTransitions;
     preferAudioTrackPlaybackParams = Util.SDK_INT >= 23 && builder.enableAudioTrackPlaybackParams;
     offloadMode = Util.SDK_INT >= 29 ? builder.offloadMode : OFFLOAD_MODE_DISABLED;
     audioTrackBufferSizeProvider = builder.audioTrackBufferSizeProvider;
@@ -572,6 +667,8 @@ public final class DefaultAudioSink implements AudioSink {
         ImmutableList.of(
             new ToInt16PcmAudioProcessor(), channelMappingAudioProcessor, trimmingAudioProcessor);
     toFloatPcmAvailableAudioProcessors = ImmutableList.of(new ToFloatPcmAudioProcessor());
+    transitionChannelMixingAudioProcessor = new ChannelMixingAudioProcessor();
+    transitionResamplingAudioProcessor = new SonicAudioProcessor();
     volume = 1f;
     audioAttributes = AudioAttributes.DEFAULT;
     audioSessionId = C.AUDIO_SESSION_ID_UNSET;
@@ -657,14 +754,47 @@ public final class DefaultAudioSink implements AudioSink {
 
       inputPcmFrameSize = Util.getPcmFrameSize(inputFormat.pcmEncoding, inputFormat.channelCount);
 
+      if (Util.SDK_INT < 21 && inputFormat.channelCount == 8 && outputChannels == null) {
+        // AudioTrack doesn't support 8 channel output before Android L. Discard the last two (side)
+        // channels to give a 6 channel stream that is supported.
+        outputChannels = new int[6];
+        for (int i = 0; i < outputChannels.length; i++) {
+          outputChannels[i] = i;
+        }
+      }
+
+      @Nullable
+      AudioProcessor.AudioFormat transitionFormat =
+          getSeamlessTransitionFormat(inputFormat, outputChannels);
+      boolean useFloatOutput =
+          transitionFormat != null
+              ? transitionFormat.encoding == C.ENCODING_PCM_FLOAT
+              : shouldUseFloatOutput(inputFormat.pcmEncoding);
       ImmutableList.Builder<AudioProcessor> pipelineProcessors = new ImmutableList.Builder<>();
-      if (shouldUseFloatOutput(inputFormat.pcmEncoding)) {
+      if (useFloatOutput) {
         pipelineProcessors.addAll(toFloatPcmAvailableAudioProcessors);
       } else {
         pipelineProcessors.addAll(toIntPcmAvailableAudioProcessors);
         pipelineProcessors.add(audioProcessorChain.getAudioProcessors());
       }
-      audioProcessingPipeline = new AudioProcessingPipeline(pipelineProcessors.build());
+      if (transitionFormat != null) {
+        // Convert the audio to the format of the current AudioTrack so that it can be reused.
+        int channelCount =
+            outputChannels != null && !useFloatOutput
+                ? outputChannels.length
+                : inputFormat.channelCount;
+        if (channelCount != transitionFormat.channelCount) {
+          transitionChannelMixingAudioProcessor.putChannelMixingMatrix(
+              ChannelMixingMatrix.create(channelCount, transitionFormat.channelCount));
+          pipelineProcessors.add(transitionChannelMixingAudioProcessor);
+        }
+        if (inputFormat.sampleRate != transitionFormat.sampleRate) {
+          transitionResamplingAudioProcessor.setOutputSampleRateHz(transitionFormat.sampleRate);
+          pipelineProcessors.add(transitionResamplingAudioProcessor);
+        }
+      }
+      audioProcessingPipeline =
+          new AudioProcessingPipeline(pipelineProcessors.build(), enableAudioProcessorFusion);
 
       // If the underlying processors of the new pipeline are the same as the existing pipeline,
       // then use the existing one when the configuration is used.
@@ -674,15 +804,6 @@ public final class DefaultAudioSink implements AudioSink {
 
       trimmingAudioProcessor.setTrimFrameCount(
           inputFormat.encoderDelay, inputFormat.encoderPadding);
-
-      if (Util.SDK_INT < 21 && inputFormat.channelCount == 8 && outputChannels == null) {
-        // AudioTrack doesn't support 8 channel output before Android L. Discard the last two (side)
-        // channels to give a 6 channel stream that is supported.
-        outputChannels = new int[6];
-        for (int i = 0; i < outputChannels.length; i++) {
-          outputChannels[i] = i;
-        }
-      }
       channelMappingAudioProcessor.setChannelMap(outputChannels);
 
       AudioProcessor.AudioFormat outputFormat =
@@ -771,6 +892,43 @@ public final class DefaultAudioSink implements AudioSink {
     }
   }
 
+  /**
+   * Returns the format of the current {@link AudioTrack} if seamless format transitions are enabled
+   * and PCM audio in {@code inputFormat} can be converted to it, or null otherwise.
+   */
+  @Nullable
+  private AudioProcessor.AudioFormat getSeamlessTransitionFormat(
+      Format inputFormat, @Nullable int[] outputChannels) {
+    if (!enableSeamlessFormatTransitions
+        || !isAudioTrackInitialized()
+        || tunneling
+        || configuration.outputMode != OUTPUT_MODE_PCM) {
+      return null;
+    }
+    @C.PcmEncoding int encoding = configuration.outputEncoding;
+    int channelCount = configuration.outputPcmFrameSize / Util.getPcmFrameSize(encoding, 1);
+    int inputChannelCount;
+    if (encoding == C.ENCODING_PCM_FLOAT) {
+      // Only high resolution PCM can be converted to float, and channels can't be mixed.
+      if (!Util.isEncodingHighResolutionPcm(inputFormat.pcmEncoding)
+          || inputFormat.channelCount != channelCount) {
+        return null;
+      }
+      inputChannelCount = inputFormat.channelCount;
+    } else if (encoding == C.ENCODING_PCM_16BIT) {
+      inputChannelCount = outputChannels != null ? outputChannels.length : inputFormat.channelCount;
+    } else {
+      return null;
+    }
+    if (inputChannelCount != channelCount
+        && !((inputChannelCount == 1 && channelCount == 2)
+            || (inputChannelCount == 2 && channelCount == 1))) {
+      // Only mono and stereo audio can be mixed to a different channel count.
+      return null;
+    }
+    return new AudioProcessor.AudioFormat(configuration.outputSampleRate, channelCount, encoding);
+  }
+
   private void setupAudioProcessors() {
     audioProcessingPipeline = configuration.audioProcessingPipeline;
     audioProcessingPipeline.flush();
@@ -804,6 +962,22 @@ public final class DefaultAudioSink implements AudioSink {
         configuration.outputEncoding,
         configuration.outputPcmFrameSize,
         configuration.bufferSize);
+    if (enableAudioTrackWriterThread
+        && configuration.outputMode == OUTPUT_MODE_PCM
+        && !tunneling) {
+      if (audioTrackWriterThread == null) {
+        audioTrackWriterThread =
+            new HandlerThread("ExoPlayer:AudioTrackWriter", Process.THREAD_PRIORITY_AUDIO);
+        audioTrackWriterThread.start();
+      }
+      audioTrackWriter =
+          new AsynchronousAudioTrackWriter(
+              audioTrack,
+              /* capacity= */ configuration.bufferSize
+                  / configuration.outputPcmFrameSize
+                  * configuration.outputPcmFrameSize,
+              audioTrackWriterThread.getLooper());
+    }
     setVolumeInternal();
 
     if (auxEffectInfo.effectId != AuxEffectInfo.NO_AUX_EFFECT_ID) {
@@ -824,6 +998,9 @@ public final class DefaultAudioSink implements AudioSink {
     if (isAudioTrackInitialized()) {
       audioTrackPositionTracker.start();
       audioTrack.play();
+      if (audioTrackWriter != null) {
+        audioTrackWriter.play();
+      }
     }
   }
 
@@ -844,6 +1021,10 @@ public final class DefaultAudioSink implements AudioSink {
         // There's still pending data in audio processors to write to the track.
         return false;
       } else if (!pendingConfiguration.canReuseAudioTrack(configuration)) {
+        if (!drainAudioTrackWriter()) {
+          // The writer thread hasn't written all the data to the current audio track yet.
+          return false;
+        }
         playPendingData();
         if (hasPendingData()) {
           // We're waiting for playout on the current audio track to finish.
@@ -1147,6 +1328,11 @@ public final class DefaultAudioSink implements AudioSink {
       bytesWrittenOrError =
           writeNonBlockingWithAvSyncV21(
               audioTrack, buffer, bytesRemaining, avSyncPresentationTimeUs);
+    } else if (audioTrackWriter != null) {
+      bytesWrittenOrError = audioTrackWriter.getAndClearWriteError();
+      if (bytesWrittenOrError == 0) {
+        bytesWrittenOrError = audioTrackWriter.write(buffer);
+      }
     } else {
       bytesWrittenOrError = writeNonBlockingV21(audioTrack, buffer, bytesRemaining);
     }
@@ -1154,23 +1340,7 @@ public final class DefaultAudioSink implements AudioSink {
     lastFeedElapsedRealtimeMs = SystemClock.elapsedRealtime();
 
     if (bytesWrittenOrError < 0) {
-      int error = bytesWrittenOrError;
-
-      // Treat a write error on a previously successful offload channel as recoverable
-      // without disabling offload. Offload will be disabled when a new AudioTrack is created,
-      // if no longer supported.
-      boolean isRecoverable = isAudioTrackDeadObject(error) && writtenEncodedFrames > 0;
-
-      WriteException e = new WriteException(error, configuration.inputFormat, isRecoverable);
-      if (listener != null) {
-        listener.onAudioSinkError(e);
-      }
-      if (e.isRecoverable) {
-        // Change to the audio capabilities supported by all the devices during the error recovery.
-        audioCapabilities = DEFAULT_AUDIO_CAPABILITIES;
-        throw e; // Do not delay the exception if it can be recovered at higher level.
-      }
-      writeExceptionPendingExceptionHolder.throwExceptionIfDeadlineIsReached(e);
+      handleWriteError(/* error= */ bytesWrittenOrError);
       return;
     }
     writeExceptionPendingExceptionHolder.clear();
@@ -1211,9 +1381,51 @@ public final class DefaultAudioSink implements AudioSink {
     }
   }
 
+  private void handleWriteError(int error) throws WriteException {
+    // Treat a write error on a previously successful offload channel as recoverable
+    // without disabling offload. Offload will be disabled when a new AudioTrack is created,
+    // if no longer supported.
+    boolean isRecoverable = isAudioTrackDeadObject(error) && writtenEncodedFrames > 0;
+
+    WriteException e = new WriteException(error, configuration.inputFormat, isRecoverable);
+    if (listener != null) {
+      listener.onAudioSinkError(e);
+    }
+    if (e.isRecoverable) {
+      // Change to the audio capabilities supported by all the devices during the error recovery.
+      audioCapabilities = DEFAULT_AUDIO_CAPABILITIES;
+      throw e; // Do not delay the exception if it can be recovered at higher level.
+    }
+    writeExceptionPendingExceptionHolder.throwExceptionIfDeadlineIsReached(e);
+  }
+
+  /**
+   * Returns whether the {@link #audioTrackWriter}, if any, has written all its data to the audio
+   * track, reporting any error it encountered.
+   */
+  private boolean drainAudioTrackWriter() throws WriteException {
+    if (audioTrackWriter == null) {
+      return true;
+    }
+    int error = audioTrackWriter.getAndClearWriteError();
+    if (error < 0) {
+      handleWriteError(error);
+      return false;
+    }
+    if (!audioTrackWriter.hasPendingData()) {
+      return true;
+    }
+    // Writing stops while the audio track is full and paused, so make sure it continues.
+    audioTrackWriter.maybeWritePendingData();
+    return false;
+  }
+
   @Override
   public void playToEndOfStream() throws WriteException {
-    if (!handledEndOfStream && isAudioTrackInitialized() && drainToEndOfStream()) {
+    if (!handledEndOfStream
+        && isAudioTrackInitialized()
+        && drainToEndOfStream()
+        && drainAudioTrackWriter()) {
       playPendingData();
       handledEndOfStream = true;
     }
@@ -1242,7 +1454,8 @@ public final class DefaultAudioSink implements AudioSink {
   @Override
   public boolean hasPendingData() {
     return isAudioTrackInitialized()
-        && audioTrackPositionTracker.hasPendingData(getWrittenFrames());
+        && ((audioTrackWriter != null && audioTrackWriter.hasPendingData())
+            || audioTrackPositionTracker.hasPendingData(getWrittenFrames()));
   }
 
   @Override
@@ -1373,6 +1586,9 @@ public final class DefaultAudioSink implements AudioSink {
     playing = false;
     if (isAudioTrackInitialized() && audioTrackPositionTracker.pause()) {
       audioTrack.pause();
+      if (audioTrackWriter != null) {
+        audioTrackWriter.pause();
+      }
     }
   }
 
@@ -1384,6 +1600,10 @@ public final class DefaultAudioSink implements AudioSink {
       if (audioTrackPositionTracker.isPlaying()) {
         audioTrack.pause();
       }
+      if (audioTrackWriter != null) {
+        audioTrackWriter.flush();
+        audioTrackWriter = null;
+      }
       if (isOffloadedPlayback(audioTrack)) {
         checkNotNull(offloadStreamEventCallbackV29).unregister(audioTrack);
       }
@@ -1427,6 +1647,10 @@ public final class DefaultAudioSink implements AudioSink {
     if (audioTrackPositionTracker.isPlaying()) {
       audioTrack.pause();
     }
+    if (audioTrackWriter != null) {
+      audioTrackWriter.pause();
+      audioTrackWriter.flush();
+    }
     audioTrack.flush();
 
     audioTrackPositionTracker.reset();
@@ -1449,6 +1673,8 @@ public final class DefaultAudioSink implements AudioSink {
     for (AudioProcessor audioProcessor : toFloatPcmAvailableAudioProcessors) {
       audioProcessor.reset();
     }
+    transitionChannelMixingAudioProcessor.reset();
+    transitionResamplingAudioProcessor.reset();
     if (audioProcessingPipeline != null) {
       audioProcessingPipeline.reset();
     }
@@ -1461,6 +1687,10 @@ public final class DefaultAudioSink implements AudioSink {
     if (audioCapabilitiesReceiver != null) {
       audioCapabilitiesReceiver.unregister();
     }
+    if (audioTrackWriterThread != null) {
+      audioTrackWriterThread.quit();
+      audioTrackWriterThread = null;
+    }
   }
 
   // AudioCapabilitiesReceiver.Listener implementation.
@@ -1577,7 +1807,9 @@ public final class DefaultAudioSink implements AudioSink {
     //   https://github.com/google/ExoPlayer/issues/4803);
     // - when playing encoded audio via passthrough/offload, because modifying the audio stream
     //   would require decoding/re-encoding; and
-    // - when outputting float PCM audio, because SonicAudioProcessor outputs 16-bit integer PCM.
+    // - when outputting float PCM audio, because the audio processor chain isn't applied to float
+    //   output. Note that SonicAudioProcessor supports float PCM, but other processors in the
+    //   chain, such as SilenceSkippingAudioProcessor, only support 16-bit integer PCM.
     return !tunneling
         && configuration.outputMode == OUTPUT_MODE_PCM
         && !shouldUseFloatOutput(configuration.inputFormat.pcmEncoding);
@@ -1655,9 +1887,16 @@ public final class DefaultAudioSink implements AudioSink {
   }
 
   private long getWrittenFrames() {
-    return configuration.outputMode == OUTPUT_MODE_PCM
-        ? (writtenPcmBytes / configuration.outputPcmFrameSize)
-        : writtenEncodedFrames;
+    if (configuration.outputMode != OUTPUT_MODE_PCM) {
+      return writtenEncodedFrames;
+    }
+    // Only count the bytes the writer thread has written to the audio track, because the position
+    // tracker compares the written frames with the audio track's playback position.
+    long writtenPcmBytes =
+        audioTrackWriter != null
+            ? audioTrackWriter.getBytesWrittenToAudioTrack()
+            : this.writtenPcmBytes;
+    return writtenPcmBytes / configuration.outputPcmFrameSize;
   }
 
   private boolean useOffloadedPlayback(Format format, AudioAttributes audioAttributes) {
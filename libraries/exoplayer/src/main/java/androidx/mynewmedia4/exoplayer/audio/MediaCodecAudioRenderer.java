@@ -15,6 +15,7 @@
  */
 package androidx.mynewmedia4.exoplayer.audio;
 
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
 import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
 import static androidx.mynewmedia4.exoplayer.DecoderReuseEvaluation.DISCARD_REASON_MAX_INPUT_SIZE_EXCEEDED;
 import static androidx.mynewmedia4.exoplayer.DecoderReuseEvaluation.REUSE_RESULT_NO;
@@ -31,6 +32,7 @@ import android.media.MediaFormat;
 import android.os.Handler;
 import androidx.annotation.CallSuper;
 import androidx.annotation.DoNotInline;
+import androidx.annotation.IntRange;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.mynewmedia4.common.AudioAttributes;
@@ -113,8 +115,10 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
   private boolean allowFirstBufferPositionDiscontinuity;
   private boolean allowPositionDiscontinuity;
   private boolean audioSinkNeedsReset;
+  private long nextBufferToWritePresentationTimeUs;
 
   private boolean experimentalKeepAudioTrackOnSeek;
+  private int experimentalMaxInputBatchSampleCount;
 
   @Nullable private WakeupListener wakeupListener;
 
@@ -261,7 +265,9 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
     context = context.getApplicationContext();
     this.context = context;
     this.audioSink = audioSink;
+    experimentalMaxInputBatchSampleCount = 1;
     eventDispatcher = new EventDispatcher(eventHandler, eventListener);
+    nextBufferToWritePresentationTimeUs = C.TIME_UNSET;
     audioSink.setListener(new AudioSinkListener());
   }
 
@@ -283,6 +289,25 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
     this.experimentalKeepAudioTrackOnSeek = enableKeepAudioTrackOnSeek;
   }
 
+  /**
+   * Sets the maximum number of samples that are queued to the codec together in one input buffer.
+   * The default value is 1, which queues each sample in its own input buffer.
+   *
+   * <p>Combining samples reduces the number of codec calls for streams with many short samples. It
+   * only applies to unencrypted formats whose samples are self-delimiting (MPEG audio, AC-3,
+   * E-AC-3 and PCM), because codecs can't separate concatenated samples of other formats. The
+   * value takes effect when the next codec is initialized.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release.
+   *
+   * @param maxInputBatchSampleCount The maximum number of samples per codec input buffer.
+   */
+  public void experimentalSetMaxInputBatchSampleCount(
+      @IntRange(from = 1) int maxInputBatchSampleCount) {
+    checkArgument(maxInputBatchSampleCount > 0);
+    this.experimentalMaxInputBatchSampleCount = maxInputBatchSampleCount;
+  }
+
   @Override
   protected @Capabilities int supportsFormat(MediaCodecSelector mediaCodecSelector, Format format)
       throws DecoderQueryException {
@@ -426,6 +451,16 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
         codecInfo, mediaFormat, format, crypto);
   }
 
+  @Override
+  protected int getCodecMaxInputSampleCount(MediaCodecInfo codecInfo, Format format) {
+    if (format.drmInitData != null
+        || !codecInfo.mimeType.equals(format.sampleMimeType)
+        || !hasSelfDelimitingSamples(format.sampleMimeType)) {
+      return 1;
+    }
+    return experimentalMaxInputBatchSampleCount;
+  }
+
   @Override
   protected DecoderReuseEvaluation canReuseCodec(
       MediaCodecInfo codecInfo, Format oldFormat, Format newFormat) {
@@ -579,6 +614,7 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
     }
 
     currentPositionUs = positionUs;
+    nextBufferToWritePresentationTimeUs = C.TIME_UNSET;
     allowFirstBufferPositionDiscontinuity = true;
     allowPositionDiscontinuity = true;
   }
@@ -600,6 +636,7 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
   protected void onDisabled() {
     audioSinkNeedsReset = true;
     inputFormat = null;
+    nextBufferToWritePresentationTimeUs = C.TIME_UNSET;
     try {
       audioSink.flush();
     } finally {
@@ -638,6 +675,21 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
     return audioSink.hasPendingData() || super.isReady();
   }
 
+  @Override
+  public long getDurationToProgressUs(long positionUs, long elapsedRealtimeUs) {
+    if (nextBufferToWritePresentationTimeUs == C.TIME_UNSET) {
+      return super.getDurationToProgressUs(positionUs, elapsedRealtimeUs);
+    }
+    // The audio sink is full. Wake up once half of the audio queued ahead of the rejected buffer
+    // has played out, which leaves the other half to absorb scheduling jitter.
+    long durationUs =
+        (long)
+            ((nextBufferToWritePresentationTimeUs - positionUs)
+                / audioSink.getPlaybackParameters().speed
+                / 2);
+    return max(DEFAULT_DURATION_TO_PROGRESS_US, durationUs);
+  }
+
   @Override
   public long getPositionUs() {
     if (getState() == STATE_STARTED) {
@@ -723,9 +775,11 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
         codec.releaseOutputBuffer(bufferIndex, false);
       }
       decoderCounters.renderedOutputBufferCount += sampleCount;
+      nextBufferToWritePresentationTimeUs = C.TIME_UNSET;
       return true;
     }
 
+    nextBufferToWritePresentationTimeUs = bufferPresentationTimeUs;
     return false;
   }
 
@@ -899,6 +953,28 @@ public class MediaCodecAudioRenderer extends MediaCodecRenderer implements Media
         && ("ZTE B2017G".equals(Util.MODEL) || "AXON 7 mini".equals(Util.MODEL));
   }
 
+  /**
+   * Returns whether consecutive samples of the given MIME type can be concatenated into one codec
+   * input buffer, because each sample starts with a header from which the decoder can find the
+   * next one.
+   */
+  private static boolean hasSelfDelimitingSamples(@Nullable String mimeType) {
+    if (mimeType == null) {
+      return false;
+    }
+    switch (mimeType) {
+      case MimeTypes.AUDIO_RAW:
+      case MimeTypes.AUDIO_MPEG:
+      case MimeTypes.AUDIO_MPEG_L1:
+      case MimeTypes.AUDIO_MPEG_L2:
+      case MimeTypes.AUDIO_AC3:
+      case MimeTypes.AUDIO_E_AC3:
+        return true;
+      default:
+        return false;
+    }
+  }
+
   /**
    * Returns whether the decoder is known to output six audio channels when provided with input with
    * fewer than six channels.
@@ -15,10 +15,12 @@
  */
 package androidx.mynewmedia4.exoplayer.audio;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.annotation.ElementType.TYPE_USE;
 
 import androidx.annotation.IntDef;
+import androidx.annotation.VisibleForTesting;
 import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.audio.AudioProcessor;
 import androidx.mynewmedia4.common.audio.BaseAudioProcessor;
@@ -34,7 +36,7 @@ import java.nio.ByteBuffer;
 
 /**
  * An {@link AudioProcessor} that skips silence in the input stream. Input and output are 16-bit
- * PCM.
+ * PCM or 32-bit float PCM.
  */
 @UnstableApi
 public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
@@ -72,10 +74,24 @@ public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
   /** State when the input is silent. */
   private static final int STATE_SILENT = 2;
 
+  /** Mask for the most significant bit of each 16-bit lane in a 64-bit word. */
+  private static final long INT16_LANE_SIGN_BITS = 0x8000_8000_8000_8000L;
+  /** Multiplier that repeats a 16-bit value in each 16-bit lane of a 64-bit word. */
+  private static final long INT16_LANE_ONES = 0x0001_0001_0001_0001L;
+  /** Mask for the most significant bit of each 32-bit lane in a 64-bit word. */
+  private static final long FLOAT_LANE_SIGN_BITS = 0x8000_0000_8000_0000L;
+  /** Multiplier that repeats a 32-bit value in each 32-bit lane of a 64-bit word. */
+  private static final long FLOAT_LANE_ONES = 0x0000_0001_0000_0001L;
+
   private final long minimumSilenceDurationUs;
   private final long paddingSilenceUs;
   private final short silenceThresholdLevel;
+  private final float floatSilenceThresholdLevel;
+  private final long int16ThresholdOffsetWord;
+  private final long int16RangeOffsetWord;
+  private final long floatRangeOffsetWord;
   private int bytesPerFrame;
+  private int bytesPerSample;
   private boolean enabled;
 
   /**
@@ -113,7 +129,7 @@ public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
    * @param paddingSilenceUs The duration of silence by which to extend non-silent sections, in
    *     microseconds. The value must not exceed {@code minimumSilenceDurationUs}.
    * @param silenceThresholdLevel The absolute level below which an individual PCM sample is
-   *     classified as silent.
+   *     classified as silent. For float PCM, the level is scaled by {@code 1 / 32768}.
    */
   public SilenceSkippingAudioProcessor(
       long minimumSilenceDurationUs, long paddingSilenceUs, short silenceThresholdLevel) {
@@ -121,6 +137,14 @@ public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
     this.minimumSilenceDurationUs = minimumSilenceDurationUs;
     this.paddingSilenceUs = paddingSilenceUs;
     this.silenceThresholdLevel = silenceThresholdLevel;
+    floatSilenceThresholdLevel = silenceThresholdLevel / 32768f;
+    // See hasNoisySample(long).
+    int threshold = max(silenceThresholdLevel, 0);
+    int16ThresholdOffsetWord = threshold * INT16_LANE_ONES;
+    int16RangeOffsetWord = (0xFFFF - 2 * threshold) * INT16_LANE_ONES;
+    floatRangeOffsetWord =
+        (0x7FFF_FFFF - Float.floatToIntBits(max(floatSilenceThresholdLevel, 0f)))
+            * FLOAT_LANE_ONES;
 
     maybeSilenceBuffer = Util.EMPTY_BYTE_ARRAY;
     paddingBuffer = Util.EMPTY_BYTE_ARRAY;
@@ -151,7 +175,8 @@ public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
   @CanIgnoreReturnValue
   public AudioFormat onConfigure(AudioFormat inputAudioFormat)
       throws UnhandledAudioFormatException {
-    if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT) {
+    if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT
+        && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
       throw new UnhandledAudioFormatException(inputAudioFormat);
     }
     return enabled ? inputAudioFormat : AudioFormat.NOT_SET;
@@ -196,6 +221,7 @@ public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
   protected void onFlush() {
     if (enabled) {
       bytesPerFrame = inputAudioFormat.bytesPerFrame;
+      bytesPerSample = bytesPerFrame / inputAudioFormat.channelCount;
       int maybeSilenceBufferSize = durationUsToFrames(minimumSilenceDurationUs) * bytesPerFrame;
       if (maybeSilenceBuffer.length != maybeSilenceBufferSize) {
         maybeSilenceBuffer = new byte[maybeSilenceBufferSize];
@@ -355,14 +381,19 @@ public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
    * classified as a noisy frame, or the limit of the buffer if no such frame exists.
    */
   private int findNoisePosition(ByteBuffer buffer) {
-    // The input is in ByteOrder.nativeOrder(), which is little endian on Android.
-    for (int i = buffer.position(); i < buffer.limit(); i += 2) {
-      if (Math.abs(buffer.getShort(i)) > silenceThresholdLevel) {
+    int limit = buffer.limit();
+    int i = buffer.position();
+    // Skip words of silent samples, then find the first noisy sample individually.
+    while (i + 8 <= limit && !hasNoisySample(buffer.getLong(i))) {
+      i += 8;
+    }
+    for (; i < limit; i += bytesPerSample) {
+      if (isNoisySample(buffer, i)) {
         // Round to the start of the frame.
         return bytesPerFrame * (i / bytesPerFrame);
       }
     }
-    return buffer.limit();
+    return limit;
   }
 
   /**
@@ -370,13 +401,57 @@ public final class SilenceSkippingAudioProcessor extends BaseAudioProcessor {
    * from the byte position to the limit are classified as silent.
    */
   private int findNoiseLimit(ByteBuffer buffer) {
-    // The input is in ByteOrder.nativeOrder(), which is little endian on Android.
-    for (int i = buffer.limit() - 2; i >= buffer.position(); i -= 2) {
-      if (Math.abs(buffer.getShort(i)) > silenceThresholdLevel) {
+    int position = buffer.position();
+    int i = buffer.limit();
+    // Skip words of silent samples, then find the last noisy sample individually.
+    while (i - 8 >= position && !hasNoisySample(buffer.getLong(i - 8))) {
+      i -= 8;
+    }
+    for (i -= bytesPerSample; i >= position; i -= bytesPerSample) {
+      if (isNoisySample(buffer, i)) {
         // Return the start of the next frame.
         return bytesPerFrame * (i / bytesPerFrame) + bytesPerFrame;
       }
     }
-    return buffer.position();
+    return position;
+  }
+
+  /** Returns whether the sample starting at byte {@code index} of {@code buffer} is noisy. */
+  @VisibleForTesting
+  /* package */ boolean isNoisySample(ByteBuffer buffer, int index) {
+    if (bytesPerSample == 2) {
+      return Math.abs(buffer.getShort(index)) > silenceThresholdLevel;
+    } else {
+      return Math.abs(buffer.getFloat(index)) > floatSilenceThresholdLevel;
+    }
+  }
+
+  /**
+   * Returns whether any of the samples in {@code word}, which holds eight bytes of input read in
+   * the same byte order as the samples, may be noisy. Returns {@code false} only if all of them are
+   * silent.
+   */
+  @VisibleForTesting
+  /* package */ boolean hasNoisySample(long word) {
+    if (silenceThresholdLevel < 0) {
+      // Every sample is noisy.
+      return true;
+    }
+    if (bytesPerSample == 2) {
+      // A sample x is silent if x + threshold, as an unsigned 16-bit value, is at most
+      // 2 * threshold. Add the threshold to each lane without carrying into the next lane, then
+      // add 0xFFFF - 2 * threshold and check which lanes carry out of their most significant bit.
+      long lowBits = word & ~INT16_LANE_SIGN_BITS;
+      long offset = (lowBits + int16ThresholdOffsetWord) ^ (word & INT16_LANE_SIGN_BITS);
+      long sum = (offset & ~INT16_LANE_SIGN_BITS) + (int16RangeOffsetWord & ~INT16_LANE_SIGN_BITS);
+      long carries = (offset & int16RangeOffsetWord) | ((offset ^ int16RangeOffsetWord) & sum);
+      return (carries & INT16_LANE_SIGN_BITS) != 0;
+    } else {
+      // The bits of non-negative floats are ordered like the floats. Clear the sign bits, then add
+      // an offset that makes the most significant bit of a lane set if it's above the threshold.
+      // NaN samples are reported as possibly noisy, and checked individually.
+      long absoluteBits = word & ~FLOAT_LANE_SIGN_BITS;
+      return ((absoluteBits + floatRangeOffsetWord) & FLOAT_LANE_SIGN_BITS) != 0;
+    }
   }
 }
@@ -19,6 +19,7 @@ import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.Format;
 import androidx.mynewmedia4.common.audio.AudioProcessor;
 import androidx.mynewmedia4.common.audio.BaseAudioProcessor;
+import androidx.mynewmedia4.common.audio.FusibleAudioProcessor;
 import androidx.mynewmedia4.common.util.Util;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import java.nio.ByteBuffer;
@@ -33,7 +34,8 @@ import java.nio.ByteBuffer;
  *   <li>{@link C#ENCODING_PCM_FLOAT} ({@link #isActive()} will return {@code false})
  * </ul>
  */
-/* package */ final class ToFloatPcmAudioProcessor extends BaseAudioProcessor {
+/* package */ final class ToFloatPcmAudioProcessor extends BaseAudioProcessor
+    implements FusibleAudioProcessor {
 
   private static final int FLOAT_NAN_AS_INT = Float.floatToIntBits(Float.NaN);
   private static final double PCM_32_BIT_INT_TO_PCM_32_BIT_FLOAT_FACTOR = 1.0 / 0x7FFFFFFF;
@@ -54,14 +56,20 @@ import java.nio.ByteBuffer;
 
   @Override
   public void queueInput(ByteBuffer inputBuffer) {
+    int size = inputBuffer.remaining();
+    ByteBuffer buffer =
+        replaceOutputBuffer(
+            inputAudioFormat.encoding == C.ENCODING_PCM_24BIT ? (size / 3) * 4 : size);
+    processFrames(inputBuffer, buffer);
+    buffer.flip();
+  }
+
+  @Override
+  public void processFrames(ByteBuffer inputBuffer, ByteBuffer buffer) {
     int position = inputBuffer.position();
     int limit = inputBuffer.limit();
-    int size = limit - position;
-
-    ByteBuffer buffer;
     switch (inputAudioFormat.encoding) {
       case C.ENCODING_PCM_24BIT:
-        buffer = replaceOutputBuffer((size / 3) * 4);
         for (int i = position; i < limit; i += 3) {
           int pcm32BitInteger =
               ((inputBuffer.get(i) & 0xFF) << 8)
@@ -71,7 +79,6 @@ import java.nio.ByteBuffer;
         }
         break;
       case C.ENCODING_PCM_32BIT:
-        buffer = replaceOutputBuffer(size);
         for (int i = position; i < limit; i += 4) {
           int pcm32BitInteger =
               (inputBuffer.get(i) & 0xFF)
@@ -93,7 +100,6 @@ import java.nio.ByteBuffer;
     }
 
     inputBuffer.position(inputBuffer.limit());
-    buffer.flip();
   }
 
   /**
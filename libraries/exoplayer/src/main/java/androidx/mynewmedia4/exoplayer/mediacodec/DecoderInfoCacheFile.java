@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.mediacodec;
+
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.util.AtomicFile;
+import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecUtil.CodecKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persists the decoder queries made through {@link MediaCodecUtil}, and whether they found any
+ * decoders, so that they can be answered or warmed up early in a later process.
+ *
+ * <p>The file is only valid for the build fingerprint it was written with. It is ignored if the
+ * fingerprint or the file version don't match.
+ */
+/* package */ final class DecoderInfoCacheFile {
+
+  private static final int VERSION = 1;
+
+  private final AtomicFile atomicFile;
+  private final String buildFingerprint;
+
+  /**
+   * Creates an instance.
+   *
+   * @param file The file to read from and write to.
+   * @param buildFingerprint The fingerprint of the build running on the device.
+   */
+  public DecoderInfoCacheFile(File file, String buildFingerprint) {
+    this.atomicFile = new AtomicFile(file);
+    this.buildFingerprint = buildFingerprint;
+  }
+
+  /**
+   * Reads the persisted decoder queries.
+   *
+   * @return A map from each persisted {@link CodecKey} to whether decoders were found for it. The
+   *     map is empty if the file doesn't exist, is corrupt, or was written by another build.
+   */
+  public synchronized Map<CodecKey, Boolean> read() {
+    HashMap<CodecKey, Boolean> entries = new HashMap<>();
+    if (!atomicFile.exists()) {
+      return entries;
+    }
+    @Nullable DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(atomicFile.openRead()));
+      int version = input.readInt();
+      if (version != VERSION || !buildFingerprint.equals(input.readUTF())) {
+        return entries;
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String mimeType = input.readUTF();
+        boolean secure = input.readBoolean();
+        boolean tunneling = input.readBoolean();
+        boolean hasDecoders = input.readBoolean();
+        entries.put(new CodecKey(mimeType, secure, tunneling), hasDecoders);
+      }
+      if (input.read() != -1) {
+        entries.clear();
+      }
+    } catch (IOException e) {
+      entries.clear();
+    } finally {
+      Util.closeQuietly(input);
+    }
+    return entries;
+  }
+
+  /**
+   * Writes the decoder queries, replacing any previously persisted queries.
+   *
+   * @param entries A map from each {@link CodecKey} to whether decoders were found for it.
+   * @throws IOException If an error occurs writing the file.
+   */
+  public synchronized void write(Map<CodecKey, Boolean> entries) throws IOException {
+    @Nullable DataOutputStream output = null;
+    try {
+      output = new DataOutputStream(new BufferedOutputStream(atomicFile.startWrite()));
+      output.writeInt(VERSION);
+      output.writeUTF(buildFingerprint);
+      output.writeInt(entries.size());
+      for (Map.Entry<CodecKey, Boolean> entry : entries.entrySet()) {
+        CodecKey key = entry.getKey();
+        output.writeUTF(key.mimeType);
+        output.writeBoolean(key.secure);
+        output.writeBoolean(key.tunneling);
+        output.writeBoolean(entry.getValue());
+      }
+      atomicFile.endWrite(output);
+      output = null;
+    } finally {
+      Util.closeQuietly(output);
+    }
+  }
+}
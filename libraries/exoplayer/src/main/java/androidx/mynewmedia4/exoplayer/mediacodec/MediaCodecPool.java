@@ -0,0 +1,511 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.mediacodec;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.PersistableBundle;
+import android.view.Surface;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.MimeTypes;
+import androidx.mynewmedia4.common.util.Clock;
+import androidx.mynewmedia4.common.util.Log;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.decoder.CryptoInfo;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A pool of configured and started {@link MediaCodecAdapter} instances that can be shared by
+ * {@link MediaCodecRenderer} instances across playlist items and players.
+ *
+ * <p>Creating and configuring a {@link MediaCodec} can take a significant amount of time. Adapters
+ * created by a {@linkplain #createAdapterFactory(MediaCodecAdapter.Factory) pooling factory} are
+ * flushed and kept in the pool when released, instead of releasing the underlying codec. A later
+ * request for the same codec with a compatible configuration is then served from the pool.
+ *
+ * <p>A codec is compatible with a configuration if it has the same {@linkplain
+ * MediaCodecInfo#name name}, configuration flags, output mode and the same configuration relevant
+ * {@link Format} and {@link MediaFormat} values. Codecs configured with a {@link
+ * android.media.MediaCrypto} or for tunneled playback are never pooled. Video codecs are only
+ * pooled from API 23, where the output surface of a pooled codec can be changed.
+ *
+ * <p>A codec that is reused from the pool doesn't report its output format again. Adapters served
+ * from the pool therefore replay the last output format reported by the codec, by returning {@link
+ * MediaCodec#INFO_OUTPUT_FORMAT_CHANGED} from the first call to {@link
+ * MediaCodecAdapter#dequeueOutputBufferIndex(MediaCodec.BufferInfo)}.
+ *
+ * <p>The pool holds at most {@code maxSize} idle codecs, evicting the least recently released codec
+ * when full. Idle codecs are released once they have been in the pool for longer than the keep
+ * alive duration. Expired codecs are released whenever the pool is accessed, or by calling {@link
+ * #trim()}.
+ *
+ * <p>The pool is thread-safe.
+ */
+@UnstableApi
+public final class MediaCodecPool {
+
+  /** The default maximum number of idle codecs in the pool. */
+  public static final int DEFAULT_MAX_SIZE = 4;
+
+  /** The default duration for which an idle codec is kept in the pool, in milliseconds. */
+  public static final long DEFAULT_KEEP_ALIVE_MS = 30_000;
+
+  private static final String TAG = "MediaCodecPool";
+
+  private static final String[] INTEGER_CONFIGURATION_KEYS = {
+    MediaFormat.KEY_MAX_WIDTH,
+    MediaFormat.KEY_MAX_HEIGHT,
+    MediaFormat.KEY_MAX_INPUT_SIZE,
+    MediaFormat.KEY_PRIORITY,
+    MediaFormat.KEY_ROTATION,
+    MediaFormat.KEY_PCM_ENCODING
+  };
+  private static final String[] FLOAT_CONFIGURATION_KEYS = {MediaFormat.KEY_OPERATING_RATE};
+
+  @GuardedBy("MediaCodecPool.class")
+  @Nullable
+  private static MediaCodecPool defaultInstance;
+
+  private final int maxSize;
+  private final long keepAliveMs;
+  private final Clock clock;
+
+  @GuardedBy("this")
+  private final ArrayDeque<IdleCodec> idleCodecs;
+
+  /** Returns the process-wide default pool. */
+  public static synchronized MediaCodecPool getDefault() {
+    if (defaultInstance == null) {
+      defaultInstance = new MediaCodecPool(DEFAULT_MAX_SIZE, DEFAULT_KEEP_ALIVE_MS);
+    }
+    return defaultInstance;
+  }
+
+  /**
+   * Creates an instance.
+   *
+   * @param maxSize The maximum number of idle codecs in the pool.
+   * @param keepAliveMs The duration for which an idle codec is kept in the pool, in milliseconds.
+   */
+  public MediaCodecPool(int maxSize, long keepAliveMs) {
+    this(maxSize, keepAliveMs, Clock.DEFAULT);
+  }
+
+  @VisibleForTesting
+  /* package */ MediaCodecPool(int maxSize, long keepAliveMs, Clock clock) {
+    checkArgument(maxSize >= 0);
+    checkArgument(keepAliveMs >= 0);
+    this.maxSize = maxSize;
+    this.keepAliveMs = keepAliveMs;
+    this.clock = clock;
+    idleCodecs = new ArrayDeque<>();
+  }
+
+  /**
+   * Returns a {@link MediaCodecAdapter.Factory} that serves adapters from this pool, and returns
+   * them to the pool when they are released.
+   *
+   * @param factory The {@link MediaCodecAdapter.Factory} used to create adapters when there's no
+   *     compatible adapter in the pool.
+   */
+  public MediaCodecAdapter.Factory createAdapterFactory(MediaCodecAdapter.Factory factory) {
+    return configuration -> createAdapter(factory, configuration);
+  }
+
+  /** Returns the number of idle codecs in the pool. */
+  public synchronized int getIdleCodecCount() {
+    return idleCodecs.size();
+  }
+
+  /** Releases the codecs that have been idle for longer than the keep alive duration. */
+  public void trim() {
+    List<MediaCodecAdapter> evictedCodecs = new ArrayList<>();
+    synchronized (this) {
+      evictExpiredCodecs(evictedCodecs);
+    }
+    releaseCodecs(evictedCodecs);
+  }
+
+  /** Releases all idle codecs in the pool. */
+  public void clear() {
+    List<MediaCodecAdapter> evictedCodecs = new ArrayList<>();
+    synchronized (this) {
+      for (IdleCodec idleCodec : idleCodecs) {
+        evictedCodecs.add(idleCodec.adapter);
+      }
+      idleCodecs.clear();
+    }
+    releaseCodecs(evictedCodecs);
+  }
+
+  private MediaCodecAdapter createAdapter(
+      MediaCodecAdapter.Factory factory, MediaCodecAdapter.Configuration configuration)
+      throws IOException {
+    @Nullable CodecKey key = CodecKey.create(configuration);
+    if (key == null) {
+      return factory.createAdapter(configuration);
+    }
+    @Nullable IdleCodec idleCodec = acquireIdleCodec(key);
+    if (idleCodec != null && configuration.surface != null && Util.SDK_INT >= 23) {
+      try {
+        idleCodec.adapter.setOutputSurface(configuration.surface);
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to set the output surface of a pooled codec", e);
+        idleCodec.adapter.release();
+        idleCodec = null;
+      }
+    }
+    if (idleCodec == null) {
+      return new PooledMediaCodecAdapter(
+          factory.createAdapter(configuration), key, /* replayedOutputFormat= */ null);
+    }
+    return new PooledMediaCodecAdapter(idleCodec.adapter, key, idleCodec.outputFormat);
+  }
+
+  @Nullable
+  private IdleCodec acquireIdleCodec(CodecKey key) {
+    List<MediaCodecAdapter> evictedCodecs = new ArrayList<>();
+    @Nullable IdleCodec acquiredCodec = null;
+    synchronized (this) {
+      evictExpiredCodecs(evictedCodecs);
+      // Prefer the most recently released codec.
+      Iterator<IdleCodec> iterator = idleCodecs.descendingIterator();
+      while (iterator.hasNext()) {
+        IdleCodec idleCodec = iterator.next();
+        if (idleCodec.key.equals(key)) {
+          iterator.remove();
+          acquiredCodec = idleCodec;
+          break;
+        }
+      }
+    }
+    releaseCodecs(evictedCodecs);
+    return acquiredCodec;
+  }
+
+  private void releaseToPool(
+      MediaCodecAdapter adapter, CodecKey key, @Nullable MediaFormat outputFormat) {
+    try {
+      adapter.flush();
+    } catch (RuntimeException e) {
+      // The codec may be in an error state, which makes it unsuitable for reuse.
+      adapter.release();
+      return;
+    }
+    List<MediaCodecAdapter> evictedCodecs = new ArrayList<>();
+    synchronized (this) {
+      evictExpiredCodecs(evictedCodecs);
+      if (maxSize == 0) {
+        evictedCodecs.add(adapter);
+      } else {
+        while (idleCodecs.size() >= maxSize) {
+          evictedCodecs.add(idleCodecs.removeFirst().adapter);
+        }
+        idleCodecs.addLast(new IdleCodec(adapter, key, outputFormat, clock.elapsedRealtime()));
+      }
+    }
+    releaseCodecs(evictedCodecs);
+  }
+
+  @GuardedBy("this")
+  private void evictExpiredCodecs(List<MediaCodecAdapter> evictedCodecs) {
+    long nowMs = clock.elapsedRealtime();
+    while (!idleCodecs.isEmpty() && nowMs - idleCodecs.peekFirst().releaseTimeMs > keepAliveMs) {
+      evictedCodecs.add(idleCodecs.removeFirst().adapter);
+    }
+  }
+
+  private static void releaseCodecs(List<MediaCodecAdapter> codecs) {
+    for (int i = 0; i < codecs.size(); i++) {
+      try {
+        codecs.get(i).release();
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Failed to release an evicted codec", e);
+      }
+    }
+  }
+
+  private static final class IdleCodec {
+
+    public final MediaCodecAdapter adapter;
+    public final CodecKey key;
+
+    /** The last output format reported by the codec, or null if it didn't report one. */
+    @Nullable public final MediaFormat outputFormat;
+
+    public final long releaseTimeMs;
+
+    public IdleCodec(
+        MediaCodecAdapter adapter,
+        CodecKey key,
+        @Nullable MediaFormat outputFormat,
+        long releaseTimeMs) {
+      this.adapter = adapter;
+      this.key = key;
+      this.outputFormat = outputFormat;
+      this.releaseTimeMs = releaseTimeMs;
+    }
+  }
+
+  /** Identifies the codecs that are compatible with a configuration. */
+  private static final class CodecKey {
+
+    /**
+     * Returns the key of a configuration, or null if codecs created for the configuration can't be
+     * pooled.
+     */
+    @Nullable
+    public static CodecKey create(MediaCodecAdapter.Configuration configuration) {
+      if (configuration.crypto != null
+          || configuration.mediaFormat.containsKey(MediaFormat.KEY_AUDIO_SESSION_ID)) {
+        return null;
+      }
+      Format format = configuration.format;
+      if (MimeTypes.isVideo(format.sampleMimeType) && Util.SDK_INT < 23) {
+        // Pooled video codecs need their output surface to be replaced on reuse.
+        return null;
+      }
+      List<Object> values = new ArrayList<>();
+      values.add(configuration.codecInfo.name);
+      values.add(configuration.flags);
+      values.add(configuration.surface != null);
+      values.add(format.sampleMimeType);
+      values.add(format.width);
+      values.add(format.height);
+      values.add(format.sampleRate);
+      values.add(format.channelCount);
+      values.add(format.pcmEncoding);
+      for (int i = 0; i < format.initializationData.size(); i++) {
+        values.add(Arrays.hashCode(format.initializationData.get(i)));
+      }
+      MediaFormat mediaFormat = configuration.mediaFormat;
+      try {
+        for (String key : INTEGER_CONFIGURATION_KEYS) {
+          values.add(mediaFormat.containsKey(key) ? mediaFormat.getInteger(key) : C.INDEX_UNSET);
+        }
+        for (String key : FLOAT_CONFIGURATION_KEYS) {
+          values.add(mediaFormat.containsKey(key) ? mediaFormat.getFloat(key) : Format.NO_VALUE);
+        }
+      } catch (ClassCastException e) {
+        // A value has an unexpected type. Don't pool codecs that can't be reliably matched.
+        return null;
+      }
+      return new CodecKey(values, format.initializationData);
+    }
+
+    private final List<Object> values;
+    private final List<byte[]> initializationData;
+
+    private CodecKey(List<Object> values, List<byte[]> initializationData) {
+      this.values = values;
+      this.initializationData = initializationData;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      CodecKey other = (CodecKey) obj;
+      if (!values.equals(other.values)
+          || initializationData.size() != other.initializationData.size()) {
+        return false;
+      }
+      for (int i = 0; i < initializationData.size(); i++) {
+        if (!Arrays.equals(initializationData.get(i), other.initializationData.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return values.hashCode();
+    }
+  }
+
+  /**
+   * A {@link MediaCodecAdapter} that returns the wrapped adapter to the pool on release, and that
+   * replays the output format of a reused codec.
+   */
+  private final class PooledMediaCodecAdapter implements MediaCodecAdapter {
+
+    private final MediaCodecAdapter adapter;
+    private final CodecKey key;
+
+    @Nullable private MediaFormat outputFormat;
+    private boolean pendingOutputFormatChange;
+    private boolean reusable;
+    private boolean released;
+
+    /**
+     * Creates an instance.
+     *
+     * @param adapter The wrapped adapter.
+     * @param key The key of the wrapped adapter's configuration.
+     * @param replayedOutputFormat The output format previously reported by the wrapped adapter, to
+     *     be reported again, or null if the adapter hasn't reported an output format.
+     */
+    public PooledMediaCodecAdapter(
+        MediaCodecAdapter adapter, CodecKey key, @Nullable MediaFormat replayedOutputFormat) {
+      this.adapter = adapter;
+      this.key = key;
+      outputFormat = replayedOutputFormat;
+      pendingOutputFormatChange = replayedOutputFormat != null;
+      reusable = true;
+    }
+
+    @Override
+    public int dequeueInputBufferIndex() {
+      return adapter.dequeueInputBufferIndex();
+    }
+
+    @Override
+    public int dequeueOutputBufferIndex(MediaCodec.BufferInfo bufferInfo) {
+      if (pendingOutputFormatChange) {
+        // The codec won't report the format again, because it reported it to a previous user.
+        pendingOutputFormatChange = false;
+        return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+      }
+      int index = adapter.dequeueOutputBufferIndex(bufferInfo);
+      if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+        outputFormat = adapter.getOutputFormat();
+      }
+      return index;
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+      return outputFormat != null ? outputFormat : adapter.getOutputFormat();
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+      return adapter.getInputBuffer(index);
+    }
+
+    @Nullable
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+      return adapter.getOutputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(
+        int index, int offset, int size, long presentationTimeUs, int flags) {
+      adapter.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void queueSecureInputBuffer(
+        int index, int offset, CryptoInfo info, long presentationTimeUs, int flags) {
+      adapter.queueSecureInputBuffer(index, offset, info, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+      adapter.releaseOutputBuffer(index, render);
+    }
+
+    @RequiresApi(21)
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimeStampNs) {
+      adapter.releaseOutputBuffer(index, renderTimeStampNs);
+    }
+
+    @Override
+    public void flush() {
+      adapter.flush();
+    }
+
+    @Override
+    public void release() {
+      if (released) {
+        return;
+      }
+      released = true;
+      if (reusable) {
+        releaseToPool(adapter, key, outputFormat);
+      } else {
+        adapter.release();
+      }
+    }
+
+    @RequiresApi(23)
+    @Override
+    public void setOnFrameRenderedListener(OnFrameRenderedListener listener, Handler handler) {
+      // The listener can't be removed from the codec, so the codec can't be handed to another
+      // renderer.
+      reusable = false;
+      adapter.setOnFrameRenderedListener(
+          (codec, presentationTimeUs, nanoTime) ->
+              listener.onFrameRendered(
+                  PooledMediaCodecAdapter.this, presentationTimeUs, nanoTime),
+          handler);
+    }
+
+    @RequiresApi(23)
+    @Override
+    public void setOutputSurface(Surface surface) {
+      adapter.setOutputSurface(surface);
+    }
+
+    @RequiresApi(19)
+    @Override
+    public void setParameters(Bundle params) {
+      // Parameters persist across a flush, so the codec must not be handed to another renderer.
+      reusable = false;
+      adapter.setParameters(params);
+    }
+
+    @Override
+    public void setVideoScalingMode(@C.VideoScalingMode int scalingMode) {
+      adapter.setVideoScalingMode(scalingMode);
+    }
+
+    @Override
+    public boolean needsReconfiguration() {
+      return adapter.needsReconfiguration();
+    }
+
+    @RequiresApi(26)
+    @Override
+    public PersistableBundle getMetrics() {
+      return adapter.getMetrics();
+    }
+  }
+}
@@ -325,6 +325,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
 
   private boolean mediaCryptoRequiresSecureDecoder;
   private long renderTimeLimitMs;
+  private boolean interleavedInputFeedingEnabled;
   private float currentPlaybackSpeed;
   private float targetPlaybackSpeed;
   @Nullable private MediaCodecAdapter codec;
@@ -346,6 +347,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   private boolean codecNeedsAdaptationWorkaroundBuffer;
   private boolean shouldSkipAdaptationWorkaroundOutputBuffer;
   private boolean codecNeedsEosPropagation;
+  private int codecMaxInputSampleCount;
   @Nullable private C2Mp3TimestampTracker c2Mp3TimestampTracker;
   private long codecHotswapDeadlineMs;
   private int inputIndex;
@@ -366,6 +368,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   private long largestQueuedPresentationTimeUs;
   private long lastBufferInStreamPresentationTimeUs;
   private boolean inputStreamEnded;
+  private boolean pendingInputEndOfStream;
   private boolean outputStreamEnded;
   private boolean waitingForFirstSampleInFormat;
   private boolean pendingOutputEndOfStream;
@@ -443,6 +446,24 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     this.renderTimeLimitMs = renderTimeLimitMs;
   }
 
+  /**
+   * Sets whether pending output buffers should be drained after each input buffer is queued.
+   *
+   * <p>By default, a single {@link #render(long, long)} call drains the available output before
+   * feeding input, so queueing a run of large or encrypted input samples delays the processing of
+   * any output buffer that becomes available in the meantime. Enabling this option interleaves the
+   * two, which keeps output release timing independent of how much input is being fed. It's most
+   * effective with asynchronous codec adapters, for which checking for output is cheap.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release. It should
+   * be called right after creating an instance of this class.
+   *
+   * @param enabled Whether to drain output buffers between queued input buffers.
+   */
+  public void experimentalSetInterleavedInputFeedingEnabled(boolean enabled) {
+    this.interleavedInputFeedingEnabled = enabled;
+  }
+
   @Override
   public final @AdaptiveSupport int supportsMixedMimeTypeAdaptation() {
     return ADAPTIVE_NOT_SEAMLESS;
@@ -607,6 +628,26 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     return false;
   }
 
+  /**
+   * Returns the maximum number of samples that may be queued to the codec together in a single
+   * input buffer.
+   *
+   * <p>Combining samples saves a {@link MediaCodecAdapter#queueInputBuffer} call per sample, but
+   * is only possible if the codec accepts several consecutive access units of the format in one
+   * input buffer, for example because the format is self-delimiting. Samples are only combined
+   * when they have the same format and the first sample isn't decode-only. Implementations must
+   * return 1 for formats whose samples may be encrypted or carry supplemental data.
+   *
+   * <p>The default implementation returns 1, which queues each sample in its own input buffer.
+   *
+   * @param codecInfo The {@link MediaCodecInfo} of the codec.
+   * @param format The {@link Format} for which the codec is being configured.
+   * @return The maximum number of samples per input buffer.
+   */
+  protected int getCodecMaxInputSampleCount(MediaCodecInfo codecInfo, Format format) {
+    return 1;
+  }
+
   /**
    * Sets an exception to be re-thrown by render.
    *
@@ -698,6 +739,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
   @Override
   protected void onPositionReset(long positionUs, boolean joining) throws ExoPlaybackException {
     inputStreamEnded = false;
+    pendingInputEndOfStream = false;
     outputStreamEnded = false;
     pendingOutputEndOfStream = false;
     if (bypassEnabled) {
@@ -815,7 +857,12 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
         TraceUtil.beginSection("drainAndFeed");
         while (drainOutputBuffer(positionUs, elapsedRealtimeUs)
             && shouldContinueRendering(renderStartTimeMs)) {}
-        while (feedInputBuffer() && shouldContinueRendering(renderStartTimeMs)) {}
+        while (feedInputBuffer() && shouldContinueRendering(renderStartTimeMs)) {
+          if (interleavedInputFeedingEnabled) {
+            while (drainOutputBuffer(positionUs, elapsedRealtimeUs)
+                && shouldContinueRendering(renderStartTimeMs)) {}
+          }
+        }
         TraceUtil.endSection();
       } else {
         decoderCounters.skippedInputBufferCount += skipSource(positionUs);
@@ -960,6 +1007,7 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     codecNeedsEosBufferTimestampWorkaround = false;
     codecNeedsMonoChannelCountWorkaround = false;
     codecNeedsEosPropagation = false;
+    codecMaxInputSampleCount = 1;
     codecReconfigured = false;
     codecReconfigurationState = RECONFIGURATION_STATE_NONE;
     mediaCryptoRequiresSecureDecoder = false;
@@ -1169,6 +1217,11 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     if ("c2.android.mp3.decoder".equals(codecInfo.name)) {
       c2Mp3TimestampTracker = new C2Mp3TimestampTracker();
     }
+    // The C2 MP3 decoder timestamp workaround and EOS propagation assume one sample per buffer.
+    codecMaxInputSampleCount =
+        c2Mp3TimestampTracker == null && !codecNeedsEosPropagation && codecInputFormat != null
+            ? max(1, getCodecMaxInputSampleCount(codecInfo, codecInputFormat))
+            : 1;
 
     if (getState() == STATE_STARTED) {
       codecHotswapDeadlineMs = SystemClock.elapsedRealtime() + MAX_CODEC_HOTSWAP_TIME_MS;
@@ -1213,7 +1266,9 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
    * @throws ExoPlaybackException If an error occurs feeding the input buffer.
    */
   private boolean feedInputBuffer() throws ExoPlaybackException {
-    if (codec == null || codecDrainState == DRAIN_STATE_WAIT_END_OF_STREAM || inputStreamEnded) {
+    if (codec == null
+        || codecDrainState == DRAIN_STATE_WAIT_END_OF_STREAM
+        || (inputStreamEnded && !pendingInputEndOfStream)) {
       return false;
     }
     if (codecDrainState == DRAIN_STATE_NONE && shouldReinitCodec()) {
@@ -1243,6 +1298,19 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
       return false;
     }
 
+    if (pendingInputEndOfStream) {
+      // The end of the stream was read while combining samples into the previous input buffer.
+      pendingInputEndOfStream = false;
+      if (!codecReceivedBuffers) {
+        processEndOfStream();
+        return false;
+      }
+      codecReceivedEos = true;
+      codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+      resetInputBuffer();
+      return false;
+    }
+
     if (codecNeedsAdaptationWorkaroundBuffer) {
       codecNeedsAdaptationWorkaroundBuffer = false;
       buffer.data.put(ADAPTATION_WORKAROUND_BUFFER);
@@ -1385,6 +1453,15 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
       waitingForFirstSampleInFormat = false;
     }
     largestQueuedPresentationTimeUs = max(largestQueuedPresentationTimeUs, presentationTimeUs);
+    @SampleStream.ReadDataResult int batchEndResult = C.RESULT_NOTHING_READ;
+    if (codecMaxInputSampleCount > 1
+        && !bufferEncrypted
+        && !buffer.isDecodeOnly()
+        && !buffer.hasSupplementalData()
+        && !buffer.isLastSample()
+        && codecReconfigurationState != RECONFIGURATION_STATE_QUEUE_PENDING) {
+      batchEndResult = appendSamplesToInputBuffer(formatHolder);
+    }
     buffer.flip();
     if (buffer.hasSupplementalData()) {
       handleInputBufferSupplementalData(buffer);
@@ -1408,9 +1485,61 @@ public abstract class MediaCodecRenderer extends BaseRenderer {
     codecReceivedBuffers = true;
     codecReconfigurationState = RECONFIGURATION_STATE_NONE;
     decoderCounters.queuedInputBufferCount++;
+    if (batchEndResult == C.RESULT_FORMAT_READ) {
+      onInputFormatChanged(formatHolder);
+    }
     return true;
   }
 
+  /**
+   * Reads further samples into the pending input buffer, after the sample that's already in it, so
+   * that they're queued to the codec together.
+   *
+   * <p>Reading stops when the buffer holds {@link #codecMaxInputSampleCount} samples, when the next
+   * sample doesn't fit into the remaining space of the buffer, or when something other than a
+   * sample that can be combined is read.
+   *
+   * @param formatHolder The {@link FormatHolder} into which a format read from the source is
+   *     written.
+   * @return {@link C#RESULT_FORMAT_READ} if a format was read that must be handled after queueing
+   *     the buffer, or {@link C#RESULT_NOTHING_READ} otherwise.
+   */
+  private @SampleStream.ReadDataResult int appendSamplesToInputBuffer(FormatHolder formatHolder) {
+    long firstSampleTimeUs = buffer.timeUs;
+    boolean firstSampleIsKeyFrame = buffer.isKeyFrame();
+    @SampleStream.ReadDataResult int result = C.RESULT_NOTHING_READ;
+    for (int sampleCount = 1; sampleCount < codecMaxInputSampleCount; sampleCount++) {
+      try {
+        result = readSource(formatHolder, buffer, /* readFlags= */ 0);
+      } catch (InsufficientCapacityException e) {
+        // The sample doesn't fit. It's left in the source and read into the next input buffer.
+        result = C.RESULT_NOTHING_READ;
+        break;
+      }
+      if (result != C.RESULT_BUFFER_READ) {
+        break;
+      }
+      if (buffer.isEndOfStream()) {
+        inputStreamEnded = true;
+        pendingInputEndOfStream = true;
+        result = C.RESULT_NOTHING_READ;
+        break;
+      }
+      if (hasReadStreamToEnd() || buffer.isLastSample()) {
+        lastBufferInStreamPresentationTimeUs = largestQueuedPresentationTimeUs;
+      }
+      largestQueuedPresentationTimeUs = max(largestQueuedPresentationTimeUs, buffer.timeUs);
+      if (buffer.isLastSample()) {
+        break;
+      }
+    }
+    // The first sample isn't decode-only, so neither are the later samples of the same format.
+    // Restore the timestamp and flags of the first sample, which apply to the whole buffer.
+    buffer.timeUs = firstSampleTimeUs;
+    buffer.setFlags(firstSampleIsKeyFrame ? C.BUFFER_FLAG_KEY_FRAME : 0);
+    return result;
+  }
+
   /**
    * Called when ready to initialize the {@link MediaCodecAdapter}.
    *
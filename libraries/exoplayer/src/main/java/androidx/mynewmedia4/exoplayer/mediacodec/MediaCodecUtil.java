@@ -21,6 +21,7 @@ import android.annotation.SuppressLint;
 import android.media.MediaCodecInfo.CodecCapabilities;
 import android.media.MediaCodecInfo.CodecProfileLevel;
 import android.media.MediaCodecList;
+import android.os.Build;
 import android.text.TextUtils;
 import android.util.Pair;
 import androidx.annotation.CheckResult;
@@ -37,10 +38,15 @@ import androidx.mynewmedia4.common.util.UnstableApi;
 import androidx.mynewmedia4.common.util.Util;
 import com.google.common.base.Ascii;
 import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.checkerframework.checker.nullness.qual.EnsuresNonNull;
@@ -70,6 +76,31 @@ public final class MediaCodecUtil {
   @GuardedBy("MediaCodecUtil.class")
   private static final HashMap<CodecKey, List<MediaCodecInfo>> decoderInfosCache = new HashMap<>();
 
+  // Persistent decoder info cache. See enablePersistentDecoderInfoCache.
+  @GuardedBy("MediaCodecUtil.class")
+  private static final HashMap<CodecKey, Boolean> persistedDecoderQueries = new HashMap<>();
+
+  @GuardedBy("MediaCodecUtil.class")
+  @Nullable
+  private static DecoderInfoCacheFile decoderInfoCacheFile;
+
+  @GuardedBy("MediaCodecUtil.class")
+  @Nullable
+  private static Executor decoderInfoCacheExecutor;
+
+  // Persisted queries without decoders whose empty cache entry hasn't been confirmed yet.
+  @GuardedBy("MediaCodecUtil.class")
+  private static final HashSet<CodecKey> unconfirmedDecoderQueries = new HashSet<>();
+
+  @GuardedBy("MediaCodecUtil.class")
+  private static boolean decoderInfoCacheLoaded;
+
+  @GuardedBy("MediaCodecUtil.class")
+  private static boolean decoderInfoCacheChanged;
+
+  @GuardedBy("MediaCodecUtil.class")
+  private static boolean decoderInfoCacheWritePending;
+
   // Codecs to constant mappings.
   // AVC.
   private static final String CODEC_ID_AVC1 = "avc1";
@@ -110,10 +141,46 @@ public final class MediaCodecUtil {
     }
   }
 
+  /**
+   * Enables a persistent cache of the decoder queries made in this process, so that later processes
+   * can warm up the codec cache in the background before the queries are needed.
+   *
+   * <p>The cache file is read lazily on the {@code executor}, which then queries the decoders for
+   * every persisted query. Persisted queries that found no decoders are answered from the file
+   * straight away, without enumerating the codecs, until the background query replaces them. The
+   * file is only used on devices running the build that wrote it, as identified by {@link
+   * Build#FINGERPRINT}, and is rewritten on the {@code executor} when new queries are made.
+   *
+   * <p>This method should be called once, early in the lifecycle of the process. Calling it again
+   * has no effect.
+   *
+   * @param file The file in which to persist the decoder queries, for example in {@link
+   *     android.content.Context#getCacheDir()}.
+   * @param executor The {@link Executor} on which the file is read and written and on which the
+   *     codec cache is warmed up. Must not run tasks on the application main thread.
+   */
+  public static void enablePersistentDecoderInfoCache(File file, Executor executor) {
+    synchronized (MediaCodecUtil.class) {
+      if (decoderInfoCacheFile != null) {
+        return;
+      }
+      decoderInfoCacheFile = new DecoderInfoCacheFile(file, Build.FINGERPRINT);
+      decoderInfoCacheExecutor = executor;
+    }
+    executor.execute(MediaCodecUtil::loadPersistentDecoderInfoCache);
+  }
+
   /* Clears the codec cache.*/
   @VisibleForTesting
   public static synchronized void clearDecoderInfoCache() {
     decoderInfosCache.clear();
+    persistedDecoderQueries.clear();
+    unconfirmedDecoderQueries.clear();
+    decoderInfoCacheFile = null;
+    decoderInfoCacheExecutor = null;
+    decoderInfoCacheLoaded = false;
+    decoderInfoCacheChanged = false;
+    decoderInfoCacheWritePending = false;
   }
 
   /**
@@ -165,29 +232,10 @@ public final class MediaCodecUtil {
     if (cachedDecoderInfos != null) {
       return cachedDecoderInfos;
     }
-    MediaCodecListCompat mediaCodecList =
-        Util.SDK_INT >= 21
-            ? new MediaCodecListCompatV21(secure, tunneling)
-            : new MediaCodecListCompatV16();
-    ArrayList<MediaCodecInfo> decoderInfos = getDecoderInfosInternal(key, mediaCodecList);
-    if (secure && decoderInfos.isEmpty() && 21 <= Util.SDK_INT && Util.SDK_INT <= 23) {
-      // Some devices don't list secure decoders on API level 21 [Internal: b/18678462]. Try the
-      // legacy path. We also try this path on API levels 22 and 23 as a defensive measure.
-      mediaCodecList = new MediaCodecListCompatV16();
-      decoderInfos = getDecoderInfosInternal(key, mediaCodecList);
-      if (!decoderInfos.isEmpty()) {
-        Log.w(
-            TAG,
-            "MediaCodecList API didn't list secure decoder for: "
-                + mimeType
-                + ". Assuming: "
-                + decoderInfos.get(0).name);
-      }
-    }
-    applyWorkarounds(mimeType, decoderInfos);
-    ImmutableList<MediaCodecInfo> immutableDecoderInfos = ImmutableList.copyOf(decoderInfos);
-    decoderInfosCache.put(key, immutableDecoderInfos);
-    return immutableDecoderInfos;
+    ImmutableList<MediaCodecInfo> decoderInfos = queryDecoderInfos(key);
+    decoderInfosCache.put(key, decoderInfos);
+    onDecoderInfosQueried(key, decoderInfos);
+    return decoderInfos;
   }
 
   /**
@@ -370,6 +418,135 @@ public final class MediaCodecUtil {
 
   // Internal methods.
 
+  /**
+   * Queries the decoders for the given codec {@link CodecKey}, without using the codec cache.
+   *
+   * @param key The codec key.
+   * @return The decoders for the key, in the order given by {@link MediaCodecList}, with
+   *     workarounds applied.
+   * @throws DecoderQueryException If there was an error querying the available decoders.
+   */
+  private static ImmutableList<MediaCodecInfo> queryDecoderInfos(CodecKey key)
+      throws DecoderQueryException {
+    String mimeType = key.mimeType;
+    boolean secure = key.secure;
+    boolean tunneling = key.tunneling;
+    MediaCodecListCompat mediaCodecList =
+        Util.SDK_INT >= 21
+            ? new MediaCodecListCompatV21(secure, tunneling)
+            : new MediaCodecListCompatV16();
+    ArrayList<MediaCodecInfo> decoderInfos = getDecoderInfosInternal(key, mediaCodecList);
+    if (secure && decoderInfos.isEmpty() && 21 <= Util.SDK_INT && Util.SDK_INT <= 23) {
+      // Some devices don't list secure decoders on API level 21 [Internal: b/18678462]. Try the
+      // legacy path. We also try this path on API levels 22 and 23 as a defensive measure.
+      mediaCodecList = new MediaCodecListCompatV16();
+      decoderInfos = getDecoderInfosInternal(key, mediaCodecList);
+      if (!decoderInfos.isEmpty()) {
+        Log.w(
+            TAG,
+            "MediaCodecList API didn't list secure decoder for: "
+                + mimeType
+                + ". Assuming: "
+                + decoderInfos.get(0).name);
+      }
+    }
+    applyWorkarounds(mimeType, decoderInfos);
+    return ImmutableList.copyOf(decoderInfos);
+  }
+
+  private static void loadPersistentDecoderInfoCache() {
+    DecoderInfoCacheFile cacheFile;
+    synchronized (MediaCodecUtil.class) {
+      if (decoderInfoCacheFile == null) {
+        return;
+      }
+      cacheFile = decoderInfoCacheFile;
+    }
+    Map<CodecKey, Boolean> persistedQueries = cacheFile.read();
+    synchronized (MediaCodecUtil.class) {
+      if (decoderInfoCacheFile != cacheFile) {
+        // The cache was cleared while reading the file.
+        return;
+      }
+      for (Map.Entry<CodecKey, Boolean> entry : persistedQueries.entrySet()) {
+        CodecKey key = entry.getKey();
+        if (persistedDecoderQueries.containsKey(key)) {
+          // The key was already queried by this process.
+          continue;
+        }
+        persistedDecoderQueries.put(key, entry.getValue());
+        if (!entry.getValue()) {
+          decoderInfosCache.put(key, ImmutableList.of());
+          unconfirmedDecoderQueries.add(key);
+        }
+      }
+      decoderInfoCacheLoaded = true;
+      maybeScheduleDecoderInfoCacheWrite();
+    }
+    for (CodecKey key : persistedQueries.keySet()) {
+      warmPersistedDecoderQuery(key);
+    }
+  }
+
+  private static synchronized void warmPersistedDecoderQuery(CodecKey key) {
+    if (decoderInfosCache.containsKey(key) && !unconfirmedDecoderQueries.contains(key)) {
+      return;
+    }
+    unconfirmedDecoderQueries.remove(key);
+    try {
+      ImmutableList<MediaCodecInfo> decoderInfos = queryDecoderInfos(key);
+      decoderInfosCache.put(key, decoderInfos);
+      onDecoderInfosQueried(key, decoderInfos);
+    } catch (DecoderQueryException e) {
+      // Codec warming is best effort. Drop the persisted result so that the next query retries.
+      Log.e(TAG, "Codec warming failed", e);
+      decoderInfosCache.remove(key);
+    }
+  }
+
+  @GuardedBy("MediaCodecUtil.class")
+  private static void onDecoderInfosQueried(CodecKey key, List<MediaCodecInfo> decoderInfos) {
+    if (decoderInfoCacheFile == null) {
+      return;
+    }
+    Boolean hasDecoders = !decoderInfos.isEmpty();
+    if (!hasDecoders.equals(persistedDecoderQueries.put(key, hasDecoders))) {
+      decoderInfoCacheChanged = true;
+      maybeScheduleDecoderInfoCacheWrite();
+    }
+  }
+
+  @GuardedBy("MediaCodecUtil.class")
+  private static void maybeScheduleDecoderInfoCacheWrite() {
+    if (!decoderInfoCacheLoaded
+        || !decoderInfoCacheChanged
+        || decoderInfoCacheWritePending
+        || decoderInfoCacheExecutor == null) {
+      return;
+    }
+    decoderInfoCacheWritePending = true;
+    decoderInfoCacheExecutor.execute(MediaCodecUtil::writePersistentDecoderInfoCache);
+  }
+
+  private static void writePersistentDecoderInfoCache() {
+    DecoderInfoCacheFile cacheFile;
+    HashMap<CodecKey, Boolean> persistedQueries;
+    synchronized (MediaCodecUtil.class) {
+      decoderInfoCacheWritePending = false;
+      if (decoderInfoCacheFile == null || !decoderInfoCacheChanged) {
+        return;
+      }
+      cacheFile = decoderInfoCacheFile;
+      persistedQueries = new HashMap<>(persistedDecoderQueries);
+      decoderInfoCacheChanged = false;
+    }
+    try {
+      cacheFile.write(persistedQueries);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write the decoder info cache", e);
+    }
+  }
+
   /**
    * Returns {@link MediaCodecInfo}s for the given codec {@link CodecKey} in the order given by
    * {@code mediaCodecList}.
@@ -1145,7 +1322,7 @@ public final class MediaCodecUtil {
     }
   }
 
-  private static final class CodecKey {
+  /* package */ static final class CodecKey {
 
     public final String mimeType;
     public final boolean secure;
@@ -175,6 +175,23 @@ public abstract class BaseMediaSource implements MediaSource {
     return !enabledMediaSourceCallers.isEmpty();
   }
 
+  /** Returns whether {@link #prepareSource} has been called by at least one caller. */
+  protected final boolean prepareSourceCalled() {
+    return !mediaSourceCallers.isEmpty();
+  }
+
+  /**
+   * Sets the {@link PlayerId} of the media source, for sources that are prepared without a
+   * {@link MediaSourceCaller}, for example to preload media before a player uses the source.
+   *
+   * <p>The player ID is overridden when {@link #prepareSource} is called.
+   *
+   * @param playerId The {@link PlayerId}.
+   */
+  protected final void setPlayerId(PlayerId playerId) {
+    this.playerId = playerId;
+  }
+
   /**
    * Returns the {@link PlayerId} of the player using this media source.
    *
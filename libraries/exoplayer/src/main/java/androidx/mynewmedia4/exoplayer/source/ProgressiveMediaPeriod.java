@@ -51,6 +51,7 @@ import androidx.mynewmedia4.exoplayer.upstream.LoadErrorHandlingPolicy.LoadError
 import androidx.mynewmedia4.exoplayer.upstream.Loader;
 import androidx.mynewmedia4.exoplayer.upstream.Loader.LoadErrorAction;
 import androidx.mynewmedia4.exoplayer.upstream.Loader.Loadable;
+import androidx.mynewmedia4.exoplayer.util.ReleasableExecutor;
 import androidx.mynewmedia4.extractor.Extractor;
 import androidx.mynewmedia4.extractor.ExtractorOutput;
 import androidx.mynewmedia4.extractor.PositionHolder;
@@ -97,6 +98,12 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    */
   private static final long DEFAULT_LAST_SAMPLE_DURATION_US = 10_000;
 
+  /**
+   * When loading on a download executor, the time a paused load waits for loading to continue
+   * before it gives its thread back to the executor.
+   */
+  private static final long PAUSED_LOAD_SUSPEND_TIMEOUT_MS = 500;
+
   private static final Map<String, String> ICY_METADATA_HEADERS = createIcyMetadataHeaders();
 
   private static final Format ICY_FORMAT =
@@ -112,6 +119,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   private final Allocator allocator;
   @Nullable private final String customCacheKey;
   private final long continueLoadingCheckIntervalBytes;
+  private final boolean suspendPausedLoads;
   private final Loader loader;
   private final ProgressiveMediaExtractor progressiveMediaExtractor;
   private final ConditionVariable loadCondition;
@@ -143,6 +151,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   private boolean pendingDeferredRetry;
 
   private int extractedSamplesCountAtStartOfLoad;
+  @Nullable private ExtractingLoadable suspendedLoadable;
+  private long suspendedLoadElapsedRealtimeMs;
+  private long suspendedLoadDurationMs;
   private boolean loadingFinished;
   private boolean released;
 
@@ -162,6 +173,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
    *     indexing. May be null.
    * @param continueLoadingCheckIntervalBytes The number of bytes that should be loaded between each
    *     invocation of {@link Callback#onContinueLoadingRequested(SequenceableLoader)}.
+   * @param downloadExecutor An optional {@link ReleasableExecutor} on which to load the media, or
+   *     {@code null} to load on a dedicated thread. Loads on a download executor give their thread
+   *     back while loading is paused, and are resumed on the executor when loading continues.
    */
   // maybeFinishPrepare is not posted to the handler until initialization completes.
   @SuppressWarnings({"nullness:argument", "nullness:methodref.receiver.bound"})
@@ -176,7 +190,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       Listener listener,
       Allocator allocator,
       @Nullable String customCacheKey,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      @Nullable ReleasableExecutor downloadExecutor) {
     this.uri = uri;
     this.dataSource = dataSource;
     this.drmSessionManager = drmSessionManager;
@@ -187,7 +202,11 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     this.allocator = allocator;
     this.customCacheKey = customCacheKey;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
-    loader = new Loader("ProgressiveMediaPeriod");
+    suspendPausedLoads = downloadExecutor != null;
+    loader =
+        downloadExecutor != null
+            ? new Loader(downloadExecutor)
+            : new Loader("ProgressiveMediaPeriod");
     this.progressiveMediaExtractor = progressiveMediaExtractor;
     loadCondition = new ConditionVariable();
     maybeFinishPrepareRunnable = this::maybeFinishPrepare;
@@ -213,6 +232,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         sampleQueue.preRelease();
       }
     }
+    discardSuspendedLoad();
     loader.release(/* callback= */ this);
     handler.removeCallbacksAndMessages(null);
     callback = null;
@@ -308,6 +328,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         }
         loader.cancelLoading();
       } else {
+        discardSuspendedLoad();
         for (SampleQueue sampleQueue : sampleQueues) {
           sampleQueue.reset();
         }
@@ -353,7 +374,11 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
     boolean continuedLoading = loadCondition.open();
     if (!loader.isLoading()) {
-      startLoading();
+      if (suspendedLoadable != null) {
+        resumeSuspendedLoad();
+      } else {
+        startLoading();
+      }
       continuedLoading = true;
     }
     return continuedLoading;
@@ -441,6 +466,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       loader.cancelLoading();
     } else {
       loader.clearFatalError();
+      discardSuspendedLoad();
       for (SampleQueue sampleQueue : sampleQueues) {
         sampleQueue.reset();
       }
@@ -549,6 +575,16 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @Override
   public void onLoadCompleted(
       ExtractingLoadable loadable, long elapsedRealtimeMs, long loadDurationMs) {
+    if (loadable.loadSuspended) {
+      suspendedLoadable = loadable;
+      suspendedLoadElapsedRealtimeMs = elapsedRealtimeMs;
+      suspendedLoadDurationMs = loadDurationMs;
+      if (loadCondition.isOpen()) {
+        // Loading continued while the load was being suspended.
+        resumeSuspendedLoad();
+      }
+      return;
+    }
     if (durationUs == C.TIME_UNSET && seekMap != null) {
       boolean isSeekable = seekMap.isSeekable();
       long largestQueuedTimestampUs =
@@ -826,6 +862,41 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         durationUs);
   }
 
+  private void resumeSuspendedLoad() {
+    ExtractingLoadable loadable = checkNotNull(suspendedLoadable);
+    suspendedLoadable = null;
+    loader.startLoading(
+        loadable, this, loadErrorHandlingPolicy.getMinimumLoadableRetryCount(dataType));
+  }
+
+  private void discardSuspendedLoad() {
+    @Nullable ExtractingLoadable loadable = suspendedLoadable;
+    if (loadable == null) {
+      return;
+    }
+    suspendedLoadable = null;
+    StatsDataSource dataSource = loadable.dataSource;
+    LoadEventInfo loadEventInfo =
+        new LoadEventInfo(
+            loadable.loadTaskId,
+            loadable.dataSpec,
+            dataSource.getLastOpenedUri(),
+            dataSource.getLastResponseHeaders(),
+            suspendedLoadElapsedRealtimeMs,
+            suspendedLoadDurationMs,
+            dataSource.getBytesRead());
+    loadErrorHandlingPolicy.onLoadTaskConcluded(loadable.loadTaskId);
+    mediaSourceEventDispatcher.loadCanceled(
+        loadEventInfo,
+        C.DATA_TYPE_MEDIA,
+        C.TRACK_TYPE_UNKNOWN,
+        /* trackFormat= */ null,
+        C.SELECTION_REASON_UNKNOWN,
+        /* trackSelectionData= */ null,
+        /* mediaStartTimeUs= */ loadable.seekTimeUs,
+        durationUs);
+  }
+
   /**
    * Called to configure a retry when a load error occurs.
    *
@@ -965,6 +1036,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     private volatile boolean loadCanceled;
 
+    private boolean loadSuspended;
     private boolean pendingExtractorSeek;
     private long seekTimeUs;
     private DataSpec dataSpec;
@@ -998,8 +1070,9 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
     @Override
     public void load() throws IOException {
+      loadSuspended = false;
       int result = Extractor.RESULT_CONTINUE;
-      while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
+      while (result == Extractor.RESULT_CONTINUE && !loadCanceled && !loadSuspended) {
         try {
           long position = positionHolder.position;
           dataSpec = buildDataSpec(position);
@@ -1033,7 +1106,16 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
           }
           while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
             try {
-              loadCondition.block();
+              if (suspendPausedLoads && length != C.LENGTH_UNSET) {
+                // The load can be resumed from its current position, so give the thread back if
+                // loading stays paused.
+                if (!loadCondition.block(PAUSED_LOAD_SUSPEND_TIMEOUT_MS)) {
+                  loadSuspended = true;
+                  break;
+                }
+              } else {
+                loadCondition.block();
+              }
             } catch (InterruptedException e) {
               throw new InterruptedIOException();
             }
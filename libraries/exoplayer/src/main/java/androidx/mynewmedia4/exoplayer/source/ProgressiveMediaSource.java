@@ -32,9 +32,11 @@ import androidx.mynewmedia4.exoplayer.drm.DrmSessionManagerProvider;
 import androidx.mynewmedia4.exoplayer.upstream.Allocator;
 import androidx.mynewmedia4.exoplayer.upstream.DefaultLoadErrorHandlingPolicy;
 import androidx.mynewmedia4.exoplayer.upstream.LoadErrorHandlingPolicy;
+import androidx.mynewmedia4.exoplayer.util.ReleasableExecutor;
 import androidx.mynewmedia4.extractor.DefaultExtractorsFactory;
 import androidx.mynewmedia4.extractor.Extractor;
 import androidx.mynewmedia4.extractor.ExtractorsFactory;
+import com.google.common.base.Supplier;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 
 /**
@@ -64,6 +66,7 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     private int continueLoadingCheckIntervalBytes;
     @Nullable private String customCacheKey;
     @Nullable private Object tag;
+    @Nullable private Supplier<ReleasableExecutor> downloadExecutorSupplier;
 
     /**
      * Creates a new factory for {@link ProgressiveMediaSource}s.
@@ -184,6 +187,28 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       return this;
     }
 
+    /**
+     * Sets a supplier for the {@link ReleasableExecutor} on which each created {@link MediaPeriod}
+     * loads its media. The default value is {@code null}, which loads each media period on its own
+     * dedicated thread.
+     *
+     * <p>The supplier is called once per media period, and the executor it returns is released
+     * when the media period is released. An executor must run its tasks in the order in which
+     * they're submitted, but may share threads with other executors. When loading of media with a
+     * known length is paused because enough media is buffered, the media period gives its thread
+     * back to the executor and submits a new task when loading continues.
+     *
+     * @param downloadExecutorSupplier A supplier for the {@link ReleasableExecutor}, or {@code
+     *     null} to load on dedicated threads.
+     * @return This factory, for convenience.
+     */
+    @CanIgnoreReturnValue
+    public Factory setDownloadExecutor(
+        @Nullable Supplier<ReleasableExecutor> downloadExecutorSupplier) {
+      this.downloadExecutorSupplier = downloadExecutorSupplier;
+      return this;
+    }
+
     @CanIgnoreReturnValue
     @Override
     public Factory setDrmSessionManagerProvider(
@@ -223,7 +248,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
           progressiveMediaExtractorFactory,
           drmSessionManagerProvider.get(mediaItem),
           loadErrorHandlingPolicy,
-          continueLoadingCheckIntervalBytes);
+          continueLoadingCheckIntervalBytes,
+          downloadExecutorSupplier);
     }
 
     @Override
@@ -245,6 +271,7 @@ public final class ProgressiveMediaSource extends BaseMediaSource
   private final DrmSessionManager drmSessionManager;
   private final LoadErrorHandlingPolicy loadableLoadErrorHandlingPolicy;
   private final int continueLoadingCheckIntervalBytes;
+  @Nullable private final Supplier<ReleasableExecutor> downloadExecutorSupplier;
 
   private boolean timelineIsPlaceholder;
   private long timelineDurationUs;
@@ -258,7 +285,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
       ProgressiveMediaExtractor.Factory progressiveMediaExtractorFactory,
       DrmSessionManager drmSessionManager,
       LoadErrorHandlingPolicy loadableLoadErrorHandlingPolicy,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      @Nullable Supplier<ReleasableExecutor> downloadExecutorSupplier) {
     this.localConfiguration = checkNotNull(mediaItem.localConfiguration);
     this.mediaItem = mediaItem;
     this.dataSourceFactory = dataSourceFactory;
@@ -266,6 +294,7 @@ public final class ProgressiveMediaSource extends BaseMediaSource
     this.drmSessionManager = drmSessionManager;
     this.loadableLoadErrorHandlingPolicy = loadableLoadErrorHandlingPolicy;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
+    this.downloadExecutorSupplier = downloadExecutorSupplier;
     this.timelineIsPlaceholder = true;
     this.timelineDurationUs = C.TIME_UNSET;
   }
@@ -306,7 +335,8 @@ public final class ProgressiveMediaSource extends BaseMediaSource
         this,
         allocator,
         localConfiguration.customCacheKey,
-        continueLoadingCheckIntervalBytes);
+        continueLoadingCheckIntervalBytes,
+        downloadExecutorSupplier != null ? downloadExecutorSupplier.get() : null);
   }
 
   @Override
@@ -357,14 +357,26 @@ import java.util.Arrays;
     }
     if (subsampleEncryption) {
       int subsampleDataLength = 6 * subsampleCount;
-      scratch.reset(subsampleDataLength);
-      allocationNode = readData(allocationNode, offset, scratch.getData(), subsampleDataLength);
-      offset += subsampleDataLength;
-      scratch.setPosition(0);
-      for (int i = 0; i < subsampleCount; i++) {
-        clearDataSizes[i] = scratch.readUnsignedShort();
-        encryptedDataSizes[i] = scratch.readUnsignedIntToInt();
+      allocationNode = getNodeContainingPosition(allocationNode, offset);
+      if (offset + subsampleDataLength <= allocationNode.endPosition) {
+        // The subsample sizes are contiguous in a single allocation, so parse them in place.
+        byte[] data = allocationNode.allocation.data;
+        int position = allocationNode.translateOffset(offset);
+        for (int i = 0; i < subsampleCount; i++) {
+          clearDataSizes[i] = readUnsignedShort(data, position);
+          encryptedDataSizes[i] = readUnsignedIntToInt(data, position + 2);
+          position += 6;
+        }
+      } else {
+        scratch.reset(subsampleDataLength);
+        allocationNode = readData(allocationNode, offset, scratch.getData(), subsampleDataLength);
+        scratch.setPosition(0);
+        for (int i = 0; i < subsampleCount; i++) {
+          clearDataSizes[i] = scratch.readUnsignedShort();
+          encryptedDataSizes[i] = scratch.readUnsignedIntToInt();
+        }
       }
+      offset += subsampleDataLength;
     } else {
       clearDataSizes[0] = 0;
       encryptedDataSizes[0] = extrasHolder.size - (int) (offset - extrasHolder.offset);
@@ -446,6 +458,28 @@ import java.util.Arrays;
     return allocationNode;
   }
 
+  /** Reads a big-endian unsigned short from {@code data} at {@code position}. */
+  private static int readUnsignedShort(byte[] data, int position) {
+    return (data[position] & 0xFF) << 8 | (data[position + 1] & 0xFF);
+  }
+
+  /**
+   * Reads a big-endian unsigned int from {@code data} at {@code position}.
+   *
+   * @throws IllegalStateException If the top bit of the int is set.
+   */
+  private static int readUnsignedIntToInt(byte[] data, int position) {
+    int result =
+        (data[position] & 0xFF) << 24
+            | (data[position + 1] & 0xFF) << 16
+            | (data[position + 2] & 0xFF) << 8
+            | (data[position + 3] & 0xFF);
+    if (result < 0) {
+      throw new IllegalStateException("Top bit not zero: " + result);
+    }
+    return result;
+  }
+
   /**
    * Returns the {@link AllocationNode} in {@code allocationNode}'s chain which contains the given
    * {@code absolutePosition}.
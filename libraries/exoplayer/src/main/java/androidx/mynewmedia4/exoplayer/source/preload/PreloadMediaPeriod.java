@@ -0,0 +1,297 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.source.preload;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.StreamKey;
+import androidx.mynewmedia4.common.util.NullableType;
+import androidx.mynewmedia4.exoplayer.SeekParameters;
+import androidx.mynewmedia4.exoplayer.source.MediaPeriod;
+import androidx.mynewmedia4.exoplayer.source.SampleStream;
+import androidx.mynewmedia4.exoplayer.source.TrackGroupArray;
+import androidx.mynewmedia4.exoplayer.trackselection.ExoTrackSelection;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A {@link MediaPeriod} that can be prepared and can select tracks and load before a player uses
+ * it.
+ */
+/* package */ final class PreloadMediaPeriod implements MediaPeriod {
+
+  /** The {@link MediaPeriod} wrapped by this preload media period. */
+  public final MediaPeriod mediaPeriod;
+
+  private boolean prepareInternalCalled;
+  private boolean prepared;
+  @Nullable private Callback callback;
+  @Nullable private PreloadTrackSelectionHolder preloadTrackSelectionHolder;
+
+  /**
+   * Creates the preload media period.
+   *
+   * @param mediaPeriod The wrapped {@link MediaPeriod}.
+   */
+  public PreloadMediaPeriod(MediaPeriod mediaPeriod) {
+    this.mediaPeriod = mediaPeriod;
+  }
+
+  /**
+   * Preloads the media period.
+   *
+   * <p>The {@code callback} is notified until the player {@linkplain #prepare prepares} the
+   * period.
+   *
+   * @param callback A {@link Callback} notified about the preparation and loading of the period.
+   * @param positionUs The expected starting position, in microseconds.
+   */
+  public void preload(Callback callback, long positionUs) {
+    this.callback = callback;
+    if (prepared) {
+      callback.onPrepared(this);
+    }
+    if (!prepareInternalCalled) {
+      prepareInternal(positionUs);
+    }
+  }
+
+  @Override
+  public void prepare(Callback callback, long positionUs) {
+    this.callback = callback;
+    if (prepared) {
+      callback.onPrepared(this);
+      return;
+    }
+    if (!prepareInternalCalled) {
+      prepareInternal(positionUs);
+    }
+  }
+
+  private void prepareInternal(long positionUs) {
+    prepareInternalCalled = true;
+    mediaPeriod.prepare(
+        new Callback() {
+          @Override
+          public void onContinueLoadingRequested(MediaPeriod mediaPeriod) {
+            checkNotNull(callback).onContinueLoadingRequested(PreloadMediaPeriod.this);
+          }
+
+          @Override
+          public void onPrepared(MediaPeriod mediaPeriod) {
+            prepared = true;
+            checkNotNull(callback).onPrepared(PreloadMediaPeriod.this);
+          }
+        },
+        positionUs);
+  }
+
+  @Override
+  public void maybeThrowPrepareError() throws IOException {
+    mediaPeriod.maybeThrowPrepareError();
+  }
+
+  @Override
+  public TrackGroupArray getTrackGroups() {
+    return mediaPeriod.getTrackGroups();
+  }
+
+  @Override
+  public List<StreamKey> getStreamKeys(List<ExoTrackSelection> trackSelections) {
+    return mediaPeriod.getStreamKeys(trackSelections);
+  }
+
+  /**
+   * Selects tracks before the player uses the period, so that loading can start.
+   *
+   * <p>When the player later selects tracks at the same position, the sample streams created by
+   * this call are passed to the wrapped period as the streams it may retain for unchanged
+   * selections.
+   *
+   * @param selections The renderer track selections.
+   * @param positionUs The current playback position in microseconds.
+   * @return The actual position at which the tracks were enabled, in microseconds.
+   */
+  public long selectTracksForPreload(
+      @NullableType ExoTrackSelection[] selections, long positionUs) {
+    @Nullable PreloadTrackSelectionHolder holder = preloadTrackSelectionHolder;
+    if (holder != null && holder.selections.length != selections.length) {
+      releasePreloadedStreams(holder);
+      holder = null;
+    }
+    @NullableType
+    SampleStream[] streams = holder == null ? new SampleStream[selections.length] : holder.streams;
+    boolean[] mayRetainStreamFlags =
+        getMayRetainStreamFlags(holder == null ? null : holder.selections, selections);
+    boolean[] streamResetFlags = new boolean[selections.length];
+    long trackSelectionPositionUs =
+        mediaPeriod.selectTracks(
+            selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+    preloadTrackSelectionHolder =
+        new PreloadTrackSelectionHolder(
+            selections, streams, streamResetFlags, trackSelectionPositionUs);
+    return trackSelectionPositionUs;
+  }
+
+  @Override
+  public long selectTracks(
+      @NullableType ExoTrackSelection[] selections,
+      boolean[] mayRetainStreamFlags,
+      @NullableType SampleStream[] streams,
+      boolean[] streamResetFlags,
+      long positionUs) {
+    @Nullable PreloadTrackSelectionHolder holder = preloadTrackSelectionHolder;
+    if (holder == null) {
+      return mediaPeriod.selectTracks(
+          selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+    }
+    preloadTrackSelectionHolder = null;
+    if (holder.selections.length != selections.length) {
+      // The preloaded streams were created for a different number of renderers, so they can't be
+      // matched to the player's renderers.
+      releasePreloadedStreams(holder);
+      return mediaPeriod.selectTracks(
+          selections, mayRetainStreamFlags, streams, streamResetFlags, positionUs);
+    }
+    // Preloaded streams can only be retained if the player starts where preloading started.
+    boolean[] preloadedStreamFlags =
+        positionUs == holder.trackSelectionPositionUs
+            ? getMayRetainStreamFlags(holder.selections, selections)
+            : new boolean[selections.length];
+    // Pass the preloaded streams, so that they're either retained or released. The wrapped period
+    // always gets the player's selections, because it may keep using them, for example for
+    // adaptive track selection during loading.
+    System.arraycopy(holder.streams, 0, streams, 0, holder.streams.length);
+    long trackSelectionPositionUs =
+        mediaPeriod.selectTracks(
+            selections, preloadedStreamFlags, streams, streamResetFlags, positionUs);
+    for (int i = 0; i < streams.length; i++) {
+      // A retained preloaded stream is new to the player, so it needs the reset flag that the
+      // stream had when it was created during preloading.
+      if (preloadedStreamFlags[i] && streams[i] == holder.streams[i]) {
+        streamResetFlags[i] |= holder.streamResetFlags[i];
+      }
+    }
+    return trackSelectionPositionUs;
+  }
+
+  @Override
+  public void discardBuffer(long positionUs, boolean toKeyframe) {
+    mediaPeriod.discardBuffer(positionUs, toKeyframe);
+  }
+
+  @Override
+  public long readDiscontinuity() {
+    return mediaPeriod.readDiscontinuity();
+  }
+
+  @Override
+  public long seekToUs(long positionUs) {
+    return mediaPeriod.seekToUs(positionUs);
+  }
+
+  @Override
+  public long getAdjustedSeekPositionUs(long positionUs, SeekParameters seekParameters) {
+    return mediaPeriod.getAdjustedSeekPositionUs(positionUs, seekParameters);
+  }
+
+  @Override
+  public long getBufferedPositionUs() {
+    return mediaPeriod.getBufferedPositionUs();
+  }
+
+  @Override
+  public long getNextLoadPositionUs() {
+    return mediaPeriod.getNextLoadPositionUs();
+  }
+
+  @Override
+  public boolean continueLoading(long positionUs) {
+    return mediaPeriod.continueLoading(positionUs);
+  }
+
+  @Override
+  public boolean isLoading() {
+    return mediaPeriod.isLoading();
+  }
+
+  @Override
+  public void reevaluateBuffer(long positionUs) {
+    mediaPeriod.reevaluateBuffer(positionUs);
+  }
+
+  private void releasePreloadedStreams(PreloadTrackSelectionHolder holder) {
+    int rendererCount = holder.selections.length;
+    mediaPeriod.selectTracks(
+        /* selections= */ new ExoTrackSelection[rendererCount],
+        /* mayRetainStreamFlags= */ new boolean[rendererCount],
+        holder.streams,
+        /* streamResetFlags= */ new boolean[rendererCount],
+        holder.trackSelectionPositionUs);
+  }
+
+  private static boolean[] getMayRetainStreamFlags(
+      @Nullable @NullableType ExoTrackSelection[] oldSelections,
+      @NullableType ExoTrackSelection[] newSelections) {
+    boolean[] mayRetainStreamFlags = new boolean[newSelections.length];
+    if (oldSelections == null) {
+      return mayRetainStreamFlags;
+    }
+    for (int i = 0; i < newSelections.length; i++) {
+      mayRetainStreamFlags[i] =
+          i < oldSelections.length && hasSameSelection(oldSelections[i], newSelections[i]);
+    }
+    return mayRetainStreamFlags;
+  }
+
+  private static boolean hasSameSelection(
+      @Nullable ExoTrackSelection oldSelection, @Nullable ExoTrackSelection newSelection) {
+    if (oldSelection == null || newSelection == null) {
+      return oldSelection == newSelection;
+    }
+    if (!Objects.equals(oldSelection.getTrackGroup(), newSelection.getTrackGroup())
+        || oldSelection.length() != newSelection.length()) {
+      return false;
+    }
+    for (int i = 0; i < oldSelection.length(); i++) {
+      if (oldSelection.getIndexInTrackGroup(i) != newSelection.getIndexInTrackGroup(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static final class PreloadTrackSelectionHolder {
+
+    public final @NullableType ExoTrackSelection[] selections;
+    public final @NullableType SampleStream[] streams;
+    public final boolean[] streamResetFlags;
+    public final long trackSelectionPositionUs;
+
+    public PreloadTrackSelectionHolder(
+        @NullableType ExoTrackSelection[] selections,
+        @NullableType SampleStream[] streams,
+        boolean[] streamResetFlags,
+        long trackSelectionPositionUs) {
+      this.selections = selections;
+      this.streams = streams;
+      this.streamResetFlags = streamResetFlags;
+      this.trackSelectionPositionUs = trackSelectionPositionUs;
+    }
+  }
+}
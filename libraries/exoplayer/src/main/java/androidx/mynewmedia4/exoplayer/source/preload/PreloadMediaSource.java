@@ -0,0 +1,433 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.source.preload;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Pair;
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.MediaItem;
+import androidx.mynewmedia4.common.Timeline;
+import androidx.mynewmedia4.common.util.Log;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.exoplayer.ExoPlaybackException;
+import androidx.mynewmedia4.exoplayer.RendererCapabilities;
+import androidx.mynewmedia4.exoplayer.analytics.PlayerId;
+import androidx.mynewmedia4.exoplayer.drm.DrmSessionManagerProvider;
+import androidx.mynewmedia4.exoplayer.source.MediaPeriod;
+import androidx.mynewmedia4.exoplayer.source.MediaSource;
+import androidx.mynewmedia4.exoplayer.source.WrappingMediaSource;
+import androidx.mynewmedia4.exoplayer.trackselection.TrackSelector;
+import androidx.mynewmedia4.exoplayer.trackselection.TrackSelectorResult;
+import androidx.mynewmedia4.exoplayer.upstream.Allocator;
+import androidx.mynewmedia4.exoplayer.upstream.BandwidthMeter;
+import androidx.mynewmedia4.exoplayer.upstream.LoadErrorHandlingPolicy;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+
+/**
+ * A {@link MediaSource} that can be preloaded before it's played, to start playback instantly.
+ *
+ * <p>Calling {@link #preload(long)} prepares the wrapped media source, then creates and prepares
+ * the {@link MediaPeriod} at the given start position, selects its tracks and loads media into its
+ * sample queues, all without a player. How far preloading proceeds is decided by the {@link
+ * PreloadControl}. When a player later prepares this source and requests the preloaded period, the
+ * prepared period and its buffered media are handed to the player.
+ *
+ * <p>Preloading runs on the preload looper of the {@link Factory}, which must be the playback
+ * looper of the player that plays the source. The {@link Allocator} of the factory should be the
+ * allocator of the player's {@link androidx.mynewmedia4.exoplayer.LoadControl}.
+ *
+ * <p>This class is experimental, and might be renamed, moved or removed in a future release.
+ */
+@UnstableApi
+public final class PreloadMediaSource extends WrappingMediaSource {
+
+  /** Controls how far a {@link PreloadMediaSource} preloads. */
+  public interface PreloadControl {
+
+    /**
+     * Called when the {@link Timeline} of the source has been refreshed during preloading.
+     *
+     * @param mediaSource The {@link PreloadMediaSource}.
+     * @return Whether to continue by preparing the media period.
+     */
+    boolean onTimelineRefreshed(PreloadMediaSource mediaSource);
+
+    /**
+     * Called when the media period of the source has been prepared and its tracks have been
+     * selected during preloading.
+     *
+     * @param mediaSource The {@link PreloadMediaSource}.
+     * @return Whether to continue by loading media.
+     */
+    boolean onPrepared(PreloadMediaSource mediaSource);
+
+    /**
+     * Called when the media period of the source requests to continue loading during preloading.
+     *
+     * @param mediaSource The {@link PreloadMediaSource}.
+     * @param bufferedDurationUs The duration of media buffered from the preload start position, in
+     *     microseconds, or {@link C#TIME_END_OF_SOURCE} if the media period is buffered until its
+     *     end, in which case there's nothing left to load.
+     * @return Whether to continue loading.
+     */
+    boolean onContinueLoadingRequested(PreloadMediaSource mediaSource, long bufferedDurationUs);
+  }
+
+  /** Factory for {@link PreloadMediaSource}s. */
+  public static final class Factory implements MediaSource.Factory {
+
+    private final MediaSource.Factory mediaSourceFactory;
+    private final Looper preloadLooper;
+    private final Allocator allocator;
+    private final TrackSelector trackSelector;
+    private final BandwidthMeter bandwidthMeter;
+    private final RendererCapabilities[] rendererCapabilities;
+    private final PreloadControl preloadControl;
+
+    /**
+     * Creates a new factory for {@link PreloadMediaSource}s.
+     *
+     * @param mediaSourceFactory The underlying {@link MediaSource.Factory}.
+     * @param preloadControl The {@link PreloadControl}.
+     * @param trackSelector The {@link TrackSelector}, used to select tracks while preloading. It's
+     *     initialized by the factory, so it must not be the track selector of a player.
+     * @param bandwidthMeter The {@link BandwidthMeter}. It should be the bandwidth meter of the
+     *     player that plays the created sources.
+     * @param rendererCapabilities The {@link RendererCapabilities} of the renderers of the player
+     *     that plays the created sources.
+     * @param allocator The {@link Allocator}. It should be the allocator of the player that plays
+     *     the created sources.
+     * @param preloadLooper The {@link Looper} on which sources are preloaded. It must be the
+     *     playback looper of the player that plays the created sources.
+     */
+    public Factory(
+        MediaSource.Factory mediaSourceFactory,
+        PreloadControl preloadControl,
+        TrackSelector trackSelector,
+        BandwidthMeter bandwidthMeter,
+        RendererCapabilities[] rendererCapabilities,
+        Allocator allocator,
+        Looper preloadLooper) {
+      this.mediaSourceFactory = mediaSourceFactory;
+      this.preloadControl = preloadControl;
+      this.trackSelector = trackSelector;
+      this.bandwidthMeter = bandwidthMeter;
+      this.rendererCapabilities = rendererCapabilities;
+      this.allocator = allocator;
+      this.preloadLooper = preloadLooper;
+      trackSelector.init(/* listener= */ () -> {}, bandwidthMeter);
+    }
+
+    @CanIgnoreReturnValue
+    @Override
+    public Factory setDrmSessionManagerProvider(
+        DrmSessionManagerProvider drmSessionManagerProvider) {
+      mediaSourceFactory.setDrmSessionManagerProvider(drmSessionManagerProvider);
+      return this;
+    }
+
+    @CanIgnoreReturnValue
+    @Override
+    public Factory setLoadErrorHandlingPolicy(LoadErrorHandlingPolicy loadErrorHandlingPolicy) {
+      mediaSourceFactory.setLoadErrorHandlingPolicy(loadErrorHandlingPolicy);
+      return this;
+    }
+
+    @Override
+    public @C.ContentType int[] getSupportedTypes() {
+      return mediaSourceFactory.getSupportedTypes();
+    }
+
+    @Override
+    public PreloadMediaSource createMediaSource(MediaItem mediaItem) {
+      return createMediaSource(mediaSourceFactory.createMediaSource(mediaItem));
+    }
+
+    /**
+     * Creates a {@link PreloadMediaSource} wrapping the given {@link MediaSource}.
+     *
+     * @param mediaSource The {@link MediaSource} to wrap.
+     * @return The {@link PreloadMediaSource}.
+     */
+    public PreloadMediaSource createMediaSource(MediaSource mediaSource) {
+      return new PreloadMediaSource(
+          mediaSource,
+          preloadControl,
+          trackSelector,
+          bandwidthMeter,
+          rendererCapabilities,
+          allocator,
+          preloadLooper);
+    }
+  }
+
+  private static final String TAG = "PreloadMediaSource";
+
+  private final PreloadControl preloadControl;
+  private final TrackSelector trackSelector;
+  private final BandwidthMeter bandwidthMeter;
+  private final RendererCapabilities[] rendererCapabilities;
+  private final Allocator allocator;
+  private final Handler preloadHandler;
+  private final Timeline.Window window;
+  private final Timeline.Period period;
+
+  private boolean preloadCalled;
+  private boolean prepareChildSourceCalled;
+  private long startPositionUs;
+  @Nullable private Timeline timeline;
+  @Nullable private Pair<PreloadMediaPeriod, MediaPeriodKey> preloadingMediaPeriodAndKey;
+
+  private PreloadMediaSource(
+      MediaSource mediaSource,
+      PreloadControl preloadControl,
+      TrackSelector trackSelector,
+      BandwidthMeter bandwidthMeter,
+      RendererCapabilities[] rendererCapabilities,
+      Allocator allocator,
+      Looper preloadLooper) {
+    super(mediaSource);
+    this.preloadControl = preloadControl;
+    this.trackSelector = trackSelector;
+    this.bandwidthMeter = bandwidthMeter;
+    this.rendererCapabilities = rendererCapabilities;
+    this.allocator = allocator;
+    preloadHandler = Util.createHandler(preloadLooper, /* callback= */ null);
+    window = new Timeline.Window();
+    period = new Timeline.Period();
+    startPositionUs = C.TIME_UNSET;
+  }
+
+  /**
+   * Preloads the source. Can be called from any thread.
+   *
+   * <p>Preloading has no effect if the source is already used by a player.
+   *
+   * @param startPositionUs The window position at which playback is expected to start, in
+   *     microseconds, or {@link C#TIME_UNSET} for the default position of the window.
+   */
+  public void preload(long startPositionUs) {
+    preloadHandler.post(
+        () -> {
+          preloadCalled = true;
+          this.startPositionUs = startPositionUs;
+          if (!isUsedByPlayer()) {
+            setPlayerId(PlayerId.UNSET);
+            prepareSourceInternal(bandwidthMeter.getTransferListener());
+          }
+        });
+  }
+
+  /**
+   * Releases the preloaded source. Can be called from any thread.
+   *
+   * <p>A preloaded source stays prepared after a player stops using it, so that it can be played
+   * again, until this method is called. If the source is still used by a player, it's released
+   * once the player releases it.
+   */
+  public void releasePreloadMediaSource() {
+    preloadHandler.post(
+        () -> {
+          preloadCalled = false;
+          startPositionUs = C.TIME_UNSET;
+          if (!isUsedByPlayer()) {
+            releaseSourceInternal();
+          }
+        });
+  }
+
+  @Override
+  protected void prepareSourceInternal() {
+    if (timeline != null) {
+      onChildSourceInfoRefreshed(timeline);
+    } else if (!prepareChildSourceCalled) {
+      prepareChildSourceCalled = true;
+      prepareChildSource();
+    }
+  }
+
+  @Override
+  protected void onChildSourceInfoRefreshed(Timeline newTimeline) {
+    this.timeline = newTimeline;
+    refreshSourceInfo(newTimeline);
+    if (isUsedByPlayer() || !preloadCalled || preloadingMediaPeriodAndKey != null) {
+      return;
+    }
+    if (!preloadControl.onTimelineRefreshed(this)) {
+      return;
+    }
+    Pair<Object, Long> periodPosition =
+        newTimeline.getPeriodPositionUs(
+            window, period, /* windowIndex= */ 0, /* windowPositionUs= */ startPositionUs);
+    MediaPeriodId mediaPeriodId = new MediaPeriodId(periodPosition.first);
+    long periodPositionUs = periodPosition.second;
+    PreloadMediaPeriod mediaPeriod = createPeriod(mediaPeriodId, allocator, periodPositionUs);
+    mediaPeriod.preload(new PreloadMediaPeriodCallback(periodPositionUs), periodPositionUs);
+  }
+
+  @Override
+  public PreloadMediaPeriod createPeriod(
+      MediaPeriodId id, Allocator allocator, long startPositionUs) {
+    MediaPeriodKey key = new MediaPeriodKey(id, startPositionUs);
+    if (preloadingMediaPeriodAndKey != null && key.equals(preloadingMediaPeriodAndKey.second)) {
+      PreloadMediaPeriod mediaPeriod = checkNotNull(preloadingMediaPeriodAndKey).first;
+      if (isUsedByPlayer()) {
+        // The player takes over the preloaded period.
+        preloadingMediaPeriodAndKey = null;
+      }
+      return mediaPeriod;
+    }
+    if (preloadingMediaPeriodAndKey != null) {
+      // The player requested a different period, so the preloaded one isn't needed anymore.
+      mediaSource.releasePeriod(checkNotNull(preloadingMediaPeriodAndKey).first.mediaPeriod);
+      preloadingMediaPeriodAndKey = null;
+    }
+    PreloadMediaPeriod mediaPeriod =
+        new PreloadMediaPeriod(mediaSource.createPeriod(id, allocator, startPositionUs));
+    if (!isUsedByPlayer()) {
+      preloadingMediaPeriodAndKey = new Pair<>(mediaPeriod, key);
+    }
+    return mediaPeriod;
+  }
+
+  @Override
+  public void releasePeriod(MediaPeriod mediaPeriod) {
+    PreloadMediaPeriod preloadMediaPeriod = (PreloadMediaPeriod) mediaPeriod;
+    if (preloadingMediaPeriodAndKey != null
+        && preloadMediaPeriod == checkNotNull(preloadingMediaPeriodAndKey).first) {
+      preloadingMediaPeriodAndKey = null;
+    }
+    mediaSource.releasePeriod(preloadMediaPeriod.mediaPeriod);
+  }
+
+  @Override
+  protected void releaseSourceInternal() {
+    if (!preloadCalled) {
+      timeline = null;
+      prepareChildSourceCalled = false;
+      if (preloadingMediaPeriodAndKey != null) {
+        mediaSource.releasePeriod(checkNotNull(preloadingMediaPeriodAndKey).first.mediaPeriod);
+        preloadingMediaPeriodAndKey = null;
+      }
+      super.releaseSourceInternal();
+    }
+  }
+
+  private boolean isUsedByPlayer() {
+    return prepareSourceCalled();
+  }
+
+  private final class PreloadMediaPeriodCallback implements MediaPeriod.Callback {
+
+    private final long periodStartPositionUs;
+    private boolean prepared;
+
+    public PreloadMediaPeriodCallback(long periodStartPositionUs) {
+      this.periodStartPositionUs = periodStartPositionUs;
+    }
+
+    @Override
+    public void onPrepared(MediaPeriod mediaPeriod) {
+      prepared = true;
+      if (isUsedByPlayer() || preloadingMediaPeriodAndKey == null) {
+        return;
+      }
+      PreloadMediaPeriod preloadMediaPeriod = (PreloadMediaPeriod) mediaPeriod;
+      TrackSelectorResult trackSelectorResult;
+      try {
+        trackSelectorResult =
+            trackSelector.selectTracks(
+                rendererCapabilities,
+                preloadMediaPeriod.getTrackGroups(),
+                checkNotNull(preloadingMediaPeriodAndKey).second.mediaPeriodId,
+                checkNotNull(timeline));
+      } catch (ExoPlaybackException e) {
+        Log.e(TAG, "Failed to select tracks", e);
+        return;
+      }
+      preloadMediaPeriod.selectTracksForPreload(
+          trackSelectorResult.selections, periodStartPositionUs);
+      if (preloadControl.onPrepared(PreloadMediaSource.this)) {
+        preloadMediaPeriod.continueLoading(periodStartPositionUs);
+      }
+    }
+
+    @Override
+    public void onContinueLoadingRequested(MediaPeriod mediaPeriod) {
+      if (isUsedByPlayer() || !prepared) {
+        return;
+      }
+      PreloadMediaPeriod preloadMediaPeriod = (PreloadMediaPeriod) mediaPeriod;
+      long bufferedPositionUs = preloadMediaPeriod.getBufferedPositionUs();
+      // A period that is buffered until its end has no meaningful buffered duration, because the
+      // end position may not be known. Report the end of source as is, so that the control can
+      // tell it apart from a duration and stop preloading.
+      long bufferedDurationUs =
+          bufferedPositionUs == C.TIME_END_OF_SOURCE
+              ? C.TIME_END_OF_SOURCE
+              : bufferedPositionUs - periodStartPositionUs;
+      if (preloadControl.onContinueLoadingRequested(
+          PreloadMediaSource.this, bufferedDurationUs)) {
+        preloadMediaPeriod.continueLoading(periodStartPositionUs);
+      }
+    }
+  }
+
+  /** Identifies a media period by its {@link MediaPeriodId} and start position. */
+  private static final class MediaPeriodKey {
+
+    public final MediaPeriodId mediaPeriodId;
+    private final long startPositionUs;
+
+    public MediaPeriodKey(MediaPeriodId mediaPeriodId, long startPositionUs) {
+      this.mediaPeriodId = mediaPeriodId;
+      this.startPositionUs = startPositionUs;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof MediaPeriodKey)) {
+        return false;
+      }
+      MediaPeriodKey key = (MediaPeriodKey) other;
+      // The window sequence number is assigned by the player, so it's not compared.
+      return mediaPeriodId.periodUid.equals(key.mediaPeriodId.periodUid)
+          && mediaPeriodId.adGroupIndex == key.mediaPeriodId.adGroupIndex
+          && mediaPeriodId.adIndexInAdGroup == key.mediaPeriodId.adIndexInAdGroup
+          && mediaPeriodId.nextAdGroupIndex == key.mediaPeriodId.nextAdGroupIndex
+          && startPositionUs == key.startPositionUs;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = 17;
+      result = 31 * result + mediaPeriodId.periodUid.hashCode();
+      result = 31 * result + mediaPeriodId.adGroupIndex;
+      result = 31 * result + mediaPeriodId.adIndexInAdGroup;
+      result = 31 * result + mediaPeriodId.nextAdGroupIndex;
+      result = 31 * result + (int) startPositionUs;
+      return result;
+    }
+  }
+}
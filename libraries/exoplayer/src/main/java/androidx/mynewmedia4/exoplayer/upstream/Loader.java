@@ -31,6 +31,7 @@ import androidx.mynewmedia4.common.util.Log;
 import androidx.mynewmedia4.common.util.TraceUtil;
 import androidx.mynewmedia4.common.util.UnstableApi;
 import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.exoplayer.util.ReleasableExecutor;
 import java.io.IOException;
 import java.lang.annotation.Documented;
 import java.lang.annotation.Retention;
@@ -197,7 +198,7 @@ public final class Loader implements LoaderErrorThrower {
     }
   }
 
-  private final ExecutorService downloadExecutorService;
+  private final ReleasableExecutor downloadExecutor;
 
   @Nullable private LoadTask<? extends Loadable> currentTask;
   @Nullable private IOException fatalError;
@@ -207,8 +208,22 @@ public final class Loader implements LoaderErrorThrower {
    *     component using the loader.
    */
   public Loader(String threadNameSuffix) {
-    this.downloadExecutorService =
-        Util.newSingleThreadExecutor(THREAD_NAME_PREFIX + threadNameSuffix);
+    this(
+        ReleasableExecutor.from(
+            Util.newSingleThreadExecutor(THREAD_NAME_PREFIX + threadNameSuffix),
+            ExecutorService::shutdown));
+  }
+
+  /**
+   * Creates an instance that loads on the given {@link ReleasableExecutor}.
+   *
+   * <p>Loads of a loader never run concurrently, but the executor must also run the tasks it's
+   * given in the order of submission. The executor is released when the loader is released.
+   *
+   * @param downloadExecutor The {@link ReleasableExecutor} on which loads are run.
+   */
+  public Loader(ReleasableExecutor downloadExecutor) {
+    this.downloadExecutor = downloadExecutor;
   }
 
   /**
@@ -290,9 +305,9 @@ public final class Loader implements LoaderErrorThrower {
       currentTask.cancel(true);
     }
     if (callback != null) {
-      downloadExecutorService.execute(new ReleaseTask(callback));
+      downloadExecutor.execute(new ReleaseTask(callback));
     }
-    downloadExecutorService.shutdown();
+    downloadExecutor.release();
   }
 
   // LoaderErrorThrower implementation.
@@ -509,7 +524,7 @@ public final class Loader implements LoaderErrorThrower {
 
     private void execute() {
       currentError = null;
-      downloadExecutorService.execute(Assertions.checkNotNull(currentTask));
+      downloadExecutor.execute(Assertions.checkNotNull(currentTask));
     }
 
     private void finish() {
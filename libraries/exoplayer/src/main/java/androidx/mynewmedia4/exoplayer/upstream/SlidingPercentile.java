@@ -16,9 +16,7 @@
 package androidx.mynewmedia4.exoplayer.upstream;
 
 import androidx.mynewmedia4.common.util.UnstableApi;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 
 /**
  * Calculate any percentile over a sliding window of weighted values. A maximum weight is
@@ -36,47 +34,50 @@ import java.util.Comparator;
  *   <li><a href="http://en.wikipedia.org/wiki/Moving_average">Moving average</a>
  *   <li><a href="http://en.wikipedia.org/wiki/Selection_algorithm">Selection algorithm</a>
  * </ul>
+ *
+ * <p>Samples are held in primitive arrays, both in insertion order and sorted by value, so adding
+ * samples and computing percentiles doesn't allocate once the arrays have grown to fit the window.
  */
 @UnstableApi
 public class SlidingPercentile {
 
-  // Orderings.
-  private static final Comparator<Sample> INDEX_COMPARATOR = (a, b) -> a.index - b.index;
-  private static final Comparator<Sample> VALUE_COMPARATOR =
-      (a, b) -> Float.compare(a.value, b.value);
-
-  private static final int SORT_ORDER_NONE = -1;
-  private static final int SORT_ORDER_BY_VALUE = 0;
-  private static final int SORT_ORDER_BY_INDEX = 1;
-
-  private static final int MAX_RECYCLED_SAMPLES = 5;
+  private static final int INITIAL_CAPACITY = 16;
 
   private final int maxWeight;
-  private final ArrayList<Sample> samples;
 
-  private final Sample[] recycledSamples;
+  // Samples in insertion order, stored in a circular buffer starting at oldestSampleIndex.
+  private float[] insertionOrderValues;
+  private int[] insertionOrderWeights;
+  private int oldestSampleIndex;
 
-  private int currentSortOrder;
-  private int nextSampleIndex;
+  // The same samples sorted by value. Samples with equal values are kept in insertion order.
+  private float[] sortedValues;
+  private int[] sortedWeights;
+
+  private int sampleCount;
   private int totalWeight;
-  private int recycledSampleCount;
+
+  private float cachedPercentile;
+  private float cachedPercentileValue;
 
   /**
    * @param maxWeight The maximum weight.
    */
   public SlidingPercentile(int maxWeight) {
     this.maxWeight = maxWeight;
-    recycledSamples = new Sample[MAX_RECYCLED_SAMPLES];
-    samples = new ArrayList<>();
-    currentSortOrder = SORT_ORDER_NONE;
+    insertionOrderValues = new float[INITIAL_CAPACITY];
+    insertionOrderWeights = new int[INITIAL_CAPACITY];
+    sortedValues = new float[INITIAL_CAPACITY];
+    sortedWeights = new int[INITIAL_CAPACITY];
+    cachedPercentile = Float.NaN;
   }
 
   /** Resets the sliding percentile. */
   public void reset() {
-    samples.clear();
-    currentSortOrder = SORT_ORDER_NONE;
-    nextSampleIndex = 0;
+    oldestSampleIndex = 0;
+    sampleCount = 0;
     totalWeight = 0;
+    cachedPercentile = Float.NaN;
   }
 
   /**
@@ -86,27 +87,50 @@ public class SlidingPercentile {
    * @param value The value of the new observation.
    */
   public void addSample(int weight, float value) {
-    ensureSortedByIndex();
-
-    Sample newSample =
-        recycledSampleCount > 0 ? recycledSamples[--recycledSampleCount] : new Sample();
-    newSample.index = nextSampleIndex++;
-    newSample.weight = weight;
-    newSample.value = value;
-    samples.add(newSample);
+    cachedPercentile = Float.NaN;
+    if (sampleCount == sortedValues.length) {
+      growCapacity();
+    }
+
+    int newestSampleIndex = (oldestSampleIndex + sampleCount) % insertionOrderValues.length;
+    insertionOrderValues[newestSampleIndex] = value;
+    insertionOrderWeights[newestSampleIndex] = weight;
+    // Insert after all samples with an equal value to keep those in insertion order.
+    int sortedIndex = findSortedIndex(value, /* afterEqualValues= */ true);
+    System.arraycopy(
+        sortedValues, sortedIndex, sortedValues, sortedIndex + 1, sampleCount - sortedIndex);
+    System.arraycopy(
+        sortedWeights, sortedIndex, sortedWeights, sortedIndex + 1, sampleCount - sortedIndex);
+    sortedValues[sortedIndex] = value;
+    sortedWeights[sortedIndex] = weight;
+    sampleCount++;
     totalWeight += weight;
 
     while (totalWeight > maxWeight) {
       int excessWeight = totalWeight - maxWeight;
-      Sample oldestSample = samples.get(0);
-      if (oldestSample.weight <= excessWeight) {
-        totalWeight -= oldestSample.weight;
-        samples.remove(0);
-        if (recycledSampleCount < MAX_RECYCLED_SAMPLES) {
-          recycledSamples[recycledSampleCount++] = oldestSample;
-        }
+      float oldestValue = insertionOrderValues[oldestSampleIndex];
+      int oldestWeight = insertionOrderWeights[oldestSampleIndex];
+      // The oldest sample is the first of the sorted samples with its value.
+      int oldestSortedIndex = findSortedIndex(oldestValue, /* afterEqualValues= */ false);
+      if (oldestWeight <= excessWeight) {
+        totalWeight -= oldestWeight;
+        sampleCount--;
+        System.arraycopy(
+            sortedValues,
+            oldestSortedIndex + 1,
+            sortedValues,
+            oldestSortedIndex,
+            sampleCount - oldestSortedIndex);
+        System.arraycopy(
+            sortedWeights,
+            oldestSortedIndex + 1,
+            sortedWeights,
+            oldestSortedIndex,
+            sampleCount - oldestSortedIndex);
+        oldestSampleIndex = (oldestSampleIndex + 1) % insertionOrderValues.length;
       } else {
-        oldestSample.weight -= excessWeight;
+        insertionOrderWeights[oldestSampleIndex] -= excessWeight;
+        sortedWeights[oldestSortedIndex] -= excessWeight;
         totalWeight -= excessWeight;
       }
     }
@@ -119,40 +143,60 @@ public class SlidingPercentile {
    * @return The requested percentile value or {@link Float#NaN} if no samples have been added.
    */
   public float getPercentile(float percentile) {
-    ensureSortedByValue();
+    if (percentile == cachedPercentile) {
+      return cachedPercentileValue;
+    }
+    float percentileValue = computePercentile(percentile);
+    cachedPercentile = percentile;
+    cachedPercentileValue = percentileValue;
+    return percentileValue;
+  }
+
+  private float computePercentile(float percentile) {
     float desiredWeight = percentile * totalWeight;
     int accumulatedWeight = 0;
-    for (int i = 0; i < samples.size(); i++) {
-      Sample currentSample = samples.get(i);
-      accumulatedWeight += currentSample.weight;
+    for (int i = 0; i < sampleCount; i++) {
+      accumulatedWeight += sortedWeights[i];
       if (accumulatedWeight >= desiredWeight) {
-        return currentSample.value;
+        return sortedValues[i];
       }
     }
     // Clamp to maximum value or NaN if no values.
-    return samples.isEmpty() ? Float.NaN : samples.get(samples.size() - 1).value;
+    return sampleCount == 0 ? Float.NaN : sortedValues[sampleCount - 1];
   }
 
-  /** Sorts the samples by index. */
-  private void ensureSortedByIndex() {
-    if (currentSortOrder != SORT_ORDER_BY_INDEX) {
-      Collections.sort(samples, INDEX_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_INDEX;
+  /**
+   * Returns the index in the sorted samples of the first sample whose value is greater than or
+   * equal to {@code value}, or greater than {@code value} if {@code afterEqualValues} is true.
+   */
+  private int findSortedIndex(float value, boolean afterEqualValues) {
+    int low = 0;
+    int high = sampleCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int comparison = Float.compare(sortedValues[mid], value);
+      if (comparison < 0 || (afterEqualValues && comparison == 0)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
     }
+    return low;
   }
 
-  /** Sorts the samples by value. */
-  private void ensureSortedByValue() {
-    if (currentSortOrder != SORT_ORDER_BY_VALUE) {
-      Collections.sort(samples, VALUE_COMPARATOR);
-      currentSortOrder = SORT_ORDER_BY_VALUE;
+  private void growCapacity() {
+    int newCapacity = sortedValues.length * 2;
+    float[] newInsertionOrderValues = new float[newCapacity];
+    int[] newInsertionOrderWeights = new int[newCapacity];
+    for (int i = 0; i < sampleCount; i++) {
+      int index = (oldestSampleIndex + i) % insertionOrderValues.length;
+      newInsertionOrderValues[i] = insertionOrderValues[index];
+      newInsertionOrderWeights[i] = insertionOrderWeights[index];
     }
-  }
-
-  private static class Sample {
-
-    public int index;
-    public int weight;
-    public float value;
+    insertionOrderValues = newInsertionOrderValues;
+    insertionOrderWeights = newInsertionOrderWeights;
+    oldestSampleIndex = 0;
+    sortedValues = Arrays.copyOf(sortedValues, newCapacity);
+    sortedWeights = Arrays.copyOf(sortedWeights, newCapacity);
   }
 }
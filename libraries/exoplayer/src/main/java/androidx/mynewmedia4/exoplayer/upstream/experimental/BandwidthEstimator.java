@@ -18,6 +18,7 @@ package androidx.mynewmedia4.exoplayer.upstream.experimental;
 import android.os.Handler;
 import androidx.mynewmedia4.common.util.UnstableApi;
 import androidx.mynewmedia4.datasource.DataSource;
+import androidx.mynewmedia4.datasource.DataSpec;
 import androidx.mynewmedia4.exoplayer.upstream.BandwidthMeter;
 
 /** The interface for different bandwidth estimation strategies. */
@@ -48,6 +49,20 @@ public interface BandwidthEstimator {
    */
   void onTransferInitializing(DataSource source);
 
+  /**
+   * Called when a transfer is being initialized.
+   *
+   * <p>The default implementation calls {@link #onTransferInitializing(DataSource)}.
+   * Implementations can override this method to take the expected size of the transfer, given by
+   * {@link DataSpec#length}, into account.
+   *
+   * @param source The {@link DataSource} performing the transfer.
+   * @param dataSpec Describes the data being transferred.
+   */
+  default void onTransferInitializing(DataSource source, DataSpec dataSpec) {
+    onTransferInitializing(source);
+  }
+
   /**
    * Called when a transfer starts.
    *
@@ -55,6 +70,20 @@ public interface BandwidthEstimator {
    */
   void onTransferStart(DataSource source);
 
+  /**
+   * Called when a transfer starts.
+   *
+   * <p>The default implementation calls {@link #onTransferStart(DataSource)}. Implementations can
+   * override this method to take the expected size of the transfer, given by {@link
+   * DataSpec#length}, into account.
+   *
+   * @param source The {@link DataSource} performing the transfer.
+   * @param dataSpec Describes the data being transferred.
+   */
+  default void onTransferStart(DataSource source, DataSpec dataSpec) {
+    onTransferStart(source);
+  }
+
   /**
    * Called incrementally during a transfer.
    *
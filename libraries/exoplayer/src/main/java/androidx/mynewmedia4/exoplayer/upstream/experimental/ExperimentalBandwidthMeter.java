@@ -345,7 +345,7 @@ public final class ExperimentalBandwidthMeter implements BandwidthMeter, Transfe
       return;
     }
     timeToFirstByteEstimator.onTransferInitializing(dataSpec);
-    bandwidthEstimator.onTransferInitializing(source);
+    bandwidthEstimator.onTransferInitializing(source, dataSpec);
   }
 
   @Override
@@ -355,7 +355,7 @@ public final class ExperimentalBandwidthMeter implements BandwidthMeter, Transfe
       return;
     }
     timeToFirstByteEstimator.onTransferStart(dataSpec);
-    bandwidthEstimator.onTransferStart(source);
+    bandwidthEstimator.onTransferStart(source, dataSpec);
   }
 
   @Override
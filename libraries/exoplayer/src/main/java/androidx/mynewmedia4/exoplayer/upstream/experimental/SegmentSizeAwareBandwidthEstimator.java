@@ -0,0 +1,479 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.upstream.experimental;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+import static androidx.mynewmedia4.common.util.Assertions.checkState;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.util.Clock;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import androidx.mynewmedia4.datasource.DataSource;
+import androidx.mynewmedia4.datasource.DataSpec;
+import androidx.mynewmedia4.exoplayer.upstream.BandwidthMeter;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link BandwidthEstimator} that takes the size and concurrency of transfers into account.
+ *
+ * <p>Like {@link CombinedParallelSampleBandwidthEstimator}, a transfer sample is captured each time
+ * all parallel transfers end, so parallel loads (for example separate audio and video chunks) are
+ * measured as their combined throughput rather than each transfer's share of the bandwidth.
+ *
+ * <p>Additionally, the expected size of each transfer, as given by {@link DataSpec#length} of media
+ * chunks with known byte ranges, is used as follows:
+ *
+ * <ul>
+ *   <li>Samples made up only of transfers that fit into the initial TCP congestion window are
+ *       discarded. Their duration is dominated by the round trip time, so they don't carry any
+ *       information about the bandwidth.
+ *   <li>Samples that start after the network has been idle are corrected for TCP slow start. The
+ *       round trip time is approximated by the time to first byte of the transfers, and the sample
+ *       duration is replaced by the duration the transfer would have taken at the bandwidth that
+ *       explains the observed duration when the congestion window starts small and doubles every
+ *       round trip. Each parallel transfer is assumed to use its own connection, with its own
+ *       congestion window.
+ * </ul>
+ *
+ * <p>Transfers without a known length are treated according to the number of bytes actually
+ * transferred.
+ */
+@UnstableApi
+public class SegmentSizeAwareBandwidthEstimator implements BandwidthEstimator {
+
+  /** The default initial TCP congestion window, in bytes. Ten segments, as per RFC 6928. */
+  public static final int DEFAULT_INITIAL_CONGESTION_WINDOW_BYTES = 10 * 1460;
+
+  /**
+   * The default idle time after which the congestion window is assumed to be reset, in
+   * milliseconds.
+   */
+  public static final long DEFAULT_IDLE_TIME_FOR_SLOW_START_RESTART_MS = 1000;
+
+  /** A builder to create {@link SegmentSizeAwareBandwidthEstimator} instances. */
+  public static class Builder {
+    private BandwidthStatistic bandwidthStatistic;
+    private int minSamples;
+    private long minBytesTransferred;
+    private int initialCongestionWindowBytes;
+    private long idleTimeForSlowStartRestartMs;
+    private Clock clock;
+
+    /** Creates a new builder instance. */
+    public Builder() {
+      bandwidthStatistic = new SlidingWeightedAverageBandwidthStatistic();
+      initialCongestionWindowBytes = DEFAULT_INITIAL_CONGESTION_WINDOW_BYTES;
+      idleTimeForSlowStartRestartMs = DEFAULT_IDLE_TIME_FOR_SLOW_START_RESTART_MS;
+      clock = Clock.DEFAULT;
+    }
+
+    /**
+     * Sets the {@link BandwidthStatistic} to be used by the estimator. By default, this is set to a
+     * {@link SlidingWeightedAverageBandwidthStatistic}.
+     *
+     * @param bandwidthStatistic The {@link BandwidthStatistic}.
+     * @return This builder for convenience.
+     */
+    @CanIgnoreReturnValue
+    public Builder setBandwidthStatistic(BandwidthStatistic bandwidthStatistic) {
+      checkNotNull(bandwidthStatistic);
+      this.bandwidthStatistic = bandwidthStatistic;
+      return this;
+    }
+
+    /**
+     * Sets a minimum threshold of samples that need to be taken before the estimator can return a
+     * bandwidth estimate. By default, this is set to {@code 0}.
+     *
+     * @param minSamples The minimum number of samples.
+     * @return This builder for convenience.
+     */
+    @CanIgnoreReturnValue
+    public Builder setMinSamples(int minSamples) {
+      checkArgument(minSamples >= 0);
+      this.minSamples = minSamples;
+      return this;
+    }
+
+    /**
+     * Sets a minimum threshold of bytes that need to be transferred before the estimator can return
+     * a bandwidth estimate. By default, this is set to {@code 0}.
+     *
+     * @param minBytesTransferred The minimum number of transferred bytes.
+     * @return This builder for convenience.
+     */
+    @CanIgnoreReturnValue
+    public Builder setMinBytesTransferred(long minBytesTransferred) {
+      checkArgument(minBytesTransferred >= 0);
+      this.minBytesTransferred = minBytesTransferred;
+      return this;
+    }
+
+    /**
+     * Sets the initial TCP congestion window assumed for each connection. By default, this is set
+     * to {@link #DEFAULT_INITIAL_CONGESTION_WINDOW_BYTES}.
+     *
+     * @param initialCongestionWindowBytes The initial congestion window, in bytes.
+     * @return This builder for convenience.
+     */
+    @CanIgnoreReturnValue
+    public Builder setInitialCongestionWindowBytes(int initialCongestionWindowBytes) {
+      checkArgument(initialCongestionWindowBytes > 0);
+      this.initialCongestionWindowBytes = initialCongestionWindowBytes;
+      return this;
+    }
+
+    /**
+     * Sets the time without any transfers after which the congestion window is assumed to be reset,
+     * so that the next sample is corrected for slow start. By default, this is set to {@link
+     * #DEFAULT_IDLE_TIME_FOR_SLOW_START_RESTART_MS}.
+     *
+     * @param idleTimeForSlowStartRestartMs The idle time, in milliseconds.
+     * @return This builder for convenience.
+     */
+    @CanIgnoreReturnValue
+    public Builder setIdleTimeForSlowStartRestartMs(long idleTimeForSlowStartRestartMs) {
+      checkArgument(idleTimeForSlowStartRestartMs >= 0);
+      this.idleTimeForSlowStartRestartMs = idleTimeForSlowStartRestartMs;
+      return this;
+    }
+
+    /**
+     * Sets the {@link Clock} used by the estimator. By default, this is set to {@link
+     * Clock#DEFAULT}.
+     *
+     * @param clock The {@link Clock} to be used.
+     * @return This builder for convenience.
+     */
+    @CanIgnoreReturnValue
+    @VisibleForTesting
+    /* package */ Builder setClock(Clock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    public SegmentSizeAwareBandwidthEstimator build() {
+      return new SegmentSizeAwareBandwidthEstimator(this);
+    }
+  }
+
+  private static final int MAX_COMPENSATION_ITERATIONS = 32;
+
+  /**
+   * The maximum number of transfers that are initializing but haven't started. A {@link DataSource}
+   * doesn't report the end of a transfer that fails to open, so the oldest entries are dropped.
+   */
+  private static final int MAX_INITIALIZING_TRANSFERS = 10;
+
+  private final BandwidthStatistic bandwidthStatistic;
+  private final int minSamples;
+  private final long minBytesTransferred;
+  private final int initialCongestionWindowBytes;
+  private final long idleTimeForSlowStartRestartMs;
+  private final BandwidthMeter.EventListener.EventDispatcher eventDispatcher;
+  private final Clock clock;
+  private final LinkedHashMap<DataSource, Transfer> initializingTransfers;
+  private final HashMap<DataSource, Transfer> transfers;
+
+  private int streamCount;
+  private long sampleStartTimeMs;
+  private long sampleBytesTransferred;
+  private int sampleMaxConcurrentTransfers;
+  private long sampleTimeToFirstByteMs;
+  private boolean sampleStartedAfterIdle;
+  private boolean sampleHasMeasurableTransfer;
+  private long lastTransferEndTimeMs;
+  private long bandwidthEstimate;
+  private long lastReportedBandwidthEstimate;
+  private int totalSamplesAdded;
+  private long totalBytesTransferred;
+
+  private SegmentSizeAwareBandwidthEstimator(Builder builder) {
+    this.bandwidthStatistic = builder.bandwidthStatistic;
+    this.minSamples = builder.minSamples;
+    this.minBytesTransferred = builder.minBytesTransferred;
+    this.initialCongestionWindowBytes = builder.initialCongestionWindowBytes;
+    this.idleTimeForSlowStartRestartMs = builder.idleTimeForSlowStartRestartMs;
+    this.clock = builder.clock;
+    eventDispatcher = new BandwidthMeter.EventListener.EventDispatcher();
+    initializingTransfers = new FixedSizeLinkedHashMap<>(/* maxSize= */ MAX_INITIALIZING_TRANSFERS);
+    transfers = new HashMap<>();
+    sampleTimeToFirstByteMs = C.TIME_UNSET;
+    lastTransferEndTimeMs = C.TIME_UNSET;
+    bandwidthEstimate = ESTIMATE_NOT_AVAILABLE;
+    lastReportedBandwidthEstimate = ESTIMATE_NOT_AVAILABLE;
+  }
+
+  @Override
+  public void addEventListener(Handler eventHandler, BandwidthMeter.EventListener eventListener) {
+    eventDispatcher.addListener(eventHandler, eventListener);
+  }
+
+  @Override
+  public void removeEventListener(BandwidthMeter.EventListener eventListener) {
+    eventDispatcher.removeListener(eventListener);
+  }
+
+  @Override
+  public void onTransferInitializing(DataSource source) {
+    onTransferInitializing(source, /* expectedLength= */ C.LENGTH_UNSET);
+  }
+
+  @Override
+  public void onTransferInitializing(DataSource source, DataSpec dataSpec) {
+    onTransferInitializing(source, dataSpec.length);
+  }
+
+  @Override
+  public void onTransferStart(DataSource source) {
+    onTransferStart(source, /* expectedLength= */ C.LENGTH_UNSET);
+  }
+
+  @Override
+  public void onTransferStart(DataSource source, DataSpec dataSpec) {
+    onTransferStart(source, dataSpec.length);
+  }
+
+  @Override
+  public void onBytesTransferred(DataSource source, int bytesTransferred) {
+    sampleBytesTransferred += bytesTransferred;
+    totalBytesTransferred += bytesTransferred;
+    @Nullable Transfer transfer = transfers.get(source);
+    if (transfer != null) {
+      transfer.bytesTransferred += bytesTransferred;
+    }
+  }
+
+  @Override
+  public void onTransferEnd(DataSource source) {
+    checkState(streamCount > 0);
+    streamCount--;
+    @Nullable Transfer transfer = transfers.remove(source);
+    if (transfer != null) {
+      long transferSize =
+          transfer.expectedLength != C.LENGTH_UNSET
+              ? max(transfer.expectedLength, transfer.bytesTransferred)
+              : transfer.bytesTransferred;
+      sampleHasMeasurableTransfer |= transferSize > initialCongestionWindowBytes;
+    } else {
+      sampleHasMeasurableTransfer = true;
+    }
+    if (streamCount > 0) {
+      return;
+    }
+    long nowMs = clock.elapsedRealtime();
+    long sampleElapsedTimeMs = nowMs - sampleStartTimeMs;
+    lastTransferEndTimeMs = nowMs;
+    if (sampleElapsedTimeMs <= 0) {
+      // Any sample bytes transferred will be carried forward into the next sample.
+      return;
+    }
+    if (sampleHasMeasurableTransfer) {
+      long sampleDurationUs = sampleElapsedTimeMs * 1000;
+      if (sampleStartedAfterIdle && sampleTimeToFirstByteMs != C.TIME_UNSET) {
+        sampleDurationUs =
+            getSlowStartCompensatedDurationUs(
+                sampleBytesTransferred,
+                sampleDurationUs,
+                /* roundTripTimeUs= */ sampleTimeToFirstByteMs * 1000,
+                /* initialWindowBytes= */ (long) initialCongestionWindowBytes
+                    * sampleMaxConcurrentTransfers);
+      }
+      bandwidthStatistic.addSample(sampleBytesTransferred, sampleDurationUs);
+      totalSamplesAdded++;
+      if (totalSamplesAdded > minSamples && totalBytesTransferred > minBytesTransferred) {
+        bandwidthEstimate = bandwidthStatistic.getBandwidthEstimate();
+      }
+      maybeNotifyBandwidthSample(
+          (int) sampleElapsedTimeMs, sampleBytesTransferred, bandwidthEstimate);
+    }
+    sampleBytesTransferred = 0;
+    sampleMaxConcurrentTransfers = 0;
+    sampleTimeToFirstByteMs = C.TIME_UNSET;
+    sampleHasMeasurableTransfer = false;
+  }
+
+  @Override
+  public long getBandwidthEstimate() {
+    return bandwidthEstimate;
+  }
+
+  @Override
+  public void onNetworkTypeChange(long newBandwidthEstimate) {
+    long nowMs = clock.elapsedRealtime();
+    int sampleElapsedTimeMs = streamCount > 0 ? (int) (nowMs - sampleStartTimeMs) : 0;
+    maybeNotifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, newBandwidthEstimate);
+    bandwidthStatistic.reset();
+    bandwidthEstimate = ESTIMATE_NOT_AVAILABLE;
+    sampleStartTimeMs = nowMs;
+    sampleBytesTransferred = 0;
+    sampleMaxConcurrentTransfers = streamCount;
+    sampleTimeToFirstByteMs = C.TIME_UNSET;
+    // Connections need to be re-established on the new network.
+    sampleStartedAfterIdle = true;
+    sampleHasMeasurableTransfer = false;
+    totalSamplesAdded = 0;
+    totalBytesTransferred = 0;
+  }
+
+  /**
+   * Returns the duration a transfer would have taken without TCP slow start.
+   *
+   * <p>The congestion window is modelled to start at {@code initialWindowBytes} and double every
+   * round trip until it covers the bandwidth-delay product, after which data is transferred at the
+   * full bandwidth. The bandwidth for which this model matches the observed duration is found by
+   * bisection.
+   *
+   * @param bytes The number of bytes transferred.
+   * @param durationUs The observed duration of the transfer, in microseconds.
+   * @param roundTripTimeUs The round trip time, in microseconds.
+   * @param initialWindowBytes The initial congestion window, in bytes.
+   * @return The duration of the transfer at the full bandwidth, in microseconds. This is equal to
+   *     {@code durationUs} if the observed duration can't be explained by the model.
+   */
+  @VisibleForTesting
+  /* package */ static long getSlowStartCompensatedDurationUs(
+      long bytes, long durationUs, long roundTripTimeUs, long initialWindowBytes) {
+    if (bytes <= 0 || roundTripTimeUs <= 0) {
+      return durationUs;
+    }
+    // The bandwidth can't be lower than the observed throughput.
+    double minBytesPerUs = (double) bytes / durationUs;
+    if (getModelTransferDurationUs(bytes, minBytesPerUs, roundTripTimeUs, initialWindowBytes)
+        <= durationUs) {
+      // Slow start can't have slowed the transfer down.
+      return durationUs;
+    }
+    double maxBytesPerUs = minBytesPerUs;
+    int iterations = 0;
+    while (getModelTransferDurationUs(bytes, maxBytesPerUs, roundTripTimeUs, initialWindowBytes)
+        > durationUs) {
+      if (++iterations > MAX_COMPENSATION_ITERATIONS) {
+        // The transfer was faster than slow start allows at any bandwidth, for example because
+        // the connection was still warm.
+        return durationUs;
+      }
+      minBytesPerUs = maxBytesPerUs;
+      maxBytesPerUs *= 2;
+    }
+    for (int i = 0; i < MAX_COMPENSATION_ITERATIONS; i++) {
+      double bytesPerUs = (minBytesPerUs + maxBytesPerUs) / 2;
+      if (getModelTransferDurationUs(bytes, bytesPerUs, roundTripTimeUs, initialWindowBytes)
+          > durationUs) {
+        minBytesPerUs = bytesPerUs;
+      } else {
+        maxBytesPerUs = bytesPerUs;
+      }
+    }
+    return min(durationUs, max(1, (long) (bytes / maxBytesPerUs)));
+  }
+
+  /** Returns the number of transfers currently tracked by this estimator. */
+  @VisibleForTesting
+  /* package */ int getTrackedTransferCount() {
+    return initializingTransfers.size() + transfers.size();
+  }
+
+  private void onTransferInitializing(DataSource source, long expectedLength) {
+    initializingTransfers.put(source, new Transfer(clock.elapsedRealtime(), expectedLength));
+  }
+
+  private void onTransferStart(DataSource source, long expectedLength) {
+    long nowMs = clock.elapsedRealtime();
+    @Nullable Transfer transfer = initializingTransfers.remove(source);
+    if (transfer == null) {
+      transfer = new Transfer(/* initializingTimeMs= */ C.TIME_UNSET, expectedLength);
+    } else {
+      long timeToFirstByteMs = nowMs - transfer.initializingTimeMs;
+      sampleTimeToFirstByteMs =
+          sampleTimeToFirstByteMs == C.TIME_UNSET
+              ? timeToFirstByteMs
+              : min(sampleTimeToFirstByteMs, timeToFirstByteMs);
+    }
+    transfers.put(source, transfer);
+    if (streamCount == 0) {
+      sampleStartTimeMs = nowMs;
+      sampleStartedAfterIdle =
+          lastTransferEndTimeMs == C.TIME_UNSET
+              || nowMs - lastTransferEndTimeMs >= idleTimeForSlowStartRestartMs;
+    }
+    streamCount++;
+    sampleMaxConcurrentTransfers = max(sampleMaxConcurrentTransfers, streamCount);
+  }
+
+  private void maybeNotifyBandwidthSample(
+      int elapsedMs, long bytesTransferred, long bandwidthEstimate) {
+    if ((bandwidthEstimate == ESTIMATE_NOT_AVAILABLE)
+        || (elapsedMs == 0
+            && bytesTransferred == 0
+            && bandwidthEstimate == lastReportedBandwidthEstimate)) {
+      return;
+    }
+    lastReportedBandwidthEstimate = bandwidthEstimate;
+    eventDispatcher.bandwidthSample(elapsedMs, bytesTransferred, bandwidthEstimate);
+  }
+
+  private static double getModelTransferDurationUs(
+      long bytes, double bytesPerUs, long roundTripTimeUs, long initialWindowBytes) {
+    double bandwidthDelayProductBytes = bytesPerUs * roundTripTimeUs;
+    double bytesSentInSlowStart = 0;
+    double windowBytes = initialWindowBytes;
+    double durationUs = 0;
+    while (windowBytes < bandwidthDelayProductBytes
+        && bytesSentInSlowStart + windowBytes < bytes) {
+      bytesSentInSlowStart += windowBytes;
+      windowBytes *= 2;
+      durationUs += roundTripTimeUs;
+    }
+    return durationUs + (bytes - bytesSentInSlowStart) / bytesPerUs;
+  }
+
+  private static class FixedSizeLinkedHashMap<K, V> extends LinkedHashMap<K, V> {
+
+    private final int maxSize;
+
+    public FixedSizeLinkedHashMap(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > maxSize;
+    }
+  }
+
+  private static final class Transfer {
+
+    public final long initializingTimeMs;
+    public final long expectedLength;
+
+    public long bytesTransferred;
+
+    public Transfer(long initializingTimeMs, long expectedLength) {
+      this.initializingTimeMs = initializingTimeMs;
+      this.expectedLength = expectedLength;
+    }
+  }
+}
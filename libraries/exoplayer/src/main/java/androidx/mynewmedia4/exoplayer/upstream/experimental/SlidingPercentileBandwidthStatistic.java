@@ -19,13 +19,12 @@ import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
 import static androidx.mynewmedia4.exoplayer.upstream.experimental.BandwidthEstimator.ESTIMATE_NOT_AVAILABLE;
 
 import androidx.mynewmedia4.common.util.UnstableApi;
-import androidx.mynewmedia4.common.util.Util;
-import java.util.ArrayDeque;
-import java.util.TreeSet;
 
 /**
  * A {@link BandwidthStatistic} that calculates estimates based on a sliding window weighted
  * percentile.
+ *
+ * <p>Samples are held in preallocated primitive arrays, so adding samples doesn't allocate.
  */
 @UnstableApi
 public class SlidingPercentileBandwidthStatistic implements BandwidthStatistic {
@@ -38,9 +37,17 @@ public class SlidingPercentileBandwidthStatistic implements BandwidthStatistic {
 
   private final int maxSampleCount;
   private final double percentile;
-  private final ArrayDeque<Sample> samples;
-  private final TreeSet<Sample> sortedSamples;
 
+  // Samples in insertion order, stored in a circular buffer starting at oldestSampleIndex.
+  private final long[] insertionOrderBitrates;
+  private final double[] insertionOrderWeights;
+  private int oldestSampleIndex;
+
+  // The same samples sorted by bitrate. Samples with equal bitrates are kept in insertion order.
+  private final long[] sortedBitrates;
+  private final double[] sortedWeights;
+
+  private int sampleCount;
   private double weightSum;
   private long bitrateEstimate;
 
@@ -59,27 +66,37 @@ public class SlidingPercentileBandwidthStatistic implements BandwidthStatistic {
    * @param percentile The percentile to return. Must be in the range of [0-1].
    */
   public SlidingPercentileBandwidthStatistic(int maxSampleCount, double percentile) {
+    checkArgument(maxSampleCount > 0);
     checkArgument(percentile >= 0 && percentile <= 1);
     this.maxSampleCount = maxSampleCount;
     this.percentile = percentile;
-    this.samples = new ArrayDeque<>();
-    this.sortedSamples = new TreeSet<>();
-    this.bitrateEstimate = ESTIMATE_NOT_AVAILABLE;
+    insertionOrderBitrates = new long[maxSampleCount];
+    insertionOrderWeights = new double[maxSampleCount];
+    sortedBitrates = new long[maxSampleCount];
+    sortedWeights = new double[maxSampleCount];
+    bitrateEstimate = ESTIMATE_NOT_AVAILABLE;
   }
 
   @Override
   public void addSample(long bytes, long durationUs) {
-    while (samples.size() >= maxSampleCount) {
-      Sample removedSample = samples.remove();
-      sortedSamples.remove(removedSample);
-      weightSum -= removedSample.weight;
+    if (sampleCount == maxSampleCount) {
+      removeOldestSample();
     }
 
     double weight = Math.sqrt((double) bytes);
     long bitrate = bytes * 8_000_000 / durationUs;
-    Sample sample = new Sample(bitrate, weight);
-    samples.add(sample);
-    sortedSamples.add(sample);
+    int newestSampleIndex = (oldestSampleIndex + sampleCount) % maxSampleCount;
+    insertionOrderBitrates[newestSampleIndex] = bitrate;
+    insertionOrderWeights[newestSampleIndex] = weight;
+    // Insert after all samples with an equal bitrate to keep those in insertion order.
+    int sortedIndex = findSortedIndex(bitrate, /* afterEqualBitrates= */ true);
+    System.arraycopy(
+        sortedBitrates, sortedIndex, sortedBitrates, sortedIndex + 1, sampleCount - sortedIndex);
+    System.arraycopy(
+        sortedWeights, sortedIndex, sortedWeights, sortedIndex + 1, sampleCount - sortedIndex);
+    sortedBitrates[sortedIndex] = bitrate;
+    sortedWeights[sortedIndex] = weight;
+    sampleCount++;
     weightSum += weight;
     bitrateEstimate = calculateBitrateEstimate();
   }
@@ -91,54 +108,73 @@ public class SlidingPercentileBandwidthStatistic implements BandwidthStatistic {
 
   @Override
   public void reset() {
-    samples.clear();
-    sortedSamples.clear();
+    oldestSampleIndex = 0;
+    sampleCount = 0;
     weightSum = 0;
     bitrateEstimate = ESTIMATE_NOT_AVAILABLE;
   }
 
+  private void removeOldestSample() {
+    // The oldest sample is the first of the sorted samples with its bitrate.
+    int sortedIndex =
+        findSortedIndex(insertionOrderBitrates[oldestSampleIndex], /* afterEqualBitrates= */ false);
+    sampleCount--;
+    System.arraycopy(
+        sortedBitrates, sortedIndex + 1, sortedBitrates, sortedIndex, sampleCount - sortedIndex);
+    System.arraycopy(
+        sortedWeights, sortedIndex + 1, sortedWeights, sortedIndex, sampleCount - sortedIndex);
+    weightSum -= insertionOrderWeights[oldestSampleIndex];
+    oldestSampleIndex = (oldestSampleIndex + 1) % maxSampleCount;
+  }
+
+  /**
+   * Returns the index in the sorted samples of the first sample whose bitrate is greater than or
+   * equal to {@code bitrate}, or greater than {@code bitrate} if {@code afterEqualBitrates} is
+   * true.
+   */
+  private int findSortedIndex(long bitrate, boolean afterEqualBitrates) {
+    int low = 0;
+    int high = sampleCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (sortedBitrates[mid] < bitrate || (afterEqualBitrates && sortedBitrates[mid] == bitrate)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
   private long calculateBitrateEstimate() {
-    if (samples.isEmpty()) {
+    if (sampleCount == 0) {
       return ESTIMATE_NOT_AVAILABLE;
     }
     double targetWeightSum = weightSum * percentile;
     double previousPartialWeightSum = 0;
     long previousSampleBitrate = 0;
     double nextPartialWeightSum = 0;
-    for (Sample sample : sortedSamples) {
+    for (int i = 0; i < sampleCount; i++) {
+      long sampleBitrate = sortedBitrates[i];
+      double sampleWeight = sortedWeights[i];
       // The percentile position of each sample is the middle of its weight. Hence, we need to add
       // half the weight to check whether the target percentile is before or after this sample.
-      nextPartialWeightSum += sample.weight / 2;
+      nextPartialWeightSum += sampleWeight / 2;
       if (nextPartialWeightSum >= targetWeightSum) {
         if (previousSampleBitrate == 0) {
-          return sample.bitrate;
+          return sampleBitrate;
         }
         // Interpolate between samples to get an estimate for the target percentile.
         double partialBitrateBetweenSamples =
-            (sample.bitrate - previousSampleBitrate)
+            (sampleBitrate - previousSampleBitrate)
                 * (targetWeightSum - previousPartialWeightSum)
                 / (nextPartialWeightSum - previousPartialWeightSum);
         return previousSampleBitrate + (long) partialBitrateBetweenSamples;
       }
-      previousSampleBitrate = sample.bitrate;
+      previousSampleBitrate = sampleBitrate;
       previousPartialWeightSum = nextPartialWeightSum;
-      nextPartialWeightSum += sample.weight / 2;
+      nextPartialWeightSum += sampleWeight / 2;
     }
     return previousSampleBitrate;
   }
-
-  private static class Sample implements Comparable<Sample> {
-    private final long bitrate;
-    private final double weight;
-
-    public Sample(long bitrate, double weight) {
-      this.bitrate = bitrate;
-      this.weight = weight;
-    }
-
-    @Override
-    public int compareTo(Sample other) {
-      return Util.compareLong(this.bitrate, other.bitrate);
-    }
-  }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.util;
+
+import androidx.mynewmedia4.common.util.Consumer;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import java.util.concurrent.Executor;
+
+/** An {@link Executor} that must be released by its owner once it's no longer used. */
+@UnstableApi
+public interface ReleasableExecutor extends Executor {
+
+  /**
+   * Releases the executor.
+   *
+   * <p>Tasks submitted before this call are still executed, but no new tasks may be submitted.
+   */
+  void release();
+
+  /**
+   * Creates a {@link ReleasableExecutor} from an {@link Executor} and a release callback.
+   *
+   * @param executor The {@link Executor} to which tasks are submitted.
+   * @param releaseCallback The callback invoked with the {@code executor} when the returned
+   *     instance is released.
+   * @return The {@link ReleasableExecutor}.
+   */
+  static <T extends Executor> ReleasableExecutor from(T executor, Consumer<T> releaseCallback) {
+    return new ReleasableExecutor() {
+      @Override
+      public void execute(Runnable command) {
+        executor.execute(command);
+      }
+
+      @Override
+      public void release() {
+        releaseCallback.accept(executor);
+      }
+    };
+  }
+}
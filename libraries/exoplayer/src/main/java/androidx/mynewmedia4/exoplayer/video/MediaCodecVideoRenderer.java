@@ -16,6 +16,7 @@
 package androidx.mynewmedia4.exoplayer.video;
 
 import static android.view.Display.DEFAULT_DISPLAY;
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
 import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
 import static androidx.mynewmedia4.common.util.Assertions.checkState;
 import static androidx.mynewmedia4.common.util.Assertions.checkStateNotNull;
@@ -175,6 +176,7 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
   private long totalVideoFrameProcessingOffsetUs;
   private int videoFrameProcessingOffsetCount;
   private long lastFrameReleaseTimeNs;
+  @Nullable private VideoFrameReleaseTrace frameReleaseTrace;
 
   private VideoSize decodedVideoSize;
   @Nullable private VideoSize reportedVideoSize;
@@ -363,6 +365,23 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     clearReportedVideoSize();
   }
 
+  /**
+   * Sets the number of frames whose release decisions are traced and reported together through
+   * {@link VideoRendererEventListener#onVideoFrameReleaseTrace(VideoFrameReleaseTrace)}.
+   *
+   * <p>A trace is reported each time it fills up, and when the renderer is stopped. Tracing is
+   * disabled by default.
+   *
+   * <p>This method is experimental, and will be renamed or removed in a future release. It should
+   * be called right after creating an instance of this class.
+   *
+   * @param frameCount The maximum number of frames in each reported trace, or 0 to disable tracing.
+   */
+  public void experimentalSetFrameReleaseTraceSize(int frameCount) {
+    checkArgument(frameCount >= 0);
+    frameReleaseTrace = frameCount > 0 ? new VideoFrameReleaseTrace(frameCount) : null;
+  }
+
   @Override
   public String getName() {
     return TAG;
@@ -620,6 +639,7 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     joiningDeadlineMs = C.TIME_UNSET;
     maybeNotifyDroppedFrames();
     maybeNotifyVideoFrameProcessingOffset();
+    maybeNotifyFrameReleaseTrace();
     frameReleaseHelper.onStopped();
     super.onStopped();
   }
@@ -1166,6 +1186,12 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
       if (isBufferLate(earlyUs)) {
         skipOutputBuffer(codec, bufferIndex, presentationTimeUs);
         updateVideoFrameProcessingOffsetCounters(earlyUs);
+        maybeTraceFrameRelease(
+            presentationTimeUs,
+            /* unadjustedReleaseTimeNs= */ C.TIME_UNSET,
+            /* scheduledReleaseTimeNs= */ C.TIME_UNSET,
+            earlyUs,
+            VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED);
         return true;
       }
       return false;
@@ -1183,9 +1209,16 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
       } else {
         notifyFrameMetaDataListener = true;
       }
-      renderOutputBufferNow(
-          codec, format, bufferIndex, presentationTimeUs, notifyFrameMetaDataListener);
+      long scheduledReleaseTimeNs =
+          renderOutputBufferNow(
+              codec, format, bufferIndex, presentationTimeUs, notifyFrameMetaDataListener);
       updateVideoFrameProcessingOffsetCounters(earlyUs);
+      maybeTraceFrameRelease(
+          presentationTimeUs,
+          /* unadjustedReleaseTimeNs= */ System.nanoTime() + earlyUs * 1000,
+          scheduledReleaseTimeNs,
+          earlyUs,
+          VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
       return true;
     }
 
@@ -1206,6 +1239,14 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     boolean treatDroppedBuffersAsSkipped = joiningDeadlineMs != C.TIME_UNSET;
     if (shouldDropBuffersToKeyframe(earlyUs, elapsedRealtimeUs, isLastBuffer)
         && maybeDropBuffersToKeyframe(positionUs, treatDroppedBuffersAsSkipped)) {
+      maybeTraceFrameRelease(
+          presentationTimeUs,
+          unadjustedFrameReleaseTimeNs,
+          /* scheduledReleaseTimeNs= */ C.TIME_UNSET,
+          earlyUs,
+          treatDroppedBuffersAsSkipped
+              ? VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED
+              : VideoFrameReleaseTrace.RELEASE_ACTION_DROPPED_TO_KEYFRAME);
       return false;
     } else if (shouldDropOutputBuffer(earlyUs, elapsedRealtimeUs, isLastBuffer)) {
       if (treatDroppedBuffersAsSkipped) {
@@ -1214,6 +1255,14 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
         dropOutputBuffer(codec, bufferIndex, presentationTimeUs);
       }
       updateVideoFrameProcessingOffsetCounters(earlyUs);
+      maybeTraceFrameRelease(
+          presentationTimeUs,
+          unadjustedFrameReleaseTimeNs,
+          /* scheduledReleaseTimeNs= */ C.TIME_UNSET,
+          earlyUs,
+          treatDroppedBuffersAsSkipped
+              ? VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED
+              : VideoFrameReleaseTrace.RELEASE_ACTION_DROPPED_LATE);
       return true;
     }
 
@@ -1240,9 +1289,21 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
           // this buffer so that it's returned to MediaCodec sooner otherwise MediaCodec may not
           // be able to keep decoding with this rate [b/263454203].
           skipOutputBuffer(codec, bufferIndex, presentationTimeUs);
+          maybeTraceFrameRelease(
+              presentationTimeUs,
+              unadjustedFrameReleaseTimeNs,
+              /* scheduledReleaseTimeNs= */ C.TIME_UNSET,
+              earlyUs,
+              VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED_SAME_VSYNC);
         } else {
           notifyFrameMetadataListener(presentationTimeUs, adjustedReleaseTimeNs, format);
           renderOutputBufferV21(codec, bufferIndex, presentationTimeUs, adjustedReleaseTimeNs);
+          maybeTraceFrameRelease(
+              presentationTimeUs,
+              unadjustedFrameReleaseTimeNs,
+              adjustedReleaseTimeNs,
+              earlyUs,
+              VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
         }
         updateVideoFrameProcessingOffsetCounters(earlyUs);
         lastFrameReleaseTimeNs = adjustedReleaseTimeNs;
@@ -1265,6 +1326,12 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
         notifyFrameMetadataListener(presentationTimeUs, adjustedReleaseTimeNs, format);
         renderOutputBuffer(codec, bufferIndex, presentationTimeUs);
         updateVideoFrameProcessingOffsetCounters(earlyUs);
+        maybeTraceFrameRelease(
+            presentationTimeUs,
+            unadjustedFrameReleaseTimeNs,
+            /* scheduledReleaseTimeNs= */ System.nanoTime(),
+            earlyUs,
+            VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
         return true;
       }
     }
@@ -1530,8 +1597,9 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
    * @param index The index of the output buffer to drop.
    * @param presentationTimeUs The presentation time of the output buffer, in microseconds.
    * @param notifyFrameMetadataListener Whether to notify the {@link VideoFrameMetadataListener}.
+   * @return The release time passed to the codec, in nanoseconds.
    */
-  private void renderOutputBufferNow(
+  private long renderOutputBufferNow(
       MediaCodecAdapter codec,
       Format format,
       int index,
@@ -1556,6 +1624,7 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     } else {
       renderOutputBuffer(codec, index, presentationTimeUs);
     }
+    return releaseTimeNs;
   }
 
   /**
@@ -1701,6 +1770,33 @@ public class MediaCodecVideoRenderer extends MediaCodecRenderer {
     }
   }
 
+  private void maybeTraceFrameRelease(
+      long presentationTimeUs,
+      long unadjustedReleaseTimeNs,
+      long scheduledReleaseTimeNs,
+      long earlyUs,
+      @VideoFrameReleaseTrace.ReleaseAction int releaseAction) {
+    if (frameReleaseTrace == null) {
+      return;
+    }
+    frameReleaseTrace.add(
+        presentationTimeUs,
+        unadjustedReleaseTimeNs,
+        scheduledReleaseTimeNs,
+        earlyUs,
+        releaseAction);
+    if (frameReleaseTrace.size() == frameReleaseTrace.getCapacity()) {
+      maybeNotifyFrameReleaseTrace();
+    }
+  }
+
+  private void maybeNotifyFrameReleaseTrace() {
+    if (frameReleaseTrace != null && frameReleaseTrace.size() > 0) {
+      eventDispatcher.reportVideoFrameReleaseTrace(frameReleaseTrace.copy());
+      frameReleaseTrace.clear();
+    }
+  }
+
   private static boolean isBufferLate(long earlyUs) {
     // Class a buffer as late if it should have been presented more than 30 ms ago.
     return earlyUs < -30000;
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.video;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static androidx.mynewmedia4.common.util.Assertions.checkIndex;
+import static java.lang.annotation.ElementType.TYPE_USE;
+
+import androidx.annotation.IntDef;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A trace of the release decisions a video renderer made for its most recent output frames.
+ *
+ * <p>For each frame, the trace records the time at which the frame should have been released, the
+ * time at which it was scheduled to be released after vsync alignment, how early or late the
+ * frame was when the decision was made, and the {@link ReleaseAction} that was taken. The trace
+ * doesn't record when frames were actually displayed, so lateness is relative to the playback
+ * position at the time of the release decision.
+ *
+ * <p>Frames are stored in a ring buffer of primitive arrays, so recording a frame doesn't
+ * allocate. Once the trace holds {@link #getCapacity()} frames, recording a frame overwrites the
+ * oldest one. Frames are indexed from the oldest, at index {@code 0}, to the most recent, at index
+ * {@link #size()}{@code - 1}.
+ */
+@UnstableApi
+public final class VideoFrameReleaseTrace {
+
+  /**
+   * The action taken for a frame. One of {@link #RELEASE_ACTION_RENDERED}, {@link
+   * #RELEASE_ACTION_SKIPPED}, {@link #RELEASE_ACTION_SKIPPED_SAME_VSYNC}, {@link
+   * #RELEASE_ACTION_DROPPED_LATE} or {@link #RELEASE_ACTION_DROPPED_TO_KEYFRAME}.
+   */
+  @Documented
+  @Retention(RetentionPolicy.SOURCE)
+  @Target(TYPE_USE)
+  @IntDef({
+    RELEASE_ACTION_RENDERED,
+    RELEASE_ACTION_SKIPPED,
+    RELEASE_ACTION_SKIPPED_SAME_VSYNC,
+    RELEASE_ACTION_DROPPED_LATE,
+    RELEASE_ACTION_DROPPED_TO_KEYFRAME
+  })
+  public @interface ReleaseAction {}
+  /** The frame was released to be rendered. */
+  public static final int RELEASE_ACTION_RENDERED = 0;
+  /**
+   * The frame was intentionally skipped, for example because it was late while joining, or because
+   * the output is a placeholder surface.
+   */
+  public static final int RELEASE_ACTION_SKIPPED = 1;
+  /**
+   * The frame was skipped because it would have been displayed on the same vsync as the previous
+   * frame.
+   */
+  public static final int RELEASE_ACTION_SKIPPED_SAME_VSYNC = 2;
+  /** The frame was dropped because it was too late. */
+  public static final int RELEASE_ACTION_DROPPED_LATE = 3;
+  /**
+   * The frame was dropped because it was very late, along with the other frames up to the next
+   * keyframe.
+   */
+  public static final int RELEASE_ACTION_DROPPED_TO_KEYFRAME = 4;
+
+  private final long[] presentationTimesUs;
+  private final long[] unadjustedReleaseTimesNs;
+  private final long[] scheduledReleaseTimesNs;
+  private final long[] earlyTimesUs;
+  private final int[] releaseActions;
+
+  private int start;
+  private int size;
+
+  /**
+   * Creates an instance.
+   *
+   * @param capacity The maximum number of frames held by the trace.
+   */
+  public VideoFrameReleaseTrace(int capacity) {
+    checkArgument(capacity > 0);
+    presentationTimesUs = new long[capacity];
+    unadjustedReleaseTimesNs = new long[capacity];
+    scheduledReleaseTimesNs = new long[capacity];
+    earlyTimesUs = new long[capacity];
+    releaseActions = new int[capacity];
+  }
+
+  /** Returns the maximum number of frames held by the trace. */
+  public int getCapacity() {
+    return releaseActions.length;
+  }
+
+  /** Returns the number of frames in the trace. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Records a frame, overwriting the oldest frame if the trace is full.
+   *
+   * @param presentationTimeUs The presentation time of the frame, in microseconds.
+   * @param unadjustedReleaseTimeNs The system time at which the frame should have been released
+   *     according to the playback position, in nanoseconds, or {@link C#TIME_UNSET} if unknown.
+   * @param scheduledReleaseTimeNs The system time at which the frame was scheduled to be released
+   *     after vsync alignment, in nanoseconds, or {@link C#TIME_UNSET} if the frame wasn't
+   *     released.
+   * @param earlyUs How early the frame was when the release decision was made, in microseconds. A
+   *     negative value indicates that the frame was late.
+   * @param releaseAction The {@link ReleaseAction} taken for the frame.
+   */
+  public void add(
+      long presentationTimeUs,
+      long unadjustedReleaseTimeNs,
+      long scheduledReleaseTimeNs,
+      long earlyUs,
+      @ReleaseAction int releaseAction) {
+    int capacity = getCapacity();
+    int index;
+    if (size < capacity) {
+      index = (start + size) % capacity;
+      size++;
+    } else {
+      index = start;
+      start = (start + 1) % capacity;
+    }
+    presentationTimesUs[index] = presentationTimeUs;
+    unadjustedReleaseTimesNs[index] = unadjustedReleaseTimeNs;
+    scheduledReleaseTimesNs[index] = scheduledReleaseTimeNs;
+    earlyTimesUs[index] = earlyUs;
+    releaseActions[index] = releaseAction;
+  }
+
+  /** Removes all frames from the trace. */
+  public void clear() {
+    start = 0;
+    size = 0;
+  }
+
+  /** Returns a copy of the trace with the same capacity. */
+  public VideoFrameReleaseTrace copy() {
+    VideoFrameReleaseTrace copy = new VideoFrameReleaseTrace(getCapacity());
+    for (int i = 0; i < size; i++) {
+      int index = getArrayIndex(i);
+      copy.add(
+          presentationTimesUs[index],
+          unadjustedReleaseTimesNs[index],
+          scheduledReleaseTimesNs[index],
+          earlyTimesUs[index],
+          releaseActions[index]);
+    }
+    return copy;
+  }
+
+  /** Returns the presentation time of the frame at {@code index}, in microseconds. */
+  public long getPresentationTimeUs(int index) {
+    return presentationTimesUs[getArrayIndex(index)];
+  }
+
+  /**
+   * Returns the system time at which the frame at {@code index} should have been released
+   * according to the playback position, in nanoseconds, or {@link C#TIME_UNSET} if unknown.
+   */
+  public long getUnadjustedReleaseTimeNs(int index) {
+    return unadjustedReleaseTimesNs[getArrayIndex(index)];
+  }
+
+  /**
+   * Returns the system time at which the frame at {@code index} was scheduled to be released, in
+   * nanoseconds, or {@link C#TIME_UNSET} if the frame wasn't released.
+   *
+   * <p>The difference from {@link #getUnadjustedReleaseTimeNs(int)} is the adjustment applied to
+   * align the release with the display's vsync. This is the time requested from the codec, not
+   * the time at which the frame was actually displayed, which isn't known to the renderer.
+   */
+  public long getScheduledReleaseTimeNs(int index) {
+    return scheduledReleaseTimesNs[getArrayIndex(index)];
+  }
+
+  /**
+   * Returns how early the frame at {@code index} was when the release decision was made, in
+   * microseconds. A negative value indicates that the frame was late.
+   */
+  public long getEarlyUs(int index) {
+    return earlyTimesUs[getArrayIndex(index)];
+  }
+
+  /** Returns the {@link ReleaseAction} taken for the frame at {@code index}. */
+  public @ReleaseAction int getReleaseAction(int index) {
+    return releaseActions[getArrayIndex(index)];
+  }
+
+  private int getArrayIndex(int index) {
+    checkIndex(index, /* start= */ 0, /* limit= */ size);
+    return (start + index) % getCapacity();
+  }
+}
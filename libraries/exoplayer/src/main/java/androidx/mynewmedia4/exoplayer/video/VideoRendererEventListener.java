@@ -108,6 +108,16 @@ public interface VideoRendererEventListener {
    */
   default void onVideoFrameProcessingOffset(long totalProcessingOffsetUs, int frameCount) {}
 
+  /**
+   * Called with a trace of the release decisions made for recently processed video frames.
+   *
+   * <p>The renderer reports each traced frame once, in a trace of up to its configured size. The
+   * trace is a copy, so it may be retained.
+   *
+   * @param trace The {@link VideoFrameReleaseTrace}.
+   */
+  default void onVideoFrameReleaseTrace(VideoFrameReleaseTrace trace) {}
+
   /**
    * Called before a frame is rendered for the first time since setting the surface, and each time
    * there's a change in the size, rotation or pixel aspect ratio of the video being rendered.
@@ -224,6 +234,13 @@ public interface VideoRendererEventListener {
       }
     }
 
+    /** Invokes {@link VideoRendererEventListener#onVideoFrameReleaseTrace}. */
+    public void reportVideoFrameReleaseTrace(VideoFrameReleaseTrace trace) {
+      if (handler != null) {
+        handler.post(() -> castNonNull(listener).onVideoFrameReleaseTrace(trace));
+      }
+    }
+
     /** Invokes {@link VideoRendererEventListener#onVideoSizeChanged(VideoSize)}. */
     public void videoSizeChanged(VideoSize videoSize) {
       if (handler != null) {
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.content.Context;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.exoplayer.util.ReleasableExecutor;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Supplier;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link ExoPlayerPool}. */
+@RunWith(AndroidJUnit4.class)
+public class ExoPlayerPoolTest {
+
+  private Context context;
+  private ExoPlayerPool pool;
+
+  @Before
+  public void setUp() {
+    context = ApplicationProvider.getApplicationContext();
+    pool = new ExoPlayerPool.Builder().setMaxLoadingPreviewCount(1).build();
+  }
+
+  @After
+  public void tearDown() {
+    pool.release();
+  }
+
+  @Test
+  public void buildPlayer_playersSharePlaybackLooper() {
+    ExoPlayer player1 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player2 = pool.buildPlayer(new ExoPlayer.Builder(context));
+
+    assertThat(player1.getPlaybackLooper()).isSameInstanceAs(pool.getPlaybackLooper());
+    assertThat(player2.getPlaybackLooper()).isSameInstanceAs(pool.getPlaybackLooper());
+
+    pool.releasePlayer(player1);
+    pool.releasePlayer(player2);
+  }
+
+  @Test
+  public void setForegroundPlayer_withPlayerOfOtherPool_throws() {
+    ExoPlayerPool otherPool = new ExoPlayerPool.Builder().build();
+    ExoPlayer player = otherPool.buildPlayer(new ExoPlayer.Builder(context));
+
+    assertThrows(IllegalArgumentException.class, () -> pool.setForegroundPlayer(player));
+
+    otherPool.releasePlayer(player);
+    otherPool.release();
+  }
+
+  @Test
+  public void releasePlayer_withForegroundPlayer_clearsForegroundPlayer() {
+    ExoPlayer player = pool.buildPlayer(new ExoPlayer.Builder(context));
+    pool.setForegroundPlayer(player);
+
+    pool.releasePlayer(player);
+
+    assertThat(pool.getForegroundPlayer()).isNull();
+  }
+
+  @Test
+  public void release_withUnreleasedPlayer_throws() {
+    ExoPlayer player = pool.buildPlayer(new ExoPlayer.Builder(context));
+
+    assertThrows(IllegalStateException.class, pool::release);
+
+    pool.releasePlayer(player);
+  }
+
+  @Test
+  public void shouldContinueLoading_withMorePreviewsThanMaxLoadingPreviews_loadsOneAtATime() {
+    ExoPlayer player1 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player2 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player3 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    LoadControl loadControl1 = pool.getLoadControl(player1);
+    LoadControl loadControl2 = pool.getLoadControl(player2);
+    LoadControl loadControl3 = pool.getLoadControl(player3);
+
+    boolean preview1Loads = shouldContinueLoading(loadControl1, /* bufferedDurationUs= */ 0);
+    boolean preview2Loads = shouldContinueLoading(loadControl2, /* bufferedDurationUs= */ 0);
+    boolean preview1LoadsWhenBuffered =
+        shouldContinueLoading(loadControl1, /* bufferedDurationUs= */ C.MICROS_PER_SECOND * 100);
+    boolean preview3Loads = shouldContinueLoading(loadControl3, /* bufferedDurationUs= */ 0);
+    boolean preview2LoadsAfterPreview3 =
+        shouldContinueLoading(loadControl2, /* bufferedDurationUs= */ 0);
+
+    assertThat(preview1Loads).isTrue();
+    assertThat(preview2Loads).isFalse();
+    assertThat(preview1LoadsWhenBuffered).isFalse();
+    assertThat(preview3Loads).isTrue();
+    assertThat(preview2LoadsAfterPreview3).isFalse();
+    pool.releasePlayer(player1);
+    pool.releasePlayer(player2);
+    pool.releasePlayer(player3);
+  }
+
+  @Test
+  public void shouldContinueLoading_afterPromotingLoadingPreview_letsNextPreviewLoad() {
+    ExoPlayer player1 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player2 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    LoadControl loadControl1 = pool.getLoadControl(player1);
+    LoadControl loadControl2 = pool.getLoadControl(player2);
+    shouldContinueLoading(loadControl1, /* bufferedDurationUs= */ 0);
+    boolean preview2LoadsBeforePromotion =
+        shouldContinueLoading(loadControl2, /* bufferedDurationUs= */ 0);
+
+    pool.setForegroundPlayer(player1);
+    boolean foregroundPlayerLoads =
+        shouldContinueLoading(loadControl1, /* bufferedDurationUs= */ 0);
+    boolean preview2LoadsAfterPromotion =
+        shouldContinueLoading(loadControl2, /* bufferedDurationUs= */ 0);
+
+    assertThat(preview2LoadsBeforePromotion).isFalse();
+    assertThat(foregroundPlayerLoads).isTrue();
+    assertThat(preview2LoadsAfterPromotion).isTrue();
+    pool.releasePlayer(player1);
+    pool.releasePlayer(player2);
+  }
+
+  @Test
+  public void shouldContinueLoading_afterPromotingWaitingPreview_loadsWithoutWaiting() {
+    ExoPlayer player1 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player2 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    LoadControl loadControl1 = pool.getLoadControl(player1);
+    LoadControl loadControl2 = pool.getLoadControl(player2);
+    shouldContinueLoading(loadControl1, /* bufferedDurationUs= */ 0);
+
+    pool.setForegroundPlayer(player2);
+    boolean foregroundPlayerLoads =
+        shouldContinueLoading(loadControl2, /* bufferedDurationUs= */ 0);
+    pool.setForegroundPlayer(null);
+    boolean demotedPlayerLoads = shouldContinueLoading(loadControl2, /* bufferedDurationUs= */ 0);
+
+    assertThat(foregroundPlayerLoads).isTrue();
+    assertThat(demotedPlayerLoads).isFalse();
+    pool.releasePlayer(player1);
+    pool.releasePlayer(player2);
+  }
+
+  @Test
+  public void getDownloadExecutorSupplier_withBusyLoaderThreads_runsForegroundLoadOnOwnThread()
+      throws Exception {
+    ExoPlayer player1 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player2 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    pool.setForegroundPlayer(player2);
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    ReleasableExecutor executor1 = pool.getDownloadExecutorSupplier(player1).get();
+
+    executor1.execute(() -> awaitUninterruptibly(finishLoad));
+    String threadName = getExecutionThreadName(pool.getDownloadExecutorSupplier(player2));
+    finishLoad.countDown();
+
+    assertThat(threadName).isEqualTo("ExoPlayer:PoolForegroundLoader");
+    executor1.release();
+    pool.releasePlayer(player1);
+    pool.releasePlayer(player2);
+  }
+
+  @Test
+  public void getDownloadExecutorSupplier_withMorePreviewLoadsThanMax_queuesLoads()
+      throws Exception {
+    ExoPlayer player1 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player2 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    CountDownLatch queuedLoadRan = new CountDownLatch(1);
+    ReleasableExecutor executor1 = pool.getDownloadExecutorSupplier(player1).get();
+    ReleasableExecutor executor2 = pool.getDownloadExecutorSupplier(player2).get();
+
+    executor1.execute(() -> awaitUninterruptibly(finishLoad));
+    executor2.execute(queuedLoadRan::countDown);
+    boolean queuedLoadRanWhileThreadBusy =
+        queuedLoadRan.await(/* timeout= */ 100, TimeUnit.MILLISECONDS);
+    finishLoad.countDown();
+    boolean queuedLoadRanAfterThreadFreed =
+        queuedLoadRan.await(/* timeout= */ 10, TimeUnit.SECONDS);
+
+    assertThat(queuedLoadRanWhileThreadBusy).isFalse();
+    assertThat(queuedLoadRanAfterThreadFreed).isTrue();
+    executor1.release();
+    executor2.release();
+    pool.releasePlayer(player1);
+    pool.releasePlayer(player2);
+  }
+
+  @Test
+  public void setForegroundPlayer_withQueuedPreviewLoad_runsLoadOnForegroundThread()
+      throws Exception {
+    ExoPlayer player1 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    ExoPlayer player2 = pool.buildPlayer(new ExoPlayer.Builder(context));
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    CountDownLatch queuedLoadRan = new CountDownLatch(1);
+    AtomicReference<String> threadName = new AtomicReference<>();
+    ReleasableExecutor executor1 = pool.getDownloadExecutorSupplier(player1).get();
+    ReleasableExecutor executor2 = pool.getDownloadExecutorSupplier(player2).get();
+    executor1.execute(() -> awaitUninterruptibly(finishLoad));
+    executor2.execute(
+        () -> {
+          threadName.set(Thread.currentThread().getName());
+          queuedLoadRan.countDown();
+        });
+
+    pool.setForegroundPlayer(player2);
+    boolean loadRanWhileThreadBusy = queuedLoadRan.await(/* timeout= */ 10, TimeUnit.SECONDS);
+    finishLoad.countDown();
+
+    assertThat(loadRanWhileThreadBusy).isTrue();
+    assertThat(threadName.get()).isEqualTo("ExoPlayer:PoolForegroundLoader");
+    executor1.release();
+    executor2.release();
+    pool.releasePlayer(player1);
+    pool.releasePlayer(player2);
+  }
+
+  @Test
+  public void getDownloadExecutorSupplier_afterRelease_supplierThrows() {
+    ExoPlayerPool otherPool = new ExoPlayerPool.Builder().build();
+    ExoPlayer player = otherPool.buildPlayer(new ExoPlayer.Builder(context));
+    Supplier<ReleasableExecutor> executorSupplier = otherPool.getDownloadExecutorSupplier(player);
+    otherPool.releasePlayer(player);
+
+    otherPool.release();
+
+    assertThrows(IllegalStateException.class, executorSupplier::get);
+  }
+
+  private static boolean shouldContinueLoading(LoadControl loadControl, long bufferedDurationUs) {
+    return loadControl.shouldContinueLoading(
+        /* playbackPositionUs= */ 0, bufferedDurationUs, /* playbackSpeed= */ 1);
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String getExecutionThreadName(Supplier<ReleasableExecutor> executorSupplier)
+      throws InterruptedException {
+    ReleasableExecutor executor = executorSupplier.get();
+    AtomicReference<String> threadName = new AtomicReference<>();
+    CountDownLatch executed = new CountDownLatch(1);
+    executor.execute(
+        () -> {
+          threadName.set(Thread.currentThread().getName());
+          executed.countDown();
+        });
+    assertThat(executed.await(/* timeout= */ 10, TimeUnit.SECONDS)).isTrue();
+    executor.release();
+    return threadName.get();
+  }
+}
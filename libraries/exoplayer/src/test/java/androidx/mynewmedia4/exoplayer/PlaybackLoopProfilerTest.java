@@ -0,0 +1,233 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.mynewmedia4.common.C;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link PlaybackLoopProfiler}. */
+@RunWith(AndroidJUnit4.class)
+public class PlaybackLoopProfilerTest {
+
+  @Test
+  public void getSnapshot_withoutIterations_returnsEmptySnapshot() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    assertThat(snapshot.iterationCount).isEqualTo(0);
+    assertThat(snapshot.lateIterationCount).isEqualTo(0);
+    assertThat(snapshot.getRecentIterationCount()).isEqualTo(0);
+    assertThat(
+            snapshot.getDurationPercentileUs(
+                PlaybackLoopProfiler.SECTION_ITERATION, /* percentile= */ 50))
+        .isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void getSnapshot_afterIterations_returnsStartDelaysAndLateIterationCount() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+
+    runIteration(profiler, /* scheduledStartTimeMs= */ C.TIME_UNSET, /* startTimeMs= */ 100);
+    runIteration(profiler, /* scheduledStartTimeMs= */ 110, /* startTimeMs= */ 112);
+    runIteration(profiler, /* scheduledStartTimeMs= */ 122, /* startTimeMs= */ 140);
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    assertThat(snapshot.iterationCount).isEqualTo(3);
+    assertThat(snapshot.lateIterationCount).isEqualTo(1);
+    assertThat(snapshot.getRecentIterationCount()).isEqualTo(3);
+    assertThat(snapshot.getStartDelayMs(0)).isEqualTo(0);
+    assertThat(snapshot.getStartDelayMs(1)).isEqualTo(2);
+    assertThat(snapshot.getStartDelayMs(2)).isEqualTo(18);
+  }
+
+  @Test
+  public void getSnapshot_afterMoreIterationsThanCapacity_keepsMostRecentIterations() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler(/* capacity= */ 2);
+
+    runIteration(profiler, /* scheduledStartTimeMs= */ 0, /* startTimeMs= */ 1);
+    runIteration(profiler, /* scheduledStartTimeMs= */ 10, /* startTimeMs= */ 12);
+    runIteration(profiler, /* scheduledStartTimeMs= */ 20, /* startTimeMs= */ 23);
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    assertThat(snapshot.iterationCount).isEqualTo(3);
+    assertThat(snapshot.getRecentIterationCount()).isEqualTo(2);
+    assertThat(snapshot.getStartDelayMs(0)).isEqualTo(2);
+    assertThat(snapshot.getStartDelayMs(1)).isEqualTo(3);
+  }
+
+  @Test
+  public void getSnapshot_histogramsCountAllIterations() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler(/* capacity= */ 2);
+
+    for (int i = 0; i < 5; i++) {
+      runIteration(profiler, /* scheduledStartTimeMs= */ C.TIME_UNSET, /* startTimeMs= */ i);
+    }
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    for (int section = 0; section < PlaybackLoopProfiler.SECTION_COUNT; section++) {
+      long total = 0;
+      for (long count : snapshot.getHistogram(section)) {
+        total += count;
+      }
+      assertThat(total).isEqualTo(5);
+    }
+  }
+
+  @Test
+  public void getSnapshot_histogramsOnlyCountIterationsInWhichSectionRan() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+
+    runIteration(profiler, /* scheduledStartTimeMs= */ C.TIME_UNSET, /* startTimeMs= */ 0);
+    profiler.beginIteration(/* startTimeMs= */ 10);
+    profiler.beginSection(PlaybackLoopProfiler.SECTION_RENDER_AUDIO);
+    profiler.endSection(PlaybackLoopProfiler.SECTION_RENDER_AUDIO);
+    profiler.endIteration();
+    profiler.beginIteration(/* startTimeMs= */ 20);
+    profiler.endIteration();
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    assertThat(getTotalCount(snapshot.getHistogram(PlaybackLoopProfiler.SECTION_ITERATION)))
+        .isEqualTo(3);
+    assertThat(getTotalCount(snapshot.getHistogram(PlaybackLoopProfiler.SECTION_RENDER_AUDIO)))
+        .isEqualTo(2);
+    assertThat(getTotalCount(snapshot.getHistogram(PlaybackLoopProfiler.SECTION_RENDER_VIDEO)))
+        .isEqualTo(1);
+    assertThat(
+            snapshot.getDurationUs(
+                /* iterationIndex= */ 2, PlaybackLoopProfiler.SECTION_LOAD_CONTROL))
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void getDurationPercentileUs_sectionThatNeverRan_returnsTimeUnset() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+
+    profiler.beginIteration(/* startTimeMs= */ 0);
+    profiler.beginSection(PlaybackLoopProfiler.SECTION_RENDER_AUDIO);
+    profiler.endSection(PlaybackLoopProfiler.SECTION_RENDER_AUDIO);
+    profiler.endIteration();
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    assertThat(
+            snapshot.getDurationPercentileUs(
+                PlaybackLoopProfiler.SECTION_RENDER_VIDEO, /* percentile= */ 50))
+        .isEqualTo(C.TIME_UNSET);
+    assertThat(
+            snapshot.getDurationPercentileUs(
+                PlaybackLoopProfiler.SECTION_RENDER_AUDIO, /* percentile= */ 50))
+        .isNotEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void endSection_withoutBeginSectionInIteration_isIgnored() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+
+    profiler.beginIteration(/* startTimeMs= */ 0);
+    profiler.endSection(PlaybackLoopProfiler.SECTION_LOAD_CONTROL);
+    profiler.endIteration();
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    assertThat(getTotalCount(snapshot.getHistogram(PlaybackLoopProfiler.SECTION_LOAD_CONTROL)))
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void endSection_withoutActiveIteration_isIgnored() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+
+    profiler.beginSection(PlaybackLoopProfiler.SECTION_LOAD_CONTROL);
+    profiler.endSection(PlaybackLoopProfiler.SECTION_LOAD_CONTROL);
+    profiler.endIteration();
+
+    assertThat(profiler.getSnapshot().iterationCount).isEqualTo(0);
+  }
+
+  @Test
+  public void listener_isCalledEachTimeRingBufferIsFilled() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler(/* capacity= */ 3);
+    List<PlaybackLoopProfiler.Snapshot> snapshots = new ArrayList<>();
+    profiler.addListener(snapshots::add);
+
+    for (int i = 0; i < 7; i++) {
+      runIteration(profiler, /* scheduledStartTimeMs= */ C.TIME_UNSET, /* startTimeMs= */ i);
+    }
+
+    assertThat(snapshots).hasSize(2);
+    assertThat(snapshots.get(0).iterationCount).isEqualTo(3);
+    assertThat(snapshots.get(1).iterationCount).isEqualTo(6);
+  }
+
+  @Test
+  public void reset_clearsProfilingData() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+    runIteration(profiler, /* scheduledStartTimeMs= */ 0, /* startTimeMs= */ 20);
+
+    profiler.reset();
+    PlaybackLoopProfiler.Snapshot snapshot = profiler.getSnapshot();
+
+    assertThat(snapshot.iterationCount).isEqualTo(0);
+    assertThat(snapshot.lateIterationCount).isEqualTo(0);
+    assertThat(snapshot.getRecentIterationCount()).isEqualTo(0);
+    assertThat(snapshot.getHistogram(PlaybackLoopProfiler.SECTION_ITERATION)[0]).isEqualTo(0);
+  }
+
+  @Test
+  public void toCsv_returnsHeaderAndOneLinePerIteration() {
+    PlaybackLoopProfiler profiler = new PlaybackLoopProfiler();
+    runIteration(profiler, /* scheduledStartTimeMs= */ 0, /* startTimeMs= */ 5);
+    runIteration(profiler, /* scheduledStartTimeMs= */ 10, /* startTimeMs= */ 17);
+
+    String[] lines = profiler.getSnapshot().toCsv().split("\n");
+
+    assertThat(lines).hasLength(3);
+    assertThat(lines[0])
+        .isEqualTo(
+            "startDelayMs,doSomeWorkUs,updateLoadingPeriodUs,updateReadingPeriodUs,"
+                + "updatePlayingPeriodUs,loadControlUs,updatePlaybackPositionsUs,renderAudioUs,"
+                + "renderVideoUs,renderOtherUs");
+    assertThat(lines[1]).startsWith("5,");
+    assertThat(lines[2]).startsWith("7,");
+    assertThat(lines[1].split(",")).hasLength(PlaybackLoopProfiler.SECTION_COUNT + 1);
+  }
+
+  private static void runIteration(
+      PlaybackLoopProfiler profiler, long scheduledStartTimeMs, long startTimeMs) {
+    if (scheduledStartTimeMs != C.TIME_UNSET) {
+      profiler.onIterationScheduled(scheduledStartTimeMs);
+    }
+    profiler.beginIteration(startTimeMs);
+    for (int section = 1; section < PlaybackLoopProfiler.SECTION_COUNT; section++) {
+      profiler.beginSection(section);
+      profiler.endSection(section);
+    }
+    profiler.endIteration();
+  }
+
+  private static long getTotalCount(long[] histogram) {
+    long total = 0;
+    for (long count : histogram) {
+      total += count;
+    }
+    return total;
+  }
+}
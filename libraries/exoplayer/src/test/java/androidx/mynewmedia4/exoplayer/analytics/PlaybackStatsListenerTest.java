@@ -25,11 +25,13 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.MediaItem;
 import androidx.mynewmedia4.common.PlaybackParameters;
 import androidx.mynewmedia4.common.Player;
 import androidx.mynewmedia4.exoplayer.ExoPlayer;
 import androidx.mynewmedia4.exoplayer.source.MediaSource;
+import androidx.mynewmedia4.exoplayer.video.VideoFrameReleaseTrace;
 import androidx.mynewmedia4.test.utils.FakeMediaSource;
 import androidx.mynewmedia4.test.utils.FakeTimeline;
 import androidx.mynewmedia4.test.utils.TestExoPlayerBuilder;
@@ -213,4 +215,76 @@ public final class PlaybackStatsListenerTest {
                 .collect(Collectors.toList()))
         .containsExactly(0, 1);
   }
+
+  @Test
+  public void videoFrameReleaseTrace_recordsLatenessOfRenderedAndDroppedFrames() throws Exception {
+    PlaybackStatsListener playbackStatsListener =
+        new PlaybackStatsListener(/* keepHistory= */ false, /* callback= */ null);
+    player.addAnalyticsListener(playbackStatsListener);
+    player.setMediaSource(new FakeMediaSource(new FakeTimeline(/* windowCount= */ 1)));
+    player.prepare();
+    TestPlayerRunHelper.runUntilPlaybackState(player, Player.STATE_READY);
+    VideoFrameReleaseTrace trace = new VideoFrameReleaseTrace(/* capacity= */ 6);
+    addFrame(trace, /* earlyUs= */ 5_000, VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
+    addFrame(trace, /* earlyUs= */ -3_500, VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
+    addFrame(trace, /* earlyUs= */ -20_000, VideoFrameReleaseTrace.RELEASE_ACTION_DROPPED_LATE);
+    addFrame(
+        trace, /* earlyUs= */ -250_000, VideoFrameReleaseTrace.RELEASE_ACTION_DROPPED_TO_KEYFRAME);
+    // Skipped frames aren't meant to be displayed, so their lateness isn't recorded.
+    addFrame(trace, /* earlyUs= */ -50_000, VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED);
+    addFrame(
+        trace, /* earlyUs= */ -40_000, VideoFrameReleaseTrace.RELEASE_ACTION_SKIPPED_SAME_VSYNC);
+
+    player.getAnalyticsCollector().onVideoFrameReleaseTrace(trace);
+    runUntilPendingCommandsAreFullyHandled(player);
+
+    @Nullable PlaybackStats playbackStats = playbackStatsListener.getPlaybackStats();
+    assertThat(playbackStats).isNotNull();
+    assertThat(playbackStats.getVideoFrameLatenessSampleCount()).isEqualTo(4);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(25)).isEqualTo(0);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(50)).isEqualTo(3);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(75)).isEqualTo(20);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(100))
+        .isEqualTo(PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS);
+  }
+
+  @Test
+  public void videoFrameReleaseTrace_multipleTraces_accumulatesLateness() throws Exception {
+    PlaybackStatsListener playbackStatsListener =
+        new PlaybackStatsListener(/* keepHistory= */ false, /* callback= */ null);
+    player.addAnalyticsListener(playbackStatsListener);
+    player.setMediaSource(new FakeMediaSource(new FakeTimeline(/* windowCount= */ 1)));
+    player.prepare();
+    TestPlayerRunHelper.runUntilPlaybackState(player, Player.STATE_READY);
+    VideoFrameReleaseTrace trace1 = new VideoFrameReleaseTrace(/* capacity= */ 1);
+    addFrame(trace1, /* earlyUs= */ 0, VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
+    VideoFrameReleaseTrace trace2 = new VideoFrameReleaseTrace(/* capacity= */ 1);
+    addFrame(trace2, /* earlyUs= */ -8_000, VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
+
+    player.getAnalyticsCollector().onVideoFrameReleaseTrace(trace1);
+    runUntilPendingCommandsAreFullyHandled(player);
+    @Nullable PlaybackStats intermediatePlaybackStats = playbackStatsListener.getPlaybackStats();
+    player.getAnalyticsCollector().onVideoFrameReleaseTrace(trace2);
+    runUntilPendingCommandsAreFullyHandled(player);
+
+    @Nullable PlaybackStats playbackStats = playbackStatsListener.getPlaybackStats();
+    assertThat(intermediatePlaybackStats).isNotNull();
+    assertThat(intermediatePlaybackStats.getVideoFrameLatenessSampleCount()).isEqualTo(1);
+    assertThat(playbackStats).isNotNull();
+    assertThat(playbackStats.getVideoFrameLatenessSampleCount()).isEqualTo(2);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(50)).isEqualTo(0);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(100)).isEqualTo(8);
+  }
+
+  private static void addFrame(
+      VideoFrameReleaseTrace trace,
+      long earlyUs,
+      @VideoFrameReleaseTrace.ReleaseAction int releaseAction) {
+    trace.add(
+        /* presentationTimeUs= */ trace.size() * 33_333L,
+        /* unadjustedReleaseTimeNs= */ C.TIME_UNSET,
+        /* scheduledReleaseTimeNs= */ C.TIME_UNSET,
+        earlyUs,
+        releaseAction);
+  }
 }
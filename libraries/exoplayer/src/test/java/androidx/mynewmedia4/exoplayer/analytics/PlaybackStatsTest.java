@@ -0,0 +1,151 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.analytics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.mynewmedia4.common.C;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link PlaybackStats}. */
+@RunWith(AndroidJUnit4.class)
+public final class PlaybackStatsTest {
+
+  @Test
+  public void getVideoFrameLatenessPercentileMs_withoutLateness_returnsTimeUnset() {
+    PlaybackStats playbackStats = createPlaybackStatsWithVideoFrameLatenessMs();
+
+    assertThat(playbackStats.getVideoFrameLatenessSampleCount()).isEqualTo(0);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(50)).isEqualTo(C.TIME_UNSET);
+  }
+
+  @Test
+  public void getVideoFrameLatenessPercentileMs_returnsSmallestLatenessCoveringPercentile() {
+    PlaybackStats playbackStats =
+        createPlaybackStatsWithVideoFrameLatenessMs(0, 0, 0, 0, 0, 1, 2, 3, 10, 40);
+
+    assertThat(playbackStats.getVideoFrameLatenessSampleCount()).isEqualTo(10);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(10)).isEqualTo(0);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(50)).isEqualTo(0);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(50.1f)).isEqualTo(1);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(60)).isEqualTo(1);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(80)).isEqualTo(3);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(90)).isEqualTo(10);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(95)).isEqualTo(40);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(100)).isEqualTo(40);
+  }
+
+  @Test
+  public void getVideoFrameLatenessPercentileMs_withLatenessInLastBucket_returnsMaxLateness() {
+    PlaybackStats playbackStats =
+        createPlaybackStatsWithVideoFrameLatenessMs(
+            0,
+            PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS,
+            PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS);
+
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(33)).isEqualTo(0);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(34))
+        .isEqualTo(PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS);
+    assertThat(playbackStats.getVideoFrameLatenessPercentileMs(100))
+        .isEqualTo(PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS);
+  }
+
+  @Test
+  public void getVideoFrameLatenessPercentileMs_withPercentileOutOfRange_throws() {
+    PlaybackStats playbackStats = createPlaybackStatsWithVideoFrameLatenessMs(0);
+
+    assertThrows(
+        IllegalArgumentException.class, () -> playbackStats.getVideoFrameLatenessPercentileMs(0));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> playbackStats.getVideoFrameLatenessPercentileMs(100.5f));
+  }
+
+  @Test
+  public void merge_combinesVideoFrameLatenessHistograms() {
+    PlaybackStats playbackStats1 = createPlaybackStatsWithVideoFrameLatenessMs(0, 0, 0, 5);
+    PlaybackStats playbackStats2 = createPlaybackStatsWithVideoFrameLatenessMs(5, 20, 20, 20);
+
+    PlaybackStats mergedPlaybackStats = PlaybackStats.merge(playbackStats1, playbackStats2);
+
+    assertThat(mergedPlaybackStats.getVideoFrameLatenessSampleCount()).isEqualTo(8);
+    assertThat(mergedPlaybackStats.getVideoFrameLatenessPercentileMs(25)).isEqualTo(0);
+    assertThat(mergedPlaybackStats.getVideoFrameLatenessPercentileMs(50)).isEqualTo(5);
+    assertThat(mergedPlaybackStats.getVideoFrameLatenessPercentileMs(75)).isEqualTo(20);
+    // The merged stats don't change the histograms of the inputs.
+    assertThat(playbackStats1.getVideoFrameLatenessPercentileMs(100)).isEqualTo(5);
+    assertThat(playbackStats2.getVideoFrameLatenessSampleCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void empty_hasNoVideoFrameLateness() {
+    assertThat(PlaybackStats.EMPTY.getVideoFrameLatenessSampleCount()).isEqualTo(0);
+    assertThat(PlaybackStats.EMPTY.getVideoFrameLatenessPercentileMs(99)).isEqualTo(C.TIME_UNSET);
+  }
+
+  private static PlaybackStats createPlaybackStatsWithVideoFrameLatenessMs(int... latenessMs) {
+    long[] videoFrameLatenessHistogram = new long[PlaybackStats.MAX_VIDEO_FRAME_LATENESS_MS + 1];
+    for (int frameLatenessMs : latenessMs) {
+      videoFrameLatenessHistogram[frameLatenessMs]++;
+    }
+    return new PlaybackStats(
+        /* playbackCount= */ 1,
+        /* playbackStateDurationsMs= */ new long[PlaybackStats.PLAYBACK_STATE_COUNT],
+        /* playbackStateHistory= */ Collections.emptyList(),
+        /* mediaTimeHistory= */ Collections.emptyList(),
+        /* firstReportedTimeMs= */ 0,
+        /* foregroundPlaybackCount= */ 1,
+        /* abandonedBeforeReadyCount= */ 0,
+        /* endedCount= */ 0,
+        /* backgroundJoiningCount= */ 0,
+        /* totalValidJoinTimeMs= */ C.TIME_UNSET,
+        /* validJoinTimeCount= */ 0,
+        /* totalPauseCount= */ 0,
+        /* totalPauseBufferCount= */ 0,
+        /* totalSeekCount= */ 0,
+        /* totalRebufferCount= */ 0,
+        /* maxRebufferTimeMs= */ C.TIME_UNSET,
+        /* adPlaybackCount= */ 0,
+        /* videoFormatHistory= */ Collections.emptyList(),
+        /* audioFormatHistory= */ Collections.emptyList(),
+        /* totalVideoFormatHeightTimeMs= */ 0,
+        /* totalVideoFormatHeightTimeProduct= */ 0,
+        /* totalVideoFormatBitrateTimeMs= */ 0,
+        /* totalVideoFormatBitrateTimeProduct= */ 0,
+        /* totalAudioFormatTimeMs= */ 0,
+        /* totalAudioFormatBitrateTimeProduct= */ 0,
+        /* initialVideoFormatHeightCount= */ 0,
+        /* initialVideoFormatBitrateCount= */ 0,
+        /* totalInitialVideoFormatHeight= */ C.LENGTH_UNSET,
+        /* totalInitialVideoFormatBitrate= */ C.LENGTH_UNSET,
+        /* initialAudioFormatBitrateCount= */ 0,
+        /* totalInitialAudioFormatBitrate= */ C.LENGTH_UNSET,
+        /* totalBandwidthTimeMs= */ 0,
+        /* totalBandwidthBytes= */ 0,
+        /* totalDroppedFrames= */ 0,
+        /* totalAudioUnderruns= */ 0,
+        videoFrameLatenessHistogram,
+        /* fatalErrorPlaybackCount= */ 0,
+        /* fatalErrorCount= */ 0,
+        /* nonFatalErrorCount= */ 0,
+        /* fatalErrorHistory= */ Collections.emptyList(),
+        /* nonFatalErrorHistory= */ Collections.emptyList());
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.audio;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.media.AudioTrack;
+import android.os.Looper;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.shadows.ShadowLooper;
+
+/** Unit tests for {@link AsynchronousAudioTrackWriter}. */
+@RunWith(AndroidJUnit4.class)
+public final class AsynchronousAudioTrackWriterTest {
+
+  private AudioTrack audioTrack;
+  private AsynchronousAudioTrackWriter audioTrackWriter;
+
+  @Before
+  public void setUp() {
+    audioTrack = mock(AudioTrack.class);
+    // The writer thread is the main looper, so that the test controls when it runs.
+    audioTrackWriter =
+        new AsynchronousAudioTrackWriter(audioTrack, /* capacity= */ 16, Looper.getMainLooper());
+  }
+
+  @Test
+  public void write_withAcceptingAudioTrack_writesAllData() {
+    when(audioTrack.write(any(ByteBuffer.class), anyInt(), eq(AudioTrack.WRITE_NON_BLOCKING)))
+        .thenAnswer(
+            invocation -> {
+              ByteBuffer buffer = invocation.getArgument(0);
+              int size = invocation.getArgument(1);
+              buffer.position(buffer.position() + size);
+              return size;
+            });
+
+    assertThat(audioTrackWriter.write(ByteBuffer.allocate(8))).isEqualTo(8);
+    ShadowLooper.idleMainLooper();
+
+    assertThat(audioTrackWriter.hasPendingData()).isFalse();
+    assertThat(audioTrackWriter.getBytesWrittenToAudioTrack()).isEqualTo(8);
+  }
+
+  @Test
+  public void write_withFullAudioTrackWhilePaused_stopsWritingUntilPlaying() {
+    when(audioTrack.write(any(ByteBuffer.class), anyInt(), eq(AudioTrack.WRITE_NON_BLOCKING)))
+        .thenReturn(0);
+
+    audioTrackWriter.write(ByteBuffer.allocate(8));
+    ShadowLooper.idleMainLooper(/* time= */ 1, TimeUnit.SECONDS);
+
+    verify(audioTrack, times(1)).write(any(ByteBuffer.class), anyInt(), anyInt());
+    assertThat(audioTrackWriter.hasPendingData()).isTrue();
+
+    audioTrackWriter.play();
+    ShadowLooper.idleMainLooper();
+
+    verify(audioTrack, times(2)).write(any(ByteBuffer.class), anyInt(), anyInt());
+  }
+
+  @Test
+  public void write_withFullAudioTrackWhilePlaying_retriesWriting() {
+    when(audioTrack.write(any(ByteBuffer.class), anyInt(), eq(AudioTrack.WRITE_NON_BLOCKING)))
+        .thenReturn(0);
+    audioTrackWriter.play();
+
+    audioTrackWriter.write(ByteBuffer.allocate(8));
+    ShadowLooper.idleMainLooper();
+    ShadowLooper.idleMainLooper(/* time= */ 10, TimeUnit.MILLISECONDS);
+
+    verify(audioTrack, times(2)).write(any(ByteBuffer.class), anyInt(), anyInt());
+
+    audioTrackWriter.pause();
+    ShadowLooper.idleMainLooper(/* time= */ 1, TimeUnit.SECONDS);
+
+    verify(audioTrack, times(3)).write(any(ByteBuffer.class), anyInt(), anyInt());
+  }
+
+  @Test
+  public void write_withFailingAudioTrack_reportsErrorAndStopsWritingUntilNextWrite() {
+    when(audioTrack.write(any(ByteBuffer.class), anyInt(), eq(AudioTrack.WRITE_NON_BLOCKING)))
+        .thenReturn(AudioTrack.ERROR_DEAD_OBJECT);
+    audioTrackWriter.play();
+
+    audioTrackWriter.write(ByteBuffer.allocate(8));
+    ShadowLooper.idleMainLooper(/* time= */ 1, TimeUnit.SECONDS);
+
+    verify(audioTrack, times(1)).write(any(ByteBuffer.class), anyInt(), anyInt());
+    assertThat(audioTrackWriter.getAndClearWriteError()).isEqualTo(AudioTrack.ERROR_DEAD_OBJECT);
+    assertThat(audioTrackWriter.getAndClearWriteError()).isEqualTo(0);
+
+    audioTrackWriter.write(ByteBuffer.allocate(0));
+    ShadowLooper.idleMainLooper();
+
+    verify(audioTrack, times(2)).write(any(ByteBuffer.class), anyInt(), anyInt());
+  }
+}
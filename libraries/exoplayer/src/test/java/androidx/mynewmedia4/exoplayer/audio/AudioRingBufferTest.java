@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.audio;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link AudioRingBuffer}. */
+@RunWith(AndroidJUnit4.class)
+public final class AudioRingBufferTest {
+
+  @Test
+  public void write_beyondCapacity_copiesUntilFull() {
+    AudioRingBuffer ringBuffer = new AudioRingBuffer(/* capacity= */ 4);
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6});
+
+    int bytesWritten = ringBuffer.write(buffer);
+
+    assertThat(bytesWritten).isEqualTo(4);
+    assertThat(buffer.remaining()).isEqualTo(2);
+    assertThat(ringBuffer.getReadableBytes()).isEqualTo(4);
+    assertThat(ringBuffer.getWritableBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void beginRead_afterWrappingWrite_returnsContiguousRuns() {
+    AudioRingBuffer ringBuffer = new AudioRingBuffer(/* capacity= */ 4);
+    ringBuffer.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    readBytes(ringBuffer, /* byteCount= */ 2);
+
+    ringBuffer.write(ByteBuffer.wrap(new byte[] {4, 5, 6}));
+
+    assertThat(readBytes(ringBuffer, /* byteCount= */ 4)).isEqualTo(new byte[] {3, 4});
+    assertThat(readBytes(ringBuffer, /* byteCount= */ 4)).isEqualTo(new byte[] {5, 6});
+    assertThat(ringBuffer.getReadableBytes()).isEqualTo(0);
+    assertThat(ringBuffer.getTotalBytesWritten()).isEqualTo(6);
+    assertThat(ringBuffer.getTotalBytesRead()).isEqualTo(6);
+  }
+
+  @Test
+  public void endRead_afterPartialRead_releasesOnlyReadBytes() {
+    AudioRingBuffer ringBuffer = new AudioRingBuffer(/* capacity= */ 4);
+    ringBuffer.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4}));
+
+    assertThat(readBytes(ringBuffer, /* byteCount= */ 1)).isEqualTo(new byte[] {1});
+
+    assertThat(ringBuffer.getWritableBytes()).isEqualTo(1);
+    assertThat(readBytes(ringBuffer, /* byteCount= */ 4)).isEqualTo(new byte[] {2, 3, 4});
+  }
+
+  @Test
+  public void clear_discardsReadableBytesAndResetsCounts() {
+    AudioRingBuffer ringBuffer = new AudioRingBuffer(/* capacity= */ 4);
+    ringBuffer.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+    readBytes(ringBuffer, /* byteCount= */ 1);
+
+    ringBuffer.clear();
+
+    assertThat(ringBuffer.getReadableBytes()).isEqualTo(0);
+    assertThat(ringBuffer.getTotalBytesWritten()).isEqualTo(0);
+    assertThat(ringBuffer.getTotalBytesRead()).isEqualTo(0);
+    ringBuffer.write(ByteBuffer.wrap(new byte[] {7, 8, 9, 10}));
+    assertThat(readBytes(ringBuffer, /* byteCount= */ 4)).isEqualTo(new byte[] {7, 8, 9, 10});
+  }
+
+  private static byte[] readBytes(AudioRingBuffer ringBuffer, int byteCount) {
+    ByteBuffer buffer = ringBuffer.beginRead();
+    byte[] bytes = new byte[Math.min(byteCount, buffer.remaining())];
+    buffer.get(bytes);
+    ringBuffer.endRead();
+    return bytes;
+  }
+}
@@ -28,13 +28,17 @@ import androidx.mynewmedia4.exoplayer.audio.DefaultAudioSink.DefaultAudioProcess
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowAudioTrack;
+import org.robolectric.shadows.ShadowAudioTrack.OnAudioDataWrittenListener;
 
 /** Unit tests for {@link DefaultAudioSink}. */
 @RunWith(AndroidJUnit4.class)
@@ -380,6 +384,102 @@ public final class DefaultAudioSinkTest {
     assertThat(defaultAudioSink.getPlaybackParameters().speed).isEqualTo(1);
   }
 
+  @Test
+  public void handleBuffer_withAudioTrackWriterThread_acceptsMoreThanRingBufferCapacity()
+      throws Exception {
+    defaultAudioSink =
+        new DefaultAudioSink.Builder().experimentalSetAudioTrackWriterThreadEnabled(true).build();
+    configureDefaultAudioSink(CHANNEL_COUNT_STEREO);
+    ByteBuffer buffer = createDefaultSilenceBuffer();
+
+    // The ring buffer holds less than one second of audio, so all the input is only accepted
+    // once the writer thread has written part of it to the audio track.
+    retryUntilTrue(
+        () ->
+            defaultAudioSink.handleBuffer(
+                buffer, /* presentationTimeUs= */ 0, /* encodedAccessUnitCount= */ 1));
+
+    assertThat(buffer.hasRemaining()).isFalse();
+    // Releasing stops the writer thread.
+    defaultAudioSink.reset();
+    defaultAudioSink.release();
+  }
+
+  @Test
+  public void handleBuffer_afterFormatChangeWithSeamlessTransitions_reusesAudioTrack()
+      throws Exception {
+    List<ShadowAudioTrack> audioTracks = new ArrayList<>();
+    List<Integer> writeSizes = new ArrayList<>();
+    OnAudioDataWrittenListener audioDataWrittenListener =
+        (audioTrack, audioData, format) -> {
+          if (!audioTracks.contains(audioTrack)) {
+            audioTracks.add(audioTrack);
+          }
+          writeSizes.add(audioData.length);
+        };
+    ShadowAudioTrack.addAudioDataListener(audioDataWrittenListener);
+    try {
+      handleBufferAfterFormatChangeWithSeamlessTransitions();
+    } finally {
+      ShadowAudioTrack.removeAudioDataListener(audioDataWrittenListener);
+    }
+
+    // All the audio was written to one audio track, which was never released. The whole first
+    // buffer was written before the new audio, so nothing was flushed and no gap was inserted.
+    assertThat(audioTracks).hasSize(1);
+    int firstBufferSize = createDefaultSilenceBuffer().capacity();
+    int bytesWritten = 0;
+    int firstWriteAfterTransition = 0;
+    while (bytesWritten < firstBufferSize) {
+      bytesWritten += writeSizes.get(firstWriteAfterTransition++);
+    }
+    assertThat(bytesWritten).isEqualTo(firstBufferSize);
+    List<Integer> writeSizesAfterTransition =
+        writeSizes.subList(firstWriteAfterTransition, writeSizes.size());
+    assertThat(writeSizesAfterTransition).isNotEmpty();
+    // The mono audio was written as stereo 16-bit frames.
+    for (int writeSize : writeSizesAfterTransition) {
+      assertThat(writeSize % (CHANNEL_COUNT_STEREO * BYTES_PER_FRAME_16_BIT)).isEqualTo(0);
+    }
+  }
+
+  private void handleBufferAfterFormatChangeWithSeamlessTransitions() throws Exception {
+    defaultAudioSink =
+        new DefaultAudioSink.Builder()
+            .setOffloadMode(DefaultAudioSink.OFFLOAD_MODE_DISABLED)
+            .experimentalSetSeamlessFormatTransitionsEnabled(true)
+            .build();
+    configureDefaultAudioSink(CHANNEL_COUNT_STEREO);
+    assertThat(
+            defaultAudioSink.handleBuffer(
+                createDefaultSilenceBuffer(),
+                /* presentationTimeUs= */ 0,
+                /* encodedAccessUnitCount= */ 1))
+        .isTrue();
+    Format monoFormat =
+        new Format.Builder()
+            .setSampleMimeType(MimeTypes.AUDIO_RAW)
+            .setPcmEncoding(C.ENCODING_PCM_16BIT)
+            .setChannelCount(CHANNEL_COUNT_MONO)
+            .setSampleRate(48_000)
+            .build();
+
+    defaultAudioSink.configure(
+        monoFormat, /* specifiedBufferSize= */ 0, /* outputChannels= */ null);
+    defaultAudioSink.handleDiscontinuity();
+
+    // The sink isn't playing, so the new audio is only accepted if it's written to the existing
+    // audio track without waiting for the previous audio to play out.
+    retryUntilTrue(
+        () ->
+            defaultAudioSink.handleBuffer(
+                createDefaultSilenceBuffer(),
+                /* presentationTimeUs= */ 1_000_000,
+                /* encodedAccessUnitCount= */ 1));
+    assertThat(defaultAudioSink.getCurrentPositionUs(/* sourceEnded= */ false))
+        .isNotEqualTo(CURRENT_POSITION_NOT_SET);
+  }
+
   private void configureDefaultAudioSink(int channelCount) throws AudioSink.ConfigurationException {
     configureDefaultAudioSink(channelCount, /* trimStartFrames= */ 0, /* trimEndFrames= */ 0);
   }
@@ -25,6 +25,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.robolectric.Shadows.shadowOf;
@@ -38,14 +39,19 @@ import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.Format;
 import androidx.mynewmedia4.common.MimeTypes;
 import androidx.mynewmedia4.common.PlaybackException;
+import androidx.mynewmedia4.common.PlaybackParameters;
+import androidx.mynewmedia4.exoplayer.DecoderCounters;
 import androidx.mynewmedia4.exoplayer.ExoPlaybackException;
+import androidx.mynewmedia4.exoplayer.Renderer;
 import androidx.mynewmedia4.exoplayer.RendererCapabilities;
 import androidx.mynewmedia4.exoplayer.RendererCapabilities.Capabilities;
 import androidx.mynewmedia4.exoplayer.RendererConfiguration;
 import androidx.mynewmedia4.exoplayer.analytics.PlayerId;
 import androidx.mynewmedia4.exoplayer.drm.DrmSessionEventListener;
 import androidx.mynewmedia4.exoplayer.drm.DrmSessionManager;
+import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecAdapter;
 import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecInfo;
+import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecPool;
 import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecSelector;
 import androidx.mynewmedia4.exoplayer.upstream.DefaultAllocator;
 import androidx.mynewmedia4.test.utils.FakeSampleStream;
@@ -310,6 +316,65 @@ public class MediaCodecAudioRendererTest {
     exceptionThrowingRenderer.render(/* positionUs= */ 750, SystemClock.elapsedRealtime() * 1000);
   }
 
+  @Test
+  public void render_withCodecReusedFromPool_configuresAudioSinkForEachPlayback()
+      throws Exception {
+    MediaCodecPool mediaCodecPool =
+        new MediaCodecPool(/* maxSize= */ 1, /* keepAliveMs= */ 60_000);
+    MediaCodecAudioRenderer pooledCodecRenderer =
+        new MediaCodecAudioRenderer(
+            ApplicationProvider.getApplicationContext(),
+            mediaCodecPool.createAdapterFactory(MediaCodecAdapter.Factory.DEFAULT),
+            mediaCodecSelector,
+            /* enableDecoderFallback= */ false,
+            new Handler(Looper.getMainLooper()),
+            audioRendererEventListener,
+            audioSink);
+    pooledCodecRenderer.init(/* index= */ 0, PlayerId.UNSET);
+
+    for (int i = 0; i < 2; i++) {
+      FakeSampleStream fakeSampleStream =
+          new FakeSampleStream(
+              new DefaultAllocator(/* trimOnReset= */ true, /* individualAllocationSize= */ 1024),
+              /* mediaSourceEventDispatcher= */ null,
+              DrmSessionManager.DRM_UNSUPPORTED,
+              new DrmSessionEventListener.EventDispatcher(),
+              /* initialFormat= */ AUDIO_AAC,
+              ImmutableList.of(
+                  oneByteSample(/* timeUs= */ 0, C.BUFFER_FLAG_KEY_FRAME),
+                  oneByteSample(/* timeUs= */ 50, C.BUFFER_FLAG_KEY_FRAME),
+                  END_OF_STREAM_ITEM));
+      fakeSampleStream.writeData(/* startPositionUs= */ 0);
+      pooledCodecRenderer.enable(
+          RendererConfiguration.DEFAULT,
+          new Format[] {AUDIO_AAC},
+          fakeSampleStream,
+          /* positionUs= */ 0,
+          /* joining= */ false,
+          /* mayRenderStartOfStream= */ false,
+          /* startPositionUs= */ 0,
+          /* offsetUs= */ 0);
+      pooledCodecRenderer.start();
+      pooledCodecRenderer.setCurrentStreamFinal();
+      int positionUs = 0;
+      do {
+        pooledCodecRenderer.render(positionUs, SystemClock.elapsedRealtime() * 1000);
+        positionUs += 250;
+      } while (!pooledCodecRenderer.isEnded());
+      pooledCodecRenderer.stop();
+      // Disabling the renderer releases the codec, which returns it to the pool.
+      pooledCodecRenderer.disable();
+      pooledCodecRenderer.reset();
+    }
+
+    assertThat(mediaCodecPool.getIdleCodecCount()).isEqualTo(1);
+    verify(audioSink, times(2))
+        .configure(
+            getAudioSinkFormat(AUDIO_AAC),
+            /* specifiedBufferSize= */ 0,
+            /* outputChannels= */ null);
+  }
+
   @Test
   public void
       render_callsAudioRendererEventListener_whenAudioSinkListenerOnAudioSinkErrorIsCalled() {
@@ -342,6 +407,51 @@ public class MediaCodecAudioRendererTest {
     verify(rendererCapabilitiesListener).onRendererCapabilitiesChanged(mediaCodecAudioRenderer);
   }
 
+  @Test
+  public void getDurationToProgressUs_withAudioSinkFull_returnsHalfOfQueuedDuration()
+      throws Exception {
+    when(audioSink.getPlaybackParameters()).thenReturn(PlaybackParameters.DEFAULT);
+    when(audioSink.handleBuffer(any(), anyLong(), anyInt()))
+        .thenAnswer(invocation -> invocation.getArgument(/* index= */ 1, Long.class) < 500_000);
+    FakeSampleStream fakeSampleStream =
+        new FakeSampleStream(
+            new DefaultAllocator(/* trimOnReset= */ true, /* individualAllocationSize= */ 1024),
+            /* mediaSourceEventDispatcher= */ null,
+            DrmSessionManager.DRM_UNSUPPORTED,
+            new DrmSessionEventListener.EventDispatcher(),
+            AUDIO_AAC,
+            ImmutableList.of(
+                oneByteSample(/* timeUs= */ 0, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 250_000, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 500_000, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 750_000, C.BUFFER_FLAG_KEY_FRAME)));
+    fakeSampleStream.writeData(/* startPositionUs= */ 0);
+    mediaCodecAudioRenderer.enable(
+        RendererConfiguration.DEFAULT,
+        new Format[] {AUDIO_AAC},
+        fakeSampleStream,
+        /* positionUs= */ 0,
+        /* joining= */ false,
+        /* mayRenderStartOfStream= */ true,
+        /* startPositionUs= */ 0,
+        /* offsetUs= */ 0);
+    mediaCodecAudioRenderer.start();
+
+    long durationToProgressBeforeRenderUs =
+        mediaCodecAudioRenderer.getDurationToProgressUs(
+            /* positionUs= */ 0, /* elapsedRealtimeUs= */ 0);
+    for (int i = 0; i < 10; i++) {
+      mediaCodecAudioRenderer.render(/* positionUs= */ 0, /* elapsedRealtimeUs= */ 0);
+    }
+    long durationToProgressUs =
+        mediaCodecAudioRenderer.getDurationToProgressUs(
+            /* positionUs= */ 100_000, /* elapsedRealtimeUs= */ 0);
+
+    assertThat(durationToProgressBeforeRenderUs)
+        .isEqualTo(Renderer.DEFAULT_DURATION_TO_PROGRESS_US);
+    assertThat(durationToProgressUs).isEqualTo(200_000);
+  }
+
   @Test
   public void render_callsAudioSinkSetOutputStreamOffset_whenReplaceStream() throws Exception {
     FakeSampleStream fakeSampleStream1 =
@@ -434,6 +544,58 @@ public class MediaCodecAudioRendererTest {
     assertThat(RendererCapabilities.getFormatSupport(capabilities)).isEqualTo(C.FORMAT_HANDLED);
   }
 
+  @Test
+  public void render_withMaxInputBatchSampleCount_queuesSelfDelimitingSamplesTogether()
+      throws Exception {
+    Format mp3Format =
+        new Format.Builder()
+            .setSampleMimeType(MimeTypes.AUDIO_MPEG)
+            .setChannelCount(2)
+            .setSampleRate(44100)
+            .build();
+    FakeSampleStream fakeSampleStream =
+        new FakeSampleStream(
+            new DefaultAllocator(/* trimOnReset= */ true, /* individualAllocationSize= */ 1024),
+            /* mediaSourceEventDispatcher= */ null,
+            DrmSessionManager.DRM_UNSUPPORTED,
+            new DrmSessionEventListener.EventDispatcher(),
+            /* initialFormat= */ mp3Format,
+            ImmutableList.of(
+                oneByteSample(/* timeUs= */ 0, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 50, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 100, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 150, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 200, C.BUFFER_FLAG_KEY_FRAME),
+                oneByteSample(/* timeUs= */ 250, C.BUFFER_FLAG_KEY_FRAME),
+                END_OF_STREAM_ITEM));
+    fakeSampleStream.writeData(/* startPositionUs= */ 0);
+    mediaCodecAudioRenderer.experimentalSetMaxInputBatchSampleCount(4);
+    mediaCodecAudioRenderer.enable(
+        RendererConfiguration.DEFAULT,
+        new Format[] {mp3Format},
+        fakeSampleStream,
+        /* positionUs= */ 0,
+        /* joining= */ false,
+        /* mayRenderStartOfStream= */ false,
+        /* startPositionUs= */ 0,
+        /* offsetUs= */ 0);
+    mediaCodecAudioRenderer.setCurrentStreamFinal();
+    mediaCodecAudioRenderer.start();
+
+    int positionUs = 0;
+    do {
+      mediaCodecAudioRenderer.render(positionUs, SystemClock.elapsedRealtime() * 1000);
+      positionUs += 250;
+    } while (!mediaCodecAudioRenderer.isEnded());
+    shadowOf(Looper.getMainLooper()).idle();
+
+    ArgumentCaptor<DecoderCounters> decoderCounters =
+        ArgumentCaptor.forClass(DecoderCounters.class);
+    verify(audioRendererEventListener).onAudioEnabled(decoderCounters.capture());
+    decoderCounters.getValue().ensureUpdated();
+    assertThat(decoderCounters.getValue().queuedInputBufferCount).isEqualTo(2);
+  }
+
   private static Format getAudioSinkFormat(Format inputFormat) {
     return new Format.Builder()
         .setSampleMimeType(MimeTypes.AUDIO_RAW)
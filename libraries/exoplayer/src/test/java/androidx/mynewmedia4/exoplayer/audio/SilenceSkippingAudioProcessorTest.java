@@ -37,6 +37,9 @@ public final class SilenceSkippingAudioProcessorTest {
   private static final AudioFormat AUDIO_FORMAT =
       new AudioFormat(
           /* sampleRate= */ 1000, /* channelCount= */ 2, /* encoding= */ C.ENCODING_PCM_16BIT);
+  private static final AudioFormat FLOAT_AUDIO_FORMAT =
+      new AudioFormat(
+          /* sampleRate= */ 1000, /* channelCount= */ 2, /* encoding= */ C.ENCODING_PCM_FLOAT);
   private static final int TEST_SIGNAL_SILENCE_DURATION_MS = 1000;
   private static final int TEST_SIGNAL_NOISE_DURATION_MS = 1000;
   private static final int TEST_SIGNAL_FRAME_COUNT = 100_000;
@@ -231,6 +234,156 @@ public final class SilenceSkippingAudioProcessorTest {
     assertThat(silenceSkippingAudioProcessor.getSkippedFrames()).isEqualTo(50000 - (21 + 99 * 42));
   }
 
+  @Test
+  public void skipInAlternatingFloatTestSignal_hasCorrectOutputAndSkippedFrameCounts()
+      throws Exception {
+    // Given a float signal that alternates between silence and noise.
+    InputBufferProvider inputBufferProvider =
+        getInputBufferProviderForAlternatingSilenceAndNoise(
+            TEST_SIGNAL_SILENCE_DURATION_MS,
+            TEST_SIGNAL_NOISE_DURATION_MS,
+            TEST_SIGNAL_FRAME_COUNT);
+
+    // When processing the entire signal as float PCM.
+    SilenceSkippingAudioProcessor silenceSkippingAudioProcessor =
+        new SilenceSkippingAudioProcessor();
+    silenceSkippingAudioProcessor.setEnabled(true);
+    AudioFormat outputAudioFormat = silenceSkippingAudioProcessor.configure(FLOAT_AUDIO_FORMAT);
+    silenceSkippingAudioProcessor.flush();
+    assertThat(silenceSkippingAudioProcessor.isActive()).isTrue();
+    long totalOutputFrames =
+        process(
+            silenceSkippingAudioProcessor,
+            inputBufferProvider,
+            /* inputBufferSize= */ 2 * INPUT_BUFFER_SIZE,
+            /* floatInput= */ true);
+
+    // The output is float and has the same frames as for the same 16-bit signal.
+    assertThat(outputAudioFormat).isEqualTo(FLOAT_AUDIO_FORMAT);
+    assertThat(totalOutputFrames).isEqualTo(50000 + (20 + 99 * 40));
+    assertThat(silenceSkippingAudioProcessor.getSkippedFrames()).isEqualTo(50000 - (20 + 99 * 40));
+  }
+
+  @Test
+  public void hasNoisySample_withInt16Samples_matchesIsNoisySample() throws Exception {
+    for (short threshold : new short[] {0, 1, 1024, MAX_VALUE}) {
+      SilenceSkippingAudioProcessor processor = createConfiguredProcessor(threshold, AUDIO_FORMAT);
+      short[] samples = {
+        0,
+        threshold,
+        (short) -threshold,
+        (short) (threshold - 1),
+        (short) (1 - threshold),
+        (short) (threshold + 1),
+        (short) (-threshold - 1),
+        Short.MIN_VALUE,
+        MAX_VALUE
+      };
+      for (short sample : samples) {
+        for (int lane = 0; lane < 4; lane++) {
+          short[] laneSamples = new short[4];
+          laneSamples[lane] = sample;
+          ByteBuffer word = createInt16Word(laneSamples);
+
+          assertThat(processor.hasNoisySample(word.getLong(0)))
+              .isEqualTo(processor.isNoisySample(word, /* index= */ 2 * lane));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void hasNoisySample_withInt16SamplesAtThreshold_isFalse() throws Exception {
+    SilenceSkippingAudioProcessor processor =
+        createConfiguredProcessor(/* silenceThresholdLevel= */ (short) 1024, AUDIO_FORMAT);
+    ByteBuffer word = createInt16Word((short) 1024, (short) -1024, (short) 0, (short) 1023);
+
+    assertThat(processor.hasNoisySample(word.getLong(0))).isFalse();
+    for (int i = 0; i < 4; i++) {
+      assertThat(processor.isNoisySample(word, /* index= */ 2 * i)).isFalse();
+    }
+  }
+
+  @Test
+  public void hasNoisySample_withInt16MinValue_isTrue() throws Exception {
+    SilenceSkippingAudioProcessor processor =
+        createConfiguredProcessor(/* silenceThresholdLevel= */ MAX_VALUE, AUDIO_FORMAT);
+    ByteBuffer word = createInt16Word((short) 0, Short.MIN_VALUE, (short) 0, (short) 0);
+
+    assertThat(processor.hasNoisySample(word.getLong(0))).isTrue();
+    assertThat(processor.isNoisySample(word, /* index= */ 2)).isTrue();
+  }
+
+  @Test
+  public void hasNoisySample_withNegativeThreshold_isTrueForSilence() throws Exception {
+    SilenceSkippingAudioProcessor int16Processor =
+        createConfiguredProcessor(/* silenceThresholdLevel= */ (short) -1, AUDIO_FORMAT);
+    SilenceSkippingAudioProcessor floatProcessor =
+        createConfiguredProcessor(/* silenceThresholdLevel= */ (short) -1, FLOAT_AUDIO_FORMAT);
+    ByteBuffer word = createInt16Word((short) 0, (short) 0, (short) 0, (short) 0);
+
+    assertThat(int16Processor.hasNoisySample(word.getLong(0))).isTrue();
+    assertThat(int16Processor.isNoisySample(word, /* index= */ 0)).isTrue();
+    assertThat(floatProcessor.hasNoisySample(word.getLong(0))).isTrue();
+    assertThat(floatProcessor.isNoisySample(word, /* index= */ 0)).isTrue();
+  }
+
+  @Test
+  public void hasNoisySample_withFloatSamples_matchesIsNoisySample() throws Exception {
+    for (short threshold : new short[] {0, 1, 1024, MAX_VALUE}) {
+      SilenceSkippingAudioProcessor processor =
+          createConfiguredProcessor(threshold, FLOAT_AUDIO_FORMAT);
+      float floatThreshold = threshold / 32768f;
+      float[] samples = {
+        0f,
+        -0f,
+        floatThreshold,
+        -floatThreshold,
+        Math.nextUp(floatThreshold),
+        -Math.nextUp(floatThreshold),
+        Math.nextDown(floatThreshold),
+        Float.MIN_VALUE,
+        1f,
+        -1f,
+        Float.POSITIVE_INFINITY,
+        Float.NEGATIVE_INFINITY
+      };
+      for (float sample1 : samples) {
+        for (float sample2 : samples) {
+          ByteBuffer word = createFloatWord(sample1, sample2);
+
+          assertThat(processor.hasNoisySample(word.getLong(0)))
+              .isEqualTo(
+                  processor.isNoisySample(word, /* index= */ 0)
+                      || processor.isNoisySample(word, /* index= */ 4));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void hasNoisySample_withFloatZeros_isFalse() throws Exception {
+    SilenceSkippingAudioProcessor processor =
+        createConfiguredProcessor(/* silenceThresholdLevel= */ (short) 0, FLOAT_AUDIO_FORMAT);
+    ByteBuffer word = createFloatWord(0f, -0f);
+
+    assertThat(processor.hasNoisySample(word.getLong(0))).isFalse();
+    assertThat(processor.isNoisySample(word, /* index= */ 0)).isFalse();
+    assertThat(processor.isNoisySample(word, /* index= */ 4)).isFalse();
+  }
+
+  @Test
+  public void hasNoisySample_withFloatNaN_isTrueButSampleIsSilent() throws Exception {
+    SilenceSkippingAudioProcessor processor =
+        createConfiguredProcessor(/* silenceThresholdLevel= */ (short) 1024, FLOAT_AUDIO_FORMAT);
+    ByteBuffer word = createFloatWord(0f, Float.NaN);
+
+    // The word check only rules out words of silent samples, so it reports NaN as possibly noisy.
+    // The sample check then classifies NaN as silent.
+    assertThat(processor.hasNoisySample(word.getLong(0))).isTrue();
+    assertThat(processor.isNoisySample(word, /* index= */ 4)).isFalse();
+  }
+
   @Test
   public void skipThenFlush_resetsSkippedFrameCount() throws Exception {
     // Given a signal that alternates between silence and noise.
@@ -262,11 +415,27 @@ public final class SilenceSkippingAudioProcessorTest {
       SilenceSkippingAudioProcessor processor,
       InputBufferProvider inputBufferProvider,
       int inputBufferSize) {
-    int bytesPerFrame = AUDIO_FORMAT.bytesPerFrame;
+    return process(processor, inputBufferProvider, inputBufferSize, /* floatInput= */ false);
+  }
+
+  /**
+   * Processes the entire stream provided by {@code inputBufferProvider} in chunks of {@code
+   * inputBufferSize}, converting it to float PCM if {@code floatInput} is true, and returns the
+   * total number of output frames.
+   */
+  private static long process(
+      SilenceSkippingAudioProcessor processor,
+      InputBufferProvider inputBufferProvider,
+      int inputBufferSize,
+      boolean floatInput) {
+    int bytesPerFrame = floatInput ? FLOAT_AUDIO_FORMAT.bytesPerFrame : AUDIO_FORMAT.bytesPerFrame;
     processor.flush();
     long totalOutputFrames = 0;
     while (inputBufferProvider.hasRemaining()) {
-      ByteBuffer inputBuffer = inputBufferProvider.getNextInputBuffer(inputBufferSize);
+      ByteBuffer inputBuffer =
+          floatInput
+              ? inputBufferProvider.getNextFloatInputBuffer(inputBufferSize)
+              : inputBufferProvider.getNextInputBuffer(inputBufferSize);
       while (inputBuffer.hasRemaining()) {
         processor.queueInput(inputBuffer);
         ByteBuffer outputBuffer = processor.getOutput();
@@ -305,6 +474,37 @@ public final class SilenceSkippingAudioProcessorTest {
     return new InputBufferProvider(audioBuilder.build());
   }
 
+  /** Returns an enabled processor with the given threshold, configured for {@code format}. */
+  private static SilenceSkippingAudioProcessor createConfiguredProcessor(
+      short silenceThresholdLevel, AudioFormat format) throws Exception {
+    SilenceSkippingAudioProcessor processor =
+        new SilenceSkippingAudioProcessor(
+            SilenceSkippingAudioProcessor.DEFAULT_MINIMUM_SILENCE_DURATION_US,
+            SilenceSkippingAudioProcessor.DEFAULT_PADDING_SILENCE_US,
+            silenceThresholdLevel);
+    processor.setEnabled(true);
+    processor.configure(format);
+    processor.flush();
+    return processor;
+  }
+
+  /** Returns a buffer holding a word of four 16-bit samples, in native byte order. */
+  private static ByteBuffer createInt16Word(short... samples) {
+    ByteBuffer word = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+    for (short sample : samples) {
+      word.putShort(sample);
+    }
+    return word;
+  }
+
+  /** Returns a buffer holding a word of two float samples, in native byte order. */
+  private static ByteBuffer createFloatWord(float sample1, float sample2) {
+    ByteBuffer word = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+    word.putFloat(sample1);
+    word.putFloat(sample2);
+    return word;
+  }
+
   /**
    * Wraps a {@link ShortBuffer} and provides a sequence of {@link ByteBuffer}s of specified sizes
    * that contain copies of its data.
@@ -329,6 +529,20 @@ public final class SilenceSkippingAudioProcessorTest {
       return inputBuffer;
     }
 
+    /**
+     * Returns the next buffer with size up to {@code sizeBytes}, containing the samples converted
+     * to float PCM.
+     */
+    public ByteBuffer getNextFloatInputBuffer(int sizeBytes) {
+      int sampleCount = min(sizeBytes / 4, buffer.remaining());
+      ByteBuffer inputBuffer = ByteBuffer.allocate(sampleCount * 4).order(ByteOrder.nativeOrder());
+      for (int i = 0; i < sampleCount; i++) {
+        inputBuffer.putFloat(buffer.get() / 32768f);
+      }
+      inputBuffer.flip();
+      return inputBuffer;
+    }
+
     /** Returns whether any more input can be provided via {@link #getNextInputBuffer(int)}. */
     public boolean hasRemaining() {
       return buffer.hasRemaining();
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.mediacodec;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.mynewmedia4.common.MimeTypes;
+import androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecUtil.CodecKey;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link DecoderInfoCacheFile}. */
+@RunWith(AndroidJUnit4.class)
+public final class DecoderInfoCacheFileTest {
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void read_afterWrite_returnsWrittenQueries() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+    Map<CodecKey, Boolean> queries = new HashMap<>();
+    queries.put(
+        new CodecKey(MimeTypes.VIDEO_H264, /* secure= */ false, /* tunneling= */ false), true);
+    queries.put(
+        new CodecKey(MimeTypes.VIDEO_AV1, /* secure= */ true, /* tunneling= */ true), false);
+
+    new DecoderInfoCacheFile(file, "fingerprint").write(queries);
+
+    assertThat(new DecoderInfoCacheFile(file, "fingerprint").read()).isEqualTo(queries);
+  }
+
+  @Test
+  public void read_withOtherBuildFingerprint_returnsEmptyMap() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+    Map<CodecKey, Boolean> queries = new HashMap<>();
+    queries.put(
+        new CodecKey(MimeTypes.VIDEO_H264, /* secure= */ false, /* tunneling= */ false), true);
+    new DecoderInfoCacheFile(file, "fingerprint").write(queries);
+
+    assertThat(new DecoderInfoCacheFile(file, "other fingerprint").read()).isEmpty();
+  }
+
+  @Test
+  public void read_withMissingFile_returnsEmptyMap() {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+
+    assertThat(new DecoderInfoCacheFile(file, "fingerprint").read()).isEmpty();
+  }
+
+  @Test
+  public void read_withCorruptFile_returnsEmptyMap() throws Exception {
+    File file = temporaryFolder.newFile("cache");
+    try (FileOutputStream outputStream = new FileOutputStream(file)) {
+      outputStream.write(new byte[] {0, 0, 0, 1, 0, 5, 'f', 'i'});
+    }
+
+    assertThat(new DecoderInfoCacheFile(file, "fingerprint").read()).isEmpty();
+  }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.mediacodec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.media.MediaCodec;
+import android.media.MediaCrypto;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.MimeTypes;
+import androidx.mynewmedia4.test.utils.FakeClock;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link MediaCodecPool}. */
+@RunWith(AndroidJUnit4.class)
+public final class MediaCodecPoolTest {
+
+  private static final Format AAC_FORMAT =
+      new Format.Builder()
+          .setSampleMimeType(MimeTypes.AUDIO_AAC)
+          .setSampleRate(44_100)
+          .setChannelCount(2)
+          .build();
+
+  private FakeClock clock;
+  private List<MediaCodecAdapter> createdAdapters;
+  private MediaCodecAdapter.Factory adapterFactory;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock(/* initialTimeMs= */ 0);
+    createdAdapters = new ArrayList<>();
+    adapterFactory =
+        configuration -> {
+          MediaCodecAdapter adapter = mock(MediaCodecAdapter.class);
+          createdAdapters.add(adapter);
+          return adapter;
+        };
+  }
+
+  @Test
+  public void createAdapter_afterReleaseWithSameConfiguration_reusesFlushedCodec()
+      throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+
+    factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT)).release();
+    MediaCodecAdapter adapter =
+        factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT));
+    adapter.dequeueInputBufferIndex();
+
+    assertThat(createdAdapters).hasSize(1);
+    MediaCodecAdapter codec = createdAdapters.get(0);
+    verify(codec).flush();
+    verify(codec).dequeueInputBufferIndex();
+    verify(codec, never()).release();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void createAdapter_withDifferentCodecName_createsNewCodec() throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+
+    factory.createAdapter(createAudioConfiguration("codec1", AAC_FORMAT)).release();
+    factory.createAdapter(createAudioConfiguration("codec2", AAC_FORMAT));
+
+    assertThat(createdAdapters).hasSize(2);
+    assertThat(pool.getIdleCodecCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void createAdapter_withDifferentInitializationData_createsNewCodec() throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+    Format formatWithInitializationData =
+        AAC_FORMAT
+            .buildUpon()
+            .setInitializationData(Collections.singletonList(new byte[] {1, 2}))
+            .build();
+
+    factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT)).release();
+    factory.createAdapter(createAudioConfiguration("codec", formatWithInitializationData));
+
+    assertThat(createdAdapters).hasSize(2);
+  }
+
+  @Test
+  public void createAdapter_withCrypto_doesNotPoolCodec() throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+
+    factory
+        .createAdapter(
+            MediaCodecAdapter.Configuration.createForAudioDecoding(
+                createCodecInfo("codec"),
+                new MediaFormat(),
+                AAC_FORMAT,
+                mock(MediaCrypto.class)))
+        .release();
+
+    verify(createdAdapters.get(0)).release();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void release_afterSettingFrameRenderedListener_releasesCodec() throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+
+    MediaCodecAdapter adapter =
+        factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT));
+    adapter.setOnFrameRenderedListener(
+        (codec, presentationTimeUs, nanoTime) -> {}, new Handler(Looper.getMainLooper()));
+    adapter.release();
+
+    verify(createdAdapters.get(0)).release();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void release_withFullPool_evictsLeastRecentlyReleasedCodec() throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+    MediaCodecAdapter adapter1 =
+        factory.createAdapter(createAudioConfiguration("codec1", AAC_FORMAT));
+    MediaCodecAdapter adapter2 =
+        factory.createAdapter(createAudioConfiguration("codec2", AAC_FORMAT));
+    MediaCodecAdapter adapter3 =
+        factory.createAdapter(createAudioConfiguration("codec3", AAC_FORMAT));
+
+    adapter1.release();
+    adapter2.release();
+    adapter3.release();
+
+    verify(createdAdapters.get(0)).release();
+    verify(createdAdapters.get(1), never()).release();
+    verify(createdAdapters.get(2), never()).release();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void createAdapter_reusingCodecThatReportedOutputFormat_replaysOutputFormat()
+      throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+    MediaCodecAdapter firstAdapter =
+        factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT));
+    MediaCodecAdapter codec = createdAdapters.get(0);
+    MediaFormat outputFormat = new MediaFormat();
+    when(codec.dequeueOutputBufferIndex(any()))
+        .thenReturn(MediaCodec.INFO_OUTPUT_FORMAT_CHANGED, MediaCodec.INFO_TRY_AGAIN_LATER);
+    when(codec.getOutputFormat()).thenReturn(outputFormat);
+    firstAdapter.dequeueOutputBufferIndex(new MediaCodec.BufferInfo());
+    firstAdapter.release();
+
+    MediaCodecAdapter secondAdapter =
+        factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT));
+    int firstIndex = secondAdapter.dequeueOutputBufferIndex(new MediaCodec.BufferInfo());
+    MediaFormat replayedFormat = secondAdapter.getOutputFormat();
+    int secondIndex = secondAdapter.dequeueOutputBufferIndex(new MediaCodec.BufferInfo());
+
+    assertThat(createdAdapters).hasSize(1);
+    assertThat(firstIndex).isEqualTo(MediaCodec.INFO_OUTPUT_FORMAT_CHANGED);
+    assertThat(replayedFormat).isSameInstanceAs(outputFormat);
+    assertThat(secondIndex).isEqualTo(MediaCodec.INFO_TRY_AGAIN_LATER);
+  }
+
+  @Test
+  public void createAdapter_reusingCodecWithoutOutputFormat_doesNotReportOutputFormatChange()
+      throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+    factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT)).release();
+    when(createdAdapters.get(0).dequeueOutputBufferIndex(any()))
+        .thenReturn(MediaCodec.INFO_TRY_AGAIN_LATER);
+
+    MediaCodecAdapter adapter =
+        factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT));
+
+    assertThat(adapter.dequeueOutputBufferIndex(new MediaCodec.BufferInfo()))
+        .isEqualTo(MediaCodec.INFO_TRY_AGAIN_LATER);
+  }
+
+  @Test
+  public void trim_afterKeepAliveDuration_releasesIdleCodecs() throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+    factory.createAdapter(createAudioConfiguration("codec", AAC_FORMAT)).release();
+
+    clock.advanceTime(/* timeDiffMs= */ 1000);
+    pool.trim();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(1);
+    clock.advanceTime(/* timeDiffMs= */ 1);
+    pool.trim();
+
+    verify(createdAdapters.get(0)).release();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void clear_releasesAllIdleCodecs() throws Exception {
+    MediaCodecPool pool = createPool(/* maxSize= */ 2, /* keepAliveMs= */ 1000);
+    MediaCodecAdapter.Factory factory = pool.createAdapterFactory(adapterFactory);
+    factory.createAdapter(createAudioConfiguration("codec1", AAC_FORMAT)).release();
+    factory.createAdapter(createAudioConfiguration("codec2", AAC_FORMAT)).release();
+
+    pool.clear();
+
+    verify(createdAdapters.get(0)).release();
+    verify(createdAdapters.get(1)).release();
+    assertThat(pool.getIdleCodecCount()).isEqualTo(0);
+  }
+
+  private MediaCodecPool createPool(int maxSize, long keepAliveMs) {
+    return new MediaCodecPool(maxSize, keepAliveMs, clock);
+  }
+
+  private static MediaCodecAdapter.Configuration createAudioConfiguration(
+      String codecName, Format format) {
+    return MediaCodecAdapter.Configuration.createForAudioDecoding(
+        createCodecInfo(codecName), new MediaFormat(), format, /* crypto= */ null);
+  }
+
+  private static MediaCodecInfo createCodecInfo(String name) {
+    return MediaCodecInfo.newInstance(
+        name,
+        /* mimeType= */ MimeTypes.AUDIO_AAC,
+        /* codecMimeType= */ MimeTypes.AUDIO_AAC,
+        /* capabilities= */ null,
+        /* hardwareAccelerated= */ false,
+        /* softwareOnly= */ true,
+        /* vendor= */ false,
+        /* forceDisableAdaptive= */ false,
+        /* forceSecure= */ false);
+  }
+}
@@ -18,6 +18,7 @@ package androidx.mynewmedia4.exoplayer.mediacodec;
 import static androidx.mynewmedia4.exoplayer.DecoderReuseEvaluation.REUSE_RESULT_YES_WITHOUT_RECONFIGURATION;
 import static androidx.mynewmedia4.test.utils.FakeSampleStream.FakeSampleStreamItem.END_OF_STREAM_ITEM;
 import static androidx.mynewmedia4.test.utils.FakeSampleStream.FakeSampleStreamItem.oneByteSample;
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.inOrder;
@@ -30,6 +31,7 @@ import androidx.annotation.Nullable;
 import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.Format;
 import androidx.mynewmedia4.common.MimeTypes;
+import androidx.mynewmedia4.decoder.DecoderInputBuffer;
 import androidx.mynewmedia4.exoplayer.DecoderReuseEvaluation;
 import androidx.mynewmedia4.exoplayer.ExoPlaybackException;
 import androidx.mynewmedia4.exoplayer.RendererCapabilities;
@@ -42,6 +44,7 @@ import androidx.mynewmedia4.test.utils.FakeSampleStream;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.common.collect.ImmutableList;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import org.junit.Test;
@@ -323,6 +326,74 @@ public class MediaCodecRendererTest {
     inOrder.verify(renderer).onProcessedOutputBuffer(400);
   }
 
+  @Test
+  public void render_withInterleavedInputFeeding_drainsOutputBetweenInputBuffers()
+      throws Exception {
+    Format format =
+        new Format.Builder().setSampleMimeType(MimeTypes.AUDIO_AAC).setAverageBitrate(1000).build();
+    FakeSampleStream fakeSampleStream =
+        createFakeSampleStream(format, /* sampleTimesUs...= */ 0, 100, 200, 300);
+    List<String> callbacks = new ArrayList<>();
+    MediaCodecRenderer renderer = createCallbackRecordingRenderer(callbacks);
+    renderer.experimentalSetInterleavedInputFeedingEnabled(true);
+    renderer.init(/* index= */ 0, PlayerId.UNSET);
+    renderer.enable(
+        RendererConfiguration.DEFAULT,
+        new Format[] {format},
+        fakeSampleStream,
+        /* positionUs= */ 0,
+        /* joining= */ false,
+        /* mayRenderStartOfStream= */ true,
+        /* startPositionUs= */ 0,
+        /* offsetUs= */ 0);
+    renderer.start();
+    renderer.setCurrentStreamFinal();
+
+    // A single render call at a position where all buffers can be released.
+    renderer.render(/* positionUs= */ 300, SystemClock.elapsedRealtime());
+
+    assertThat(callbacks)
+        .containsExactly(
+            "input 0",
+            "output 0",
+            "input 100",
+            "output 100",
+            "input 200",
+            "output 200",
+            "input 300",
+            "output 300")
+        .inOrder();
+  }
+
+  @Test
+  public void render_withoutInterleavedInputFeeding_drainsOutputBeforeFeedingInput()
+      throws Exception {
+    Format format =
+        new Format.Builder().setSampleMimeType(MimeTypes.AUDIO_AAC).setAverageBitrate(1000).build();
+    FakeSampleStream fakeSampleStream =
+        createFakeSampleStream(format, /* sampleTimesUs...= */ 0, 100, 200, 300);
+    List<String> callbacks = new ArrayList<>();
+    MediaCodecRenderer renderer = createCallbackRecordingRenderer(callbacks);
+    renderer.init(/* index= */ 0, PlayerId.UNSET);
+    renderer.enable(
+        RendererConfiguration.DEFAULT,
+        new Format[] {format},
+        fakeSampleStream,
+        /* positionUs= */ 0,
+        /* joining= */ false,
+        /* mayRenderStartOfStream= */ true,
+        /* startPositionUs= */ 0,
+        /* offsetUs= */ 0);
+    renderer.start();
+    renderer.setCurrentStreamFinal();
+
+    renderer.render(/* positionUs= */ 300, SystemClock.elapsedRealtime());
+
+    assertThat(callbacks)
+        .containsExactly("input 0", "input 100", "input 200", "input 300")
+        .inOrder();
+  }
+
   private FakeSampleStream createFakeSampleStream(Format format, long... sampleTimesUs) {
     ImmutableList.Builder<FakeSampleStream.FakeSampleStreamItem> sampleListBuilder =
         ImmutableList.builder();
@@ -342,6 +413,23 @@ public class MediaCodecRendererTest {
     return sampleStream;
   }
 
+  private static MediaCodecRenderer createCallbackRecordingRenderer(List<String> callbacks) {
+    return new TestRenderer() {
+      @Override
+      protected void onQueueInputBuffer(DecoderInputBuffer buffer) {
+        if (!buffer.isEndOfStream()) {
+          callbacks.add("input " + buffer.timeUs);
+        }
+      }
+
+      @Override
+      protected void onProcessedOutputBuffer(long presentationTimeUs) {
+        super.onProcessedOutputBuffer(presentationTimeUs);
+        callbacks.add("output " + presentationTimeUs);
+      }
+    };
+  }
+
   private static class TestRenderer extends MediaCodecRenderer {
 
     public TestRenderer() {
@@ -18,6 +18,7 @@ package androidx.mynewmedia4.exoplayer.mediacodec;
 import static com.google.common.truth.Truth.assertThat;
 
 import android.media.MediaCodecInfo;
+import android.os.Build;
 import android.util.Pair;
 import androidx.annotation.Nullable;
 import androidx.mynewmedia4.common.C;
@@ -25,13 +26,25 @@ import androidx.mynewmedia4.common.ColorInfo;
 import androidx.mynewmedia4.common.Format;
 import androidx.mynewmedia4.common.MimeTypes;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.util.List;
+import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
 /** Unit tests for {@link MediaCodecUtil}. */
 @RunWith(AndroidJUnit4.class)
 public final class MediaCodecUtilTest {
 
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @After
+  public void tearDown() {
+    MediaCodecUtil.clearDecoderInfoCache();
+  }
+
   @Test
   public void getCodecProfileAndLevel_handlesVp9Profile1CodecString() {
     assertCodecProfileAndLevelForCodecsString(
@@ -149,6 +162,23 @@ public final class MediaCodecUtilTest {
     assertThat(MediaCodecUtil.getCodecProfileAndLevel(format)).isNull();
   }
 
+  @Test
+  public void getDecoderInfos_withPersistentDecoderInfoCache_persistsQuery() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+    MediaCodecUtil.enablePersistentDecoderInfoCache(file, Runnable::run);
+
+    List<androidx.mynewmedia4.exoplayer.mediacodec.MediaCodecInfo> decoderInfos =
+        MediaCodecUtil.getDecoderInfos(
+            MimeTypes.VIDEO_AV1, /* secure= */ false, /* tunneling= */ false);
+
+    assertThat(decoderInfos).isEmpty();
+    assertThat(new DecoderInfoCacheFile(file, Build.FINGERPRINT).read())
+        .containsExactly(
+            new MediaCodecUtil.CodecKey(
+                MimeTypes.VIDEO_AV1, /* secure= */ false, /* tunneling= */ false),
+            false);
+  }
+
   private static void assertCodecProfileAndLevelForCodecsString(
       String sampleMimeType, String codecs, int profile, int level) {
     Format format =
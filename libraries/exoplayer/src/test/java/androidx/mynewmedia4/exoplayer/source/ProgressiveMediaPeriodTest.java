@@ -25,13 +25,20 @@ import androidx.mynewmedia4.exoplayer.analytics.PlayerId;
 import androidx.mynewmedia4.exoplayer.drm.DrmSessionEventListener;
 import androidx.mynewmedia4.exoplayer.drm.DrmSessionManager;
 import androidx.mynewmedia4.exoplayer.source.MediaSource.MediaPeriodId;
+import androidx.mynewmedia4.exoplayer.trackselection.ExoTrackSelection;
+import androidx.mynewmedia4.exoplayer.trackselection.FixedTrackSelection;
 import androidx.mynewmedia4.exoplayer.upstream.DefaultAllocator;
 import androidx.mynewmedia4.exoplayer.upstream.DefaultLoadErrorHandlingPolicy;
+import androidx.mynewmedia4.exoplayer.util.ReleasableExecutor;
 import androidx.mynewmedia4.extractor.mp4.Mp4Extractor;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -53,6 +60,82 @@ public final class ProgressiveMediaPeriodTest {
         new MediaParserExtractorAdapter(PlayerId.UNSET));
   }
 
+  @Test
+  public void continueLoading_afterPausedLoadOnDownloadExecutorSuspended_resumesLoad()
+      throws Exception {
+    AtomicInteger runningTaskCount = new AtomicInteger();
+    ExecutorService executorService = Executors.newSingleThreadExecutor();
+    Executor countingExecutor =
+        command ->
+            executorService.execute(
+                () -> {
+                  runningTaskCount.incrementAndGet();
+                  try {
+                    command.run();
+                  } finally {
+                    runningTaskCount.decrementAndGet();
+                  }
+                });
+    MediaPeriodId mediaPeriodId = new MediaPeriodId(/* periodUid= */ new Object());
+    ProgressiveMediaPeriod mediaPeriod =
+        new ProgressiveMediaPeriod(
+            Uri.parse("asset://android_asset/media/mp4/sample.mp4"),
+            new AssetDataSource(ApplicationProvider.getApplicationContext()),
+            new BundledExtractorsAdapter(Mp4Extractor.FACTORY),
+            DrmSessionManager.DRM_UNSUPPORTED,
+            new DrmSessionEventListener.EventDispatcher()
+                .withParameters(/* windowIndex= */ 0, mediaPeriodId),
+            new DefaultLoadErrorHandlingPolicy(),
+            new MediaSourceEventListener.EventDispatcher()
+                .withParameters(/* windowIndex= */ 0, mediaPeriodId),
+            (durationUs, isSeekable, isLive) -> {},
+            new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+            /* customCacheKey= */ null,
+            /* continueLoadingCheckIntervalBytes= */ 1024,
+            ReleasableExecutor.from(countingExecutor, executor -> executorService.shutdown()));
+    AtomicBoolean prepared = new AtomicBoolean();
+    AtomicBoolean continueLoading = new AtomicBoolean();
+    mediaPeriod.prepare(
+        new MediaPeriod.Callback() {
+          @Override
+          public void onPrepared(MediaPeriod mediaPeriod) {
+            prepared.set(true);
+          }
+
+          @Override
+          public void onContinueLoadingRequested(MediaPeriod source) {
+            if (!prepared.get() || continueLoading.get()) {
+              source.continueLoading(/* positionUs= */ 0);
+            }
+          }
+        },
+        /* positionUs= */ 0);
+    runMainLooperUntil(prepared::get);
+    TrackGroupArray trackGroups = mediaPeriod.getTrackGroups();
+    ExoTrackSelection[] selections = new ExoTrackSelection[trackGroups.length];
+    for (int i = 0; i < trackGroups.length; i++) {
+      selections[i] = new FixedTrackSelection(trackGroups.get(i), /* track= */ 0);
+    }
+    mediaPeriod.selectTracks(
+        selections,
+        /* mayRetainStreamFlags= */ new boolean[trackGroups.length],
+        /* streams= */ new SampleStream[trackGroups.length],
+        /* streamResetFlags= */ new boolean[trackGroups.length],
+        /* positionUs= */ 0);
+
+    runMainLooperUntil(() -> runningTaskCount.get() == 0);
+    boolean isLoadingWhileSuspended = mediaPeriod.isLoading();
+    long bufferedPositionWhileSuspendedUs = mediaPeriod.getBufferedPositionUs();
+    continueLoading.set(true);
+    mediaPeriod.continueLoading(/* positionUs= */ 0);
+    runMainLooperUntil(() -> mediaPeriod.getBufferedPositionUs() == C.TIME_END_OF_SOURCE);
+    mediaPeriod.maybeThrowPrepareError();
+    mediaPeriod.release();
+
+    assertThat(isLoadingWhileSuspended).isFalse();
+    assertThat(bufferedPositionWhileSuspendedUs).isNotEqualTo(C.TIME_END_OF_SOURCE);
+  }
+
   private static void testExtractorsUpdatesSourceInfoBeforeOnPreparedCallback(
       ProgressiveMediaExtractor extractor) throws TimeoutException {
     AtomicBoolean sourceInfoRefreshCalled = new AtomicBoolean(false);
@@ -73,7 +156,8 @@ public final class ProgressiveMediaPeriodTest {
             sourceInfoRefreshListener,
             new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
             /* customCacheKey= */ null,
-            ProgressiveMediaSource.DEFAULT_LOADING_CHECK_INTERVAL_BYTES);
+            ProgressiveMediaSource.DEFAULT_LOADING_CHECK_INTERVAL_BYTES,
+            /* downloadExecutor= */ null);
 
     AtomicBoolean prepareCallbackCalled = new AtomicBoolean(false);
     AtomicBoolean sourceInfoRefreshCalledBeforeOnPrepared = new AtomicBoolean(false);
@@ -562,6 +562,18 @@ public final class SampleQueueTest {
     assertArrayEquals(expectedInitializationVector, inputBuffer.cryptoInfo.iv);
   }
 
+  @Test
+  public void readSubsampleEncryptedSample_withSubsamplesInOneAllocation_populatesCryptoInfo() {
+    assertReadSubsampleEncryptedSample(
+        /* clearDataSizes= */ new int[] {1}, /* encryptedDataSizes= */ new int[] {2});
+  }
+
+  @Test
+  public void readSubsampleEncryptedSample_withSubsamplesAcrossAllocations_populatesCryptoInfo() {
+    assertReadSubsampleEncryptedSample(
+        /* clearDataSizes= */ new int[] {1, 0, 2}, /* encryptedDataSizes= */ new int[] {2, 3, 1});
+  }
+
   @Test
   public void readWithErrorSessionReadsNothingAndThrows() throws IOException {
     when(mockDrmSession.getState()).thenReturn(DrmSession.STATE_OPENED);
@@ -1422,6 +1434,49 @@ public final class SampleQueueTest {
     }
   }
 
+  private void assertReadSubsampleEncryptedSample(int[] clearDataSizes, int[] encryptedDataSizes) {
+    when(mockDrmSession.getState()).thenReturn(DrmSession.STATE_OPENED_WITH_KEYS);
+    writeFormat(ENCRYPTED_SAMPLE_FORMATS[0]);
+    int subsampleCount = clearDataSizes.length;
+    int sampleSize = 0;
+    // signalByte: subsampleEncryption = true (1 bit), ivSize = 0 (7 bits).
+    ParsableByteArray encryptionData = new ParsableByteArray(3 + 6 * subsampleCount);
+    encryptionData.getData()[0] = (byte) 0x80;
+    encryptionData.getData()[1] = (byte) (subsampleCount >> 8);
+    encryptionData.getData()[2] = (byte) subsampleCount;
+    for (int i = 0; i < subsampleCount; i++) {
+      int position = 3 + 6 * i;
+      encryptionData.getData()[position] = (byte) (clearDataSizes[i] >> 8);
+      encryptionData.getData()[position + 1] = (byte) clearDataSizes[i];
+      encryptionData.getData()[position + 5] = (byte) encryptedDataSizes[i];
+      sampleSize += clearDataSizes[i] + encryptedDataSizes[i];
+    }
+    byte[] sampleData = TestUtil.buildTestData(sampleSize);
+    writeSample(
+        Bytes.concat(encryptionData.getData(), sampleData),
+        /* timestampUs= */ 0,
+        BUFFER_FLAG_KEY_FRAME | BUFFER_FLAG_ENCRYPTED);
+
+    assertThat(
+            sampleQueue.read(
+                formatHolder, inputBuffer, /* readFlags= */ 0, /* loadingFinished= */ false))
+        .isEqualTo(RESULT_FORMAT_READ);
+    assertThat(
+            sampleQueue.read(
+                formatHolder, inputBuffer, /* readFlags= */ 0, /* loadingFinished= */ false))
+        .isEqualTo(RESULT_BUFFER_READ);
+
+    assertThat(inputBuffer.cryptoInfo.numSubSamples).isEqualTo(subsampleCount);
+    assertThat(Arrays.copyOf(inputBuffer.cryptoInfo.numBytesOfClearData, subsampleCount))
+        .isEqualTo(clearDataSizes);
+    assertThat(Arrays.copyOf(inputBuffer.cryptoInfo.numBytesOfEncryptedData, subsampleCount))
+        .isEqualTo(encryptedDataSizes);
+    byte[] readData = new byte[sampleSize];
+    inputBuffer.flip();
+    inputBuffer.data.get(readData);
+    assertArrayEquals(sampleData, readData);
+  }
+
   private void writeTestDataWithEncryptedSections() {
     writeTestData(
         ENCRYPTED_SAMPLE_DATA,
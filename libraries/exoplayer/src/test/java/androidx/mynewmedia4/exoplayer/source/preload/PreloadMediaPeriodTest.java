@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.source.preload;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import androidx.mynewmedia4.common.TrackGroup;
+import androidx.mynewmedia4.exoplayer.source.MediaPeriod;
+import androidx.mynewmedia4.exoplayer.source.SampleStream;
+import androidx.mynewmedia4.exoplayer.trackselection.ExoTrackSelection;
+import androidx.mynewmedia4.exoplayer.trackselection.FixedTrackSelection;
+import androidx.mynewmedia4.test.utils.ExoPlayerTestRunner;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+
+/** Unit test for {@link PreloadMediaPeriod}. */
+@RunWith(AndroidJUnit4.class)
+public final class PreloadMediaPeriodTest {
+
+  private static final TrackGroup TRACK_GROUP = new TrackGroup(ExoPlayerTestRunner.VIDEO_FORMAT);
+
+  private MediaPeriod wrappedMediaPeriod;
+
+  @Before
+  public void setUp() {
+    wrappedMediaPeriod = mock(MediaPeriod.class);
+    // Behave like a media period that creates a new stream for each selection it can't retain.
+    when(wrappedMediaPeriod.selectTracks(any(), any(), any(), any(), anyLong()))
+        .thenAnswer(
+            invocation -> {
+              boolean[] mayRetainStreamFlags = invocation.getArgument(1);
+              SampleStream[] streams = invocation.getArgument(2);
+              boolean[] streamResetFlags = invocation.getArgument(3);
+              for (int i = 0; i < streams.length; i++) {
+                if (streams[i] == null || !mayRetainStreamFlags[i]) {
+                  streams[i] = mock(SampleStream.class);
+                  streamResetFlags[i] = true;
+                }
+              }
+              return invocation.getArgument(4);
+            });
+  }
+
+  @Test
+  public void selectTracks_sameTracksAsPreloaded_retainsPreloadedStreamsWithPlayerSelections() {
+    PreloadMediaPeriod preloadMediaPeriod = new PreloadMediaPeriod(wrappedMediaPeriod);
+    preloadMediaPeriod.selectTracksForPreload(
+        new ExoTrackSelection[] {new FixedTrackSelection(TRACK_GROUP, /* track= */ 0)},
+        /* positionUs= */ 0);
+    ExoTrackSelection[] playerSelections =
+        new ExoTrackSelection[] {new FixedTrackSelection(TRACK_GROUP, /* track= */ 0)};
+    SampleStream[] streams = new SampleStream[1];
+    boolean[] streamResetFlags = new boolean[1];
+
+    long positionUs =
+        preloadMediaPeriod.selectTracks(
+            playerSelections,
+            /* mayRetainStreamFlags= */ new boolean[1],
+            streams,
+            streamResetFlags,
+            /* positionUs= */ 0);
+
+    ArgumentCaptor<ExoTrackSelection[]> selectionsCaptor =
+        ArgumentCaptor.forClass(ExoTrackSelection[].class);
+    ArgumentCaptor<boolean[]> mayRetainStreamFlagsCaptor = ArgumentCaptor.forClass(boolean[].class);
+    ArgumentCaptor<SampleStream[]> streamsCaptor = ArgumentCaptor.forClass(SampleStream[].class);
+    verify(wrappedMediaPeriod, times(2))
+        .selectTracks(
+            selectionsCaptor.capture(),
+            mayRetainStreamFlagsCaptor.capture(),
+            streamsCaptor.capture(),
+            any(),
+            anyLong());
+    assertThat(positionUs).isEqualTo(0);
+    assertThat(selectionsCaptor.getAllValues().get(1)).isSameInstanceAs(playerSelections);
+    assertThat(mayRetainStreamFlagsCaptor.getAllValues().get(1)).asList().containsExactly(true);
+    assertThat(streams[0]).isSameInstanceAs(streamsCaptor.getAllValues().get(0)[0]);
+    assertThat(streamResetFlags[0]).isTrue();
+  }
+
+  @Test
+  public void selectTracks_atOtherPositionThanPreloaded_doesNotRetainPreloadedStreams() {
+    PreloadMediaPeriod preloadMediaPeriod = new PreloadMediaPeriod(wrappedMediaPeriod);
+    ExoTrackSelection[] preloadSelections =
+        new ExoTrackSelection[] {new FixedTrackSelection(TRACK_GROUP, /* track= */ 0)};
+    SampleStream[] streams = new SampleStream[1];
+    preloadMediaPeriod.selectTracksForPreload(preloadSelections, /* positionUs= */ 0);
+
+    preloadMediaPeriod.selectTracks(
+        new ExoTrackSelection[] {new FixedTrackSelection(TRACK_GROUP, /* track= */ 0)},
+        /* mayRetainStreamFlags= */ new boolean[1],
+        streams,
+        /* streamResetFlags= */ new boolean[1],
+        /* positionUs= */ 1_000_000);
+
+    ArgumentCaptor<boolean[]> mayRetainStreamFlagsCaptor = ArgumentCaptor.forClass(boolean[].class);
+    ArgumentCaptor<SampleStream[]> streamsCaptor = ArgumentCaptor.forClass(SampleStream[].class);
+    verify(wrappedMediaPeriod, times(2))
+        .selectTracks(
+            any(), mayRetainStreamFlagsCaptor.capture(), streamsCaptor.capture(), any(), anyLong());
+    assertThat(mayRetainStreamFlagsCaptor.getAllValues().get(1)).asList().containsExactly(false);
+    assertThat(streams[0]).isNotNull();
+    assertThat(streams[0]).isNotSameInstanceAs(streamsCaptor.getAllValues().get(0)[0]);
+  }
+
+  @Test
+  public void selectTracks_withFewerRenderersThanPreloaded_releasesPreloadedStreams() {
+    PreloadMediaPeriod preloadMediaPeriod = new PreloadMediaPeriod(wrappedMediaPeriod);
+    preloadMediaPeriod.selectTracksForPreload(
+        new ExoTrackSelection[] {
+          new FixedTrackSelection(TRACK_GROUP, /* track= */ 0),
+          new FixedTrackSelection(TRACK_GROUP, /* track= */ 0)
+        },
+        /* positionUs= */ 0);
+    SampleStream[] streams = new SampleStream[1];
+
+    preloadMediaPeriod.selectTracks(
+        new ExoTrackSelection[] {new FixedTrackSelection(TRACK_GROUP, /* track= */ 0)},
+        /* mayRetainStreamFlags= */ new boolean[1],
+        streams,
+        /* streamResetFlags= */ new boolean[1],
+        /* positionUs= */ 0);
+
+    ArgumentCaptor<ExoTrackSelection[]> selectionsCaptor =
+        ArgumentCaptor.forClass(ExoTrackSelection[].class);
+    ArgumentCaptor<SampleStream[]> streamsCaptor = ArgumentCaptor.forClass(SampleStream[].class);
+    verify(wrappedMediaPeriod, times(3))
+        .selectTracks(selectionsCaptor.capture(), any(), streamsCaptor.capture(), any(), anyLong());
+    // The preloaded streams are released by disabling all the preloaded selections.
+    assertThat(selectionsCaptor.getAllValues().get(1)).asList().containsExactly(null, null);
+    assertThat(streamsCaptor.getAllValues().get(1)).hasLength(2);
+    assertThat(selectionsCaptor.getAllValues().get(2)).hasLength(1);
+    assertThat(streams[0]).isNotNull();
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.source.preload;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.os.Looper;
+import android.util.Pair;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.Timeline;
+import androidx.mynewmedia4.common.util.Clock;
+import androidx.mynewmedia4.common.util.HandlerWrapper;
+import androidx.mynewmedia4.exoplayer.RendererCapabilities;
+import androidx.mynewmedia4.exoplayer.analytics.PlayerId;
+import androidx.mynewmedia4.exoplayer.audio.AudioRendererEventListener;
+import androidx.mynewmedia4.exoplayer.source.MediaPeriod;
+import androidx.mynewmedia4.exoplayer.source.MediaSource;
+import androidx.mynewmedia4.exoplayer.trackselection.DefaultTrackSelector;
+import androidx.mynewmedia4.exoplayer.upstream.DefaultAllocator;
+import androidx.mynewmedia4.exoplayer.upstream.DefaultBandwidthMeter;
+import androidx.mynewmedia4.exoplayer.video.VideoRendererEventListener;
+import androidx.mynewmedia4.test.utils.ExoPlayerTestRunner;
+import androidx.mynewmedia4.test.utils.FakeAudioRenderer;
+import androidx.mynewmedia4.test.utils.FakeMediaSource;
+import androidx.mynewmedia4.test.utils.FakeMediaSourceFactory;
+import androidx.mynewmedia4.test.utils.FakeTimeline;
+import androidx.mynewmedia4.test.utils.FakeVideoRenderer;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link PreloadMediaSource}. */
+@RunWith(AndroidJUnit4.class)
+public final class PreloadMediaSourceTest {
+
+  private Context context;
+  private DefaultAllocator allocator;
+  private RendererCapabilities[] rendererCapabilities;
+
+  @Before
+  public void setUp() {
+    context = ApplicationProvider.getApplicationContext();
+    allocator = new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE);
+    HandlerWrapper handler =
+        Clock.DEFAULT.createHandler(Looper.getMainLooper(), /* callback= */ null);
+    rendererCapabilities =
+        new RendererCapabilities[] {
+          new FakeVideoRenderer(handler, mock(VideoRendererEventListener.class))
+              .getCapabilities(),
+          new FakeAudioRenderer(handler, mock(AudioRendererEventListener.class)).getCapabilities()
+        };
+  }
+
+  @Test
+  public void preload_continuesWhilePreloadControlAllowsIt() {
+    AtomicBoolean timelineRefreshed = new AtomicBoolean();
+    AtomicBoolean prepared = new AtomicBoolean();
+    PreloadMediaSource.PreloadControl preloadControl =
+        new PreloadMediaSource.PreloadControl() {
+          @Override
+          public boolean onTimelineRefreshed(PreloadMediaSource mediaSource) {
+            timelineRefreshed.set(true);
+            return true;
+          }
+
+          @Override
+          public boolean onPrepared(PreloadMediaSource mediaSource) {
+            prepared.set(true);
+            return false;
+          }
+
+          @Override
+          public boolean onContinueLoadingRequested(
+              PreloadMediaSource mediaSource, long bufferedDurationUs) {
+            return false;
+          }
+        };
+    PreloadMediaSource preloadMediaSource = createPreloadMediaSource(preloadControl);
+
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(timelineRefreshed.get()).isTrue();
+    assertThat(prepared.get()).isTrue();
+  }
+
+  @Test
+  public void preload_withTimelineRefreshedReturningFalse_doesNotPreparePeriod() {
+    AtomicBoolean prepared = new AtomicBoolean();
+    PreloadMediaSource.PreloadControl preloadControl =
+        new PreloadMediaSource.PreloadControl() {
+          @Override
+          public boolean onTimelineRefreshed(PreloadMediaSource mediaSource) {
+            return false;
+          }
+
+          @Override
+          public boolean onPrepared(PreloadMediaSource mediaSource) {
+            prepared.set(true);
+            return false;
+          }
+
+          @Override
+          public boolean onContinueLoadingRequested(
+              PreloadMediaSource mediaSource, long bufferedDurationUs) {
+            return false;
+          }
+        };
+    PreloadMediaSource preloadMediaSource = createPreloadMediaSource(preloadControl);
+
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    assertThat(prepared.get()).isFalse();
+  }
+
+  @Test
+  public void prepareSource_afterPreload_handsPreparedPeriodToPlayer() {
+    PreloadMediaSource.PreloadControl preloadControl =
+        new PreloadMediaSource.PreloadControl() {
+          @Override
+          public boolean onTimelineRefreshed(PreloadMediaSource mediaSource) {
+            return true;
+          }
+
+          @Override
+          public boolean onPrepared(PreloadMediaSource mediaSource) {
+            return false;
+          }
+
+          @Override
+          public boolean onContinueLoadingRequested(
+              PreloadMediaSource mediaSource, long bufferedDurationUs) {
+            return false;
+          }
+        };
+    PreloadMediaSource preloadMediaSource = createPreloadMediaSource(preloadControl);
+    preloadMediaSource.preload(/* startPositionUs= */ 0);
+    shadowOf(Looper.getMainLooper()).idle();
+
+    AtomicReference<Timeline> timelineReference = new AtomicReference<>();
+    preloadMediaSource.prepareSource(
+        (source, timeline) -> timelineReference.set(timeline),
+        /* mediaTransferListener= */ null,
+        PlayerId.UNSET);
+    Timeline timeline = timelineReference.get();
+    Pair<Object, Long> periodPosition =
+        timeline.getPeriodPositionUs(
+            new Timeline.Window(),
+            new Timeline.Period(),
+            /* windowIndex= */ 0,
+            /* windowPositionUs= */ 0);
+    MediaPeriod mediaPeriod =
+        preloadMediaSource.createPeriod(
+            new MediaSource.MediaPeriodId(periodPosition.first, /* windowSequenceNumber= */ 5),
+            allocator,
+            periodPosition.second);
+    AtomicBoolean preparedSynchronously = new AtomicBoolean();
+    mediaPeriod.prepare(
+        new MediaPeriod.Callback() {
+          @Override
+          public void onPrepared(MediaPeriod mediaPeriod) {
+            preparedSynchronously.set(true);
+          }
+
+          @Override
+          public void onContinueLoadingRequested(MediaPeriod source) {}
+        },
+        periodPosition.second);
+
+    assertThat(preparedSynchronously.get()).isTrue();
+  }
+
+  private PreloadMediaSource createPreloadMediaSource(
+      PreloadMediaSource.PreloadControl preloadControl) {
+    MediaSource.Factory mediaSourceFactory = new FakeMediaSourceFactory();
+    PreloadMediaSource.Factory preloadMediaSourceFactory =
+        new PreloadMediaSource.Factory(
+            mediaSourceFactory,
+            preloadControl,
+            new DefaultTrackSelector(context),
+            DefaultBandwidthMeter.getSingletonInstance(context),
+            rendererCapabilities,
+            allocator,
+            Looper.getMainLooper());
+    return preloadMediaSourceFactory.createMediaSource(
+        new FakeMediaSource(
+            new FakeTimeline(),
+            ExoPlayerTestRunner.VIDEO_FORMAT,
+            ExoPlayerTestRunner.AUDIO_FORMAT));
+  }
+}
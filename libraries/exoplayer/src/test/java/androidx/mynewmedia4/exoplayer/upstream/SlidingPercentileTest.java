@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SlidingPercentile}. */
+@RunWith(AndroidJUnit4.class)
+public class SlidingPercentileTest {
+
+  @Test
+  public void getPercentile_noSamples_returnsNaN() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 10);
+
+    assertThat(slidingPercentile.getPercentile(0.5f)).isNaN();
+  }
+
+  @Test
+  public void getPercentile_returnsWeightedPercentile() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 100);
+
+    slidingPercentile.addSample(/* weight= */ 1, /* value= */ 300);
+    slidingPercentile.addSample(/* weight= */ 4, /* value= */ 100);
+    slidingPercentile.addSample(/* weight= */ 5, /* value= */ 200);
+
+    assertThat(slidingPercentile.getPercentile(0.4f)).isEqualTo(100);
+    assertThat(slidingPercentile.getPercentile(0.5f)).isEqualTo(200);
+    assertThat(slidingPercentile.getPercentile(0.9f)).isEqualTo(200);
+    assertThat(slidingPercentile.getPercentile(1f)).isEqualTo(300);
+  }
+
+  @Test
+  public void addSample_exceedingMaxWeight_reducesWeightOfOldestSamples() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 10);
+
+    slidingPercentile.addSample(/* weight= */ 5, /* value= */ 100);
+    slidingPercentile.addSample(/* weight= */ 5, /* value= */ 200);
+    // Removes the first sample and reduces the weight of the second sample to 2.
+    slidingPercentile.addSample(/* weight= */ 8, /* value= */ 300);
+
+    assertThat(slidingPercentile.getPercentile(0.2f)).isEqualTo(200);
+    assertThat(slidingPercentile.getPercentile(0.3f)).isEqualTo(300);
+  }
+
+  @Test
+  public void addSample_withEqualValues_removesOldestSampleFirst() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 10);
+
+    slidingPercentile.addSample(/* weight= */ 2, /* value= */ 100);
+    slidingPercentile.addSample(/* weight= */ 6, /* value= */ 100);
+    slidingPercentile.addSample(/* weight= */ 2, /* value= */ 200);
+    // Removes the first sample of value 100, leaving a weight of 4 out of 10 for that value.
+    slidingPercentile.addSample(/* weight= */ 2, /* value= */ 300);
+    slidingPercentile.addSample(/* weight= */ 2, /* value= */ 300);
+
+    assertThat(slidingPercentile.getPercentile(0.4f)).isEqualTo(100);
+    assertThat(slidingPercentile.getPercentile(0.5f)).isEqualTo(200);
+  }
+
+  @Test
+  public void addSample_moreSamplesThanInitialCapacity_keepsAllSamples() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 1000);
+
+    for (int i = 0; i < 100; i++) {
+      slidingPercentile.addSample(/* weight= */ 1, /* value= */ 100 - i);
+    }
+
+    assertThat(slidingPercentile.getPercentile(0.01f)).isEqualTo(1);
+    assertThat(slidingPercentile.getPercentile(0.5f)).isEqualTo(50);
+    assertThat(slidingPercentile.getPercentile(1f)).isEqualTo(100);
+  }
+
+  @Test
+  public void getPercentile_afterAddingSample_returnsUpdatedPercentile() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 100);
+    slidingPercentile.addSample(/* weight= */ 1, /* value= */ 100);
+    assertThat(slidingPercentile.getPercentile(0.5f)).isEqualTo(100);
+
+    slidingPercentile.addSample(/* weight= */ 3, /* value= */ 50);
+
+    assertThat(slidingPercentile.getPercentile(0.5f)).isEqualTo(50);
+  }
+
+  @Test
+  public void reset_withSamplesAdded_returnsNaN() {
+    SlidingPercentile slidingPercentile = new SlidingPercentile(/* maxWeight= */ 10);
+    slidingPercentile.addSample(/* weight= */ 1, /* value= */ 100);
+    slidingPercentile.getPercentile(0.5f);
+
+    slidingPercentile.reset();
+
+    assertThat(slidingPercentile.getPercentile(0.5f)).isNaN();
+  }
+}
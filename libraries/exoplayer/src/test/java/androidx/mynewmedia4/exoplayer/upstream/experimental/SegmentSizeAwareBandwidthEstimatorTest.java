@@ -0,0 +1,257 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.upstream.experimental;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.mynewmedia4.datasource.DataSource;
+import androidx.mynewmedia4.datasource.DataSpec;
+import androidx.mynewmedia4.exoplayer.upstream.BandwidthMeter;
+import androidx.mynewmedia4.test.utils.FakeClock;
+import androidx.mynewmedia4.test.utils.FakeDataSource;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.robolectric.shadows.ShadowLooper;
+
+/** Unit tests for the {@link SegmentSizeAwareBandwidthEstimator}. */
+@RunWith(AndroidJUnit4.class)
+public class SegmentSizeAwareBandwidthEstimatorTest {
+
+  @Test
+  public void builder_setNonPositiveInitialCongestionWindow_throws() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new SegmentSizeAwareBandwidthEstimator.Builder().setInitialCongestionWindowBytes(0));
+  }
+
+  @Test
+  public void builder_setNegativeIdleTime_throws() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            new SegmentSizeAwareBandwidthEstimator.Builder().setIdleTimeForSlowStartRestartMs(-1));
+  }
+
+  @Test
+  public void transferEvents_withoutTimeToFirstByte_providesUncompensatedSample() {
+    FakeClock fakeClock = new FakeClock(0);
+    SegmentSizeAwareBandwidthEstimator estimator =
+        new SegmentSizeAwareBandwidthEstimator.Builder().setClock(fakeClock).build();
+    BandwidthMeter.EventListener eventListener = Mockito.mock(BandwidthMeter.EventListener.class);
+    estimator.addEventListener(new Handler(Looper.getMainLooper()), eventListener);
+    DataSource source = new FakeDataSource();
+
+    estimator.onTransferStart(source, createDataSpec(/* length= */ 200_000));
+    fakeClock.advanceTime(100);
+    estimator.onBytesTransferred(source, /* bytesTransferred= */ 200_000);
+    estimator.onTransferEnd(source);
+    ShadowLooper.idleMainLooper();
+
+    assertThat(estimator.getBandwidthEstimate()).isEqualTo(16_000_000);
+    verify(eventListener).onBandwidthSample(100, 200_000, 16_000_000);
+  }
+
+  @Test
+  public void transferEvents_transferWithinInitialCongestionWindow_providesNoSample() {
+    FakeClock fakeClock = new FakeClock(0);
+    SegmentSizeAwareBandwidthEstimator estimator =
+        new SegmentSizeAwareBandwidthEstimator.Builder().setClock(fakeClock).build();
+    BandwidthMeter.EventListener eventListener = Mockito.mock(BandwidthMeter.EventListener.class);
+    estimator.addEventListener(new Handler(Looper.getMainLooper()), eventListener);
+    DataSource source = new FakeDataSource();
+    DataSpec dataSpec = createDataSpec(/* length= */ 5_000);
+
+    estimator.onTransferInitializing(source, dataSpec);
+    fakeClock.advanceTime(50);
+    estimator.onTransferStart(source, dataSpec);
+    fakeClock.advanceTime(50);
+    estimator.onBytesTransferred(source, /* bytesTransferred= */ 5_000);
+    estimator.onTransferEnd(source);
+    ShadowLooper.idleMainLooper();
+
+    assertThat(estimator.getBandwidthEstimate())
+        .isEqualTo(BandwidthEstimator.ESTIMATE_NOT_AVAILABLE);
+    verify(eventListener, never()).onBandwidthSample(anyInt(), anyLong(), anyLong());
+  }
+
+  @Test
+  public void transferEvents_shortTransferAfterIdle_compensatesForSlowStart() {
+    FakeClock fakeClock = new FakeClock(0);
+    SegmentSizeAwareBandwidthEstimator estimator =
+        new SegmentSizeAwareBandwidthEstimator.Builder().setClock(fakeClock).build();
+    DataSource source = new FakeDataSource();
+    DataSpec dataSpec = createDataSpec(/* length= */ 100_000);
+
+    // A 100 KB transfer at 80 Mbps with a round trip time of 50 ms needs three round trips to open
+    // the congestion window, then completes in about 6 ms.
+    estimator.onTransferInitializing(source, dataSpec);
+    fakeClock.advanceTime(50);
+    estimator.onTransferStart(source, dataSpec);
+    fakeClock.advanceTime(106);
+    estimator.onBytesTransferred(source, /* bytesTransferred= */ 100_000);
+    estimator.onTransferEnd(source);
+
+    long uncompensatedBitrate = 100_000L * 8_000 / 106;
+    long expectedDurationUs =
+        SegmentSizeAwareBandwidthEstimator.getSlowStartCompensatedDurationUs(
+            /* bytes= */ 100_000,
+            /* durationUs= */ 106_000,
+            /* roundTripTimeUs= */ 50_000,
+            /* initialWindowBytes= */ SegmentSizeAwareBandwidthEstimator
+                .DEFAULT_INITIAL_CONGESTION_WINDOW_BYTES);
+    assertThat(estimator.getBandwidthEstimate())
+        .isEqualTo(100_000L * 8_000_000 / expectedDurationUs);
+    assertThat(estimator.getBandwidthEstimate()).isGreaterThan(5 * uncompensatedBitrate);
+  }
+
+  @Test
+  public void transferEvents_transferOnWarmConnection_doesNotCompensate() {
+    FakeClock fakeClock = new FakeClock(0);
+    SegmentSizeAwareBandwidthEstimator estimator =
+        new SegmentSizeAwareBandwidthEstimator.Builder()
+            .setBandwidthStatistic(new SlidingWeightedAverageBandwidthStatistic())
+            .setClock(fakeClock)
+            .build();
+    DataSource source = new FakeDataSource();
+    DataSpec dataSpec = createDataSpec(/* length= */ 1_000_000);
+    estimator.onTransferInitializing(source, dataSpec);
+    fakeClock.advanceTime(50);
+    estimator.onTransferStart(source, dataSpec);
+    fakeClock.advanceTime(1_000);
+    estimator.onBytesTransferred(source, /* bytesTransferred= */ 1_000_000);
+    estimator.onTransferEnd(source);
+    long firstEstimate = estimator.getBandwidthEstimate();
+
+    // The second transfer starts right away, so the congestion window is still open.
+    estimator.onTransferInitializing(source, dataSpec);
+    fakeClock.advanceTime(50);
+    estimator.onTransferStart(source, dataSpec);
+    fakeClock.advanceTime(1_000);
+    estimator.onBytesTransferred(source, /* bytesTransferred= */ 1_000_000);
+    estimator.onTransferEnd(source);
+
+    // The average of the compensated first sample and the uncompensated second sample.
+    assertThat(estimator.getBandwidthEstimate()).isLessThan(firstEstimate);
+    assertThat(estimator.getBandwidthEstimate()).isGreaterThan(8_000_000);
+  }
+
+  @Test
+  public void transferEvents_twoParallelTransfers_providesOneSample() {
+    FakeClock fakeClock = new FakeClock(0);
+    SegmentSizeAwareBandwidthEstimator estimator =
+        new SegmentSizeAwareBandwidthEstimator.Builder().setClock(fakeClock).build();
+    BandwidthMeter.EventListener eventListener = Mockito.mock(BandwidthMeter.EventListener.class);
+    estimator.addEventListener(new Handler(Looper.getMainLooper()), eventListener);
+    DataSource source1 = new FakeDataSource();
+    DataSource source2 = new FakeDataSource();
+
+    estimator.onTransferStart(source1, createDataSpec(/* length= */ 150_000));
+    fakeClock.advanceTime(10);
+    estimator.onTransferStart(source2, createDataSpec(/* length= */ 50_000));
+    fakeClock.advanceTime(40);
+    estimator.onBytesTransferred(source1, /* bytesTransferred= */ 150_000);
+    estimator.onTransferEnd(source1);
+    ShadowLooper.idleMainLooper();
+    verify(eventListener, never()).onBandwidthSample(anyInt(), anyLong(), anyLong());
+    fakeClock.advanceTime(50);
+    estimator.onBytesTransferred(source2, /* bytesTransferred= */ 50_000);
+    estimator.onTransferEnd(source2);
+    ShadowLooper.idleMainLooper();
+
+    assertThat(estimator.getBandwidthEstimate()).isEqualTo(16_000_000);
+    verify(eventListener).onBandwidthSample(100, 200_000, 16_000_000);
+  }
+
+  @Test
+  public void transferEvents_transfersFailingToOpen_areNotTrackedIndefinitely() {
+    FakeClock fakeClock = new FakeClock(0);
+    SegmentSizeAwareBandwidthEstimator estimator =
+        new SegmentSizeAwareBandwidthEstimator.Builder().setClock(fakeClock).build();
+    DataSpec dataSpec = createDataSpec(/* length= */ 200_000);
+
+    // A data source that fails to open reports the transfer initializing but never its end.
+    for (int i = 0; i < 100; i++) {
+      estimator.onTransferInitializing(new FakeDataSource(), dataSpec);
+    }
+    DataSource source = new FakeDataSource();
+    estimator.onTransferInitializing(source, dataSpec);
+    fakeClock.advanceTime(10);
+    estimator.onTransferStart(source, dataSpec);
+    fakeClock.advanceTime(100);
+    estimator.onBytesTransferred(source, /* bytesTransferred= */ 200_000);
+    estimator.onTransferEnd(source);
+
+    assertThat(estimator.getTrackedTransferCount()).isAtMost(10);
+  }
+
+  @Test
+  public void transferEvents_completedTransfer_isNoLongerTracked() {
+    FakeClock fakeClock = new FakeClock(0);
+    SegmentSizeAwareBandwidthEstimator estimator =
+        new SegmentSizeAwareBandwidthEstimator.Builder().setClock(fakeClock).build();
+    DataSource source = new FakeDataSource();
+    DataSpec dataSpec = createDataSpec(/* length= */ 200_000);
+
+    estimator.onTransferInitializing(source, dataSpec);
+    fakeClock.advanceTime(10);
+    estimator.onTransferStart(source, dataSpec);
+    fakeClock.advanceTime(100);
+    estimator.onBytesTransferred(source, /* bytesTransferred= */ 200_000);
+    estimator.onTransferEnd(source);
+
+    assertThat(estimator.getTrackedTransferCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void getSlowStartCompensatedDurationUs_limitedBySlowStart_returnsShorterDuration() {
+    // 100 KB at 10 bytes/us with a round trip time of 50 ms takes two full round trips and
+    // 56.2 KB at the full bandwidth, for a total of 105.62 ms.
+    long durationUs =
+        SegmentSizeAwareBandwidthEstimator.getSlowStartCompensatedDurationUs(
+            /* bytes= */ 100_000,
+            /* durationUs= */ 105_620,
+            /* roundTripTimeUs= */ 50_000,
+            /* initialWindowBytes= */ 14_600);
+
+    assertThat(durationUs).isWithin(10).of(10_000);
+  }
+
+  @Test
+  public void getSlowStartCompensatedDurationUs_fasterThanSlowStartAllows_returnsDuration() {
+    long durationUs =
+        SegmentSizeAwareBandwidthEstimator.getSlowStartCompensatedDurationUs(
+            /* bytes= */ 2_000_000,
+            /* durationUs= */ 200_000,
+            /* roundTripTimeUs= */ 50_000,
+            /* initialWindowBytes= */ 14_600);
+
+    assertThat(durationUs).isEqualTo(200_000);
+  }
+
+  private static DataSpec createDataSpec(long length) {
+    return new DataSpec.Builder().setUri("https://test.test/chunk").setLength(length).build();
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.exoplayer.video;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.mynewmedia4.common.C;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link VideoFrameReleaseTrace}. */
+@RunWith(AndroidJUnit4.class)
+public final class VideoFrameReleaseTraceTest {
+
+  @Test
+  public void add_belowCapacity_keepsFramesInOrder() {
+    VideoFrameReleaseTrace trace = new VideoFrameReleaseTrace(/* capacity= */ 3);
+
+    trace.add(
+        /* presentationTimeUs= */ 0,
+        /* unadjustedReleaseTimeNs= */ 1_000,
+        /* scheduledReleaseTimeNs= */ 1_500,
+        /* earlyUs= */ 10,
+        VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
+    trace.add(
+        /* presentationTimeUs= */ 33_000,
+        /* unadjustedReleaseTimeNs= */ 2_000,
+        /* scheduledReleaseTimeNs= */ C.TIME_UNSET,
+        /* earlyUs= */ -40_000,
+        VideoFrameReleaseTrace.RELEASE_ACTION_DROPPED_LATE);
+
+    assertThat(trace.size()).isEqualTo(2);
+    assertThat(trace.getPresentationTimeUs(0)).isEqualTo(0);
+    assertThat(trace.getUnadjustedReleaseTimeNs(0)).isEqualTo(1_000);
+    assertThat(trace.getScheduledReleaseTimeNs(0)).isEqualTo(1_500);
+    assertThat(trace.getEarlyUs(0)).isEqualTo(10);
+    assertThat(trace.getReleaseAction(0)).isEqualTo(VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
+    assertThat(trace.getPresentationTimeUs(1)).isEqualTo(33_000);
+    assertThat(trace.getScheduledReleaseTimeNs(1)).isEqualTo(C.TIME_UNSET);
+    assertThat(trace.getEarlyUs(1)).isEqualTo(-40_000);
+    assertThat(trace.getReleaseAction(1))
+        .isEqualTo(VideoFrameReleaseTrace.RELEASE_ACTION_DROPPED_LATE);
+  }
+
+  @Test
+  public void add_beyondCapacity_overwritesOldestFrames() {
+    VideoFrameReleaseTrace trace = new VideoFrameReleaseTrace(/* capacity= */ 2);
+
+    addRenderedFrame(trace, /* presentationTimeUs= */ 0);
+    addRenderedFrame(trace, /* presentationTimeUs= */ 1);
+    addRenderedFrame(trace, /* presentationTimeUs= */ 2);
+
+    assertThat(trace.size()).isEqualTo(2);
+    assertThat(trace.getPresentationTimeUs(0)).isEqualTo(1);
+    assertThat(trace.getPresentationTimeUs(1)).isEqualTo(2);
+    assertThrows(IndexOutOfBoundsException.class, () -> trace.getPresentationTimeUs(2));
+  }
+
+  @Test
+  public void copy_isIndependentOfOriginal() {
+    VideoFrameReleaseTrace trace = new VideoFrameReleaseTrace(/* capacity= */ 2);
+    addRenderedFrame(trace, /* presentationTimeUs= */ 0);
+    addRenderedFrame(trace, /* presentationTimeUs= */ 1);
+    addRenderedFrame(trace, /* presentationTimeUs= */ 2);
+
+    VideoFrameReleaseTrace copy = trace.copy();
+    trace.clear();
+
+    assertThat(trace.size()).isEqualTo(0);
+    assertThat(copy.getCapacity()).isEqualTo(2);
+    assertThat(copy.size()).isEqualTo(2);
+    assertThat(copy.getPresentationTimeUs(0)).isEqualTo(1);
+    assertThat(copy.getPresentationTimeUs(1)).isEqualTo(2);
+  }
+
+  private static void addRenderedFrame(VideoFrameReleaseTrace trace, long presentationTimeUs) {
+    trace.add(
+        presentationTimeUs,
+        /* unadjustedReleaseTimeNs= */ 0,
+        /* scheduledReleaseTimeNs= */ 0,
+        /* earlyUs= */ 0,
+        VideoFrameReleaseTrace.RELEASE_ACTION_RENDERED);
+  }
+}
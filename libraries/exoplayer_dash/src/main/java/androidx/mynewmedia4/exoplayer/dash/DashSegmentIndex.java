@@ -126,4 +126,19 @@ public interface DashSegmentIndex {
    * @return Whether segments are defined explicitly by the index.
    */
   boolean isExplicit();
+
+  /**
+   * Returns whether segments become available before they are complete.
+   *
+   * <p>If true is returned, a segment that ends after the current time may already be listed or
+   * available, but it's still being produced and will be delivered at the rate at which it's
+   * produced, typically using chunked transfer encoding. This is the case for low-latency streams
+   * with a positive {@code availabilityTimeOffset}, whether or not they also signal {@code
+   * availabilityTimeComplete="false"}.
+   *
+   * @return Whether segments become available before they are complete.
+   */
+  default boolean isSegmentAvailableBeforeCompletion() {
+    return false;
+  }
 }
@@ -983,10 +983,11 @@ public class DefaultDashChunkSource implements DashChunkSource {
     }
 
     public boolean isSegmentAvailableAtFullNetworkSpeed(long segmentNum, long nowPeriodTimeUs) {
-      if (segmentIndex.isExplicit()) {
+      if (segmentIndex.isExplicit() && !segmentIndex.isSegmentAvailableBeforeCompletion()) {
         // We don't support segment availability for explicit indices (internal ref: b/172894901).
         // Hence, also assume all segments in explicit indices are always available at full network
-        // speed even if they end in the future.
+        // speed even if they end in the future, unless the index signals that its segments are
+        // listed before they are complete.
         return true;
       }
       return nowPeriodTimeUs == C.TIME_UNSET || getSegmentEndTimeUs(segmentNum) <= nowPeriodTimeUs;
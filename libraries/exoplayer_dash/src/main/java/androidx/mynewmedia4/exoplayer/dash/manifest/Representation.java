@@ -390,5 +390,10 @@ public abstract class Representation {
     public boolean isExplicit() {
       return segmentBase.isExplicit();
     }
+
+    @Override
+    public boolean isSegmentAvailableBeforeCompletion() {
+      return segmentBase.isSegmentAvailableBeforeCompletion();
+    }
   }
 }
@@ -293,6 +293,11 @@ public abstract class SegmentBase {
       return segmentTimeline != null;
     }
 
+    /** See {@link DashSegmentIndex#isSegmentAvailableBeforeCompletion()} */
+    public boolean isSegmentAvailableBeforeCompletion() {
+      return availabilityTimeOffsetUs > 0;
+    }
+
     /** See {@link DashSegmentIndex#getSegmentCount(long)}. */
     public abstract long getSegmentCount(long periodDurationUs);
   }
@@ -67,6 +67,8 @@ public class DefaultDashChunkSourceTest {
 
   private static final String SAMPLE_MPD_LIVE_WITH_OFFSET_INSIDE_WINDOW =
       "media/mpd/sample_mpd_live_with_offset_inside_window";
+  private static final String SAMPLE_MPD_LIVE_WITH_OFFSET_AND_TIMELINE =
+      "media/mpd/sample_mpd_live_with_offset_and_timeline";
   private static final String SAMPLE_MPD_VOD = "media/mpd/sample_mpd_vod";
   private static final String SAMPLE_MPD_VOD_LOCATION_FALLBACK =
       "media/mpd/sample_mpd_vod_location_fallback";
@@ -122,6 +124,60 @@ public class DefaultDashChunkSourceTest {
         .isNotEqualTo(0);
   }
 
+  @Test
+  public void
+      getNextChunk_forLowLatencyManifestWithTimeline_setsCorrectMayNotLoadAtFullNetworkSpeedFlag()
+          throws Exception {
+    long nowMs = 2_000_000_000_000L;
+    SystemClock.setCurrentTimeMillis(nowMs);
+    DashManifest manifest =
+        new DashManifestParser()
+            .parse(
+                Uri.parse("https://example.com/test.mpd"),
+                TestUtil.getInputStream(
+                    ApplicationProvider.getApplicationContext(),
+                    SAMPLE_MPD_LIVE_WITH_OFFSET_AND_TIMELINE));
+    DefaultDashChunkSource chunkSource =
+        new DefaultDashChunkSource(
+            BundledChunkExtractor.FACTORY,
+            new LoaderErrorThrower.Dummy(),
+            manifest,
+            new BaseUrlExclusionList(),
+            /* periodIndex= */ 0,
+            /* adaptationSetIndices= */ new int[] {0},
+            new FixedTrackSelection(new TrackGroup(new Format.Builder().build()), /* track= */ 0),
+            C.TRACK_TYPE_VIDEO,
+            new FakeDataSource(),
+            /* elapsedRealtimeOffsetMs= */ 0,
+            /* maxSegmentsPerLoad= */ 1,
+            /* enableEventMessageTrack= */ false,
+            /* closedCaptionFormats= */ ImmutableList.of(),
+            /* playerTrackEmsgHandler= */ null,
+            PlayerId.UNSET,
+            /* cmcdConfiguration= */ null);
+
+    long nowInPeriodUs = Util.msToUs(nowMs - manifest.availabilityStartTimeMs);
+    ChunkHolder output = new ChunkHolder();
+
+    // The timeline lists segments up to 2 seconds after the current time, the last of which is
+    // still being produced.
+    chunkSource.getNextChunk(
+        /* playbackPositionUs= */ nowInPeriodUs - 5 * C.MICROS_PER_SECOND,
+        /* loadPositionUs= */ nowInPeriodUs - 5 * C.MICROS_PER_SECOND,
+        /* queue= */ ImmutableList.of(),
+        output);
+    assertThat(output.chunk.dataSpec.flags & DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+        .isEqualTo(0);
+
+    chunkSource.getNextChunk(
+        /* playbackPositionUs= */ nowInPeriodUs,
+        /* loadPositionUs= */ nowInPeriodUs,
+        /* queue= */ ImmutableList.of(),
+        output);
+    assertThat(output.chunk.dataSpec.flags & DataSpec.FLAG_MIGHT_NOT_USE_FULL_NETWORK_SPEED)
+        .isNotEqualTo(0);
+  }
+
   @Test
   public void getNextChunk_forVodManifest_doesNotSetMayNotLoadAtFullNetworkSpeedFlag()
       throws Exception {
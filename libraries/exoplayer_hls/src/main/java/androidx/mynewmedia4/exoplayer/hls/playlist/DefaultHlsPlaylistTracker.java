@@ -553,7 +553,9 @@ public final class DefaultHlsPlaylistTracker
     }
 
     public void loadPlaylist() {
-      loadPlaylistInternal(playlistUrl);
+      // Use a blocking or delta update request if the current snapshot is recent enough to allow
+      // it, so that a refresh doesn't cost an extra round trip returning an unchanged playlist.
+      loadPlaylistInternal(isSnapshotValid() ? getMediaPlaylistUriForReload() : playlistUrl);
     }
 
     public void maybeThrowPlaylistRefreshError() throws IOException {
@@ -642,7 +644,7 @@ public final class DefaultHlsPlaylistTracker
           // Service Unavailable (503). In such cases, force a full, non-blocking request (see RFC
           // 8216, section 6.2.5.2 and 6.3.7).
           earliestNextLoadTimeMs = SystemClock.elapsedRealtime();
-          loadPlaylist();
+          loadPlaylistInternal(playlistUrl);
           castNonNull(eventDispatcher)
               .loadError(loadEventInfo, loadable.type, error, /* wasCanceled= */ true);
           return Loader.DONT_RETRY;
@@ -775,6 +777,7 @@ public final class DefaultHlsPlaylistTracker
 
     private Uri getMediaPlaylistUriForReload() {
       if (playlistSnapshot == null
+          || playlistSnapshot.hasEndTag
           || (playlistSnapshot.serverControl.skipUntilUs == C.TIME_UNSET
               && !playlistSnapshot.serverControl.canBlockReload)) {
         return playlistUrl;
@@ -794,7 +797,13 @@ public final class DefaultHlsPlaylistTracker
           uriBuilder.appendQueryParameter(BLOCK_PART_PARAM, String.valueOf(targetPartIndex));
         }
       }
-      if (playlistSnapshot.serverControl.skipUntilUs != C.TIME_UNSET) {
+      // A delta update can only be requested if the snapshot is younger than half the skip
+      // boundary, so that the skipped segments are still in the snapshot (see RFC 8216bis, section
+      // 6.2.5.1). An older snapshot, for example of a playlist that is only refreshed on demand,
+      // needs a full reload.
+      long snapshotAgeMs = SystemClock.elapsedRealtime() - lastSnapshotLoadMs;
+      if (playlistSnapshot.serverControl.skipUntilUs != C.TIME_UNSET
+          && snapshotAgeMs < Util.usToMs(playlistSnapshot.serverControl.skipUntilUs) / 2) {
         uriBuilder.appendQueryParameter(
             SKIP_PARAM, playlistSnapshot.serverControl.canSkipDateRanges ? "v2" : "YES");
       }
@@ -18,6 +18,8 @@ package androidx.mynewmedia4.exoplayer.hls.playlist;
 import static com.google.common.truth.Truth.assertThat;
 
 import android.net.Uri;
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.datasource.DataSource;
 import androidx.mynewmedia4.datasource.DefaultHttpDataSource;
 import androidx.mynewmedia4.exoplayer.source.MediaSourceEventListener;
@@ -27,6 +29,7 @@ import androidx.mynewmedia4.test.utils.robolectric.RobolectricUtil;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
@@ -39,6 +42,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.shadows.ShadowSystemClock;
 
 /** Unit test for {@link DefaultHlsPlaylistTracker}. */
 @RunWith(AndroidJUnit4.class)
@@ -48,6 +52,9 @@ public class DefaultHlsPlaylistTrackerTest {
       "media/m3u8/live_low_latency_multivariant";
   private static final String SAMPLE_M3U8_LIVE_MULTIVARIANT_MEDIA_URI_WITH_PARAM =
       "media/m3u8/live_low_latency_multivariant_media_uri_with_param";
+  private static final String SAMPLE_M3U8_LIVE_MULTIVARIANT_TWO_VARIANTS =
+      "media/m3u8/live_low_latency_multivariant_two_variants";
+  private static final String SAMPLE_M3U8_VOD_MEDIA = "media/m3u8/media_playlist";
   private static final String SAMPLE_M3U8_LIVE_MEDIA_CAN_SKIP_UNTIL =
       "media/m3u8/live_low_latency_media_can_skip_until";
   private static final String SAMPLE_M3U8_LIVE_MEDIA_CAN_SKIP_UNTIL_FULL_RELOAD_AFTER_ERROR =
@@ -395,6 +402,89 @@ public class DefaultHlsPlaylistTrackerTest {
     assertThat(mediaPlaylists.get(2).mediaSequence).isEqualTo(12);
   }
 
+  @Test
+  public void refreshPlaylist_nonPrimaryPlaylistCanBlockReload_requestsBlockingReload()
+      throws IOException, TimeoutException, InterruptedException {
+    List<HttpUrl> httpUrls =
+        enqueueWebServerResponses(
+            new String[] {
+              "/multivariant.m3u8",
+              "/media0/playlist.m3u8",
+              "/media1/playlist.m3u8",
+              "/media1/playlist.m3u8?_HLS_msn=14"
+            },
+            getMockResponse(SAMPLE_M3U8_LIVE_MULTIVARIANT_TWO_VARIANTS),
+            getMockResponse(SAMPLE_M3U8_VOD_MEDIA),
+            getMockResponse(SAMPLE_M3U8_LIVE_MEDIA_CAN_BLOCK_RELOAD),
+            getMockResponse(SAMPLE_M3U8_LIVE_MEDIA_CAN_BLOCK_RELOAD_NEXT));
+    DataSource.Factory dataSourceFactory = new DefaultHttpDataSource.Factory();
+    DefaultHlsPlaylistTracker defaultHlsPlaylistTracker =
+        new DefaultHlsPlaylistTracker(
+            dataType -> dataSourceFactory.createDataSource(),
+            new DefaultLoadErrorHandlingPolicy(),
+            new DefaultHlsPlaylistParserFactory());
+    AtomicInteger primaryPlaylistCounter = new AtomicInteger();
+    defaultHlsPlaylistTracker.start(
+        Uri.parse(mockWebServer.url("/multivariant.m3u8").toString()),
+        new MediaSourceEventListener.EventDispatcher(),
+        mediaPlaylist -> primaryPlaylistCounter.addAndGet(1));
+    RobolectricUtil.runMainLooperUntil(() -> primaryPlaylistCounter.get() >= 1);
+    Uri secondaryPlaylistUri = Uri.parse(mockWebServer.url("/media1/playlist.m3u8").toString());
+
+    defaultHlsPlaylistTracker.refreshPlaylist(secondaryPlaylistUri);
+    RobolectricUtil.runMainLooperUntil(
+        () -> getMediaSequence(defaultHlsPlaylistTracker, secondaryPlaylistUri) == 10);
+    defaultHlsPlaylistTracker.refreshPlaylist(secondaryPlaylistUri);
+    RobolectricUtil.runMainLooperUntil(
+        () -> getMediaSequence(defaultHlsPlaylistTracker, secondaryPlaylistUri) == 11);
+    defaultHlsPlaylistTracker.stop();
+
+    assertRequestUrlsCalled(httpUrls);
+  }
+
+  @Test
+  public void refreshPlaylist_snapshotOlderThanHalfSkipBoundary_requestsFullReload()
+      throws IOException, TimeoutException, InterruptedException {
+    List<HttpUrl> httpUrls =
+        enqueueWebServerResponses(
+            new String[] {
+              "/multivariant.m3u8",
+              "/media0/playlist.m3u8",
+              "/media1/playlist.m3u8",
+              "/media1/playlist.m3u8"
+            },
+            getMockResponse(SAMPLE_M3U8_LIVE_MULTIVARIANT_TWO_VARIANTS),
+            getMockResponse(SAMPLE_M3U8_VOD_MEDIA),
+            getMockResponse(SAMPLE_M3U8_LIVE_MEDIA_CAN_SKIP_UNTIL),
+            getMockResponse(SAMPLE_M3U8_LIVE_MEDIA_CAN_NOT_SKIP_NEXT));
+    DataSource.Factory dataSourceFactory = new DefaultHttpDataSource.Factory();
+    DefaultHlsPlaylistTracker defaultHlsPlaylistTracker =
+        new DefaultHlsPlaylistTracker(
+            dataType -> dataSourceFactory.createDataSource(),
+            new DefaultLoadErrorHandlingPolicy(),
+            new DefaultHlsPlaylistParserFactory());
+    AtomicInteger primaryPlaylistCounter = new AtomicInteger();
+    defaultHlsPlaylistTracker.start(
+        Uri.parse(mockWebServer.url("/multivariant.m3u8").toString()),
+        new MediaSourceEventListener.EventDispatcher(),
+        mediaPlaylist -> primaryPlaylistCounter.addAndGet(1));
+    RobolectricUtil.runMainLooperUntil(() -> primaryPlaylistCounter.get() >= 1);
+    Uri secondaryPlaylistUri = Uri.parse(mockWebServer.url("/media1/playlist.m3u8").toString());
+
+    defaultHlsPlaylistTracker.refreshPlaylist(secondaryPlaylistUri);
+    RobolectricUtil.runMainLooperUntil(
+        () -> getMediaSequence(defaultHlsPlaylistTracker, secondaryPlaylistUri) == 10);
+    // The skip boundary is 24 seconds, so a delta update isn't allowed after 12 seconds even
+    // though the snapshot is still valid.
+    ShadowSystemClock.advanceBy(Duration.ofSeconds(13));
+    defaultHlsPlaylistTracker.refreshPlaylist(secondaryPlaylistUri);
+    RobolectricUtil.runMainLooperUntil(
+        () -> getMediaSequence(defaultHlsPlaylistTracker, secondaryPlaylistUri) == 11);
+    defaultHlsPlaylistTracker.stop();
+
+    assertRequestUrlsCalled(httpUrls);
+  }
+
   private List<HttpUrl> enqueueWebServerResponses(String[] paths, MockResponse... mockResponses) {
     assertThat(paths).hasLength(mockResponses.length);
     for (MockResponse mockResponse : mockResponses) {
@@ -443,6 +533,13 @@ public class DefaultHlsPlaylistTrackerTest {
     return mediaPlaylists;
   }
 
+  private static long getMediaSequence(HlsPlaylistTracker playlistTracker, Uri playlistUri) {
+    @Nullable
+    HlsMediaPlaylist mediaPlaylist =
+        playlistTracker.getPlaylistSnapshot(playlistUri, /* isForPlayback= */ false);
+    return mediaPlaylist != null ? mediaPlaylist.mediaSequence : C.INDEX_UNSET;
+  }
+
   private static MockResponse getMockResponse(String assetFile) throws IOException {
     return new MockResponse().setResponseCode(200).setBody(new Buffer().write(getBytes(assetFile)));
   }
@@ -798,6 +798,131 @@ import java.util.Locale;
     return BoxUtils.wrapBoxesIntoBox("ftyp", boxBytes);
   }
 
+  /**
+   * Returns the mvex box.
+   *
+   * <p>This box signals that the file contains movie fragments.
+   */
+  public static ByteBuffer mvex(List<ByteBuffer> trexBoxes) {
+    return BoxUtils.wrapBoxesIntoBox("mvex", trexBoxes);
+  }
+
+  /**
+   * Returns the trex box.
+   *
+   * <p>This box sets up the default values used by the movie fragments of a track.
+   */
+  public static ByteBuffer trex(int trackId) {
+    ByteBuffer contents = ByteBuffer.allocate(Mp4Utils.MAX_FIXED_LEAF_BOX_SIZE);
+    contents.putInt(0x0); // version and flags
+    contents.putInt(trackId);
+    contents.putInt(1); // default_sample_description_index
+    contents.putInt(0); // default_sample_duration
+    contents.putInt(0); // default_sample_size
+    contents.putInt(0); // default_sample_flags
+
+    contents.flip();
+    return BoxUtils.wrapIntoBox("trex", contents);
+  }
+
+  /**
+   * Returns the moof box.
+   *
+   * <p>This box is the movie fragment header, describing the samples in the mdat box that follows
+   * it.
+   */
+  public static ByteBuffer moof(ByteBuffer mfhdBox, List<ByteBuffer> trafBoxes) {
+    List<ByteBuffer> subBoxes = new ArrayList<>();
+    subBoxes.add(mfhdBox);
+    subBoxes.addAll(trafBoxes);
+    return BoxUtils.wrapBoxesIntoBox("moof", subBoxes);
+  }
+
+  /** Returns the mfhd (movie fragment header) box. */
+  public static ByteBuffer mfhd(int sequenceNumber) {
+    ByteBuffer contents = ByteBuffer.allocate(Mp4Utils.MAX_FIXED_LEAF_BOX_SIZE);
+    contents.putInt(0x0); // version and flags
+    contents.putInt(sequenceNumber);
+
+    contents.flip();
+    return BoxUtils.wrapIntoBox("mfhd", contents);
+  }
+
+  /** Returns the traf (track fragment) box. */
+  public static ByteBuffer traf(ByteBuffer tfhdBox, ByteBuffer tfdtBox, ByteBuffer trunBox) {
+    return BoxUtils.wrapBoxesIntoBox("traf", ImmutableList.of(tfhdBox, tfdtBox, trunBox));
+  }
+
+  /**
+   * Returns the tfhd (track fragment header) box.
+   *
+   * <p>The data offsets of the track fragment are relative to the start of the moof box.
+   */
+  public static ByteBuffer tfhd(int trackId) {
+    ByteBuffer contents = ByteBuffer.allocate(Mp4Utils.MAX_FIXED_LEAF_BOX_SIZE);
+    // version and flags; default-base-is-moof.
+    contents.putInt(0x020000);
+    contents.putInt(trackId);
+
+    contents.flip();
+    return BoxUtils.wrapIntoBox("tfhd", contents);
+  }
+
+  /** Returns the tfdt (track fragment decode time) box. */
+  public static ByteBuffer tfdt(long baseMediaDecodeTimeVu) {
+    ByteBuffer contents = ByteBuffer.allocate(Mp4Utils.MAX_FIXED_LEAF_BOX_SIZE);
+    contents.putInt(0x01000000); // version 1 (64-bit decode time) and flags
+    contents.putLong(baseMediaDecodeTimeVu);
+
+    contents.flip();
+    return BoxUtils.wrapIntoBox("tfdt", contents);
+  }
+
+  /**
+   * Returns the trun (track fragment run) box.
+   *
+   * @param samples The {@link MediaCodec.BufferInfo} of the samples in the run.
+   * @param durationsVu The duration of each sample, in the track timebase.
+   * @param dataOffset The offset of the first sample's data from the start of the moof box.
+   * @param allSamplesAreSyncSamples Whether all the samples are sync samples, as for audio tracks.
+   *     Otherwise, only {@linkplain MediaCodec#BUFFER_FLAG_KEY_FRAME key frames} are sync samples.
+   * @return The trun box.
+   */
+  public static ByteBuffer trun(
+      List<MediaCodec.BufferInfo> samples,
+      List<Long> durationsVu,
+      int dataOffset,
+      boolean allSamplesAreSyncSamples) {
+    checkArgument(samples.size() == durationsVu.size());
+    ByteBuffer contents =
+        ByteBuffer.allocate(samples.size() * 12 + Mp4Utils.MAX_FIXED_LEAF_BOX_SIZE);
+
+    // version and flags; data-offset-present, sample-duration-present, sample-size-present and
+    // sample-flags-present.
+    contents.putInt(0x000701);
+    contents.putInt(samples.size()); // sample_count
+    contents.putInt(dataOffset);
+
+    for (int i = 0; i < samples.size(); i++) {
+      MediaCodec.BufferInfo info = samples.get(i);
+      long durationVu = durationsVu.get(i);
+      if (durationVu >= Integer.MAX_VALUE || durationVu < 0) {
+        throw new IllegalArgumentException(
+            String.format(Locale.US, "Timestamp delta %d doesn't fit into an int", durationVu));
+      }
+      contents.putInt((int) durationVu); // sample_duration
+      contents.putInt(info.size); // sample_size
+      // sample_flags; a sync sample doesn't depend on other samples, while other samples do and
+      // are marked as non-sync samples.
+      boolean isSyncSample =
+          allSamplesAreSyncSamples || (info.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) > 0;
+      contents.putInt(isSyncSample ? 0x02000000 : 0x01010000);
+    }
+
+    contents.flip();
+    return BoxUtils.wrapIntoBox("trun", contents);
+  }
+
   /** Adjusts the duration of the very last sample if needed. */
   private static void adjustLastSampleDuration(
       List<Long> durationsToBeAdjustedVu, @Mp4Muxer.LastFrameDurationBehavior int behavior) {
@@ -1045,9 +1170,9 @@ import java.util.Locale;
     String mimeType = checkNotNull(format.sampleMimeType);
     switch (mimeType) {
       case "video/avc":
-        return "avc1";
+        return format.codecs != null && format.codecs.startsWith("avc3") ? "avc3" : "avc1";
       case "video/hevc":
-        return "hvc1";
+        return format.codecs != null && format.codecs.startsWith("hev1") ? "hev1" : "hvc1";
       case "video/av01":
         return "av01";
       default:
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.muxer;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+import static androidx.mynewmedia4.common.util.Assertions.checkState;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import android.media.MediaCodec;
+import android.media.MediaCodec.BufferInfo;
+import android.util.Pair;
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.MimeTypes;
+import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.muxer.Mp4Muxer.TrackToken;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Writes fragmented MP4 data to a {@link WritableByteChannel}.
+ *
+ * <p>The output starts with an ftyp box and a moov box describing all the tracks, followed by
+ * fragments made of a moof box and an mdat box. The data is written sequentially, so the output
+ * doesn't need to be seekable, and only the samples of the current fragment are held in memory.
+ *
+ * <p>A new fragment starts at the first key frame of the first video track (or at the first sample
+ * of the first track, if there is no video track) that is at least the fragment duration after the
+ * start of the current fragment. A new fragment also starts when another track gets more than the
+ * fragment duration ahead of that track, for example because it's longer and that track has
+ * ended, so that the samples held in memory stay bounded. The samples of the tracks other than the
+ * one starting the new fragment are written to the same fragment up to their latest sample, whose
+ * duration is only known once the next sample is written.
+ *
+ * <p>All the tracks must be added before writing samples, because the moov box is written before
+ * the first fragment.
+ */
+/* package */ final class FragmentedMp4Writer implements Mp4Writer {
+  private final WritableByteChannel output;
+  private final Mp4MoovStructure moovGenerator;
+  private final AnnexBToAvccConverter annexBToAvccConverter;
+  private final long fragmentDurationUs;
+  private final @Mp4Muxer.LastFrameDurationBehavior int lastFrameDurationBehavior;
+  private final List<Track> tracks;
+
+  private boolean headerCreated;
+  @Nullable private Track fragmentBoundaryTrack;
+  private long minInputPtsUs;
+  private int nextFragmentSequenceNumber;
+
+  /**
+   * Creates an instance.
+   *
+   * @param output The {@link WritableByteChannel} to write the data to.
+   * @param moovGenerator An {@link Mp4MoovStructure} instance to generate the moov box.
+   * @param annexBToAvccConverter The {@link AnnexBToAvccConverter} to be used to convert H.264 and
+   *     H.265 NAL units from the Annex-B format (using start codes to delineate NAL units) to the
+   *     AVCC format (which uses length prefixes).
+   * @param fragmentDurationUs The minimum duration of a fragment, in microseconds.
+   * @param lastFrameDurationBehavior The {@link Mp4Muxer.LastFrameDurationBehavior} for the last
+   *     sample of each track.
+   */
+  public FragmentedMp4Writer(
+      WritableByteChannel output,
+      Mp4MoovStructure moovGenerator,
+      AnnexBToAvccConverter annexBToAvccConverter,
+      long fragmentDurationUs,
+      @Mp4Muxer.LastFrameDurationBehavior int lastFrameDurationBehavior) {
+    this.output = output;
+    this.moovGenerator = moovGenerator;
+    this.annexBToAvccConverter = annexBToAvccConverter;
+    this.fragmentDurationUs = fragmentDurationUs;
+    this.lastFrameDurationBehavior = lastFrameDurationBehavior;
+    tracks = new ArrayList<>();
+    minInputPtsUs = C.TIME_UNSET;
+    nextFragmentSequenceNumber = 1;
+  }
+
+  @Override
+  public TrackToken addTrack(int sortKey, Format format) {
+    checkState(!headerCreated, "Tracks must be added before writing samples to a fragmented MP4.");
+    Track track = new Track(format, sortKey);
+    tracks.add(track);
+    Collections.sort(tracks, (a, b) -> Integer.compare(a.sortKey, b.sortKey));
+    return track;
+  }
+
+  @Override
+  public boolean canAddMetadata() {
+    // The metadata is written in the moov box, before the first fragment.
+    return !headerCreated;
+  }
+
+  @Override
+  public void writeSampleData(TrackToken token, ByteBuffer byteBuffer, BufferInfo bufferInfo)
+      throws IOException {
+    checkState(token instanceof Track);
+    Track track = (Track) token;
+    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) > 0) {
+      track.hadKeyframe = true;
+    }
+
+    if (!track.hadKeyframe && MimeTypes.isVideo(track.format.sampleMimeType)) {
+      return;
+    }
+
+    // Skip empty samples.
+    if (bufferInfo.size == 0 || byteBuffer.remaining() == 0) {
+      return;
+    }
+
+    if (!headerCreated) {
+      createHeader();
+    }
+
+    if (shouldStartNewFragment(track, bufferInfo)) {
+      writeFragment(
+          /* nextFragmentStartTrack= */ track,
+          /* nextFragmentStartTimeUs= */ bufferInfo.presentationTimeUs);
+    }
+
+    // Copy sample data and release the original buffer.
+    ByteBuffer byteBufferCopy = ByteBuffer.allocateDirect(byteBuffer.remaining());
+    byteBufferCopy.put(byteBuffer);
+    byteBufferCopy.rewind();
+
+    BufferInfo bufferInfoCopy = new BufferInfo();
+    bufferInfoCopy.set(
+        /* newOffset= */ byteBufferCopy.position(),
+        /* newSize= */ byteBufferCopy.remaining(),
+        bufferInfo.presentationTimeUs,
+        bufferInfo.flags);
+
+    track.pendingSamples.addLast(Pair.create(bufferInfoCopy, byteBufferCopy));
+    track.latestSamplePtsUs = bufferInfo.presentationTimeUs;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      // Leave the output empty if no samples are written.
+      if (headerCreated) {
+        writeFragment(
+            /* nextFragmentStartTrack= */ null, /* nextFragmentStartTimeUs= */ C.TIME_UNSET);
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  private void createHeader() throws IOException {
+    for (int i = 0; i < tracks.size(); i++) {
+      Track track = tracks.get(i);
+      // The moov box assigns consecutive track ids to all the tracks, in the sorted order.
+      track.trackId = i + 1;
+      if (fragmentBoundaryTrack == null && MimeTypes.isVideo(track.format.sampleMimeType)) {
+        fragmentBoundaryTrack = track;
+      }
+    }
+    if (fragmentBoundaryTrack == null) {
+      fragmentBoundaryTrack = tracks.get(0);
+    }
+
+    writeFully(Boxes.ftyp());
+    writeFully(
+        moovGenerator.moovMetadataHeader(
+            tracks, /* minInputPtsUs= */ 0L, /* isFragmentedMp4= */ true));
+    headerCreated = true;
+  }
+
+  private boolean shouldStartNewFragment(Track track, BufferInfo bufferInfo) {
+    if (track.pendingSamples.isEmpty()) {
+      return false;
+    }
+    long bufferedDurationUs =
+        bufferInfo.presentationTimeUs
+            - checkNotNull(track.pendingSamples.peekFirst()).first.presentationTimeUs;
+    Track boundaryTrack = checkNotNull(fragmentBoundaryTrack);
+    if (track != boundaryTrack) {
+      // Don't wait for the boundary track if it's more than a fragment behind this track, for
+      // example because it has ended.
+      return bufferedDurationUs > fragmentDurationUs
+          && (boundaryTrack.latestSamplePtsUs == C.TIME_UNSET
+              || bufferInfo.presentationTimeUs - boundaryTrack.latestSamplePtsUs
+                  > fragmentDurationUs);
+    }
+    if (MimeTypes.isVideo(track.format.sampleMimeType)
+        && (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) == 0) {
+      return false;
+    }
+    return bufferedDurationUs >= fragmentDurationUs;
+  }
+
+  /**
+   * Writes a moof box and an mdat box containing the pending samples.
+   *
+   * <p>Unless this is the last fragment, the latest pending sample of each track other than the
+   * {@code nextFragmentStartTrack} is kept for the next fragment, as its duration isn't known yet.
+   * The duration of the latest sample of the {@code nextFragmentStartTrack} is known from the
+   * sample that starts the next fragment.
+   *
+   * @param nextFragmentStartTrack The {@link Track} of the sample that starts the next fragment, or
+   *     {@code null} if this is the last fragment.
+   * @param nextFragmentStartTimeUs The presentation timestamp of the sample that starts the next
+   *     fragment, or {@link C#TIME_UNSET} if this is the last fragment.
+   */
+  private void writeFragment(@Nullable Track nextFragmentStartTrack, long nextFragmentStartTimeUs)
+      throws IOException {
+    boolean isLastFragment = nextFragmentStartTimeUs == C.TIME_UNSET;
+    if (minInputPtsUs == C.TIME_UNSET) {
+      long minPtsUs = Long.MAX_VALUE;
+      for (int i = 0; i < tracks.size(); i++) {
+        Track track = tracks.get(i);
+        if (!track.pendingSamples.isEmpty()) {
+          BufferInfo firstSampleInfo = checkNotNull(track.pendingSamples.peekFirst()).first;
+          minPtsUs = min(minPtsUs, firstSampleInfo.presentationTimeUs);
+        }
+      }
+      minInputPtsUs = minPtsUs;
+    }
+
+    List<Track> fragmentTracks = new ArrayList<>();
+    List<List<Pair<BufferInfo, ByteBuffer>>> fragmentSamples = new ArrayList<>();
+    List<List<Long>> fragmentDurationsVu = new ArrayList<>();
+    long mdatContentSize = 0;
+    for (int i = 0; i < tracks.size(); i++) {
+      Track track = tracks.get(i);
+      boolean keepLatestSample = !isLastFragment && track != nextFragmentStartTrack;
+      int sampleCount = track.pendingSamples.size() - (keepLatestSample ? 1 : 0);
+      if (sampleCount <= 0) {
+        continue;
+      }
+      List<Pair<BufferInfo, ByteBuffer>> samples = new ArrayList<>(sampleCount);
+      for (int j = 0; j < sampleCount; j++) {
+        Pair<BufferInfo, ByteBuffer> sample = track.pendingSamples.removeFirst();
+        samples.add(sample);
+        mdatContentSize += sample.first.size;
+      }
+      long nextSamplePtsUs;
+      if (track == nextFragmentStartTrack) {
+        nextSamplePtsUs = nextFragmentStartTimeUs;
+      } else {
+        @Nullable Pair<BufferInfo, ByteBuffer> nextSample = track.pendingSamples.peekFirst();
+        nextSamplePtsUs = nextSample == null ? C.TIME_UNSET : nextSample.first.presentationTimeUs;
+      }
+      fragmentTracks.add(track);
+      fragmentSamples.add(samples);
+      fragmentDurationsVu.add(getSampleDurationsVu(track, samples, nextSamplePtsUs));
+    }
+    if (fragmentTracks.isEmpty()) {
+      return;
+    }
+    // The data offsets in the trun boxes are 32-bit values.
+    checkState(mdatContentSize < Integer.MAX_VALUE, "The fragment duration is too long.");
+
+    // The moof box has the same size whatever the data offsets are, so create it once to know its
+    // size and again with the actual data offsets.
+    int mdatHeaderSize = 16;
+    ByteBuffer moof =
+        createMoof(fragmentTracks, fragmentSamples, fragmentDurationsVu, /* dataOffset= */ 0);
+    moof =
+        createMoof(
+            fragmentTracks,
+            fragmentSamples,
+            fragmentDurationsVu,
+            /* dataOffset= */ moof.remaining() + mdatHeaderSize);
+    nextFragmentSequenceNumber++;
+    writeFully(moof);
+
+    ByteBuffer mdatHeader = ByteBuffer.allocate(mdatHeaderSize);
+    mdatHeader.putInt(1); // 4 bytes, indicating a 64-bit length field
+    mdatHeader.put(Util.getUtf8Bytes("mdat")); // 4 bytes
+    mdatHeader.putLong(mdatHeaderSize + mdatContentSize); // 8 bytes (the actual length)
+    mdatHeader.flip();
+    writeFully(mdatHeader);
+
+    for (int i = 0; i < fragmentTracks.size(); i++) {
+      Track track = fragmentTracks.get(i);
+      List<Pair<BufferInfo, ByteBuffer>> samples = fragmentSamples.get(i);
+      for (int j = 0; j < samples.size(); j++) {
+        ByteBuffer buffer = samples.get(j).second;
+        // Convert the H.264/H.265 samples from Annex-B format (output by MediaCodec) to
+        // Avcc format (required by MP4 container).
+        if (MimeTypes.isVideo(track.format.sampleMimeType)) {
+          annexBToAvccConverter.process(buffer);
+        }
+        buffer.rewind();
+        writeFully(buffer);
+      }
+    }
+  }
+
+  private ByteBuffer createMoof(
+      List<Track> fragmentTracks,
+      List<List<Pair<BufferInfo, ByteBuffer>>> fragmentSamples,
+      List<List<Long>> fragmentDurationsVu,
+      int dataOffset) {
+    List<ByteBuffer> trafBoxes = new ArrayList<>();
+    for (int i = 0; i < fragmentTracks.size(); i++) {
+      Track track = fragmentTracks.get(i);
+      List<Pair<BufferInfo, ByteBuffer>> samples = fragmentSamples.get(i);
+      List<BufferInfo> sampleInfos = new ArrayList<>(samples.size());
+      for (int j = 0; j < samples.size(); j++) {
+        sampleInfos.add(samples.get(j).first);
+      }
+      trafBoxes.add(
+          Boxes.traf(
+              Boxes.tfhd(track.trackId),
+              Boxes.tfdt(getTimeVu(track, sampleInfos.get(0).presentationTimeUs)),
+              Boxes.trun(
+                  sampleInfos,
+                  fragmentDurationsVu.get(i),
+                  dataOffset,
+                  /* allSamplesAreSyncSamples= */ !MimeTypes.isVideo(
+                      track.format.sampleMimeType))));
+      for (int j = 0; j < sampleInfos.size(); j++) {
+        dataOffset += sampleInfos.get(j).size;
+      }
+    }
+    return Boxes.moof(Boxes.mfhd(nextFragmentSequenceNumber), trafBoxes);
+  }
+
+  /**
+   * Returns the durations of the {@code samples} of the {@code track}, in the track timebase.
+   *
+   * <p>The timestamps are converted to the track timebase before taking their differences, so that
+   * rounding errors don't accumulate over fragments.
+   *
+   * @param track The {@link Track}.
+   * @param samples The samples.
+   * @param nextSamplePtsUs The presentation timestamp of the sample following the last one in
+   *     {@code samples}, or {@link C#TIME_UNSET} if it's the last sample of the track.
+   * @return The sample durations.
+   */
+  private List<Long> getSampleDurationsVu(
+      Track track, List<Pair<BufferInfo, ByteBuffer>> samples, long nextSamplePtsUs) {
+    List<Long> durationsVu = new ArrayList<>(samples.size());
+    long currentTimeVu = getTimeVu(track, samples.get(0).first.presentationTimeUs);
+    for (int i = 1; i < samples.size(); i++) {
+      long nextTimeVu = getTimeVu(track, samples.get(i).first.presentationTimeUs);
+      durationsVu.add(nextTimeVu - currentTimeVu);
+      currentTimeVu = nextTimeVu;
+    }
+
+    long lastDurationVu;
+    if (nextSamplePtsUs != C.TIME_UNSET) {
+      lastDurationVu = getTimeVu(track, nextSamplePtsUs) - currentTimeVu;
+    } else if (lastFrameDurationBehavior
+        == Mp4Muxer.LAST_FRAME_DURATION_BEHAVIOR_DUPLICATE_PREV_DURATION) {
+      lastDurationVu =
+          durationsVu.isEmpty()
+              ? track.lastSampleDurationVu
+              : durationsVu.get(durationsVu.size() - 1);
+    } else {
+      // Keep the last sample duration as short as possible.
+      lastDurationVu = 0;
+    }
+    durationsVu.add(lastDurationVu);
+    track.lastSampleDurationVu = lastDurationVu;
+    return durationsVu;
+  }
+
+  private long getTimeVu(Track track, long presentationTimeUs) {
+    return Mp4Utils.vuFromUs(max(0, presentationTimeUs - minInputPtsUs), track.videoUnitTimebase());
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      output.write(buffer);
+    }
+  }
+
+  private static class Track implements TrackToken, Mp4MoovStructure.TrackMetadataProvider {
+    private final Format format;
+    private final int sortKey;
+    private final Deque<Pair<BufferInfo, ByteBuffer>> pendingSamples;
+
+    private int trackId;
+    private long lastSampleDurationVu;
+    private long latestSamplePtsUs;
+    private boolean hadKeyframe;
+
+    private Track(Format format, int sortKey) {
+      this.format = format;
+      this.sortKey = sortKey;
+      pendingSamples = new ArrayDeque<>();
+      latestSamplePtsUs = C.TIME_UNSET;
+    }
+
+    @Override
+    public int videoUnitTimebase() {
+      return MimeTypes.isAudio(format.sampleMimeType)
+          ? 48_000 // TODO: b/270583563 - Update these with actual values from mediaFormat.
+          : 90_000;
+    }
+
+    @Override
+    public int sortKey() {
+      return sortKey;
+    }
+
+    // The samples are described by the movie fragments, so the moov box has empty sample tables.
+
+    @Override
+    public ImmutableList<BufferInfo> writtenSamples() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public ImmutableList<Long> writtenChunkOffsets() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public ImmutableList<Integer> writtenChunkSampleCounts() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public Format format() {
+      return format;
+    }
+  }
+}
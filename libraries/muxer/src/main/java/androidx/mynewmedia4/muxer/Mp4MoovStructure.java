@@ -58,17 +58,29 @@ import org.checkerframework.checker.nullness.qual.PolyNull;
     this.lastFrameDurationBehavior = lastFrameDurationBehavior;
   }
 
-  /** Generates a mdat header. */
+  /**
+   * Generates a moov box.
+   *
+   * <p>For a fragmented MP4 file, every track is included even if no samples have been written to
+   * it, the sample tables are left empty and an mvex box is added, because the samples are
+   * described by the movie fragments instead.
+   *
+   * @param tracks The tracks.
+   * @param minInputPtsUs The global minimum presentation timestamp of the written samples.
+   * @param isFragmentedMp4 Whether to generate the moov box of a fragmented MP4 file.
+   * @return The moov box.
+   */
   @SuppressWarnings("InlinedApi")
   public ByteBuffer moovMetadataHeader(
-      List<? extends TrackMetadataProvider> tracks, long minInputPtsUs) {
+      List<? extends TrackMetadataProvider> tracks, long minInputPtsUs, boolean isFragmentedMp4) {
     List<ByteBuffer> trakBoxes = new ArrayList<>();
+    List<ByteBuffer> trexBoxes = new ArrayList<>();
 
     int nextTrackId = 1;
     long videoDurationUs = 0L;
     for (int i = 0; i < tracks.size(); i++) {
       TrackMetadataProvider track = tracks.get(i);
-      if (!track.writtenSamples().isEmpty()) {
+      if (isFragmentedMp4 || !track.writtenSamples().isEmpty()) {
         Format format = track.format();
         String languageCode = bcp47LanguageTagToIso3(format.language);
 
@@ -157,6 +169,9 @@ import org.checkerframework.checker.nullness.qual.PolyNull;
                     Boxes.minf(mhdBox, Boxes.dinf(Boxes.dref(Boxes.localUrl())), stblBox)));
 
         trakBoxes.add(trakBox);
+        if (isFragmentedMp4) {
+          trexBoxes.add(Boxes.trex(nextTrackId));
+        }
         videoDurationUs = max(videoDurationUs, trackDurationUs);
         nextTrackId++;
       }
@@ -175,7 +190,12 @@ import org.checkerframework.checker.nullness.qual.PolyNull;
 
     ByteBuffer moovBox;
     moovBox =
-        Boxes.moov(mvhdBox, udtaBox, metaBox, trakBoxes, /* mvexBox= */ ByteBuffer.allocate(0));
+        Boxes.moov(
+            mvhdBox,
+            udtaBox,
+            metaBox,
+            trakBoxes,
+            /* mvexBox= */ isFragmentedMp4 ? Boxes.mvex(trexBoxes) : ByteBuffer.allocate(0));
 
     // Also add XMP if needed
     if (metadataCollector.xmpData != null) {
@@ -15,7 +15,10 @@
  */
 package androidx.mynewmedia4.muxer;
 
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
 import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+import static androidx.mynewmedia4.common.util.Assertions.checkState;
+import static androidx.mynewmedia4.common.util.Assertions.checkStateNotNull;
 import static java.lang.annotation.ElementType.TYPE_USE;
 
 import android.media.MediaCodec.BufferInfo;
@@ -34,6 +37,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * A muxer for creating an MP4 container file.
@@ -61,6 +65,12 @@ import java.nio.ByteBuffer;
  *   <li>When writing a file, if an error occurs and the muxer is not closed, then the output MP4
  *       file may still have some partial data.
  * </ul>
+ *
+ * <p>If {@linkplain Builder#setFragmentedMp4Enabled(boolean) fragmented MP4 output} is enabled,
+ * the muxer writes the samples in fragments of {@linkplain Builder#setFragmentDurationUs(long) a
+ * given duration} as they are written, without seeking. The output can then be any {@link
+ * WritableByteChannel}, for example one that uploads the data while the file is being created. In
+ * that mode, all the tracks and the metadata must be added before writing any samples.
  */
 @UnstableApi
 public final class Mp4Muxer {
@@ -84,11 +94,17 @@ public final class Mp4Muxer {
    */
   public static final int LAST_FRAME_DURATION_BEHAVIOR_DUPLICATE_PREV_DURATION = 1;
 
+  /** The default duration of the fragments of a fragmented MP4 output, in microseconds. */
+  public static final long DEFAULT_FRAGMENT_DURATION_US = 2_000_000L;
+
   /** A builder for {@link Mp4Muxer} instances. */
   public static final class Builder {
-    private final FileOutputStream fileOutputStream;
+    @Nullable private final FileOutputStream fileOutputStream;
+    @Nullable private final WritableByteChannel outputChannel;
     private @LastFrameDurationBehavior int lastFrameDurationBehavior;
     @Nullable private AnnexBToAvccConverter annexBToAvccConverter;
+    private boolean fragmentedMp4Enabled;
+    private long fragmentDurationUs;
 
     /**
      * Creates a {@link Builder} instance with default values.
@@ -97,7 +113,24 @@ public final class Mp4Muxer {
      */
     public Builder(FileOutputStream fileOutputStream) {
       this.fileOutputStream = checkNotNull(fileOutputStream);
+      outputChannel = null;
+      lastFrameDurationBehavior = LAST_FRAME_DURATION_BEHAVIOR_INSERT_SHORT_FRAME;
+      fragmentDurationUs = DEFAULT_FRAGMENT_DURATION_US;
+    }
+
+    /**
+     * Creates a {@link Builder} instance with default values, for writing a fragmented MP4 file.
+     *
+     * <p>The output doesn't need to be seekable. {@linkplain #setFragmentedMp4Enabled(boolean)
+     * Fragmented MP4 output} must be enabled.
+     *
+     * @param outputChannel The {@link WritableByteChannel} to write the media data to.
+     */
+    public Builder(WritableByteChannel outputChannel) {
+      fileOutputStream = null;
+      this.outputChannel = checkNotNull(outputChannel);
       lastFrameDurationBehavior = LAST_FRAME_DURATION_BEHAVIOR_INSERT_SHORT_FRAME;
+      fragmentDurationUs = DEFAULT_FRAGMENT_DURATION_US;
     }
 
     /**
@@ -125,18 +158,70 @@ public final class Mp4Muxer {
       return this;
     }
 
-    /** Builds an {@link Mp4Muxer} instance. */
+    /**
+     * Sets whether to write a fragmented MP4 file.
+     *
+     * <p>A fragmented MP4 file starts with a moov box describing the tracks, followed by a moof box
+     * and an mdat box for each fragment of samples. It's written sequentially, so it can be
+     * streamed while it's being created, and the muxer only holds the samples of the current
+     * fragment in memory.
+     *
+     * <p>The default value is {@code false}.
+     */
+    @CanIgnoreReturnValue
+    public Mp4Muxer.Builder setFragmentedMp4Enabled(boolean fragmentedMp4Enabled) {
+      this.fragmentedMp4Enabled = fragmentedMp4Enabled;
+      return this;
+    }
+
+    /**
+     * Sets the minimum duration of the fragments of a fragmented MP4 file, in microseconds.
+     *
+     * <p>If there is a video track, a new fragment starts at the first key frame after this
+     * duration, or once another track gets more than this duration ahead of the video track. This
+     * value is ignored if {@linkplain #setFragmentedMp4Enabled(boolean) fragmented MP4 output} is
+     * disabled.
+     *
+     * <p>The default value is {@link #DEFAULT_FRAGMENT_DURATION_US}.
+     */
+    @CanIgnoreReturnValue
+    public Mp4Muxer.Builder setFragmentDurationUs(long fragmentDurationUs) {
+      checkArgument(fragmentDurationUs > 0);
+      this.fragmentDurationUs = fragmentDurationUs;
+      return this;
+    }
+
+    /**
+     * Builds an {@link Mp4Muxer} instance.
+     *
+     * @throws IllegalStateException If the builder was created with a {@link WritableByteChannel}
+     *     and {@linkplain #setFragmentedMp4Enabled(boolean) fragmented MP4 output} is disabled.
+     */
     public Mp4Muxer build() {
       MetadataCollector metadataCollector = new MetadataCollector();
       Mp4MoovStructure moovStructure =
           new Mp4MoovStructure(metadataCollector, lastFrameDurationBehavior);
-      Mp4Writer mp4Writer =
-          new Mp4Writer(
-              fileOutputStream,
-              moovStructure,
-              annexBToAvccConverter == null
-                  ? AnnexBToAvccConverter.DEFAULT
-                  : annexBToAvccConverter);
+      AnnexBToAvccConverter annexBToAvccConverter =
+          this.annexBToAvccConverter == null
+              ? AnnexBToAvccConverter.DEFAULT
+              : this.annexBToAvccConverter;
+      Mp4Writer mp4Writer;
+      if (fragmentedMp4Enabled) {
+        WritableByteChannel output =
+            fileOutputStream != null ? fileOutputStream.getChannel() : checkNotNull(outputChannel);
+        mp4Writer =
+            new FragmentedMp4Writer(
+                output,
+                moovStructure,
+                annexBToAvccConverter,
+                fragmentDurationUs,
+                lastFrameDurationBehavior);
+      } else {
+        FileOutputStream fileOutputStream =
+            checkStateNotNull(
+                this.fileOutputStream, "Only a fragmented MP4 can be written to a byte channel.");
+        mp4Writer = new BasicMp4Writer(fileOutputStream, moovStructure, annexBToAvccConverter);
+      }
 
       return new Mp4Muxer(mp4Writer, metadataCollector);
     }
@@ -162,8 +247,11 @@ public final class Mp4Muxer {
    * Sets the orientation hint for the video playback.
    *
    * @param orientation The orientation, in degrees.
+   * @throws IllegalStateException If fragmented MP4 output is enabled and samples have already
+   *     been written.
    */
   public void setOrientation(int orientation) {
+    checkCanAddMetadata();
     metadataCollector.setOrientation(orientation);
   }
 
@@ -172,10 +260,13 @@ public final class Mp4Muxer {
    *
    * @param latitude The latitude, in degrees. Its value must be in the range [-90, 90].
    * @param longitude The longitude, in degrees. Its value must be in the range [-180, 180].
+   * @throws IllegalStateException If fragmented MP4 output is enabled and samples have already
+   *     been written.
    */
   public void setLocation(
       @FloatRange(from = -90.0, to = 90.0) float latitude,
       @FloatRange(from = -180.0, to = 180.0) float longitude) {
+    checkCanAddMetadata();
     metadataCollector.setLocation(latitude, longitude);
   }
 
@@ -183,8 +274,11 @@ public final class Mp4Muxer {
    * Sets the capture frame rate.
    *
    * @param captureFps The frame rate.
+   * @throws IllegalStateException If fragmented MP4 output is enabled and samples have already
+   *     been written.
    */
   public void setCaptureFps(float captureFps) {
+    checkCanAddMetadata();
     metadataCollector.setCaptureFps(captureFps);
   }
 
@@ -192,8 +286,11 @@ public final class Mp4Muxer {
    * Sets the file modification time.
    *
    * @param timestampMs The modification time UTC in milliseconds since the Unix epoch.
+   * @throws IllegalStateException If fragmented MP4 output is enabled and samples have already
+   *     been written.
    */
   public void setModificationTime(long timestampMs) {
+    checkCanAddMetadata();
     metadataCollector.setModificationTime(timestampMs);
   }
 
@@ -202,8 +299,11 @@ public final class Mp4Muxer {
    *
    * @param key The metadata key in {@link String} format.
    * @param value The metadata value in {@link String} or {@link Float} format.
+   * @throws IllegalStateException If fragmented MP4 output is enabled and samples have already
+   *     been written.
    */
   public void addMetadata(String key, Object value) {
+    checkCanAddMetadata();
     metadataCollector.addMetadata(key, value);
   }
 
@@ -211,8 +311,11 @@ public final class Mp4Muxer {
    * Adds xmp data.
    *
    * @param xmp The xmp {@link ByteBuffer}.
+   * @throws IllegalStateException If fragmented MP4 output is enabled and samples have already
+   *     been written.
    */
   public void addXmp(ByteBuffer xmp) {
+    checkCanAddMetadata();
     metadataCollector.addXmp(xmp);
   }
 
@@ -220,15 +323,23 @@ public final class Mp4Muxer {
    * Adds a track of the given media format.
    *
    * <p>Tracks can be added at any point before the muxer is closed, even after writing samples to
-   * other tracks.
+   * other tracks. If {@linkplain Builder#setFragmentedMp4Enabled(boolean) fragmented MP4 output}
+   * is enabled, tracks must be added before writing any samples.
    *
    * <p>The final order of tracks is determined by the provided sort key. Tracks with a lower sort
    * key will always have a lower track id than tracks with a higher sort key. Ordering between
    * tracks with the same sort key is not specified.
    *
+   * <p>For H.264 and H.265 tracks, the sample entry is {@code avc1} or {@code hvc1} unless the
+   * {@link Format#codecs} start with {@code avc3} or {@code hev1}. In that case, the keyframes can
+   * carry their own parameter sets in-band, for example when samples coming from different encoders
+   * share the track.
+   *
    * @param sortKey The key used for sorting the track list.
    * @param format The {@link Format} for the track.
    * @return A unique {@link TrackToken}. It should be used in {@link #writeSampleData}.
+   * @throws IllegalStateException If fragmented MP4 output is enabled and samples have already
+   *     been written.
    */
   public TrackToken addTrack(int sortKey, Format format) {
     return mp4Writer.addTrack(sortKey, format);
@@ -251,4 +362,10 @@ public final class Mp4Muxer {
   public void close() throws IOException {
     mp4Writer.close();
   }
+
+  private void checkCanAddMetadata() {
+    checkState(
+        mp4Writer.canAddMetadata(),
+        "Metadata must be added before writing samples to a fragmented MP4.");
+  }
 }
@@ -31,6 +31,7 @@ import androidx.mynewmedia4.test.utils.DumpableMp4Box;
 import androidx.mynewmedia4.test.utils.TestUtil;
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.BaseEncoding;
 import java.io.IOException;
@@ -329,6 +330,19 @@ public class BoxesTest {
         context, dumpableBox, MuxerTestUtil.getExpectedDumpFilePath("video_sample_entry_box_h264"));
   }
 
+  @Test
+  public void createVideoSampleEntryBox_forH264WithInBandParameterSets_usesAvc3SampleEntry() {
+    Format format =
+        MuxerTestUtil.getFakeVideoFormat().buildUpon().setCodecs("avc3.F4000A").build();
+
+    ByteBuffer videoSampleEntryBox = Boxes.videoSampleEntry(format);
+
+    byte[] boxType = new byte[4];
+    videoSampleEntryBox.position(4);
+    videoSampleEntryBox.get(boxType);
+    assertThat(new String(boxType, Charsets.UTF_8)).isEqualTo("avc3");
+  }
+
   @Test
   public void createVideoSampleEntryBox_forAv1_matchesExpected() throws IOException {
     Format format =
@@ -563,6 +577,103 @@ public class BoxesTest {
         context, dumpableBox, MuxerTestUtil.getExpectedDumpFilePath("ftyp_box"));
   }
 
+  @Test
+  public void createTrexBox_matchesExpected() throws IOException {
+    ByteBuffer trexBox = Boxes.trex(/* trackId= */ 1);
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(trexBox);
+    DumpFileAsserts.assertOutput(context, dumpableBox, getExpectedDumpFilePath("trex_box"));
+  }
+
+  @Test
+  public void createMvexBox_matchesExpected() throws IOException {
+    ByteBuffer mvexBox =
+        Boxes.mvex(ImmutableList.of(Boxes.trex(/* trackId= */ 1), Boxes.trex(/* trackId= */ 2)));
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(mvexBox);
+    DumpFileAsserts.assertOutput(context, dumpableBox, getExpectedDumpFilePath("mvex_box"));
+  }
+
+  @Test
+  public void createMfhdBox_matchesExpected() throws IOException {
+    ByteBuffer mfhdBox = Boxes.mfhd(/* sequenceNumber= */ 5);
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(mfhdBox);
+    DumpFileAsserts.assertOutput(context, dumpableBox, getExpectedDumpFilePath("mfhd_box"));
+  }
+
+  @Test
+  public void createTfhdBox_matchesExpected() throws IOException {
+    ByteBuffer tfhdBox = Boxes.tfhd(/* trackId= */ 2);
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(tfhdBox);
+    DumpFileAsserts.assertOutput(context, dumpableBox, getExpectedDumpFilePath("tfhd_box"));
+  }
+
+  @Test
+  public void createTfdtBox_matchesExpected() throws IOException {
+    ByteBuffer tfdtBox = Boxes.tfdt(/* baseMediaDecodeTimeVu= */ 1_000_000L);
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(tfdtBox);
+    DumpFileAsserts.assertOutput(context, dumpableBox, getExpectedDumpFilePath("tfdt_box"));
+  }
+
+  @Test
+  public void createTrunBox_matchesExpected() throws IOException {
+    List<MediaCodec.BufferInfo> sampleBufferInfos =
+        createBufferInfoListWithSampleSizes(100, 200, 150, 200);
+    sampleBufferInfos.get(0).flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+
+    ByteBuffer trunBox =
+        Boxes.trun(
+            sampleBufferInfos,
+            /* durationsVu= */ ImmutableList.of(3_000L, 3_000L, 3_000L, 0L),
+            /* dataOffset= */ 500,
+            /* allSamplesAreSyncSamples= */ false);
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(trunBox);
+    DumpFileAsserts.assertOutput(context, dumpableBox, getExpectedDumpFilePath("trun_box"));
+  }
+
+  @Test
+  public void createTrunBox_withAllSamplesAreSyncSamples_matchesExpected() throws IOException {
+    List<MediaCodec.BufferInfo> sampleBufferInfos =
+        createBufferInfoListWithSampleSizes(100, 200, 150, 200);
+
+    ByteBuffer trunBox =
+        Boxes.trun(
+            sampleBufferInfos,
+            /* durationsVu= */ ImmutableList.of(3_000L, 3_000L, 3_000L, 0L),
+            /* dataOffset= */ 500,
+            /* allSamplesAreSyncSamples= */ true);
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(trunBox);
+    DumpFileAsserts.assertOutput(
+        context, dumpableBox, getExpectedDumpFilePath("trun_box_all_sync_samples"));
+  }
+
+  @Test
+  public void createMoofBox_matchesExpected() throws IOException {
+    List<MediaCodec.BufferInfo> sampleBufferInfos =
+        createBufferInfoListWithSampleSizes(100, 200, 150, 200);
+    sampleBufferInfos.get(0).flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+    ByteBuffer trafBox =
+        Boxes.traf(
+            Boxes.tfhd(/* trackId= */ 1),
+            Boxes.tfdt(/* baseMediaDecodeTimeVu= */ 0L),
+            Boxes.trun(
+                sampleBufferInfos,
+                /* durationsVu= */ ImmutableList.of(3_000L, 3_000L, 3_000L, 0L),
+                /* dataOffset= */ 500,
+                /* allSamplesAreSyncSamples= */ false));
+
+    ByteBuffer moofBox =
+        Boxes.moof(Boxes.mfhd(/* sequenceNumber= */ 1), ImmutableList.of(trafBox));
+
+    DumpableMp4Box dumpableBox = new DumpableMp4Box(moofBox);
+    DumpFileAsserts.assertOutput(context, dumpableBox, getExpectedDumpFilePath("moof_box"));
+  }
+
   private static List<MediaCodec.BufferInfo> createBufferInfoListWithSamplePresentationTimestamps(
       long... timestampsUs) {
     List<MediaCodec.BufferInfo> bufferInfoList = new ArrayList<>();
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.muxer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import android.media.MediaCodec.BufferInfo;
+import android.util.Pair;
+import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.util.ParsableByteArray;
+import androidx.mynewmedia4.extractor.mp4.FragmentedMp4Extractor;
+import androidx.mynewmedia4.muxer.Mp4Muxer.TrackToken;
+import androidx.mynewmedia4.test.utils.FakeExtractorOutput;
+import androidx.mynewmedia4.test.utils.FakeTrackOutput;
+import androidx.mynewmedia4.test.utils.TestUtil;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** End to end tests for {@link Mp4Muxer} writing fragmented MP4 files. */
+@RunWith(AndroidJUnit4.class)
+public class Mp4MuxerFragmentedTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Format format;
+  private String outputFilePath;
+  private FileOutputStream outputFileStream;
+
+  @Before
+  public void setUp() throws IOException {
+    outputFilePath = temporaryFolder.newFile("output.mp4").getPath();
+    outputFileStream = new FileOutputStream(outputFilePath);
+
+    format = MuxerTestUtil.getFakeVideoFormat();
+  }
+
+  @Test
+  public void createFragmentedMp4File_addTrackButNoSamples_createsEmptyFile() throws IOException {
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(outputFileStream).setFragmentedMp4Enabled(true).build();
+
+    try {
+      mp4Muxer.addTrack(/* sortKey= */ 0, format);
+    } finally {
+      mp4Muxer.close();
+    }
+
+    byte[] outputFileBytes = TestUtil.getByteArrayFromFilePath(outputFilePath);
+    assertThat(outputFileBytes).isEmpty();
+  }
+
+  @Test
+  public void createFragmentedMp4File_withMultipleFragments_containsAllSamples()
+      throws IOException {
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(outputFileStream)
+            .setFragmentedMp4Enabled(true)
+            .setFragmentDurationUs(1_000_000L)
+            .build();
+
+    try {
+      TrackToken track = mp4Muxer.addTrack(/* sortKey= */ 0, format);
+      for (long timeUs = 100_000L; timeUs <= 2_600_000L; timeUs += 500_000L) {
+        writeFakeSample(mp4Muxer, track, timeUs);
+      }
+    } finally {
+      mp4Muxer.close();
+    }
+
+    FakeExtractorOutput fakeExtractorOutput =
+        TestUtil.extractAllSamplesFromFilePath(new FragmentedMp4Extractor(), outputFilePath);
+    assertThat(fakeExtractorOutput.numberOfTracks).isEqualTo(1);
+    assertThat(fakeExtractorOutput.trackOutputs.get(0).getSampleTimesUs())
+        .containsExactly(0L, 500_000L, 1_000_000L, 1_500_000L, 2_000_000L, 2_500_000L)
+        .inOrder();
+    assertThat(getFragmentSequenceNumbers(TestUtil.getByteArrayFromFilePath(outputFilePath)))
+        .containsExactly(1, 2, 3)
+        .inOrder();
+  }
+
+  @Test
+  public void createFragmentedMp4File_withInterleavedTracks_containsAllSamplesOfEachTrack()
+      throws IOException {
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(outputFileStream)
+            .setFragmentedMp4Enabled(true)
+            .setFragmentDurationUs(1_000_000L)
+            .build();
+
+    try {
+      TrackToken track1 = mp4Muxer.addTrack(/* sortKey= */ 0, format);
+      TrackToken track2 = mp4Muxer.addTrack(/* sortKey= */ 1, format);
+      for (long timeUs = 0L; timeUs <= 2_000_000L; timeUs += 500_000L) {
+        writeFakeSample(mp4Muxer, track1, timeUs);
+        writeFakeSample(mp4Muxer, track2, timeUs + 250_000L);
+      }
+    } finally {
+      mp4Muxer.close();
+    }
+
+    FakeExtractorOutput fakeExtractorOutput =
+        TestUtil.extractAllSamplesFromFilePath(new FragmentedMp4Extractor(), outputFilePath);
+    assertThat(fakeExtractorOutput.numberOfTracks).isEqualTo(2);
+    FakeTrackOutput trackOutput1 = fakeExtractorOutput.trackOutputs.get(0);
+    FakeTrackOutput trackOutput2 = fakeExtractorOutput.trackOutputs.get(1);
+    assertThat(trackOutput1.getSampleTimesUs())
+        .containsExactly(0L, 500_000L, 1_000_000L, 1_500_000L, 2_000_000L)
+        .inOrder();
+    assertThat(trackOutput2.getSampleTimesUs())
+        .containsExactly(250_000L, 750_000L, 1_250_000L, 1_750_000L, 2_250_000L)
+        .inOrder();
+  }
+
+  @Test
+  public void createFragmentedMp4File_withAudioLongerThanVideo_startsFragmentsWithoutVideo()
+      throws IOException {
+    Format audioFormat =
+        MuxerTestUtil.getFakeAudioFormat()
+            .buildUpon()
+            .setInitializationData(ImmutableList.of(new byte[] {0x12, 0x10}))
+            .build();
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(outputFileStream)
+            .setFragmentedMp4Enabled(true)
+            .setFragmentDurationUs(1_000_000L)
+            .build();
+
+    try {
+      TrackToken videoTrack = mp4Muxer.addTrack(/* sortKey= */ 0, format);
+      TrackToken audioTrack = mp4Muxer.addTrack(/* sortKey= */ 1, audioFormat);
+      for (long timeUs = 0L; timeUs <= 4_000_000L; timeUs += 500_000L) {
+        if (timeUs < 1_000_000L) {
+          writeFakeSample(mp4Muxer, videoTrack, timeUs);
+        }
+        writeFakeSample(mp4Muxer, audioTrack, timeUs);
+      }
+    } finally {
+      mp4Muxer.close();
+    }
+
+    FakeExtractorOutput fakeExtractorOutput =
+        TestUtil.extractAllSamplesFromFilePath(new FragmentedMp4Extractor(), outputFilePath);
+    assertThat(fakeExtractorOutput.numberOfTracks).isEqualTo(2);
+    assertThat(fakeExtractorOutput.trackOutputs.get(0).getSampleTimesUs())
+        .containsExactly(0L, 500_000L)
+        .inOrder();
+    assertThat(fakeExtractorOutput.trackOutputs.get(1).getSampleTimesUs())
+        .containsExactly(
+            0L,
+            500_000L,
+            1_000_000L,
+            1_500_000L,
+            2_000_000L,
+            2_500_000L,
+            3_000_000L,
+            3_500_000L,
+            4_000_000L)
+        .inOrder();
+    // The audio samples are written in fragments once the video track has ended.
+    assertThat(getFragmentSequenceNumbers(TestUtil.getByteArrayFromFilePath(outputFilePath)))
+        .containsExactly(1, 2, 3)
+        .inOrder();
+  }
+
+  @Test
+  public void createFragmentedMp4File_toNonSeekableChannel_containsAllSamples()
+      throws IOException {
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(Channels.newChannel(outputFileStream))
+            .setFragmentedMp4Enabled(true)
+            .build();
+
+    try {
+      TrackToken track = mp4Muxer.addTrack(/* sortKey= */ 0, format);
+      writeFakeSample(mp4Muxer, track, /* presentationTimeUs= */ 0L);
+      writeFakeSample(mp4Muxer, track, /* presentationTimeUs= */ 100_000L);
+    } finally {
+      mp4Muxer.close();
+    }
+
+    FakeExtractorOutput fakeExtractorOutput =
+        TestUtil.extractAllSamplesFromFilePath(new FragmentedMp4Extractor(), outputFilePath);
+    assertThat(fakeExtractorOutput.trackOutputs.get(0).getSampleTimesUs())
+        .containsExactly(0L, 100_000L)
+        .inOrder();
+  }
+
+  @Test
+  public void addTrack_afterWritingSamples_throws() throws IOException {
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(outputFileStream).setFragmentedMp4Enabled(true).build();
+
+    try {
+      TrackToken track = mp4Muxer.addTrack(/* sortKey= */ 0, format);
+      writeFakeSample(mp4Muxer, track, /* presentationTimeUs= */ 0L);
+
+      assertThrows(
+          IllegalStateException.class, () -> mp4Muxer.addTrack(/* sortKey= */ 1, format));
+    } finally {
+      mp4Muxer.close();
+    }
+  }
+
+  @Test
+  public void addMetadata_afterWritingSamples_throws() throws IOException {
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(outputFileStream).setFragmentedMp4Enabled(true).build();
+
+    try {
+      TrackToken track = mp4Muxer.addTrack(/* sortKey= */ 0, format);
+      writeFakeSample(mp4Muxer, track, /* presentationTimeUs= */ 0L);
+
+      assertThrows(IllegalStateException.class, () -> mp4Muxer.setOrientation(90));
+      assertThrows(
+          IllegalStateException.class,
+          () -> mp4Muxer.setLocation(/* latitude= */ 33.0f, /* longitude= */ -120f));
+      assertThrows(IllegalStateException.class, () -> mp4Muxer.setCaptureFps(120.0f));
+      assertThrows(
+          IllegalStateException.class, () -> mp4Muxer.setModificationTime(1_000_000_000L));
+      assertThrows(
+          IllegalStateException.class, () -> mp4Muxer.addMetadata("StringKey", "StringValue"));
+      assertThrows(
+          IllegalStateException.class,
+          () -> mp4Muxer.addXmp(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+    } finally {
+      mp4Muxer.close();
+    }
+  }
+
+  @Test
+  public void addMetadata_beforeWritingSamples_doesNotThrow() throws IOException {
+    Mp4Muxer mp4Muxer =
+        new Mp4Muxer.Builder(outputFileStream).setFragmentedMp4Enabled(true).build();
+
+    try {
+      TrackToken track = mp4Muxer.addTrack(/* sortKey= */ 0, format);
+      mp4Muxer.setOrientation(90);
+      mp4Muxer.setCaptureFps(120.0f);
+      mp4Muxer.addMetadata("StringKey", "StringValue");
+      writeFakeSample(mp4Muxer, track, /* presentationTimeUs= */ 0L);
+    } finally {
+      mp4Muxer.close();
+    }
+
+    FakeExtractorOutput fakeExtractorOutput =
+        TestUtil.extractAllSamplesFromFilePath(new FragmentedMp4Extractor(), outputFilePath);
+    assertThat(fakeExtractorOutput.trackOutputs.get(0).getSampleTimesUs()).containsExactly(0L);
+  }
+
+  @Test
+  public void build_withChannelAndFragmentedMp4Disabled_throws() {
+    Mp4Muxer.Builder builder = new Mp4Muxer.Builder(Channels.newChannel(outputFileStream));
+
+    assertThrows(IllegalStateException.class, builder::build);
+  }
+
+  private static void writeFakeSample(
+      Mp4Muxer mp4Muxer, TrackToken trackToken, long presentationTimeUs) throws IOException {
+    Pair<ByteBuffer, BufferInfo> sampleAndSampleInfo =
+        MuxerTestUtil.getFakeSampleAndSampleInfo(presentationTimeUs);
+    mp4Muxer.writeSampleData(trackToken, sampleAndSampleInfo.first, sampleAndSampleInfo.second);
+  }
+
+  /** Returns the sequence numbers in the mfhd boxes of the top-level moof boxes, in order. */
+  private static ImmutableList<Integer> getFragmentSequenceNumbers(byte[] fileBytes) {
+    ParsableByteArray data = new ParsableByteArray(fileBytes);
+    ImmutableList.Builder<Integer> sequenceNumbers = new ImmutableList.Builder<>();
+    while (data.bytesLeft() > 0) {
+      int boxStartPosition = data.getPosition();
+      long boxSize = data.readUnsignedInt();
+      String boxType = data.readString(/* length= */ 4);
+      if (boxSize == 1) {
+        boxSize = data.readUnsignedLongToLong();
+      }
+      if (boxType.equals("moof")) {
+        // The mfhd box is the first box in the moof box.
+        data.skipBytes(/* mfhd box size */ 4);
+        assertThat(data.readString(/* length= */ 4)).isEqualTo("mfhd");
+        data.skipBytes(/* version and flags */ 4);
+        sequenceNumbers.add(data.readInt());
+      }
+      data.setPosition(boxStartPosition + (int) boxSize);
+    }
+    return sequenceNumbers.build();
+  }
+}
@@ -0,0 +1,657 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.test.utils;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+import static androidx.mynewmedia4.common.util.Assertions.checkState;
+import static java.lang.Math.min;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.MimeTypes;
+import androidx.mynewmedia4.common.Timeline;
+import androidx.mynewmedia4.common.TrackGroup;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.datasource.TransferListener;
+import androidx.mynewmedia4.exoplayer.DefaultLoadControl;
+import androidx.mynewmedia4.exoplayer.LoadControl;
+import androidx.mynewmedia4.exoplayer.Renderer;
+import androidx.mynewmedia4.exoplayer.source.MediaSource.MediaPeriodId;
+import androidx.mynewmedia4.exoplayer.source.TrackGroupArray;
+import androidx.mynewmedia4.exoplayer.source.chunk.ChunkHolder;
+import androidx.mynewmedia4.exoplayer.source.chunk.MediaChunk;
+import androidx.mynewmedia4.exoplayer.trackselection.AdaptiveTrackSelection;
+import androidx.mynewmedia4.exoplayer.trackselection.ExoTrackSelection;
+import androidx.mynewmedia4.exoplayer.upstream.Allocation;
+import androidx.mynewmedia4.exoplayer.upstream.Allocator;
+import androidx.mynewmedia4.exoplayer.upstream.BandwidthMeter;
+import androidx.mynewmedia4.exoplayer.upstream.DefaultBandwidthMeter;
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic simulator that replays a {@link NetworkTrace} through the adaptive loading stack in
+ * accelerated time.
+ *
+ * <p>Chunks are generated by a {@link FakeChunkSource} over a {@link FakeAdaptiveDataSet} and read
+ * through a {@link FakeDataSource} that reports its transfers to the {@link BandwidthMeter}. The
+ * {@link FakeClock} is advanced by the time each read would take on the simulated network, so the
+ * {@link ExoTrackSelection}, {@link BandwidthMeter} and {@link LoadControl} under test observe the
+ * same timing as on a real network, without any real waiting.
+ *
+ * <p>A simulator instance can only be run once, because the bandwidth meter, track selection and
+ * load control keep state between runs.
+ */
+@UnstableApi
+public final class AbrSimulator {
+
+  /** Quality of experience metrics of a simulated playback. */
+  public static final class Result {
+
+    /** The time from the start of the simulation until playback started, in milliseconds. */
+    public final long startupTimeMs;
+
+    /** The number of times playback stalled because the buffer ran empty. */
+    public final int rebufferCount;
+
+    /** The total duration of all stalls, in milliseconds. */
+    public final long rebufferDurationMs;
+
+    /** The total duration of media played, in milliseconds. */
+    public final long playingDurationMs;
+
+    /** The average bitrate of the loaded media, weighted by chunk duration, in bits per second. */
+    public final long averageBitrate;
+
+    /** The number of times the format changed between consecutive chunks. */
+    public final int switchCount;
+
+    /** The total number of bytes loaded. */
+    public final long bytesLoaded;
+
+    /** The {@link Format} of each loaded chunk, in loading order. */
+    public final ImmutableList<Format> chunkFormats;
+
+    private Result(
+        long startupTimeMs,
+        int rebufferCount,
+        long rebufferDurationMs,
+        long playingDurationMs,
+        long averageBitrate,
+        int switchCount,
+        long bytesLoaded,
+        ImmutableList<Format> chunkFormats) {
+      this.startupTimeMs = startupTimeMs;
+      this.rebufferCount = rebufferCount;
+      this.rebufferDurationMs = rebufferDurationMs;
+      this.playingDurationMs = playingDurationMs;
+      this.averageBitrate = averageBitrate;
+      this.switchCount = switchCount;
+      this.bytesLoaded = bytesLoaded;
+      this.chunkFormats = chunkFormats;
+    }
+
+    /**
+     * Returns the fraction of the time after startup that was spent rebuffering, or 0 if nothing
+     * was played.
+     */
+    public float getRebufferRatio() {
+      long totalDurationMs = playingDurationMs + rebufferDurationMs;
+      return totalDurationMs == 0 ? 0 : (float) rebufferDurationMs / totalDurationMs;
+    }
+
+    @Override
+    public String toString() {
+      return "startupTimeMs="
+          + startupTimeMs
+          + ", rebufferCount="
+          + rebufferCount
+          + ", rebufferDurationMs="
+          + rebufferDurationMs
+          + ", rebufferRatio="
+          + getRebufferRatio()
+          + ", averageBitrate="
+          + averageBitrate
+          + ", switchCount="
+          + switchCount
+          + ", bytesLoaded="
+          + bytesLoaded;
+    }
+  }
+
+  /** Builder for {@link AbrSimulator} instances. */
+  public static final class Builder {
+
+    private final Context context;
+
+    @Nullable private FakeClock clock;
+    @Nullable private BandwidthMeter bandwidthMeter;
+    @Nullable private ExoTrackSelection.Factory trackSelectionFactory;
+    @Nullable private LoadControl loadControl;
+    private long chunkDurationUs;
+    private double bitratePercentStdDev;
+    private long randomSeed;
+    private long requestLatencyMs;
+    private long evaluationIntervalMs;
+    private long maxSimulationDurationMs;
+
+    /**
+     * Creates a builder.
+     *
+     * @param context A {@link Context}.
+     */
+    public Builder(Context context) {
+      this.context = context.getApplicationContext();
+      chunkDurationUs = DEFAULT_CHUNK_DURATION_US;
+      evaluationIntervalMs = DEFAULT_EVALUATION_INTERVAL_MS;
+      maxSimulationDurationMs = C.TIME_UNSET;
+    }
+
+    /**
+     * Sets the {@link FakeClock} advanced by the simulation. A {@link BandwidthMeter} or {@link
+     * ExoTrackSelection.Factory} set on this builder must use the same clock.
+     *
+     * @param clock The {@link FakeClock}.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setClock(FakeClock clock) {
+      this.clock = clock;
+      return this;
+    }
+
+    /**
+     * Sets the {@link BandwidthMeter} under test. The default is a {@link DefaultBandwidthMeter}
+     * using the simulation clock.
+     *
+     * @param bandwidthMeter The {@link BandwidthMeter}.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setBandwidthMeter(BandwidthMeter bandwidthMeter) {
+      this.bandwidthMeter = bandwidthMeter;
+      return this;
+    }
+
+    /**
+     * Sets the {@link ExoTrackSelection.Factory} under test. The default is an {@link
+     * AdaptiveTrackSelection.Factory} with default parameters using the simulation clock.
+     *
+     * @param trackSelectionFactory The {@link ExoTrackSelection.Factory}.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setTrackSelectionFactory(ExoTrackSelection.Factory trackSelectionFactory) {
+      this.trackSelectionFactory = trackSelectionFactory;
+      return this;
+    }
+
+    /**
+     * Sets the {@link LoadControl} under test. The default is a {@link DefaultLoadControl}.
+     *
+     * @param loadControl The {@link LoadControl}.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setLoadControl(LoadControl loadControl) {
+      this.loadControl = loadControl;
+      return this;
+    }
+
+    /**
+     * Sets the duration of each chunk of the simulated media. The default is {@link
+     * #DEFAULT_CHUNK_DURATION_US}.
+     *
+     * @param chunkDurationUs The chunk duration, in microseconds.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setChunkDurationUs(long chunkDurationUs) {
+      checkArgument(chunkDurationUs > 0);
+      this.chunkDurationUs = chunkDurationUs;
+      return this;
+    }
+
+    /**
+     * Sets the standard deviation of the chunk sizes around the average bitrate of each format,
+     * in percent. The default is 0, meaning all chunks of a format have the same bitrate.
+     *
+     * @param bitratePercentStdDev The standard deviation of the chunk sizes, in percent.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setBitratePercentStdDev(double bitratePercentStdDev) {
+      this.bitratePercentStdDev = bitratePercentStdDev;
+      return this;
+    }
+
+    /**
+     * Sets the seed used to generate the chunk size variation. The default is 0.
+     *
+     * @param randomSeed The random seed.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setRandomSeed(long randomSeed) {
+      this.randomSeed = randomSeed;
+      return this;
+    }
+
+    /**
+     * Sets the time between opening a chunk request and receiving its first byte. The default is
+     * 0.
+     *
+     * @param requestLatencyMs The request latency, in milliseconds.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setRequestLatencyMs(long requestLatencyMs) {
+      checkArgument(requestLatencyMs >= 0);
+      this.requestLatencyMs = requestLatencyMs;
+      return this;
+    }
+
+    /**
+     * Sets the interval at which the load control is queried while no chunk is loading. The
+     * default is {@link #DEFAULT_EVALUATION_INTERVAL_MS}.
+     *
+     * @param evaluationIntervalMs The evaluation interval, in milliseconds.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setEvaluationIntervalMs(long evaluationIntervalMs) {
+      checkArgument(evaluationIntervalMs > 0);
+      this.evaluationIntervalMs = evaluationIntervalMs;
+      return this;
+    }
+
+    /**
+     * Sets the maximum simulated time a simulation may take before it fails. This stops
+     * simulations that can't make progress, for example because the {@link LoadControl} never
+     * continues loading or the network is too slow to ever finish the media. The default is {@link
+     * C#TIME_UNSET}, meaning {@link #DEFAULT_MAX_SIMULATION_DURATION_FACTOR} times the media
+     * duration.
+     *
+     * @param maxSimulationDurationMs The maximum simulated time, in milliseconds, or {@link
+     *     C#TIME_UNSET} to use the default.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder setMaxSimulationDurationMs(long maxSimulationDurationMs) {
+      checkArgument(maxSimulationDurationMs > 0 || maxSimulationDurationMs == C.TIME_UNSET);
+      this.maxSimulationDurationMs = maxSimulationDurationMs;
+      return this;
+    }
+
+    /** Builds the simulator. */
+    public AbrSimulator build() {
+      FakeClock clock = this.clock != null ? this.clock : new FakeClock(/* initialTimeMs= */ 0);
+      BandwidthMeter bandwidthMeter =
+          this.bandwidthMeter != null
+              ? this.bandwidthMeter
+              : new DefaultBandwidthMeter.Builder(context)
+                  .setClock(clock)
+                  .setResetOnNetworkTypeChange(false)
+                  .build();
+      ExoTrackSelection.Factory trackSelectionFactory =
+          this.trackSelectionFactory != null
+              ? this.trackSelectionFactory
+              : new AdaptiveTrackSelection.Factory(
+                  AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+                  AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+                  AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+                  AdaptiveTrackSelection.DEFAULT_MAX_WIDTH_TO_DISCARD,
+                  AdaptiveTrackSelection.DEFAULT_MAX_HEIGHT_TO_DISCARD,
+                  AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+                  AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+                  clock);
+      LoadControl loadControl =
+          this.loadControl != null ? this.loadControl : new DefaultLoadControl();
+      return new AbrSimulator(
+          clock,
+          bandwidthMeter,
+          trackSelectionFactory,
+          loadControl,
+          chunkDurationUs,
+          bitratePercentStdDev,
+          randomSeed,
+          requestLatencyMs,
+          evaluationIntervalMs,
+          maxSimulationDurationMs);
+    }
+  }
+
+  /** The default chunk duration, in microseconds. */
+  public static final long DEFAULT_CHUNK_DURATION_US = 4 * C.MICROS_PER_SECOND;
+
+  /**
+   * The default interval at which the load control is queried while no chunk is loading, in
+   * milliseconds.
+   */
+  public static final long DEFAULT_EVALUATION_INTERVAL_MS = 10;
+
+  /**
+   * The default maximum simulated time of a simulation, as a multiple of the media duration.
+   *
+   * @see Builder#setMaxSimulationDurationMs(long)
+   */
+  public static final int DEFAULT_MAX_SIMULATION_DURATION_FACTOR = 10;
+
+  private static final int READ_LENGTH = 16 * 1024;
+
+  private final FakeClock clock;
+  private final BandwidthMeter bandwidthMeter;
+  private final ExoTrackSelection.Factory trackSelectionFactory;
+  private final LoadControl loadControl;
+  private final long chunkDurationUs;
+  private final double bitratePercentStdDev;
+  private final long randomSeed;
+  private final long requestLatencyMs;
+  private final long evaluationIntervalMs;
+  private final long maxSimulationDurationMs;
+  private final MediaPeriodId mediaPeriodId;
+  private final List<MediaChunk> queue;
+  private final ArrayDeque<BufferedChunk> bufferedChunks;
+  private final byte[] readBuffer;
+
+  private boolean simulated;
+  private long simulationStartTimeMs;
+  private long simulationDeadlineMs;
+  private long mediaDurationUs;
+  private long playbackPositionUs;
+  private long loadPositionUs;
+  private boolean isEndOfStream;
+  private boolean isPlaying;
+  private boolean isRebuffering;
+  private long startupTimeMs;
+  private int rebufferCount;
+  private long rebufferDurationUs;
+  private long playingDurationUs;
+
+  private AbrSimulator(
+      FakeClock clock,
+      BandwidthMeter bandwidthMeter,
+      ExoTrackSelection.Factory trackSelectionFactory,
+      LoadControl loadControl,
+      long chunkDurationUs,
+      double bitratePercentStdDev,
+      long randomSeed,
+      long requestLatencyMs,
+      long evaluationIntervalMs,
+      long maxSimulationDurationMs) {
+    this.clock = clock;
+    this.bandwidthMeter = bandwidthMeter;
+    this.trackSelectionFactory = trackSelectionFactory;
+    this.loadControl = loadControl;
+    this.chunkDurationUs = chunkDurationUs;
+    this.bitratePercentStdDev = bitratePercentStdDev;
+    this.randomSeed = randomSeed;
+    this.requestLatencyMs = requestLatencyMs;
+    this.evaluationIntervalMs = evaluationIntervalMs;
+    this.maxSimulationDurationMs = maxSimulationDurationMs;
+    mediaPeriodId = new MediaPeriodId(/* periodUid= */ new Object());
+    queue = new ArrayList<>();
+    bufferedChunks = new ArrayDeque<>();
+    readBuffer = new byte[READ_LENGTH];
+    startupTimeMs = C.TIME_UNSET;
+  }
+
+  /**
+   * Simulates the playback of adaptive media over a network with the given throughput.
+   *
+   * @param trackGroup The {@link TrackGroup} to adapt between. All formats must have a bitrate.
+   * @param mediaDurationUs The duration of the media, in microseconds.
+   * @param networkTrace The {@link NetworkTrace} to replay.
+   * @return The {@link Result} of the simulation.
+   * @throws IOException If loading a chunk fails.
+   * @throws IllegalStateException If the simulation doesn't finish within the {@linkplain
+   *     Builder#setMaxSimulationDurationMs(long) maximum simulation duration}.
+   */
+  public Result simulate(TrackGroup trackGroup, long mediaDurationUs, NetworkTrace networkTrace)
+      throws IOException {
+    checkState(!simulated);
+    checkArgument(mediaDurationUs > 0);
+    simulated = true;
+    this.mediaDurationUs = mediaDurationUs;
+    simulationStartTimeMs = clock.elapsedRealtime();
+    simulationDeadlineMs =
+        simulationStartTimeMs
+            + (maxSimulationDurationMs != C.TIME_UNSET
+                ? maxSimulationDurationMs
+                : DEFAULT_MAX_SIMULATION_DURATION_FACTOR * Util.usToMs(mediaDurationUs));
+
+    FakeAdaptiveDataSet dataSet =
+        new FakeAdaptiveDataSet.Factory(
+                chunkDurationUs, bitratePercentStdDev, new Random(randomSeed))
+            .createDataSet(trackGroup, mediaDurationUs);
+    FakeDataSource dataSource = new FakeDataSource(dataSet, /* isNetwork= */ true);
+    @Nullable TransferListener transferListener = bandwidthMeter.getTransferListener();
+    if (transferListener != null) {
+      dataSource.addTransferListener(transferListener);
+    }
+    int[] tracks = new int[trackGroup.length];
+    for (int i = 0; i < tracks.length; i++) {
+      tracks[i] = i;
+    }
+    ExoTrackSelection trackSelection =
+        checkNotNull(
+            trackSelectionFactory.createTrackSelections(
+                new ExoTrackSelection.Definition[] {
+                  new ExoTrackSelection.Definition(trackGroup, tracks)
+                },
+                bandwidthMeter,
+                mediaPeriodId,
+                Timeline.EMPTY)[0]);
+    trackSelection.enable();
+    loadControl.onPrepared();
+    loadControl.onTracksSelected(
+        Timeline.EMPTY,
+        mediaPeriodId,
+        new Renderer[] {
+          new FakeRenderer(MimeTypes.getTrackType(trackGroup.getFormat(0).sampleMimeType))
+        },
+        new TrackGroupArray(trackGroup),
+        new ExoTrackSelection[] {trackSelection});
+    FakeChunkSource chunkSource = new FakeChunkSource(trackSelection, dataSource, dataSet);
+
+    ImmutableList.Builder<Format> chunkFormats = new ImmutableList.Builder<>();
+    @Nullable Format previousFormat = null;
+    int switchCount = 0;
+    long bitrateDurationProductSum = 0;
+    long bytesLoaded = 0;
+    while (playbackPositionUs < mediaDurationUs) {
+      checkSimulationDeadline(clock.elapsedRealtime());
+      if (!isEndOfStream
+          && loadControl.shouldContinueLoading(
+              playbackPositionUs, loadPositionUs - playbackPositionUs, /* playbackSpeed= */ 1)) {
+        ChunkHolder chunkHolder = new ChunkHolder();
+        chunkSource.getNextChunk(playbackPositionUs, loadPositionUs, queue, chunkHolder);
+        if (chunkHolder.endOfStream) {
+          isEndOfStream = true;
+        } else {
+          MediaChunk chunk = (MediaChunk) checkNotNull(chunkHolder.chunk);
+          long chunkBytes = loadChunk(dataSource, networkTrace, chunk);
+          chunkSource.onChunkLoadCompleted(chunk);
+          queue.add(chunk);
+          bufferedChunks.add(new BufferedChunk(chunk.endTimeUs, allocate(chunkBytes)));
+          loadPositionUs = chunk.endTimeUs;
+          bytesLoaded += chunkBytes;
+          bitrateDurationProductSum +=
+              (long) chunk.trackFormat.bitrate * (chunk.endTimeUs - chunk.startTimeUs);
+          if (previousFormat != null && !chunk.trackFormat.equals(previousFormat)) {
+            switchCount++;
+          }
+          previousFormat = chunk.trackFormat;
+          chunkFormats.add(chunk.trackFormat);
+        }
+      } else {
+        advanceTime(evaluationIntervalMs);
+      }
+      maybeStartPlayback();
+    }
+
+    trackSelection.disable();
+    while (!bufferedChunks.isEmpty()) {
+      release(bufferedChunks.remove());
+    }
+    loadControl.onReleased();
+    return new Result(
+        startupTimeMs,
+        rebufferCount,
+        Util.usToMs(rebufferDurationUs),
+        Util.usToMs(playingDurationUs),
+        loadPositionUs == 0 ? 0 : bitrateDurationProductSum / loadPositionUs,
+        switchCount,
+        bytesLoaded,
+        chunkFormats.build());
+  }
+
+  private long loadChunk(FakeDataSource dataSource, NetworkTrace networkTrace, MediaChunk chunk)
+      throws IOException {
+    long bytesRead = 0;
+    try {
+      dataSource.open(chunk.dataSpec);
+      advanceTime(requestLatencyMs);
+      long transferStartTimeMs = clock.elapsedRealtime();
+      long traceTimeMs = transferStartTimeMs - simulationStartTimeMs;
+      int result;
+      while ((result = dataSource.read(readBuffer, 0, READ_LENGTH)) != C.RESULT_END_OF_INPUT) {
+        bytesRead += result;
+        // Derive the time from the total transfer size, so that rounding errors don't accumulate.
+        long transferEndTimeMs =
+            transferStartTimeMs + networkTrace.getTransferDurationMs(traceTimeMs, bytesRead);
+        checkSimulationDeadline(transferEndTimeMs);
+        advanceTime(transferEndTimeMs - clock.elapsedRealtime());
+      }
+    } finally {
+      dataSource.close();
+    }
+    return bytesRead;
+  }
+
+  private void checkSimulationDeadline(long timeMs) {
+    if (timeMs > simulationDeadlineMs) {
+      throw new IllegalStateException(
+          "Simulation didn't finish within "
+              + (simulationDeadlineMs - simulationStartTimeMs)
+              + " ms: playbackPositionUs="
+              + playbackPositionUs
+              + ", loadPositionUs="
+              + loadPositionUs
+              + ", mediaDurationUs="
+              + mediaDurationUs);
+    }
+  }
+
+  private void maybeStartPlayback() {
+    if (isPlaying) {
+      return;
+    }
+    long bufferedDurationUs = loadPositionUs - playbackPositionUs;
+    boolean shouldStartPlayback =
+        isEndOfStream
+            || (bufferedDurationUs > 0
+                && loadControl.shouldStartPlayback(
+                    Timeline.EMPTY,
+                    mediaPeriodId,
+                    bufferedDurationUs,
+                    /* playbackSpeed= */ 1,
+                    isRebuffering,
+                    /* targetLiveOffsetUs= */ C.TIME_UNSET));
+    if (!shouldStartPlayback) {
+      return;
+    }
+    isPlaying = true;
+    isRebuffering = false;
+    if (startupTimeMs == C.TIME_UNSET) {
+      startupTimeMs = clock.elapsedRealtime() - simulationStartTimeMs;
+    }
+  }
+
+  private void advanceTime(long durationMs) {
+    if (durationMs <= 0) {
+      return;
+    }
+    long durationUs = Util.msToUs(durationMs);
+    if (isPlaying) {
+      long playedUs = min(durationUs, min(loadPositionUs, mediaDurationUs) - playbackPositionUs);
+      playbackPositionUs += playedUs;
+      playingDurationUs += playedUs;
+      discardPlayedChunks();
+      if (playedUs < durationUs && playbackPositionUs < mediaDurationUs) {
+        // The buffer ran empty. Buffered media only grows when a chunk completes, so playback can't
+        // resume during the remainder of this step.
+        isPlaying = false;
+        isRebuffering = true;
+        rebufferCount++;
+        rebufferDurationUs += durationUs - playedUs;
+      }
+    } else if (isRebuffering) {
+      rebufferDurationUs += durationUs;
+    }
+    clock.advanceTime(durationMs);
+  }
+
+  private void discardPlayedChunks() {
+    while (!queue.isEmpty() && queue.get(0).endTimeUs <= playbackPositionUs) {
+      queue.remove(0);
+    }
+    while (!bufferedChunks.isEmpty()
+        && checkNotNull(bufferedChunks.peek()).endTimeUs <= playbackPositionUs) {
+      release(bufferedChunks.remove());
+    }
+  }
+
+  private Allocation[] allocate(long bytes) {
+    // Hold on to allocator memory for the buffered media, so that size-based load control
+    // thresholds apply as they would during playback.
+    Allocator allocator = loadControl.getAllocator();
+    int allocationLength = allocator.getIndividualAllocationLength();
+    int allocationCount = (int) ((bytes + allocationLength - 1) / allocationLength);
+    Allocation[] allocations = new Allocation[allocationCount];
+    for (int i = 0; i < allocations.length; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    return allocations;
+  }
+
+  private void release(BufferedChunk bufferedChunk) {
+    Allocator allocator = loadControl.getAllocator();
+    for (Allocation allocation : bufferedChunk.allocations) {
+      allocator.release(allocation);
+    }
+  }
+
+  private static final class BufferedChunk {
+
+    public final long endTimeUs;
+    public final Allocation[] allocations;
+
+    public BufferedChunk(long endTimeUs, Allocation[] allocations) {
+      this.endTimeUs = endTimeUs;
+      this.allocations = allocations;
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.test.utils;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
+import static java.lang.Math.max;
+
+import androidx.mynewmedia4.common.ParserException;
+import androidx.mynewmedia4.common.util.UnstableApi;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.errorprone.annotations.CanIgnoreReturnValue;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A network throughput trace, consisting of consecutive periods of constant bandwidth.
+ *
+ * <p>The trace is replayed in a loop, so it can be shorter than the simulated playback.
+ *
+ * <p>Traces can be parsed from CSV, where each non-empty line not starting with {@code #} holds a
+ * {@code durationMs,bandwidthKbps} pair, or from JSON, as an array of objects with {@code
+ * durationMs} and {@code bandwidthKbps} fields.
+ */
+@UnstableApi
+public final class NetworkTrace {
+
+  /** A period of constant bandwidth in a {@link NetworkTrace}. */
+  public static final class Period {
+
+    /** The duration of the period, in milliseconds. */
+    public final long durationMs;
+
+    /** The available bandwidth during the period, in bits per second. */
+    public final long bitrate;
+
+    /**
+     * Creates a period.
+     *
+     * @param durationMs The duration of the period, in milliseconds. Must be positive.
+     * @param bitrate The available bandwidth during the period, in bits per second.
+     */
+    public Period(long durationMs, long bitrate) {
+      checkArgument(durationMs > 0 && bitrate >= 0);
+      this.durationMs = durationMs;
+      this.bitrate = bitrate;
+    }
+  }
+
+  /** Builder for {@link NetworkTrace} instances. */
+  public static final class Builder {
+
+    private final ImmutableList.Builder<Period> periods;
+
+    /** Creates an instance. */
+    public Builder() {
+      periods = new ImmutableList.Builder<>();
+    }
+
+    /**
+     * Appends a period of constant bandwidth.
+     *
+     * @param durationMs The duration of the period, in milliseconds.
+     * @param bitrate The available bandwidth during the period, in bits per second.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder appendPeriod(long durationMs, long bitrate) {
+      periods.add(new Period(durationMs, bitrate));
+      return this;
+    }
+
+    /** Builds the trace. */
+    public NetworkTrace build() {
+      return new NetworkTrace(periods.build());
+    }
+  }
+
+  /**
+   * Parses a trace from CSV.
+   *
+   * @param csv The CSV trace, with one {@code durationMs,bandwidthKbps} pair per line.
+   * @return The parsed trace.
+   * @throws ParserException If the trace is malformed.
+   */
+  public static NetworkTrace parseCsv(String csv) throws ParserException {
+    Builder builder = new Builder();
+    for (String line : Splitter.onPattern("\r?\n").trimResults().omitEmptyStrings().split(csv)) {
+      if (line.startsWith("#")) {
+        continue;
+      }
+      List<String> values = Splitter.on(',').trimResults().splitToList(line);
+      if (values.size() != 2) {
+        throw ParserException.createForMalformedManifest("Malformed trace line: " + line, null);
+      }
+      try {
+        appendPeriod(
+            builder, Long.parseLong(values.get(0)), Double.parseDouble(values.get(1)), line);
+      } catch (NumberFormatException e) {
+        throw ParserException.createForMalformedManifest("Malformed trace line: " + line, e);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Parses a trace from JSON.
+   *
+   * @param json The JSON trace, as an array of objects with {@code durationMs} and {@code
+   *     bandwidthKbps} fields.
+   * @return The parsed trace.
+   * @throws ParserException If the trace is malformed.
+   */
+  public static NetworkTrace parseJson(String json) throws ParserException {
+    Builder builder = new Builder();
+    try {
+      JSONArray periods = new JSONArray(json);
+      for (int i = 0; i < periods.length(); i++) {
+        JSONObject period = periods.getJSONObject(i);
+        appendPeriod(
+            builder,
+            period.getLong("durationMs"),
+            period.getDouble("bandwidthKbps"),
+            period.toString());
+      }
+    } catch (JSONException e) {
+      throw ParserException.createForMalformedManifest("Malformed JSON trace", e);
+    }
+    return builder.build();
+  }
+
+  private final ImmutableList<Period> periods;
+  private final long durationMs;
+
+  private NetworkTrace(ImmutableList<Period> periods) {
+    checkArgument(!periods.isEmpty());
+    long durationMs = 0;
+    boolean hasBandwidth = false;
+    for (int i = 0; i < periods.size(); i++) {
+      durationMs += periods.get(i).durationMs;
+      hasBandwidth |= periods.get(i).bitrate > 0;
+    }
+    // A trace without any bandwidth would never complete a transfer.
+    checkArgument(hasBandwidth);
+    this.periods = periods;
+    this.durationMs = durationMs;
+  }
+
+  /** Returns the periods of the trace. */
+  public ImmutableList<Period> getPeriods() {
+    return periods;
+  }
+
+  /** Returns the duration of one loop of the trace, in milliseconds. */
+  public long getDurationMs() {
+    return durationMs;
+  }
+
+  /**
+   * Returns the available bandwidth at the given time, in bits per second.
+   *
+   * @param timeMs The time since the start of the trace, in milliseconds.
+   */
+  public long getBitrate(long timeMs) {
+    return periods.get(getPeriodIndex(timeMs % durationMs)).bitrate;
+  }
+
+  /**
+   * Returns the time it takes to transfer the given number of bytes, when starting the transfer at
+   * the given time.
+   *
+   * @param startTimeMs The time since the start of the trace at which the transfer starts, in
+   *     milliseconds.
+   * @param bytes The number of bytes to transfer.
+   * @return The transfer duration, in milliseconds.
+   */
+  public long getTransferDurationMs(long startTimeMs, long bytes) {
+    double remainingBits = bytes * 8.0;
+    long loopTimeMs = startTimeMs % durationMs;
+    int periodIndex = getPeriodIndex(loopTimeMs);
+    long periodStartTimeMs = getPeriodStartTimeMs(periodIndex);
+    long transferDurationMs = 0;
+    while (true) {
+      Period period = periods.get(periodIndex);
+      long availableDurationMs = period.durationMs - max(0, loopTimeMs - periodStartTimeMs);
+      double availableBits = period.bitrate * availableDurationMs / 1000.0;
+      if (availableBits >= remainingBits) {
+        return transferDurationMs + (long) Math.ceil(remainingBits * 1000.0 / period.bitrate);
+      }
+      remainingBits -= availableBits;
+      transferDurationMs += availableDurationMs;
+      periodStartTimeMs += period.durationMs;
+      loopTimeMs = periodStartTimeMs;
+      periodIndex++;
+      if (periodIndex == periods.size()) {
+        periodIndex = 0;
+        periodStartTimeMs = 0;
+        loopTimeMs = 0;
+      }
+    }
+  }
+
+  private int getPeriodIndex(long loopTimeMs) {
+    long periodEndTimeMs = 0;
+    for (int i = 0; i < periods.size(); i++) {
+      periodEndTimeMs += periods.get(i).durationMs;
+      if (loopTimeMs < periodEndTimeMs) {
+        return i;
+      }
+    }
+    return periods.size() - 1;
+  }
+
+  private long getPeriodStartTimeMs(int periodIndex) {
+    long periodStartTimeMs = 0;
+    for (int i = 0; i < periodIndex; i++) {
+      periodStartTimeMs += periods.get(i).durationMs;
+    }
+    return periodStartTimeMs;
+  }
+
+  private static void appendPeriod(
+      Builder builder, long durationMs, double bandwidthKbps, String source)
+      throws ParserException {
+    if (durationMs <= 0 || bandwidthKbps < 0) {
+      throw ParserException.createForMalformedManifest("Invalid trace period: " + source, null);
+    }
+    builder.appendPeriod(durationMs, (long) (bandwidthKbps * 1000));
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.test.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.MimeTypes;
+import androidx.mynewmedia4.common.TrackGroup;
+import androidx.mynewmedia4.exoplayer.DefaultLoadControl;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.Iterables;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link AbrSimulator}. */
+@RunWith(AndroidJUnit4.class)
+public final class AbrSimulatorTest {
+
+  private static final Format FORMAT_LOW = createVideoFormat(/* bitrate= */ 500_000, 360);
+  private static final Format FORMAT_MID = createVideoFormat(/* bitrate= */ 1_500_000, 720);
+  private static final Format FORMAT_HIGH = createVideoFormat(/* bitrate= */ 4_000_000, 1080);
+  private static final TrackGroup TRACK_GROUP =
+      new TrackGroup(FORMAT_HIGH, FORMAT_MID, FORMAT_LOW);
+  private static final long MEDIA_DURATION_US = 120 * C.MICROS_PER_SECOND;
+
+  @Test
+  public void simulate_fastNetwork_playsHighestQualityWithoutRebuffering() throws Exception {
+    NetworkTrace trace =
+        new NetworkTrace.Builder()
+            .appendPeriod(/* durationMs= */ 10_000, /* bitrate= */ 50_000_000)
+            .build();
+
+    AbrSimulator.Result result =
+        new AbrSimulator.Builder(ApplicationProvider.getApplicationContext())
+            .build()
+            .simulate(TRACK_GROUP, MEDIA_DURATION_US, trace);
+
+    assertThat(result.rebufferCount).isEqualTo(0);
+    assertThat(result.playingDurationMs).isEqualTo(120_000);
+    assertThat(Iterables.getLast(result.chunkFormats)).isEqualTo(FORMAT_HIGH);
+    assertThat(result.startupTimeMs).isGreaterThan(0);
+  }
+
+  @Test
+  public void simulate_slowNetwork_playsLowestQuality() throws Exception {
+    NetworkTrace trace =
+        new NetworkTrace.Builder()
+            .appendPeriod(/* durationMs= */ 10_000, /* bitrate= */ 800_000)
+            .build();
+
+    AbrSimulator.Result result =
+        new AbrSimulator.Builder(ApplicationProvider.getApplicationContext())
+            .build()
+            .simulate(TRACK_GROUP, MEDIA_DURATION_US, trace);
+
+    assertThat(Iterables.getLast(result.chunkFormats)).isEqualTo(FORMAT_LOW);
+    assertThat(result.averageBitrate).isLessThan(FORMAT_MID.bitrate);
+  }
+
+  @Test
+  public void simulate_bandwidthDrop_switchesDownAndRebuffers() throws Exception {
+    NetworkTrace trace =
+        new NetworkTrace.Builder()
+            .appendPeriod(/* durationMs= */ 30_000, /* bitrate= */ 20_000_000)
+            .appendPeriod(/* durationMs= */ 600_000, /* bitrate= */ 300_000)
+            .build();
+
+    AbrSimulator.Result result =
+        new AbrSimulator.Builder(ApplicationProvider.getApplicationContext())
+            .build()
+            .simulate(TRACK_GROUP, MEDIA_DURATION_US, trace);
+
+    assertThat(result.switchCount).isGreaterThan(0);
+    assertThat(result.chunkFormats).contains(FORMAT_HIGH);
+    assertThat(Iterables.getLast(result.chunkFormats)).isEqualTo(FORMAT_LOW);
+    assertThat(result.rebufferCount).isGreaterThan(0);
+    assertThat(result.getRebufferRatio()).isGreaterThan(0f);
+  }
+
+  @Test
+  public void simulate_isDeterministic() throws Exception {
+    NetworkTrace trace = NetworkTrace.parseCsv("5000,6000\n5000,1000\n5000,3000\n5000,400\n");
+
+    AbrSimulator.Result result1 =
+        new AbrSimulator.Builder(ApplicationProvider.getApplicationContext())
+            .setBitratePercentStdDev(20)
+            .setRequestLatencyMs(50)
+            .build()
+            .simulate(TRACK_GROUP, MEDIA_DURATION_US, trace);
+    AbrSimulator.Result result2 =
+        new AbrSimulator.Builder(ApplicationProvider.getApplicationContext())
+            .setBitratePercentStdDev(20)
+            .setRequestLatencyMs(50)
+            .build()
+            .simulate(TRACK_GROUP, MEDIA_DURATION_US, trace);
+
+    assertThat(result2.toString()).isEqualTo(result1.toString());
+    assertThat(result2.chunkFormats).isEqualTo(result1.chunkFormats);
+  }
+
+  @Test
+  public void simulate_loadControlNeverLoads_throwsAfterMaxSimulationDuration() {
+    NetworkTrace trace =
+        new NetworkTrace.Builder()
+            .appendPeriod(/* durationMs= */ 10_000, /* bitrate= */ 50_000_000)
+            .build();
+    AbrSimulator abrSimulator =
+        new AbrSimulator.Builder(ApplicationProvider.getApplicationContext())
+            .setLoadControl(
+                new DefaultLoadControl() {
+                  @Override
+                  public boolean shouldContinueLoading(
+                      long playbackPositionUs, long bufferedDurationUs, float playbackSpeed) {
+                    return false;
+                  }
+                })
+            .setMaxSimulationDurationMs(60_000)
+            .build();
+
+    IllegalStateException exception =
+        assertThrows(
+            IllegalStateException.class,
+            () -> abrSimulator.simulate(TRACK_GROUP, MEDIA_DURATION_US, trace));
+    assertThat(exception).hasMessageThat().contains("60000 ms");
+  }
+
+  @Test
+  public void simulate_networkTooSlowToFinish_throwsAfterDefaultMaxSimulationDuration() {
+    NetworkTrace trace =
+        new NetworkTrace.Builder()
+            .appendPeriod(/* durationMs= */ 10_000, /* bitrate= */ 1_000)
+            .build();
+    AbrSimulator abrSimulator =
+        new AbrSimulator.Builder(ApplicationProvider.getApplicationContext()).build();
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> abrSimulator.simulate(TRACK_GROUP, MEDIA_DURATION_US, trace));
+  }
+
+  private static Format createVideoFormat(int bitrate, int height) {
+    return new Format.Builder()
+        .setSampleMimeType(MimeTypes.VIDEO_H264)
+        .setAverageBitrate(bitrate)
+        .setWidth(height * 16 / 9)
+        .setHeight(height)
+        .build();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.test.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.mynewmedia4.common.ParserException;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link NetworkTrace}. */
+@RunWith(AndroidJUnit4.class)
+public final class NetworkTraceTest {
+
+  @Test
+  public void parseCsv_returnsPeriods() throws Exception {
+    NetworkTrace trace =
+        NetworkTrace.parseCsv("# durationMs,bandwidthKbps\n1000,800\n\n500,1600\n");
+
+    assertThat(trace.getPeriods()).hasSize(2);
+    assertThat(trace.getDurationMs()).isEqualTo(1500);
+    assertThat(trace.getBitrate(/* timeMs= */ 999)).isEqualTo(800_000);
+    assertThat(trace.getBitrate(/* timeMs= */ 1000)).isEqualTo(1_600_000);
+  }
+
+  @Test
+  public void parseCsv_malformedLine_throws() {
+    assertThrows(ParserException.class, () -> NetworkTrace.parseCsv("1000;800"));
+  }
+
+  @Test
+  public void parseJson_returnsPeriods() throws Exception {
+    NetworkTrace trace =
+        NetworkTrace.parseJson(
+            "[{\"durationMs\": 1000, \"bandwidthKbps\": 800},"
+                + " {\"durationMs\": 500, \"bandwidthKbps\": 1600}]");
+
+    assertThat(trace.getPeriods()).hasSize(2);
+    assertThat(trace.getDurationMs()).isEqualTo(1500);
+    assertThat(trace.getBitrate(/* timeMs= */ 1200)).isEqualTo(1_600_000);
+  }
+
+  @Test
+  public void getTransferDurationMs_withinPeriod() {
+    NetworkTrace trace = new NetworkTrace.Builder().appendPeriod(10_000, 8_000_000).build();
+
+    assertThat(trace.getTransferDurationMs(/* startTimeMs= */ 0, /* bytes= */ 500_000))
+        .isEqualTo(500);
+  }
+
+  @Test
+  public void getTransferDurationMs_acrossPeriodsAndLoop() {
+    NetworkTrace trace =
+        new NetworkTrace.Builder()
+            .appendPeriod(/* durationMs= */ 1000, /* bitrate= */ 8_000_000)
+            .appendPeriod(/* durationMs= */ 1000, /* bitrate= */ 0)
+            .build();
+
+    // 500 KB in the first half second of the first period, then a second without bandwidth, then
+    // 500 KB more after looping.
+    assertThat(trace.getTransferDurationMs(/* startTimeMs= */ 500, /* bytes= */ 1_000_000))
+        .isEqualTo(2000);
+  }
+}
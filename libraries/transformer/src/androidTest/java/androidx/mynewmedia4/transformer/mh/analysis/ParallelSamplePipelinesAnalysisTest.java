@@ -0,0 +1,105 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package androidx.mynewmedia4.transformer.mh.analysis;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+
+import android.content.Context;
+import android.net.Uri;
+import androidx.mynewmedia4.common.MediaItem;
+import androidx.mynewmedia4.common.util.Util;
+import androidx.mynewmedia4.transformer.AndroidTestUtil;
+import androidx.mynewmedia4.transformer.Transformer;
+import androidx.mynewmedia4.transformer.TransformerAndroidTestRunner;
+import androidx.test.core.app.ApplicationProvider;
+import com.google.common.collect.ImmutableList;
+import java.util.HashMap;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Instrumentation tests for comparing the export time with and without {@linkplain
+ * Transformer.Builder#experimentalSetParallelSamplePipelinesEnabled(boolean) parallel sample
+ * pipelines}.
+ */
+@RunWith(Parameterized.class)
+@Ignore(
+    "Analysis tests are not used for confirming Transformer is running properly, and not configured"
+        + " for this use as they're missing skip checks for unsupported devices.")
+public class ParallelSamplePipelinesAnalysisTest {
+
+  private static final ImmutableList<String> INPUT_FILES =
+      ImmutableList.of(
+          AndroidTestUtil.MP4_ASSET_WITH_INCREASING_TIMESTAMPS_320W_240H_15S_URI_STRING,
+          AndroidTestUtil.MP4_ASSET_WITH_INCREASING_TIMESTAMPS_URI_STRING);
+
+  @Parameter(0)
+  public @MonotonicNonNull String fileUri;
+
+  @Parameter(1)
+  public boolean enableParallelSamplePipelines;
+
+  @Parameters(name = "analyzeExportTime_{0}_Parallel={1}")
+  public static ImmutableList<Object[]> parameters() {
+    ImmutableList.Builder<Object[]> parametersBuilder = new ImmutableList.Builder<>();
+    for (int i = 0; i < INPUT_FILES.size(); i++) {
+      parametersBuilder.add(new Object[] {INPUT_FILES.get(i), false});
+      parametersBuilder.add(new Object[] {INPUT_FILES.get(i), true});
+    }
+    return parametersBuilder.build();
+  }
+
+  @Test
+  public void analyzeExportTime() throws Exception {
+    checkNotNull(fileUri);
+    String filename = checkNotNull(Uri.parse(fileUri).getLastPathSegment());
+    String testId =
+        Util.formatInvariant(
+            "analyzeExportTime_%s_Parallel_%b", filename, enableParallelSamplePipelines);
+    Context context = ApplicationProvider.getApplicationContext();
+
+    if (AndroidTestUtil.skipAndLogIfFormatsUnsupported(
+        context,
+        testId,
+        /* inputFormat= */ AndroidTestUtil.getFormatForTestFile(fileUri),
+        /* outputFormat= */ AndroidTestUtil.getFormatForTestFile(fileUri))) {
+      return;
+    }
+
+    Map<String, Object> inputValues = new HashMap<>();
+    inputValues.put("inputFilename", filename);
+    inputValues.put("enableParallelSamplePipelines", enableParallelSamplePipelines);
+
+    // Transcode both audio and video, so that both sample pipelines have work to do. The elapsed
+    // time in the test result is the wall-clock export time.
+    Transformer transformer =
+        new Transformer.Builder(context)
+            .setEncoderFactory(new AndroidTestUtil.ForceEncodeEncoderFactory(context))
+            .experimentalSetParallelSamplePipelinesEnabled(enableParallelSamplePipelines)
+            .build();
+
+    new TransformerAndroidTestRunner.Builder(context, transformer)
+        .setInputValues(inputValues)
+        .build()
+        .run(testId, MediaItem.fromUri(Uri.parse(fileUri)));
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.mynewmedia4.transformer;
+
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
+import static androidx.mynewmedia4.common.util.Assertions.checkState;
+import static androidx.mynewmedia4.decoder.DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DISABLED;
+
+import android.media.MediaCodec.BufferInfo;
+import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
+import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.decoder.DecoderInputBuffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transcodes the group of pictures containing the start position of a clip whose other samples are
+ * copied.
+ *
+ * <p>The samples from the key frame preceding the clip start up to the next key frame are decoded,
+ * the frames before the clip start are dropped, and the others are rendered to an encoder that is
+ * configured like the input, so that the output starts with a key frame at the clip start.
+ */
+/* package */ final class ClipStartTranscoder {
+
+  private final Format inputFormat;
+  private final Codec.DecoderFactory decoderFactory;
+  private final Codec.EncoderFactory encoderFactory;
+  private final DecoderInputBuffer decoderInputBuffer;
+  private final List<Long> decodeOnlyPresentationTimestamps;
+
+  @Nullable private Codec decoder;
+  @Nullable private Codec encoder;
+  private boolean hasInput;
+  private boolean inputEnded;
+  private boolean encoderInputEnded;
+
+  /**
+   * Creates an instance.
+   *
+   * @param inputFormat The {@link Format} of the encoded video samples.
+   * @param decoderFactory The {@link Codec.DecoderFactory} to decode the samples with.
+   * @param encoderFactory The {@link Codec.EncoderFactory} to re-encode the frames with.
+   */
+  public ClipStartTranscoder(
+      Format inputFormat,
+      Codec.DecoderFactory decoderFactory,
+      Codec.EncoderFactory encoderFactory) {
+    this.inputFormat = inputFormat;
+    this.decoderFactory = decoderFactory;
+    this.encoderFactory = encoderFactory;
+    decoderInputBuffer = new DecoderInputBuffer(BUFFER_REPLACEMENT_MODE_DISABLED);
+    decodeOnlyPresentationTimestamps = new ArrayList<>();
+  }
+
+  /** Returns whether a sample has been {@linkplain #queueInputBuffer queued}. */
+  public boolean hasInput() {
+    return hasInput;
+  }
+
+  /** Returns whether the end of the input has been {@linkplain #signalEndOfInput signaled}. */
+  public boolean isInputEnded() {
+    return inputEnded;
+  }
+
+  /**
+   * Attempts to queue an encoded sample for decoding.
+   *
+   * <p>The sample data is copied, so that {@code inputBuffer} can be reused if the sample is
+   * queued.
+   *
+   * @param inputBuffer The sample to decode. The first sample queued must be a key frame.
+   * @return Whether the sample was queued.
+   * @throws ExportException If an error occurs creating or feeding the decoder.
+   */
+  public boolean queueInputBuffer(DecoderInputBuffer inputBuffer) throws ExportException {
+    checkState(!inputEnded);
+    checkState(hasInput || inputBuffer.isKeyFrame());
+    Codec decoder = getOrCreateDecoder();
+    if (!decoder.maybeDequeueInputBuffer(decoderInputBuffer)) {
+      return false;
+    }
+    ByteBuffer decoderInputData = checkNotNull(decoderInputBuffer.data);
+    decoderInputData.put(checkNotNull(inputBuffer.data).duplicate());
+    decoderInputData.flip();
+    decoderInputBuffer.timeUs = inputBuffer.timeUs;
+    if (inputBuffer.isDecodeOnly()) {
+      decodeOnlyPresentationTimestamps.add(inputBuffer.timeUs);
+    }
+    decoder.queueInputBuffer(decoderInputBuffer);
+    hasInput = true;
+    return true;
+  }
+
+  /**
+   * Attempts to signal the end of the input, which is the last sample before the next key frame or
+   * the last sample of the clip.
+   *
+   * @return Whether the end of the input was signaled.
+   * @throws ExportException If an error occurs feeding the decoder.
+   */
+  public boolean signalEndOfInput() throws ExportException {
+    checkState(!inputEnded);
+    if (decoder == null) {
+      // There is nothing to transcode.
+      inputEnded = true;
+      return true;
+    }
+    if (!decoder.maybeDequeueInputBuffer(decoderInputBuffer)) {
+      return false;
+    }
+    checkNotNull(decoderInputBuffer.data).flip();
+    decoderInputBuffer.addFlag(C.BUFFER_FLAG_END_OF_STREAM);
+    decoder.queueInputBuffer(decoderInputBuffer);
+    inputEnded = true;
+    return true;
+  }
+
+  /**
+   * Renders the next decoded frame to the encoder, or drops it if it precedes the clip start, and
+   * returns whether it may be possible to process more data immediately.
+   *
+   * @throws ExportException If an error occurs in the decoder or the encoder.
+   */
+  public boolean processData() throws ExportException {
+    if (decoder == null || encoderInputEnded) {
+      return false;
+    }
+    if (decoder.isEnded()) {
+      checkNotNull(encoder).signalEndOfInputStream();
+      encoderInputEnded = true;
+      return false;
+    }
+
+    @Nullable BufferInfo decoderOutputBufferInfo = decoder.getOutputBufferInfo();
+    if (decoderOutputBufferInfo == null) {
+      return false;
+    }
+    long presentationTimeUs = decoderOutputBufferInfo.presentationTimeUs;
+    if (isDecodeOnlyBuffer(presentationTimeUs)) {
+      decoder.releaseOutputBuffer(/* render= */ false);
+    } else {
+      decoder.releaseOutputBuffer(presentationTimeUs);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the encoder output {@link Format}, or {@code null} if it's not known yet.
+   *
+   * @throws ExportException If an error occurs in the encoder.
+   */
+  @Nullable
+  public Format getOutputFormat() throws ExportException {
+    return encoder != null ? encoder.getOutputFormat() : null;
+  }
+
+  /**
+   * Returns the next re-encoded sample, or {@code null} if there is none available yet.
+   *
+   * @throws ExportException If an error occurs in the encoder.
+   */
+  @Nullable
+  public ByteBuffer getOutputBuffer() throws ExportException {
+    return encoder != null ? encoder.getOutputBuffer() : null;
+  }
+
+  /**
+   * Returns the {@link BufferInfo} of the {@linkplain #getOutputBuffer() next re-encoded sample},
+   * or {@code null} if there is none available yet.
+   *
+   * @throws ExportException If an error occurs in the encoder.
+   */
+  @Nullable
+  public BufferInfo getOutputBufferInfo() throws ExportException {
+    return encoder != null ? encoder.getOutputBufferInfo() : null;
+  }
+
+  /**
+   * Releases the {@linkplain #getOutputBuffer() current re-encoded sample}.
+   *
+   * @throws ExportException If an error occurs in the encoder.
+   */
+  public void releaseOutputBuffer() throws ExportException {
+    checkNotNull(encoder).releaseOutputBuffer(/* render= */ false);
+  }
+
+  /** Returns whether all the re-encoded samples have been output. */
+  public boolean isEnded() {
+    return inputEnded && (encoder == null || encoder.isEnded());
+  }
+
+  /** Releases the codecs. */
+  public void release() {
+    if (decoder != null) {
+      decoder.release();
+      decoder = null;
+    }
+    if (encoder != null) {
+      encoder.release();
+      encoder = null;
+    }
+  }
+
+  private Codec getOrCreateDecoder() throws ExportException {
+    if (decoder != null) {
+      return decoder;
+    }
+    // The encoder is created first, as the decoder renders to its input surface.
+    Format requestedEncoderFormat =
+        new Format.Builder()
+            .setSampleMimeType(inputFormat.sampleMimeType)
+            .setCodecs(inputFormat.codecs)
+            .setWidth(inputFormat.width)
+            .setHeight(inputFormat.height)
+            .setFrameRate(inputFormat.frameRate)
+            .setAverageBitrate(inputFormat.bitrate)
+            .setColorInfo(inputFormat.colorInfo)
+            .build();
+    Codec encoder = encoderFactory.createForVideoEncoding(requestedEncoderFormat);
+    this.encoder = encoder;
+    Format encoderFormat = encoder.getConfigurationFormat();
+    if (!checkNotNull(inputFormat.sampleMimeType).equals(encoderFormat.sampleMimeType)
+        || encoderFormat.width != inputFormat.width
+        || encoderFormat.height != inputFormat.height) {
+      // The re-encoded samples are written to the track of the copied ones.
+      throw ExportException.createForCodec(
+          new IllegalArgumentException("The encoder doesn't support the input format."),
+          ExportException.ERROR_CODE_ENCODING_FORMAT_UNSUPPORTED,
+          /* isVideo= */ true,
+          /* isDecoder= */ false,
+          encoderFormat);
+    }
+    // The decoded frames are rendered to the encoder in their stored orientation, as the rotation
+    // is kept in the track format.
+    Codec decoder =
+        decoderFactory.createForVideoDecoding(
+            inputFormat.buildUpon().setRotationDegrees(0).build(),
+            encoder.getInputSurface(),
+            /* requestSdrToneMapping= */ false);
+    this.decoder = decoder;
+    return decoder;
+  }
+
+  private boolean isDecodeOnlyBuffer(long presentationTimeUs) {
+    // Removing by value would box presentationTimeUs into a Long that needs garbage collection.
+    int size = decodeOnlyPresentationTimestamps.size();
+    for (int i = 0; i < size; i++) {
+      if (decodeOnlyPresentationTimestamps.get(i) == presentationTimeUs) {
+        decodeOnlyPresentationTimestamps.remove(i);
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -16,38 +16,75 @@
 
 package androidx.mynewmedia4.transformer;
 
+import static androidx.mynewmedia4.common.util.Assertions.checkNotNull;
 import static androidx.mynewmedia4.decoder.DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DIRECT;
+import static androidx.mynewmedia4.decoder.DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DISABLED;
 
+import android.media.MediaCodec.BufferInfo;
 import androidx.annotation.Nullable;
+import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.MimeTypes;
 import androidx.mynewmedia4.decoder.DecoderInputBuffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.atomic.AtomicLong;
 
-/** Pipeline that muxes encoded samples without any transcoding or transformation. */
+/**
+ * Pipeline that muxes encoded samples without any transcoding or transformation.
+ *
+ * <p>If a {@link ClipStartTranscoder} is set, the group of pictures containing the clip start is
+ * transcoded by it and the following samples are copied. As the re-encoded samples have different
+ * parameter sets than the copied ones, the parameter sets are then written in-band, before each key
+ * frame, and the track is marked accordingly.
+ */
 /* package */ final class EncodedSamplePipeline extends SamplePipeline {
 
   private static final int MAX_INPUT_BUFFER_COUNT = 10;
 
   private final Format format;
+  private final Format muxerInputFormat;
+  @Nullable private final ClipStartTranscoder clipStartTranscoder;
   private final AtomicLong nextMediaItemOffsetUs;
   private final Queue<DecoderInputBuffer> availableInputBuffers;
   private final Queue<DecoderInputBuffer> pendingInputBuffers;
+  private final DecoderInputBuffer muxerInputBuffer;
 
   private long mediaItemOffsetUs;
+  private boolean clipStartTranscoded;
+  @Nullable private ByteBuffer keyFrameWithParameterSetsData;
 
   private volatile boolean inputEnded;
 
+  /**
+   * Creates an instance.
+   *
+   * @param format The {@link Format} of the encoded samples.
+   * @param transformationRequest The {@link TransformationRequest}.
+   * @param muxerWrapper The {@link MuxerWrapper} to write the samples to.
+   * @param fallbackListener The {@link FallbackListener}.
+   * @param clipStartTranscoder The {@link ClipStartTranscoder} for the group of pictures containing
+   *     the clip start, or {@code null} if all the samples are copied. If set, the {@link
+   *     Format#initializationData} must contain the parameter sets of the copied H.264 or H.265
+   *     samples.
+   */
   public EncodedSamplePipeline(
       Format format,
       TransformationRequest transformationRequest,
       MuxerWrapper muxerWrapper,
-      FallbackListener fallbackListener) {
+      FallbackListener fallbackListener,
+      @Nullable ClipStartTranscoder clipStartTranscoder) {
     super(format, muxerWrapper);
     this.format = format;
+    this.clipStartTranscoder = clipStartTranscoder;
+    muxerInputFormat =
+        clipStartTranscoder == null
+            ? format
+            : format.buildUpon().setCodecs(getInBandParameterSetsCodecs(format)).build();
+    muxerInputBuffer = new DecoderInputBuffer(BUFFER_REPLACEMENT_MODE_DISABLED);
     nextMediaItemOffsetUs = new AtomicLong();
     availableInputBuffers = new ConcurrentLinkedDeque<>();
     ByteBuffer emptyBuffer = ByteBuffer.allocateDirect(0).order(ByteOrder.nativeOrder());
@@ -89,29 +126,145 @@ import java.util.concurrent.atomic.AtomicLong;
   }
 
   @Override
-  public void release() {}
+  public void release() {
+    if (clipStartTranscoder != null) {
+      clipStartTranscoder.release();
+    }
+  }
+
+  @Override
+  protected boolean processDataUpToMuxer() throws ExportException {
+    if (clipStartTranscoder == null || clipStartTranscoded) {
+      return false;
+    }
+    boolean fedClipStartTranscoder = feedClipStartTranscoder(clipStartTranscoder);
+    return clipStartTranscoder.processData() || fedClipStartTranscoder;
+  }
 
   @Override
   protected Format getMuxerInputFormat() {
-    return format;
+    return muxerInputFormat;
   }
 
   @Override
   @Nullable
-  protected DecoderInputBuffer getMuxerInputBuffer() {
-    return pendingInputBuffers.peek();
+  protected DecoderInputBuffer getMuxerInputBuffer() throws ExportException {
+    if (clipStartTranscoder != null && !clipStartTranscoded) {
+      if (!clipStartTranscoder.isEnded()) {
+        return getTranscodedMuxerInputBuffer(clipStartTranscoder);
+      }
+      clipStartTranscoder.release();
+      clipStartTranscoded = true;
+    }
+    @Nullable DecoderInputBuffer inputBuffer = pendingInputBuffers.peek();
+    if (inputBuffer == null || clipStartTranscoder == null || !inputBuffer.isKeyFrame()) {
+      return inputBuffer;
+    }
+    muxerInputBuffer.clear();
+    muxerInputBuffer.data =
+        prependParameterSets(format.initializationData, checkNotNull(inputBuffer.data));
+    muxerInputBuffer.timeUs = inputBuffer.timeUs;
+    muxerInputBuffer.setFlags(C.BUFFER_FLAG_KEY_FRAME);
+    return muxerInputBuffer;
   }
 
   @Override
-  protected void releaseMuxerInputBuffer() {
-    DecoderInputBuffer inputBuffer = pendingInputBuffers.remove();
+  protected void releaseMuxerInputBuffer() throws ExportException {
+    if (clipStartTranscoder != null && !clipStartTranscoded) {
+      clipStartTranscoder.releaseOutputBuffer();
+    } else {
+      releaseInputBuffer(pendingInputBuffers.remove());
+    }
+  }
+
+  @Override
+  protected boolean isMuxerInputEnded() {
+    return inputEnded
+        && pendingInputBuffers.isEmpty()
+        && (clipStartTranscoder == null || clipStartTranscoder.isEnded());
+  }
+
+  /**
+   * Attempts to pass the next sample of the group of pictures containing the clip start, or the end
+   * of that group, to the {@link ClipStartTranscoder}, and returns whether it was passed.
+   */
+  private boolean feedClipStartTranscoder(ClipStartTranscoder clipStartTranscoder)
+      throws ExportException {
+    if (clipStartTranscoder.isInputEnded()) {
+      return false;
+    }
+    // Read inputEnded before the queue, as it's set after the last sample is queued.
+    boolean inputEnded = this.inputEnded;
+    @Nullable DecoderInputBuffer inputBuffer = pendingInputBuffers.peek();
+    if (inputBuffer == null) {
+      return inputEnded && clipStartTranscoder.signalEndOfInput();
+    }
+    if (inputBuffer.isKeyFrame()
+        && (clipStartTranscoder.hasInput() || !inputBuffer.isDecodeOnly())) {
+      // The samples from this key frame onwards are copied.
+      return clipStartTranscoder.signalEndOfInput();
+    }
+    if (!clipStartTranscoder.queueInputBuffer(inputBuffer)) {
+      return false;
+    }
+    releaseInputBuffer(pendingInputBuffers.remove());
+    return true;
+  }
+
+  @Nullable
+  private DecoderInputBuffer getTranscodedMuxerInputBuffer(ClipStartTranscoder clipStartTranscoder)
+      throws ExportException {
+    @Nullable ByteBuffer data = clipStartTranscoder.getOutputBuffer();
+    if (data == null) {
+      return null;
+    }
+    BufferInfo bufferInfo = checkNotNull(clipStartTranscoder.getOutputBufferInfo());
+    muxerInputBuffer.clear();
+    muxerInputBuffer.setFlags(bufferInfo.flags);
+    muxerInputBuffer.timeUs = bufferInfo.presentationTimeUs;
+    muxerInputBuffer.data =
+        muxerInputBuffer.isKeyFrame()
+            ? prependParameterSets(
+                checkNotNull(clipStartTranscoder.getOutputFormat()).initializationData, data)
+            : data;
+    return muxerInputBuffer;
+  }
+
+  private ByteBuffer prependParameterSets(List<byte[]> parameterSets, ByteBuffer sampleData) {
+    int size = sampleData.remaining();
+    for (int i = 0; i < parameterSets.size(); i++) {
+      size += parameterSets.get(i).length;
+    }
+    @Nullable ByteBuffer data = keyFrameWithParameterSetsData;
+    if (data == null || data.capacity() < size) {
+      data = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+      keyFrameWithParameterSetsData = data;
+    }
+    data.clear();
+    // The parameter sets and the samples are both in Annex B format.
+    for (int i = 0; i < parameterSets.size(); i++) {
+      data.put(parameterSets.get(i));
+    }
+    data.put(sampleData.duplicate());
+    data.flip();
+    return data;
+  }
+
+  private void releaseInputBuffer(DecoderInputBuffer inputBuffer) {
     inputBuffer.clear();
     inputBuffer.timeUs = 0;
     availableInputBuffers.add(inputBuffer);
   }
 
-  @Override
-  protected boolean isMuxerInputEnded() {
-    return inputEnded && pendingInputBuffers.isEmpty();
+  /**
+   * Returns the {@link Format#codecs} of a track whose H.264 or H.265 parameter sets are in-band,
+   * keeping the profile and level of {@code format}.
+   */
+  private static String getInBandParameterSetsCodecs(Format format) {
+    String sampleEntryType = MimeTypes.VIDEO_H264.equals(format.sampleMimeType) ? "avc3" : "hev1";
+    // The codecs start with the sample entry type, for example "avc1.64001F".
+    return format.codecs != null && format.codecs.length() > 4
+        ? sampleEntryType + format.codecs.substring(4)
+        : sampleEntryType;
   }
 }
@@ -27,11 +27,6 @@ import java.nio.ByteBuffer;
 /** An {@link AudioMixingAlgorithm} which mixes into float samples. */
 /* package */ class FloatAudioMixingAlgorithm implements AudioMixingAlgorithm {
 
-  // Short.MIN_VALUE != -Short.MAX_VALUE so use different scaling factors for positive and
-  // negative samples.
-  private static final float SCALE_S16_FOR_NEGATIVE_INPUT = -1f / Short.MIN_VALUE;
-  private static final float SCALE_S16_FOR_POSITIVE_INPUT = 1f / Short.MAX_VALUE;
-
   private final AudioFormat mixingAudioFormat;
 
   public FloatAudioMixingAlgorithm(AudioFormat mixingAudioFormat) {
@@ -80,104 +75,15 @@ import java.nio.ByteBuffer;
 
     switch (sourceAudioFormat.encoding) {
       case C.ENCODING_PCM_FLOAT:
-        return mixFloatIntoFloat(sourceBuffer, channelMixingMatrix, frameCount, mixingBuffer);
+        channelMixingMatrix.getKernel().accumulateFloat(sourceBuffer, frameCount, mixingBuffer);
+        return mixingBuffer;
       case C.ENCODING_PCM_16BIT:
-        return mixS16IntoFloat(sourceBuffer, channelMixingMatrix, frameCount, mixingBuffer);
+        channelMixingMatrix
+            .getKernel()
+            .accumulateInt16AsFloat(sourceBuffer, frameCount, mixingBuffer);
+        return mixingBuffer;
       default:
         throw new IllegalArgumentException("Source encoding is not supported.");
     }
   }
-
-  private static ByteBuffer mixFloatIntoFloat(
-      ByteBuffer sourceBuffer,
-      ChannelMixingMatrix channelMixingMatrix,
-      int frameCount,
-      ByteBuffer mixingBuffer) {
-    if (channelMixingMatrix.isDiagonal()) {
-      return mixFloatIntoFloatDiagonal(sourceBuffer, channelMixingMatrix, frameCount, mixingBuffer);
-    }
-    int sourceChannelCount = channelMixingMatrix.getInputChannelCount();
-    float[] sourceFrame = new float[sourceChannelCount];
-    for (int i = 0; i < frameCount; i++) {
-      for (int sourceChannel = 0; sourceChannel < sourceChannelCount; sourceChannel++) {
-        sourceFrame[sourceChannel] = sourceBuffer.getFloat();
-      }
-      mixFloatFrameIntoFloat(sourceFrame, channelMixingMatrix, mixingBuffer);
-    }
-    return mixingBuffer;
-  }
-
-  private static void mixFloatFrameIntoFloat(
-      float[] sourceFrame, ChannelMixingMatrix channelMixingMatrix, ByteBuffer mixingBuffer) {
-    int mixingChannelCount = channelMixingMatrix.getOutputChannelCount();
-    for (int mixingChannel = 0; mixingChannel < mixingChannelCount; mixingChannel++) {
-      float mixedSample = mixingBuffer.getFloat(mixingBuffer.position());
-      for (int sourceChannel = 0; sourceChannel < sourceFrame.length; sourceChannel++) {
-        mixedSample +=
-            channelMixingMatrix.getMixingCoefficient(sourceChannel, mixingChannel)
-                * sourceFrame[sourceChannel];
-      }
-      mixingBuffer.putFloat(mixedSample);
-    }
-  }
-
-  private static ByteBuffer mixFloatIntoFloatDiagonal(
-      ByteBuffer sourceBuffer,
-      ChannelMixingMatrix channelMixingMatrix,
-      int frameCount,
-      ByteBuffer mixingBuffer) {
-    int channelCount = channelMixingMatrix.getInputChannelCount();
-    for (int i = 0; i < frameCount; i++) {
-      for (int c = 0; c < channelCount; c++) {
-        float sourceSample = sourceBuffer.getFloat();
-        float mixedSample =
-            mixingBuffer.getFloat(mixingBuffer.position())
-                + channelMixingMatrix.getMixingCoefficient(c, c) * sourceSample;
-        mixingBuffer.putFloat(mixedSample);
-      }
-    }
-    return mixingBuffer;
-  }
-
-  private static ByteBuffer mixS16IntoFloat(
-      ByteBuffer sourceBuffer,
-      ChannelMixingMatrix channelMixingMatrix,
-      int frameCount,
-      ByteBuffer mixingBuffer) {
-    if (channelMixingMatrix.isDiagonal()) {
-      return mixS16IntoFloatDiagonal(sourceBuffer, channelMixingMatrix, frameCount, mixingBuffer);
-    }
-    int sourceChannelCount = channelMixingMatrix.getInputChannelCount();
-    float[] sourceFrame = new float[sourceChannelCount];
-    for (int i = 0; i < frameCount; i++) {
-      for (int sourceChannel = 0; sourceChannel < sourceChannelCount; sourceChannel++) {
-        sourceFrame[sourceChannel] = s16ToFloat(sourceBuffer.getShort());
-      }
-      mixFloatFrameIntoFloat(sourceFrame, channelMixingMatrix, mixingBuffer);
-    }
-    return mixingBuffer;
-  }
-
-  private static ByteBuffer mixS16IntoFloatDiagonal(
-      ByteBuffer sourceBuffer,
-      ChannelMixingMatrix channelMixingMatrix,
-      int frameCount,
-      ByteBuffer mixingBuffer) {
-    int channelCount = channelMixingMatrix.getInputChannelCount();
-    for (int i = 0; i < frameCount; i++) {
-      for (int c = 0; c < channelCount; c++) {
-        float sourceSample = s16ToFloat(sourceBuffer.getShort());
-        float mixedSample =
-            mixingBuffer.getFloat(mixingBuffer.position())
-                + channelMixingMatrix.getMixingCoefficient(c, c) * sourceSample;
-        mixingBuffer.putFloat(mixedSample);
-      }
-    }
-    return mixingBuffer;
-  }
-
-  private static float s16ToFloat(short shortValue) {
-    return shortValue
-        * (shortValue < 0 ? SCALE_S16_FOR_NEGATIVE_INPUT : SCALE_S16_FOR_POSITIVE_INPUT);
-  }
 }
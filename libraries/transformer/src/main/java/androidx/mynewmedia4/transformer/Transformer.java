@@ -93,6 +93,8 @@ public final class Transformer {
     private Muxer.Factory muxerFactory;
     private Looper looper;
     private DebugViewProvider debugViewProvider;
+    private boolean enableParallelSamplePipelines;
+    private boolean enableSmartCut;
     private Clock clock;
 
     /**
@@ -129,6 +131,8 @@ public final class Transformer {
       this.muxerFactory = transformer.muxerFactory;
       this.looper = transformer.looper;
       this.debugViewProvider = transformer.debugViewProvider;
+      this.enableParallelSamplePipelines = transformer.enableParallelSamplePipelines;
+      this.enableSmartCut = transformer.enableSmartCut;
       this.clock = transformer.clock;
     }
 
@@ -351,6 +355,59 @@ public final class Transformer {
       return this;
     }
 
+    /**
+     * Sets whether each sample pipeline, for example the audio and the video pipeline, is run on
+     * its own thread.
+     *
+     * <p>By default, a single thread processes the output of all the pipelines in turn, so that
+     * audio processing and encoding can delay feeding and draining the video encoder and vice
+     * versa. If enabled, the pipelines process their data concurrently and only synchronize to
+     * write samples to the {@link Muxer}, which reduces the export time on multicore devices when
+     * both audio and video are transcoded.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     *
+     * @param enableParallelSamplePipelines Whether to run each sample pipeline on its own thread.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder experimentalSetParallelSamplePipelinesEnabled(
+        boolean enableParallelSamplePipelines) {
+      this.enableParallelSamplePipelines = enableParallelSamplePipelines;
+      return this;
+    }
+
+    /**
+     * Sets whether a video clipped at a position that is not a key frame has only the group of
+     * pictures containing the clip start transcoded.
+     *
+     * <p>By default, a {@link MediaItem.ClippingConfiguration} whose start position is not a key
+     * frame, and that isn't set to {@linkplain MediaItem.ClippingConfiguration#startsAtKeyFrame
+     * start at a key frame}, makes the whole video transcoded. If enabled, the frames from the clip
+     * start to the next key frame are decoded and re-encoded with the input format, and the
+     * following samples are copied. This only applies to H.264 and H.265 videos that would
+     * otherwise be copied, from API 29.
+     *
+     * <p>The re-encoded and copied samples have different parameter sets, so these are written
+     * before each key frame, in an {@code avc3} or {@code hev1} track. This requires the {@link
+     * InAppMuxer}.
+     *
+     * <p>The default value is {@code false}.
+     *
+     * <p>This method is experimental, and will be renamed or removed in a future release.
+     *
+     * @param enableSmartCut Whether to only transcode the group of pictures containing the clip
+     *     start.
+     * @return This builder.
+     */
+    @CanIgnoreReturnValue
+    public Builder experimentalSetSmartCutEnabled(boolean enableSmartCut) {
+      this.enableSmartCut = enableSmartCut;
+      return this;
+    }
+
     /**
      * Sets the {@link Clock} that will be used by the transformer.
      *
@@ -374,6 +431,8 @@ public final class Transformer {
      *     would not contain any samples).
      * @throws IllegalStateException If the muxer doesn't support the requested audio/video MIME
      *     type.
+     * @throws IllegalStateException If {@linkplain #experimentalSetSmartCutEnabled(boolean) smart
+     *     cut} is enabled and the muxer isn't an {@link InAppMuxer}.
      */
     public Transformer build() {
       if (transformationRequest.audioMimeType != null) {
@@ -382,6 +441,9 @@ public final class Transformer {
       if (transformationRequest.videoMimeType != null) {
         checkSampleMimeType(transformationRequest.videoMimeType);
       }
+      checkState(
+          !enableSmartCut || muxerFactory instanceof InAppMuxer.Factory,
+          "Smart cut requires the InAppMuxer.");
       if (assetLoaderFactory == null) {
         assetLoaderFactory =
             new DefaultAssetLoaderFactory(
@@ -406,6 +468,8 @@ public final class Transformer {
           muxerFactory,
           looper,
           debugViewProvider,
+          enableParallelSamplePipelines,
+          enableSmartCut,
           clock);
     }
 
@@ -570,6 +634,8 @@ public final class Transformer {
   private final Muxer.Factory muxerFactory;
   private final Looper looper;
   private final DebugViewProvider debugViewProvider;
+  private final boolean enableParallelSamplePipelines;
+  private final boolean enableSmartCut;
   private final Clock clock;
 
   @Nullable private TransformerInternal transformerInternal;
@@ -589,6 +655,8 @@ public final class Transformer {
       Muxer.Factory muxerFactory,
       Looper looper,
       DebugViewProvider debugViewProvider,
+      boolean enableParallelSamplePipelines,
+      boolean enableSmartCut,
       Clock clock) {
     checkState(!removeAudio || !removeVideo, "Audio and video cannot both be removed.");
     this.context = context;
@@ -605,6 +673,8 @@ public final class Transformer {
     this.muxerFactory = muxerFactory;
     this.looper = looper;
     this.debugViewProvider = debugViewProvider;
+    this.enableParallelSamplePipelines = enableParallelSamplePipelines;
+    this.enableSmartCut = enableSmartCut;
     this.clock = clock;
   }
 
@@ -732,6 +802,8 @@ public final class Transformer {
             fallbackListener,
             applicationHandler,
             debugViewProvider,
+            enableParallelSamplePipelines,
+            enableSmartCut,
             clock);
     transformerInternal.start();
   }
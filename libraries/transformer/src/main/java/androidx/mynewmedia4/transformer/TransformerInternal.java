@@ -16,6 +16,7 @@
 
 package androidx.mynewmedia4.transformer;
 
+import static androidx.mynewmedia4.common.ColorInfo.isTransferHdr;
 import static androidx.mynewmedia4.common.util.Assertions.checkArgument;
 import static androidx.mynewmedia4.common.util.Assertions.checkState;
 import static androidx.mynewmedia4.common.util.Assertions.checkStateNotNull;
@@ -42,11 +43,13 @@ import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.DebugViewProvider;
 import androidx.mynewmedia4.common.Effect;
 import androidx.mynewmedia4.common.Format;
+import androidx.mynewmedia4.common.MediaItem;
 import androidx.mynewmedia4.common.MimeTypes;
 import androidx.mynewmedia4.common.VideoFrameProcessor;
 import androidx.mynewmedia4.common.util.Clock;
 import androidx.mynewmedia4.common.util.ConditionVariable;
 import androidx.mynewmedia4.common.util.HandlerWrapper;
+import androidx.mynewmedia4.common.util.Util;
 import androidx.mynewmedia4.effect.Presentation;
 import androidx.mynewmedia4.effect.ScaleAndRotateTransformation;
 import com.google.common.collect.ImmutableList;
@@ -103,6 +106,8 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   private final CapturingEncoderFactory encoderFactory;
   private final Listener listener;
   private final HandlerWrapper applicationHandler;
+  private final boolean enableParallelSamplePipelines;
+  private final boolean enableSmartCut;
   private final Clock clock;
   private final HandlerThread internalHandlerThread;
   private final HandlerWrapper internalHandler;
@@ -112,6 +117,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   private final AtomicBoolean outputHasAudio;
   private final AtomicBoolean outputHasVideo;
   private final List<SamplePipeline> samplePipelines;
+  private final List<SamplePipelineThread> samplePipelineThreads;
   private final Object setMaxSequenceDurationUsLock;
   private final MuxerWrapper muxerWrapper;
   private final ConditionVariable transformerConditionVariable;
@@ -140,12 +146,16 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       FallbackListener fallbackListener,
       HandlerWrapper applicationHandler,
       DebugViewProvider debugViewProvider,
+      boolean enableParallelSamplePipelines,
+      boolean enableSmartCut,
       Clock clock) {
     this.context = context;
     this.composition = composition;
     this.encoderFactory = new CapturingEncoderFactory(encoderFactory);
     this.listener = listener;
     this.applicationHandler = applicationHandler;
+    this.enableParallelSamplePipelines = enableParallelSamplePipelines;
+    this.enableSmartCut = enableSmartCut;
     this.clock = clock;
     internalHandlerThread = new HandlerThread("Transformer:Internal");
     internalHandlerThread.start();
@@ -182,6 +192,7 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     outputHasAudio = new AtomicBoolean();
     outputHasVideo = new AtomicBoolean();
     samplePipelines = new ArrayList<>();
+    samplePipelineThreads = new ArrayList<>();
     setMaxSequenceDurationUsLock = new Object();
     transformerConditionVariable = new ConditionVariable();
     exportResultBuilder = new ExportResult.Builder();
@@ -231,6 +242,32 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   @Override
   public void onTrackEnded(
       @C.TrackType int trackType, Format format, int averageBitrate, int sampleCount) {
+    // The muxer is written from the sample pipeline threads if parallel sample pipelines are
+    // enabled, so only access the export result on the internal thread.
+    internalHandler.post(
+        () -> onTrackEndedInternal(trackType, format, averageBitrate, sampleCount));
+  }
+
+  @Override
+  public void onEnded(long durationMs, long fileSizeBytes) {
+    internalHandler.post(
+        () -> exportResultBuilder.setDurationMs(durationMs).setFileSizeBytes(fileSizeBytes));
+    internalHandler
+        .obtainMessage(MSG_END, END_REASON_COMPLETED, /* unused */ 0, /* exportException */ null)
+        .sendToTarget();
+  }
+
+  @Override
+  public void onError(ExportException exportException) {
+    internalHandler
+        .obtainMessage(MSG_END, END_REASON_ERROR, /* unused */ 0, exportException)
+        .sendToTarget();
+  }
+
+  // Private methods.
+
+  private void onTrackEndedInternal(
+      @C.TrackType int trackType, Format format, int averageBitrate, int sampleCount) {
     if (trackType == C.TRACK_TYPE_AUDIO) {
       exportResultBuilder.setAverageAudioBitrate(averageBitrate);
       if (format.channelCount != Format.NO_VALUE) {
@@ -253,24 +290,6 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     }
   }
 
-  @Override
-  public void onEnded(long durationMs, long fileSizeBytes) {
-    exportResultBuilder.setDurationMs(durationMs).setFileSizeBytes(fileSizeBytes);
-
-    internalHandler
-        .obtainMessage(MSG_END, END_REASON_COMPLETED, /* unused */ 0, /* exportException */ null)
-        .sendToTarget();
-  }
-
-  @Override
-  public void onError(ExportException exportException) {
-    internalHandler
-        .obtainMessage(MSG_END, END_REASON_ERROR, /* unused */ 0, exportException)
-        .sendToTarget();
-  }
-
-  // Private methods.
-
   private boolean handleMessage(Message msg) {
     // Some messages cannot be ignored when resources have been released. End messages must be
     // handled to report release timeouts and to unblock the transformer condition variable in case
@@ -315,7 +334,11 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
   private void registerSamplePipelineInternal(SamplePipeline samplePipeline) {
     samplePipelines.add(samplePipeline);
-    if (!isDrainingPipelines) {
+    if (enableParallelSamplePipelines) {
+      SamplePipelineThread samplePipelineThread = new SamplePipelineThread(samplePipeline);
+      samplePipelineThreads.add(samplePipelineThread);
+      samplePipelineThread.start();
+    } else if (!isDrainingPipelines) {
       internalHandler.sendEmptyMessage(MSG_DRAIN_PIPELINES);
       isDrainingPipelines = true;
     }
@@ -332,6 +355,13 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
   }
 
   private void endInternal(@EndReason int endReason, @Nullable ExportException exportException) {
+    if (!released) {
+      // Stop the sample pipeline threads before building the export result, and before releasing
+      // the pipelines they drain.
+      for (int i = 0; i < samplePipelineThreads.size(); i++) {
+        samplePipelineThreads.get(i).release();
+      }
+    }
     ImmutableList.Builder<ExportResult.ProcessedInput> processedInputsBuilder =
         new ImmutableList.Builder<>();
     for (int i = 0; i < sequenceAssetLoaders.size(); i++) {
@@ -409,15 +439,14 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
         return;
       }
       ExportException finalException = exception;
-      applicationHandler.post(
-          () ->
-              listener.onError(
-                  exportResultBuilder.setExportException(finalException).build(), finalException));
+      ExportResult exportResult = exportResultBuilder.setExportException(finalException).build();
+      applicationHandler.post(() -> listener.onError(exportResult, finalException));
     } else {
       if (releasedPreviously) {
         return;
       }
-      applicationHandler.post(() -> listener.onCompleted(exportResultBuilder.build()));
+      ExportResult exportResult = exportResultBuilder.build();
+      applicationHandler.post(() -> listener.onCompleted(exportResult));
     }
   }
 
@@ -442,6 +471,12 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
     transformerConditionVariable.open();
   }
 
+  private static boolean isClippedAtNonKeyFrame(EditedMediaItem editedMediaItem) {
+    MediaItem.ClippingConfiguration clippingConfiguration =
+        editedMediaItem.mediaItem.clippingConfiguration;
+    return clippingConfiguration.startPositionMs > 0 && !clippingConfiguration.startsAtKeyFrame;
+  }
+
   private final class SequenceAssetLoaderListener implements AssetLoader.Listener {
 
     private final int sequenceIndex;
@@ -582,7 +617,14 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       }
 
       return new EncodedSamplePipeline(
-          firstAssetLoaderOutputFormat, transformationRequest, muxerWrapper, fallbackListener);
+          firstAssetLoaderOutputFormat,
+          transformationRequest,
+          muxerWrapper,
+          fallbackListener,
+          addedTrackInfo.shouldTranscodeClipStartOnly
+              ? new ClipStartTranscoder(
+                  firstAssetLoaderOutputFormat, new DefaultDecoderFactory(context), encoderFactory)
+              : null);
     }
 
     /**
@@ -629,11 +671,26 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       public final Format firstAssetLoaderInputFormat;
       public final boolean shouldTranscode;
 
+      /**
+       * Whether only the group of pictures containing the clip start is transcoded, the other
+       * samples being copied.
+       */
+      public final boolean shouldTranscodeClipStartOnly;
+
       public AddedTrackInfo(
           Format firstAssetLoaderInputFormat,
           @AssetLoader.SupportedOutputTypes int supportedOutputTypes) {
         this.firstAssetLoaderInputFormat = firstAssetLoaderInputFormat;
         shouldTranscode = shouldTranscode(firstAssetLoaderInputFormat, supportedOutputTypes);
+        // If the video is clipped at a non-key frame and isn't transcoded, shouldTranscodeVideo()
+        // has checked that the clip start can be transcoded on its own.
+        shouldTranscodeClipStartOnly =
+            !shouldTranscode
+                && getProcessedTrackType(firstAssetLoaderInputFormat.sampleMimeType)
+                    == C.TRACK_TYPE_VIDEO
+                && composition.sequences.size() == 1
+                && editedMediaItems.size() == 1
+                && isClippedAtNonKeyFrame(editedMediaItems.get(0));
       }
 
       private boolean shouldTranscode(
@@ -690,8 +747,10 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
           return !composition.transmuxVideo;
         }
         EditedMediaItem firstEditedMediaItem = editedMediaItems.get(0);
-        if (firstEditedMediaItem.mediaItem.clippingConfiguration.startPositionMs > 0
-            && !firstEditedMediaItem.mediaItem.clippingConfiguration.startsAtKeyFrame) {
+        // The end position doesn't need transcoding because the samples after it are dropped before
+        // decoding.
+        if (isClippedAtNonKeyFrame(firstEditedMediaItem)
+            && !canTranscodeClipStartOnly(firstEditedMediaItem, inputFormat)) {
           return true;
         }
         if (encoderFactory.videoNeedsEncoding()) {
@@ -717,6 +776,33 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
             && !hasOnlyRegularRotationEffect(videoEffects);
       }
 
+      /**
+       * Returns whether the group of pictures containing the clip start can be transcoded while the
+       * following samples are copied.
+       */
+      private boolean canTranscodeClipStartOnly(
+          EditedMediaItem editedMediaItem, Format inputFormat) {
+        if (!enableSmartCut || editedMediaItem.flattenForSlowMotion) {
+          return false;
+        }
+        // The parameter sets are written in-band, before each key frame, so that the re-encoded
+        // and copied samples can share the track.
+        if (!MimeTypes.VIDEO_H264.equals(inputFormat.sampleMimeType)
+            && !MimeTypes.VIDEO_H265.equals(inputFormat.sampleMimeType)) {
+          return false;
+        }
+        if (inputFormat.initializationData.isEmpty() || isTransferHdr(inputFormat.colorInfo)) {
+          return false;
+        }
+        // The encoder input has the stored frame size, and encoders require landscape frames.
+        if (inputFormat.width == Format.NO_VALUE || inputFormat.width < inputFormat.height) {
+          return false;
+        }
+        // The decoder renders directly to the encoder input surface, which doesn't signal when it
+        // has consumed a frame, so the decoder must not drop frames when that surface is full.
+        return Util.SDK_INT >= 29 && context.getApplicationInfo().targetSdkVersion >= 29;
+      }
+
       private boolean hasOnlyRegularRotationEffect(ImmutableList<Effect> videoEffects) {
         if (videoEffects.size() != 1) {
           return false;
@@ -742,4 +828,57 @@ import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
       }
     }
   }
+
+  /** Drains a {@link SamplePipeline} on a dedicated thread. */
+  private final class SamplePipelineThread {
+
+    private final SamplePipeline samplePipeline;
+    private final HandlerThread handlerThread;
+    private final HandlerWrapper handler;
+
+    public SamplePipelineThread(SamplePipeline samplePipeline) {
+      this.samplePipeline = samplePipeline;
+      handlerThread = new HandlerThread("Transformer:SamplePipeline");
+      handlerThread.start();
+      // It's safe to use "this" because we don't send a message before exiting the constructor.
+      @SuppressWarnings("nullness:methodref.receiver.bound")
+      HandlerWrapper handler =
+          clock.createHandler(handlerThread.getLooper(), /* callback= */ this::handleMessage);
+      this.handler = handler;
+    }
+
+    public void start() {
+      handler.sendEmptyMessage(MSG_DRAIN_PIPELINES);
+    }
+
+    /** Stops draining the pipeline and blocks until the thread has quit. */
+    public void release() {
+      handler.removeCallbacksAndMessages(/* token= */ null);
+      handlerThread.quit();
+      try {
+        handlerThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private boolean handleMessage(Message msg) {
+      if (msg.what != MSG_DRAIN_PIPELINES) {
+        return false;
+      }
+      try {
+        while (samplePipeline.processData()) {}
+      } catch (ExportException e) {
+        onError(e);
+        return true;
+      } catch (RuntimeException e) {
+        onError(ExportException.createForUnexpected(e));
+        return true;
+      }
+      if (!muxerWrapper.isEnded()) {
+        handler.sendEmptyMessageDelayed(MSG_DRAIN_PIPELINES, DRAIN_PIPELINES_DELAY_MS);
+      }
+      return true;
+    }
+  }
 }
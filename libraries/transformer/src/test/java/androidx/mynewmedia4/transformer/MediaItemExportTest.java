@@ -184,6 +184,41 @@ public final class MediaItemExportTest {
         context, checkNotNull(testMuxerHolder.testMuxer), getDumpFileName(FILE_AUDIO_VIDEO));
   }
 
+  @Test
+  public void start_audioAndVideoWithParallelSamplePipelines_producesExpectedResult()
+      throws Exception {
+    Transformer transformer =
+        createTransformerBuilder(testMuxerHolder, /* enableFallback= */ false).build();
+    MediaItem mediaItem = MediaItem.fromUri(ASSET_URI_PREFIX + FILE_AUDIO_VIDEO);
+    transformer.start(mediaItem, outputPath);
+    ExportResult expectedExportResult = TransformerTestRunner.runLooper(transformer);
+    TestMuxer expectedTestMuxer = checkNotNull(testMuxerHolder.testMuxer);
+    Transformer parallelTransformer =
+        transformer.buildUpon().experimentalSetParallelSamplePipelinesEnabled(true).build();
+
+    parallelTransformer.start(mediaItem, outputPath);
+    ExportResult exportResult = TransformerTestRunner.runLooper(parallelTransformer);
+
+    // We can't compare the muxer output against a dump file because the audio and video samples
+    // are written from different threads, which makes their interleaving non-deterministic. The
+    // samples of each track must still be written in the same order.
+    TestMuxer testMuxer = checkNotNull(testMuxerHolder.testMuxer);
+    assertThat(testMuxer).isNotSameInstanceAs(expectedTestMuxer);
+    assertThat(testMuxer.getSamplePresentationTimesUs(C.TRACK_TYPE_AUDIO))
+        .containsExactlyElementsIn(
+            expectedTestMuxer.getSamplePresentationTimesUs(C.TRACK_TYPE_AUDIO))
+        .inOrder();
+    assertThat(testMuxer.getSamplePresentationTimesUs(C.TRACK_TYPE_VIDEO))
+        .containsExactlyElementsIn(
+            expectedTestMuxer.getSamplePresentationTimesUs(C.TRACK_TYPE_VIDEO))
+        .inOrder();
+    assertThat(testMuxer.getSamplePresentationTimesUs(C.TRACK_TYPE_AUDIO)).isNotEmpty();
+    assertThat(testMuxer.getSamplePresentationTimesUs(C.TRACK_TYPE_VIDEO)).isNotEmpty();
+    assertThat(exportResult.channelCount).isEqualTo(expectedExportResult.channelCount);
+    assertThat(exportResult.videoFrameCount).isEqualTo(expectedExportResult.videoFrameCount);
+    assertThat(exportResult.durationMs).isEqualTo(expectedExportResult.durationMs);
+  }
+
   @Test
   public void start_audioAndVideo_withClippingStartAtKeyFrame_completesSuccessfully()
       throws Exception {
@@ -15,15 +15,20 @@
  */
 package androidx.mynewmedia4.transformer;
 
+import androidx.annotation.Nullable;
 import androidx.mynewmedia4.common.C;
 import androidx.mynewmedia4.common.Format;
 import androidx.mynewmedia4.common.Metadata;
+import androidx.mynewmedia4.common.MimeTypes;
 import androidx.mynewmedia4.test.utils.DumpableFormat;
 import androidx.mynewmedia4.test.utils.Dumper;
+import com.google.common.collect.ImmutableList;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An implementation of {@link Muxer} that supports dumping information about all interactions (for
@@ -34,43 +39,66 @@ public final class TestMuxer implements Muxer, Dumper.Dumpable {
 
   private final Muxer muxer;
   private final List<Dumper.Dumpable> dumpables;
+  private final Map<Integer, Format> trackIndexToFormat;
+  private final List<DumpableSample> samples;
 
   /** Creates a new test muxer. */
   public TestMuxer(String path, Muxer.Factory muxerFactory) throws MuxerException {
     muxer = muxerFactory.create(path);
     dumpables = new ArrayList<>();
+    trackIndexToFormat = new HashMap<>();
+    samples = new ArrayList<>();
+  }
+
+  /**
+   * Returns the presentation timestamps of the samples written to the track of the given {@link
+   * C.TrackType}, in the order they were written.
+   */
+  public synchronized ImmutableList<Long> getSamplePresentationTimesUs(@C.TrackType int trackType) {
+    ImmutableList.Builder<Long> presentationTimesUs = new ImmutableList.Builder<>();
+    for (int i = 0; i < samples.size(); i++) {
+      DumpableSample sample = samples.get(i);
+      @Nullable Format format = trackIndexToFormat.get(sample.trackIndex);
+      if (format != null && MimeTypes.getTrackType(format.sampleMimeType) == trackType) {
+        presentationTimesUs.add(sample.presentationTimeUs);
+      }
+    }
+    return presentationTimesUs.build();
   }
 
   // Muxer implementation.
 
   @Override
-  public int addTrack(Format format) throws MuxerException {
+  public synchronized int addTrack(Format format) throws MuxerException {
     int trackIndex = muxer.addTrack(format);
     dumpables.add(new DumpableFormat(format, trackIndex));
+    trackIndexToFormat.put(trackIndex, format);
     return trackIndex;
   }
 
   @Override
-  public void writeSampleData(
+  public synchronized void writeSampleData(
       int trackIndex, ByteBuffer data, long presentationTimeUs, @C.BufferFlags int flags)
       throws MuxerException {
-    dumpables.add(
+    DumpableSample sample =
         new DumpableSample(
             trackIndex,
             data,
             (flags & C.BUFFER_FLAG_KEY_FRAME) == C.BUFFER_FLAG_KEY_FRAME,
-            presentationTimeUs));
+            presentationTimeUs);
+    dumpables.add(sample);
+    samples.add(sample);
     muxer.writeSampleData(trackIndex, data, presentationTimeUs, flags);
   }
 
   @Override
-  public void addMetadata(Metadata metadata) {
+  public synchronized void addMetadata(Metadata metadata) {
     dumpables.add(dumper -> dumper.add("container metadata", metadata));
     muxer.addMetadata(metadata);
   }
 
   @Override
-  public void release(boolean forCancellation) throws MuxerException {
+  public synchronized void release(boolean forCancellation) throws MuxerException {
     dumpables.add(dumper -> dumper.add("released", true));
     muxer.release(forCancellation);
   }
@@ -83,7 +111,7 @@ public final class TestMuxer implements Muxer, Dumper.Dumpable {
   // Dumper.Dumpable implementation.
 
   @Override
-  public void dump(Dumper dumper) {
+  public synchronized void dump(Dumper dumper) {
     for (Dumper.Dumpable dumpable : dumpables) {
       dumpable.dump(dumper);
     }
@@ -111,7 +139,7 @@ public final class TestMuxer implements Muxer, Dumper.Dumpable {
     }
 
     @Override
-    public void dump(Dumper dumper) {
+    public synchronized void dump(Dumper dumper) {
       dumper
           .startBlock("sample")
           .add("trackIndex", trackIndex)
@@ -56,4 +56,23 @@ public class TransformerBuilderTest {
                 .setTransformationRequest(transformationRequest)
                 .build());
   }
+
+  @Test
+  public void build_withSmartCutAndDefaultMuxer_throws() {
+    Context context = ApplicationProvider.getApplicationContext();
+
+    assertThrows(
+        IllegalStateException.class,
+        () -> new Transformer.Builder(context).experimentalSetSmartCutEnabled(true).build());
+  }
+
+  @Test
+  public void build_withSmartCutAndInAppMuxer_doesNotThrow() {
+    Context context = ApplicationProvider.getApplicationContext();
+
+    new Transformer.Builder(context)
+        .setMuxerFactory(new InAppMuxer.Factory())
+        .experimentalSetSmartCutEnabled(true)
+        .build();
+  }
 }